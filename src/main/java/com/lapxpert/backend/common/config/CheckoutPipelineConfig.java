@@ -0,0 +1,30 @@
+package com.lapxpert.backend.common.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * Executor for the read-only stages of cart checkout (pricing, vouchers, shipping quote, inventory).
+ * Stages are mostly blocked on the database or the GHN API, so each runs on a virtual thread;
+ * the concurrency limit bounds how many stages can hit the connection pool at once.
+ */
+@Configuration
+@Slf4j
+public class CheckoutPipelineConfig {
+
+    @Value("${cart.checkout.max-concurrency:64}")
+    private int maxConcurrency;
+
+    @Bean(name = "checkoutPipelineExecutor")
+    public SimpleAsyncTaskExecutor checkoutPipelineExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("checkout-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(maxConcurrency);
+
+        log.info("Checkout pipeline executor configured with virtual threads, concurrency limit {}", maxConcurrency);
+        return executor;
+    }
+}
@@ -50,9 +50,10 @@ public class DatabaseConfig implements ApplicationRunner {
     /**
      * Log HikariCP configuration for monitoring purposes
      */
-    private void logHikariConfiguration() {
-        if (dataSource instanceof HikariDataSource) {
-            HikariDataSource hikariDS = (HikariDataSource) dataSource;
+    private void logHikariConfiguration() throws SQLException {
+        // With replica routing the pool sits behind a proxy; outside a transaction it resolves to the primary
+        if (dataSource.isWrapperFor(HikariDataSource.class)) {
+            HikariDataSource hikariDS = dataSource.unwrap(HikariDataSource.class);
             log.info("HikariCP Configuration:");
             log.info("  Maximum Pool Size: {}", hikariDS.getMaximumPoolSize());
             log.info("  Minimum Idle: {}", hikariDS.getMinimumIdle());
@@ -0,0 +1,39 @@
+package com.lapxpert.backend.common.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Thread pool for delivering queued emails from the email_outbox table.
+ * Each worker sends one claimed batch over a single SMTP connection,
+ * so the pool size also bounds the number of concurrent SMTP connections.
+ */
+@Configuration
+@Slf4j
+public class EmailOutboxConfig {
+
+    @Value("${email.outbox.worker-pool-size:2}")
+    private int workerPoolSize;
+
+    @Bean(name = "emailDispatchExecutor")
+    public ThreadPoolTaskExecutor emailDispatchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workerPoolSize);
+        executor.setMaxPoolSize(workerPoolSize);
+        // No queueing: the poller only claims a batch when a worker is free
+        executor.setQueueCapacity(0);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setThreadNamePrefix("email-dispatch-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+
+        log.info("Email dispatch executor configured with {} workers", workerPoolSize);
+        return executor;
+    }
+}
@@ -0,0 +1,26 @@
+package com.lapxpert.backend.common.config;
+
+import com.lapxpert.backend.common.monitoring.QueryBudgetSessionListener;
+import com.lapxpert.backend.common.monitoring.QueryBudgetStatementInspector;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Hooks the query budget instrumentation into Hibernate: the statement inspector sees every
+ * prepared statement and the session listener times every JDBC execution.
+ */
+@Configuration
+@ConditionalOnProperty(name = "query-budget.enabled", havingValue = "true", matchIfMissing = true)
+public class QueryBudgetConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer queryBudgetHibernateCustomizer() {
+        return properties -> {
+            properties.put(AvailableSettings.STATEMENT_INSPECTOR, new QueryBudgetStatementInspector());
+            properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, QueryBudgetSessionListener.class.getName());
+        };
+    }
+}
@@ -0,0 +1,88 @@
+package com.lapxpert.backend.common.config;
+
+import com.lapxpert.backend.common.datasource.ReplicaLagMonitor;
+import com.lapxpert.backend.common.datasource.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+
+/**
+ * Primary and read replica pools behind one routing DataSource, enabled with
+ * datasource.replica.enabled=true. Without it Spring Boot configures the single primary pool.
+ *
+ * The primary pool keeps the spring.datasource settings. The replica pool has its own Hikari
+ * settings under datasource.replica.hikari and hands out read-only connections, so a write that
+ * is routed there by mistake fails instead of diverging. datasource.replica.url defaults to the
+ * primary URL, which gives two pools on one instance for local testing.
+ *
+ * Spring Data repositories are read-only transactional by default, so a repository read made
+ * outside any transaction is routed to the replica as well. Reads that must see the latest
+ * writes belong in a read-write transaction or under {@link com.lapxpert.backend.common.datasource.ReadFromPrimary}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.enabled", havingValue = "true")
+@Slf4j
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${datasource.replica.url:}") String url,
+                                              @Value("${datasource.replica.username:}") String username,
+                                              @Value("${datasource.replica.password:}") String password) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        if (StringUtils.hasText(url)) {
+            dataSource.setJdbcUrl(url);
+        }
+        if (StringUtils.hasText(username)) {
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+        }
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("replicaDataSource") HikariDataSource replica,
+                                               @Value("${datasource.replica.max-lag-ms:5000}") long maxLagMs,
+                                               @Value("${datasource.replica.lag-check-timeout-seconds:2}") int timeoutSeconds,
+                                               MeterRegistry meterRegistry) {
+        return new ReplicaLagMonitor(replica, maxLagMs, timeoutSeconds, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primary,
+                                 @Qualifier("replicaDataSource") HikariDataSource replica,
+                                 ReplicaLagMonitor replicaLagMonitor,
+                                 MeterRegistry meterRegistry) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary, replica, replicaLagMonitor, meterRegistry);
+        routing.afterPropertiesSet();
+
+        log.info("Read replica routing enabled: primary pool {} / replica pool {} connections",
+                primary.getMaximumPoolSize(), replica.getMaximumPoolSize());
+        // Connections are fetched at the first statement, when the transaction's read-only flag is known
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
@@ -0,0 +1,21 @@
+package com.lapxpert.backend.common.datasource;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Forces read-only transactions started inside the annotated method (or every method of the
+ * annotated class) onto the primary database.
+ *
+ * Use it for reads whose result feeds a write or must see the caller's own last write, such as
+ * reservation and stock checks. A transaction that already holds a replica connection when the
+ * method is entered keeps it, so annotate the method that starts the transaction.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadFromPrimary {
+}
@@ -0,0 +1,24 @@
+package com.lapxpert.backend.common.datasource;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies {@link ReadFromPrimary}. Runs outside the transaction interceptor so the flag is set
+ * before the transaction fetches its connection.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReadFromPrimaryAspect {
+
+    @Around("@annotation(com.lapxpert.backend.common.datasource.ReadFromPrimary) "
+            + "|| @within(com.lapxpert.backend.common.datasource.ReadFromPrimary)")
+    public Object readFromPrimary(ProceedingJoinPoint joinPoint) throws Throwable {
+        return ReplicaRoutingDataSource.onPrimary(joinPoint::proceed);
+    }
+}
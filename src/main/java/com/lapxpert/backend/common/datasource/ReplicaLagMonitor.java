@@ -0,0 +1,88 @@
+package com.lapxpert.backend.common.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Measures how far the replica is behind the primary.
+ *
+ * A replica that has replayed everything it received counts as current; otherwise the lag is the
+ * age of the last replayed transaction. A server that is not in recovery (the primary itself, as
+ * in a local setup with two pools on one instance) has no lag. The replica is only used once a
+ * check has succeeded and is dropped as soon as a check fails or the lag exceeds the limit.
+ */
+@Slf4j
+public class ReplicaLagMonitor {
+
+    private static final String LAG_QUERY = """
+            SELECT CASE
+                       WHEN NOT pg_is_in_recovery() THEN 0
+                       WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                       ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000
+                   END
+            """;
+
+    private final DataSource replica;
+    private final long maxLagMs;
+    private final int checkTimeoutSeconds;
+    private volatile boolean replicaUsable;
+    private volatile double lagMs = -1;
+
+    public ReplicaLagMonitor(DataSource replica, long maxLagMs, int checkTimeoutSeconds, MeterRegistry meterRegistry) {
+        this.replica = replica;
+        this.maxLagMs = maxLagMs;
+        this.checkTimeoutSeconds = checkTimeoutSeconds;
+
+        Gauge.builder("datasource.replica.lag", this, monitor -> monitor.lagMs)
+                .description("Replica replay lag in milliseconds, -1 when unknown")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("datasource.replica.usable", this, monitor -> monitor.replicaUsable ? 1 : 0)
+                .description("1 when read-only transactions are routed to the replica")
+                .register(meterRegistry);
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    @Scheduled(fixedDelayString = "${datasource.replica.lag-check-interval-ms:2000}")
+    public void check() {
+        double measured;
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(checkTimeoutSeconds);
+            try (ResultSet rs = statement.executeQuery(LAG_QUERY)) {
+                rs.next();
+                measured = rs.getDouble(1);
+                // No transaction replayed yet since the replica started: the lag is unknown
+                if (rs.wasNull()) {
+                    measured = -1;
+                }
+            }
+        } catch (Exception e) {
+            measured = -1;
+            if (replicaUsable) {
+                log.warn("Replica lag check failed, routing reads to the primary: {}", e.getMessage());
+            }
+        }
+
+        boolean usable = measured >= 0 && measured <= maxLagMs;
+        if (usable != replicaUsable) {
+            if (usable) {
+                log.info("Replica is current (lag {} ms), routing read-only transactions to it", Math.round(measured));
+            } else if (measured >= 0) {
+                log.warn("Replica lag {} ms exceeds {} ms, routing reads to the primary", Math.round(measured), maxLagMs);
+            }
+        }
+        lagMs = measured;
+        replicaUsable = usable;
+    }
+}
@@ -0,0 +1,120 @@
+package com.lapxpert.backend.common.datasource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Sends read-only transactions to the replica pool and everything else to the primary.
+ *
+ * The key is resolved when a physical connection is fetched, so this must sit behind a
+ * LazyConnectionDataSourceProxy: by the first statement the transaction's read-only flag is
+ * known. Reads fall back to the primary while the replica is behind or unreachable (see
+ * {@link ReplicaLagMonitor}) and inside {@link #onPrimary}.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Target {
+        PRIMARY,
+        REPLICA
+    }
+
+    /**
+     * Work run with reads forced to the primary
+     */
+    @FunctionalInterface
+    public interface PrimaryWork<T> {
+        T run() throws Throwable;
+    }
+
+    private static final ThreadLocal<Boolean> FORCE_PRIMARY = new ThreadLocal<>();
+
+    private final ReplicaLagMonitor lagMonitor;
+    private final Counter primaryReads;
+    private final Counter replicaReads;
+    private final Counter laggingReads;
+    private final Counter forcedReads;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica,
+                                    ReplicaLagMonitor lagMonitor, MeterRegistry meterRegistry) {
+        this.lagMonitor = lagMonitor;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+
+        this.primaryReads = counter(meterRegistry, "primary", "read_write");
+        this.replicaReads = counter(meterRegistry, "replica", "read_only");
+        this.laggingReads = counter(meterRegistry, "primary", "replica_lagging");
+        this.forcedReads = counter(meterRegistry, "primary", "forced");
+    }
+
+    /**
+     * Run work with every read-only transaction it starts on the primary
+     */
+    public static <T> T onPrimary(PrimaryWork<T> work) throws Throwable {
+        Boolean previous = FORCE_PRIMARY.get();
+        FORCE_PRIMARY.set(Boolean.TRUE);
+        try {
+            return work.run();
+        } finally {
+            if (previous == null) {
+                FORCE_PRIMARY.remove();
+            } else {
+                FORCE_PRIMARY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Wrap work handed to another thread so it keeps the caller's primary pinning; the flag is a
+     * thread-local and does not follow tasks onto executors by itself
+     */
+    public static <T> Supplier<T> withCallerRouting(Supplier<T> work) {
+        if (!Boolean.TRUE.equals(FORCE_PRIMARY.get())) {
+            return work;
+        }
+        return () -> {
+            Boolean previous = FORCE_PRIMARY.get();
+            FORCE_PRIMARY.set(Boolean.TRUE);
+            try {
+                return work.get();
+            } finally {
+                if (previous == null) {
+                    FORCE_PRIMARY.remove();
+                } else {
+                    FORCE_PRIMARY.set(previous);
+                }
+            }
+        };
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            primaryReads.increment();
+            return Target.PRIMARY;
+        }
+        if (Boolean.TRUE.equals(FORCE_PRIMARY.get())) {
+            forcedReads.increment();
+            return Target.PRIMARY;
+        }
+        if (!lagMonitor.isReplicaUsable()) {
+            laggingReads.increment();
+            return Target.PRIMARY;
+        }
+        replicaReads.increment();
+        return Target.REPLICA;
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String target, String reason) {
+        return Counter.builder("datasource.routing.connections")
+                .description("Physical connections fetched through the routing data source")
+                .tag("target", target)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,69 @@
+package com.lapxpert.backend.common.entity;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Audit history entry waiting to be written to its *AuditHistory table.
+ * AuditWriter inserts every entry here in the business transaction (durable mode, the default),
+ * or only when the in-memory buffer is full or a batch flush fails. The entry itself is stored
+ * as JSON together with its class name.
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "audit_outbox")
+public class AuditOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    /**
+     * Fully qualified class name of the audit entity (HoaDonAuditHistory, SanPhamAuditHistory, ...)
+     */
+    @NotBlank(message = "Loại audit không được để trống")
+    @Size(max = 255, message = "Loại audit không được vượt quá 255 ký tự")
+    @Column(name = "loai_audit", nullable = false)
+    private String loaiAudit;
+
+    @NotBlank(message = "Dữ liệu audit không được để trống")
+    @Column(name = "du_lieu", nullable = false, columnDefinition = "TEXT")
+    private String duLieu;
+
+    /**
+     * Failed attempts to move the entry to its audit table
+     */
+    @Column(name = "so_lan_thu", nullable = false)
+    @Builder.Default
+    private Integer soLanThu = 0;
+
+    @Size(max = 1000, message = "Lỗi cuối không được vượt quá 1000 ký tự")
+    @Column(name = "loi_cuoi", length = 1000)
+    private String loiCuoi;
+
+    @NotNull
+    @Column(name = "ngay_tao", nullable = false, updatable = false)
+    private Instant ngayTao;
+
+    public static AuditOutbox pending(String loaiAudit, String duLieu) {
+        return AuditOutbox.builder()
+                .loaiAudit(loaiAudit)
+                .duLieu(duLieu)
+                .ngayTao(Instant.now())
+                .build();
+    }
+}
@@ -0,0 +1,114 @@
+package com.lapxpert.backend.common.entity;
+
+import com.lapxpert.backend.common.enums.TrangThaiEmailOutbox;
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Transactional outbox entry for outbound email.
+ * Rows are written in the same transaction as the business change that triggers them,
+ * then picked up and delivered by EmailDispatchWorker outside of any business transaction.
+ * One row represents one recipient so that delivery, retry and failure are tracked per address.
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = "email_outbox", indexes = {
+    @Index(name = "idx_email_outbox_pending", columnList = "trang_thai, thoi_gian_gui_tiep"),
+    @Index(name = "idx_email_outbox_template", columnList = "mau_email")
+})
+public class EmailOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    /**
+     * Logical template name used for metrics (VOUCHER_CREATED, VOUCHER_CLOSED, ORDER_STATUS, ...)
+     */
+    @NotBlank(message = "Mẫu email không được để trống")
+    @Size(max = 50, message = "Mẫu email không được vượt quá 50 ký tự")
+    @Column(name = "mau_email", nullable = false, length = 50)
+    private String mauEmail;
+
+    @NotBlank(message = "Người nhận không được để trống")
+    @Size(max = 255, message = "Người nhận không được vượt quá 255 ký tự")
+    @Column(name = "nguoi_nhan", nullable = false)
+    private String nguoiNhan;
+
+    @NotBlank(message = "Tiêu đề không được để trống")
+    @Size(max = 500, message = "Tiêu đề không được vượt quá 500 ký tự")
+    @Column(name = "tieu_de", nullable = false, length = 500)
+    private String tieuDe;
+
+    @NotBlank(message = "Nội dung không được để trống")
+    @Column(name = "noi_dung", nullable = false, columnDefinition = "TEXT")
+    private String noiDung;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "trang_thai", nullable = false, length = 20)
+    @Builder.Default
+    private TrangThaiEmailOutbox trangThai = TrangThaiEmailOutbox.CHO_GUI;
+
+    /**
+     * Number of delivery attempts made so far
+     */
+    @Column(name = "so_lan_thu", nullable = false)
+    @Builder.Default
+    private Integer soLanThu = 0;
+
+    /**
+     * Earliest time the next delivery attempt may run (used for retry backoff)
+     */
+    @NotNull
+    @Column(name = "thoi_gian_gui_tiep", nullable = false)
+    private Instant thoiGianGuiTiep;
+
+    /**
+     * Time the row was claimed by a worker; used to recover rows left in DANG_GUI after a crash
+     */
+    @Column(name = "thoi_gian_nhan_xu_ly")
+    private Instant thoiGianNhanXuLy;
+
+    @Column(name = "thoi_gian_gui")
+    private Instant thoiGianGui;
+
+    @Size(max = 1000, message = "Lỗi cuối không được vượt quá 1000 ký tự")
+    @Column(name = "loi_cuoi", length = 1000)
+    private String loiCuoi;
+
+    @NotNull
+    @Column(name = "ngay_tao", nullable = false, updatable = false)
+    private Instant ngayTao;
+
+    /**
+     * Create a pending outbox entry ready for immediate delivery
+     */
+    public static EmailOutbox pending(String mauEmail, String nguoiNhan, String tieuDe, String noiDung) {
+        Instant now = Instant.now();
+        return EmailOutbox.builder()
+                .mauEmail(mauEmail)
+                .nguoiNhan(nguoiNhan)
+                .tieuDe(tieuDe)
+                .noiDung(noiDung)
+                .trangThai(TrangThaiEmailOutbox.CHO_GUI)
+                .soLanThu(0)
+                .thoiGianGuiTiep(now)
+                .ngayTao(now)
+                .build();
+    }
+}
@@ -0,0 +1,29 @@
+package com.lapxpert.backend.common.enums;
+
+/**
+ * Status of an email waiting in the outbound mail queue (email_outbox table)
+ */
+public enum TrangThaiEmailOutbox {
+    CHO_GUI("Chờ gửi"),
+    DANG_GUI("Đang gửi"),
+    DA_GUI("Đã gửi"),
+    THAT_BAI("Thất bại");
+
+    private final String description;
+
+    TrangThaiEmailOutbox(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Check if the email reached a terminal state and will not be picked up again
+     * @return true if no further delivery attempt will be made
+     */
+    public boolean isTerminal() {
+        return this == DA_GUI || this == THAT_BAI;
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,7 +51,8 @@ public class DatabasePerformanceMonitor {
     }
 
     /**
-     * Record query execution time for performance tracking
+     * Record query execution time for performance tracking.
+     * QueryBudgetFilter reports each request here with its endpoint as the type and its total JDBC time.
      */
     public void recordQueryExecution(String queryType, long executionTimeMs) {
         // Update execution time metrics
@@ -142,14 +144,19 @@ public class DatabasePerformanceMonitor {
      * Get HikariCP connection pool metrics
      */
     private ConnectionPoolMetrics getConnectionPoolMetrics() {
-        if (dataSource instanceof HikariDataSource) {
-            HikariDataSource hikariDS = (HikariDataSource) dataSource;
-            return new ConnectionPoolMetrics(
-                hikariDS.getHikariPoolMXBean().getActiveConnections(),
-                hikariDS.getHikariPoolMXBean().getIdleConnections(),
-                hikariDS.getHikariPoolMXBean().getTotalConnections(),
-                hikariDS.getHikariPoolMXBean().getThreadsAwaitingConnection()
-            );
+        try {
+            // Unwrapped so the primary pool is still found behind the replica routing proxy
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                HikariDataSource hikariDS = dataSource.unwrap(HikariDataSource.class);
+                return new ConnectionPoolMetrics(
+                    hikariDS.getHikariPoolMXBean().getActiveConnections(),
+                    hikariDS.getHikariPoolMXBean().getIdleConnections(),
+                    hikariDS.getHikariPoolMXBean().getTotalConnections(),
+                    hikariDS.getHikariPoolMXBean().getThreadsAwaitingConnection()
+                );
+            }
+        } catch (SQLException e) {
+            log.debug("Could not unwrap the connection pool: {}", e.getMessage());
         }
         return new ConnectionPoolMetrics(0, 0, 0, 0);
     }
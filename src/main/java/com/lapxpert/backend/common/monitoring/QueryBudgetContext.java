@@ -0,0 +1,82 @@
+package com.lapxpert.backend.common.monitoring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * SQL executed by the current request thread: statement count, JDBC time and how often each
+ * statement shape was prepared. Filled by {@link QueryBudgetStatementInspector} and
+ * {@link QueryBudgetSessionListener}, read by {@link QueryBudgetFilter}. Queries run on other
+ * threads (async executors, batch jobs) are not attributed to the request.
+ */
+final class QueryBudgetContext {
+
+    private static final ThreadLocal<QueryBudgetContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Distinct statement shapes kept per request, so a request generating unbounded SQL cannot grow the map
+     */
+    private static final int MAX_SHAPES = 500;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // IN lists of any length are one shape
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+
+    record RepeatedStatement(String sql, int count) {
+    }
+
+    private int statements;
+    private long jdbcNanos;
+    private final Map<String, Integer> shapes = new HashMap<>();
+
+    static QueryBudgetContext start() {
+        QueryBudgetContext context = new QueryBudgetContext();
+        CURRENT.set(context);
+        return context;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    static QueryBudgetContext current() {
+        return CURRENT.get();
+    }
+
+    void prepared(String sql) {
+        String shape = IN_LIST.matcher(WHITESPACE.matcher(sql.trim()).replaceAll(" ")).replaceAll("(?)");
+        if (shapes.size() < MAX_SHAPES || shapes.containsKey(shape)) {
+            shapes.merge(shape, 1, Integer::sum);
+        }
+    }
+
+    void executed(long nanos) {
+        statements++;
+        jdbcNanos += nanos;
+    }
+
+    int statements() {
+        return statements;
+    }
+
+    long jdbcNanos() {
+        return jdbcNanos;
+    }
+
+    /**
+     * SELECT shapes prepared at least threshold times: the usual sign of lazy loading in a loop
+     */
+    List<RepeatedStatement> repeatedSelects(int threshold) {
+        List<RepeatedStatement> repeated = new ArrayList<>();
+        shapes.forEach((sql, count) -> {
+            if (count >= threshold && sql.regionMatches(true, 0, "select", 0, 6)) {
+                repeated.add(new RepeatedStatement(sql, count));
+            }
+        });
+        repeated.sort((a, b) -> Integer.compare(b.count(), a.count()));
+        return repeated;
+    }
+}
@@ -0,0 +1,157 @@
+package com.lapxpert.backend.common.monitoring;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-endpoint SQL budget.
+ *
+ * Counts the statements Hibernate executes on the request thread and their JDBC time, then
+ * records both per endpoint (method and route pattern) as histograms: db.request.statements and
+ * db.request.time. SELECT statements repeated query-budget.n-plus-one-threshold times in one
+ * request are reported as a likely N+1.
+ *
+ * An endpoint over its statement budget is logged and counted. Budgets default to
+ * query-budget.max-statements and can be set per endpoint with query-budget.endpoints, e.g.
+ * "GET /api/v1/thong-ke/dashboard=40,GET /api/v1/hoa-don/{id}=15". With
+ * query-budget.fail-on-exceed=true the request fails instead, which is meant for test runs.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "query-budget.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class QueryBudgetFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry meterRegistry;
+    private final DatabasePerformanceMonitor performanceMonitor;
+    private final Map<String, Integer> endpointBudgets;
+
+    @Value("${query-budget.max-statements:50}")
+    private int maxStatements;
+
+    @Value("${query-budget.n-plus-one-threshold:10}")
+    private int nPlusOneThreshold;
+
+    @Value("${query-budget.fail-on-exceed:false}")
+    private boolean failOnExceed;
+
+    public QueryBudgetFilter(MeterRegistry meterRegistry,
+                             DatabasePerformanceMonitor performanceMonitor,
+                             @Value("${query-budget.endpoints:}") String endpoints) {
+        this.meterRegistry = meterRegistry;
+        this.performanceMonitor = performanceMonitor;
+        this.endpointBudgets = parseBudgets(endpoints);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        QueryBudgetContext context = QueryBudgetContext.start();
+        String exceeded;
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            QueryBudgetContext.end();
+            exceeded = record(request, context);
+        }
+
+        if (exceeded != null && failOnExceed) {
+            throw new IllegalStateException(exceeded);
+        }
+    }
+
+    /**
+     * Record the request's SQL; returns a message when the endpoint went over its budget
+     */
+    private String record(HttpServletRequest request, QueryBudgetContext context) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null && context.statements() == 0) {
+            return null;
+        }
+        String method = request.getMethod();
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+        String endpoint = method + " " + uri;
+
+        DistributionSummary.builder("db.request.statements")
+                .description("SQL statements executed per request")
+                .tag("method", method)
+                .tag("uri", uri)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(context.statements());
+        Timer.builder("db.request.time")
+                .description("JDBC execution time per request")
+                .tag("method", method)
+                .tag("uri", uri)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(context.jdbcNanos(), TimeUnit.NANOSECONDS);
+        performanceMonitor.recordQueryExecution(endpoint, TimeUnit.NANOSECONDS.toMillis(context.jdbcNanos()));
+
+        List<QueryBudgetContext.RepeatedStatement> repeated = context.repeatedSelects(nPlusOneThreshold);
+        if (!repeated.isEmpty()) {
+            counter("db.request.n-plus-one", method, uri).increment();
+            QueryBudgetContext.RepeatedStatement worst = repeated.get(0);
+            log.warn("[QUERY BUDGET] Possible N+1 on {}: {} statement shapes repeated, worst {} times: {}",
+                    endpoint, repeated.size(), worst.count(), abbreviate(worst.sql()));
+        }
+
+        int budget = endpointBudgets.getOrDefault(endpoint, maxStatements);
+        if (budget <= 0 || context.statements() <= budget) {
+            return null;
+        }
+        counter("db.request.budget-exceeded", method, uri).increment();
+        String message = String.format("Query budget exceeded on %s: %d statements, budget %d, JDBC time %d ms",
+                endpoint, context.statements(), budget, TimeUnit.NANOSECONDS.toMillis(context.jdbcNanos()));
+        log.warn("[QUERY BUDGET] {}", message);
+        return message;
+    }
+
+    private Counter counter(String name, String method, String uri) {
+        return Counter.builder(name)
+                .tag("method", method)
+                .tag("uri", uri)
+                .register(meterRegistry);
+    }
+
+    private static Map<String, Integer> parseBudgets(String endpoints) {
+        Map<String, Integer> budgets = new HashMap<>();
+        for (String entry : endpoints.split(",")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String endpoint = entry.substring(0, separator).trim().replaceAll("\\s+", " ");
+            try {
+                budgets.put(endpoint, Integer.parseInt(entry.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid query budget for " + endpoint + ": " + entry, e);
+            }
+        }
+        return budgets;
+    }
+
+    private static String abbreviate(String sql) {
+        return sql.length() > 300 ? sql.substring(0, 300) + "..." : sql;
+    }
+}
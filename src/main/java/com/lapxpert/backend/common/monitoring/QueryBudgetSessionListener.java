@@ -0,0 +1,40 @@
+package com.lapxpert.backend.common.monitoring;
+
+import org.hibernate.SessionEventListener;
+
+/**
+ * Times JDBC executions of one Hibernate session for the current request. Hibernate creates one
+ * instance per session from its class name (hibernate.session.events.auto), and a session is
+ * used by one thread at a time, so the start time needs no synchronization.
+ */
+public class QueryBudgetSessionListener implements SessionEventListener {
+
+    private long startNanos;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        executed();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        executed();
+    }
+
+    private void executed() {
+        QueryBudgetContext context = QueryBudgetContext.current();
+        if (context != null) {
+            context.executed(System.nanoTime() - startNanos);
+        }
+    }
+}
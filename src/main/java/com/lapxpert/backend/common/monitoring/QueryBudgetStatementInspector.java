@@ -0,0 +1,19 @@
+package com.lapxpert.backend.common.monitoring;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Records the shape of every statement Hibernate prepares for the current request. The SQL is
+ * returned unchanged.
+ */
+public class QueryBudgetStatementInspector implements StatementInspector {
+
+    @Override
+    public String inspect(String sql) {
+        QueryBudgetContext context = QueryBudgetContext.current();
+        if (context != null && sql != null) {
+            context.prepared(sql);
+        }
+        return sql;
+    }
+}
@@ -0,0 +1,40 @@
+package com.lapxpert.backend.common.repository;
+
+import com.lapxpert.backend.common.entity.AuditOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository for audit entries waiting to be written to their audit tables.
+ */
+@Repository
+public interface AuditOutboxRepository extends JpaRepository<AuditOutbox, Long> {
+
+    /**
+     * Lock the oldest pending entries that have not exhausted their attempts.
+     * SKIP LOCKED lets several nodes replay the outbox without blocking each other.
+     */
+    @Query(value = "SELECT * FROM audit_outbox " +
+                   "WHERE so_lan_thu < :maxAttempts " +
+                   "ORDER BY id " +
+                   "LIMIT :limit " +
+                   "FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<AuditOutbox> lockNextBatch(@Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
+
+    /**
+     * Lock one pending entry, or nothing when another node holds it or it is gone
+     */
+    @Query(value = "SELECT * FROM audit_outbox " +
+                   "WHERE id = :id AND so_lan_thu < :maxAttempts " +
+                   "FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    Optional<AuditOutbox> lockById(@Param("id") Long id, @Param("maxAttempts") int maxAttempts);
+
+    long countBySoLanThuGreaterThanEqual(int soLanThu);
+}
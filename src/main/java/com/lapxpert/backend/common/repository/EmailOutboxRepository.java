@@ -0,0 +1,44 @@
+package com.lapxpert.backend.common.repository;
+
+import com.lapxpert.backend.common.entity.EmailOutbox;
+import com.lapxpert.backend.common.enums.TrangThaiEmailOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Repository for the outbound email queue.
+ */
+@Repository
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+    /**
+     * Lock the next batch of deliverable emails.
+     * Picks pending rows whose backoff has elapsed, plus rows stuck in DANG_GUI after a worker crash.
+     * SKIP LOCKED lets several nodes poll the same table without blocking each other.
+     */
+    @Query(value = "SELECT * FROM email_outbox " +
+                   "WHERE (trang_thai = 'CHO_GUI' AND thoi_gian_gui_tiep <= :now) " +
+                   "OR (trang_thai = 'DANG_GUI' AND thoi_gian_nhan_xu_ly < :staleBefore) " +
+                   "ORDER BY thoi_gian_gui_tiep " +
+                   "LIMIT :limit " +
+                   "FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<EmailOutbox> lockNextBatch(@Param("now") Instant now,
+                                    @Param("staleBefore") Instant staleBefore,
+                                    @Param("limit") int limit);
+
+    long countByTrangThai(TrangThaiEmailOutbox trangThai);
+
+    /**
+     * Purge delivered emails older than the retention window
+     */
+    @Modifying
+    @Query("DELETE FROM EmailOutbox e WHERE e.trangThai = 'DA_GUI' AND e.thoiGianGui < :before")
+    int deleteSentBefore(@Param("before") Instant before);
+}
@@ -0,0 +1,297 @@
+package com.lapxpert.backend.common.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSetMetaData;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Maintains the monthly partitions of the audit history tables (see db.changelog-audit-partitioning.xml).
+ *
+ * At startup and every night the partitions for the current month and the next
+ * audit.partition.months-ahead months are created, so inserts never depend on the default
+ * partition. Rows that already landed in the default partition for such a month are moved into it.
+ *
+ * Months older than audit.retention.months are archived: the partition is exported as gzipped CSV,
+ * uploaded to MinIO as {table}/{year}/{partition}.csv.gz, then detached and dropped. The drop only
+ * happens when the partition still holds exactly the exported rows, so a failed upload or a late
+ * insert leaves it attached for the next run. Recent history queries only touch recent partitions.
+ */
+@Service
+@Slf4j
+public class AuditPartitionService {
+
+    static final List<String> BANG_AUDIT = List.of(
+            "dot_giam_gia_audit_history",
+            "hoa_don_audit_history",
+            "nguoi_dung_audit_history",
+            "phieu_giam_gia_audit_history",
+            "san_pham_audit_history",
+            "san_pham_chi_tiet_audit_history",
+            "serial_number_audit_history");
+
+    private static final Pattern TEN_PHAN_VUNG = Pattern.compile("_p(\\d{6})$");
+    private static final DateTimeFormatter THANG = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MinioService minioService;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate readOnlyTransaction;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${audit.partition.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.partition.months-ahead:3}")
+    private int soThangTaoTruoc;
+
+    @Value("${audit.retention.months:12}")
+    private int soThangLuuGiu;
+
+    @Value("${audit.archive.bucket:audit-archive}")
+    private String bucket;
+
+    public AuditPartitionService(DataSource dataSource,
+                                 MinioService minioService,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${audit.archive.fetch-size:2000}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.minioService = minioService;
+        this.transaction = new TransactionTemplate(transactionManager);
+        // Exports stream through a cursor, which needs a transaction; old months can be read from a replica
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void khoiDong() {
+        if (enabled) {
+            taoPhanVungSapToi();
+        }
+    }
+
+    @Scheduled(cron = "${audit.partition.cron:0 15 3 * * *}")
+    public void baoTri() {
+        if (!enabled) {
+            return;
+        }
+        taoPhanVungSapToi();
+        luuTruPhanVungHetHan();
+    }
+
+    /**
+     * Create the partitions of the current month and the months ahead for every audit table
+     */
+    public void taoPhanVungSapToi() {
+        LocalDate thangNay = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+        for (String bang : BANG_AUDIT) {
+            if (!daPhanVung(bang)) {
+                log.debug("[AUDIT PARTITION] {} is not partitioned, skipping", bang);
+                continue;
+            }
+            for (int i = 0; i <= soThangTaoTruoc; i++) {
+                LocalDate thang = thangNay.plusMonths(i);
+                try {
+                    taoPhanVung(bang, thang);
+                } catch (Exception e) {
+                    log.error("[AUDIT PARTITION] Failed to create partition {} of {}: {}",
+                            tenPhanVung(bang, thang), bang, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Archive and drop the partitions whose whole month is older than the retention period
+     */
+    public void luuTruPhanVungHetHan() {
+        LocalDate mocLuuGiu = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1).minusMonths(soThangLuuGiu);
+        for (String bang : BANG_AUDIT) {
+            if (!daPhanVung(bang)) {
+                continue;
+            }
+            List<String> phanVung = jdbcTemplate.queryForList("""
+                    SELECT c.relname
+                    FROM pg_inherits i
+                    JOIN pg_class c ON c.oid = i.inhrelid
+                    JOIN pg_class p ON p.oid = i.inhparent
+                    WHERE p.relname = ? AND pg_table_is_visible(p.oid)
+                    ORDER BY c.relname
+                    """, String.class, bang);
+            for (String ten : phanVung) {
+                Matcher matcher = TEN_PHAN_VUNG.matcher(ten);
+                if (!matcher.find()) {
+                    continue;
+                }
+                LocalDate thang = LocalDate.parse(matcher.group(1) + "01", DateTimeFormatter.BASIC_ISO_DATE);
+                if (!thang.plusMonths(1).isAfter(mocLuuGiu)) {
+                    try {
+                        luuTru(bang, ten, thang);
+                    } catch (Exception e) {
+                        counter("failed").increment();
+                        log.error("[AUDIT PARTITION] Failed to archive {}: {}", ten, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void taoPhanVung(String bang, LocalDate thang) {
+        String ten = tenPhanVung(bang, thang);
+        String tu = thang.toString();
+        String den = thang.plusMonths(1).toString();
+
+        transaction.executeWithoutResult(status -> {
+            Boolean tonTai = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, ten);
+            if (Boolean.TRUE.equals(tonTai)) {
+                return;
+            }
+            Integer trongMacDinh = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM " + bang + "_mac_dinh WHERE thoi_gian_thay_doi >= CAST(? AS TIMESTAMP) "
+                            + "AND thoi_gian_thay_doi < CAST(? AS TIMESTAMP)",
+                    Integer.class, tu, den);
+
+            if (trongMacDinh == null || trongMacDinh == 0) {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + ten + " PARTITION OF " + bang
+                        + " FOR VALUES FROM ('" + tu + "') TO ('" + den + "')");
+            } else {
+                // A range cannot be attached while the default partition holds rows for it, so they move first
+                jdbcTemplate.execute("CREATE TABLE " + ten + " (LIKE " + bang + " INCLUDING DEFAULTS)");
+                jdbcTemplate.update("WITH chuyen AS (DELETE FROM " + bang + "_mac_dinh "
+                                + "WHERE thoi_gian_thay_doi >= CAST(? AS TIMESTAMP) AND thoi_gian_thay_doi < CAST(? AS TIMESTAMP) "
+                                + "RETURNING *) INSERT INTO " + ten + " SELECT * FROM chuyen",
+                        tu, den);
+                jdbcTemplate.execute("ALTER TABLE " + bang + " ATTACH PARTITION " + ten
+                        + " FOR VALUES FROM ('" + tu + "') TO ('" + den + "')");
+                log.info("[AUDIT PARTITION] Moved {} rows of {} from the default partition into {}", trongMacDinh, bang, ten);
+            }
+            log.info("[AUDIT PARTITION] Created partition {}", ten);
+        });
+    }
+
+    private void luuTru(String bang, String ten, LocalDate thang) throws Exception {
+        Path tam = Files.createTempFile("audit-" + ten + "-", ".csv.gz");
+        try {
+            Long soDong = readOnlyTransaction.execute(status -> xuatCsv(ten, tam));
+            long daXuat = soDong != null ? soDong : 0;
+
+            String objectName = bang + "/" + thang.getYear() + "/" + ten + ".csv.gz";
+            minioService.uploadFile(bucket, objectName, tam, "application/gzip");
+
+            Boolean daXoa = transaction.execute(status -> {
+                Boolean khoa = jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext(?))", Boolean.class, ten);
+                if (!Boolean.TRUE.equals(khoa) || !Boolean.TRUE.equals(
+                        jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, ten))) {
+                    return false;
+                }
+                Long hienTai = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + ten, Long.class);
+                if (hienTai == null || hienTai != daXuat) {
+                    log.warn("[AUDIT PARTITION] {} changed during archiving ({} rows exported, {} now), keeping it",
+                            ten, daXuat, hienTai);
+                    return false;
+                }
+                jdbcTemplate.execute("ALTER TABLE " + bang + " DETACH PARTITION " + ten);
+                jdbcTemplate.execute("DROP TABLE " + ten);
+                return true;
+            });
+
+            if (Boolean.TRUE.equals(daXoa)) {
+                counter("archived").increment();
+                meterRegistry.counter("audit.partition.archived.rows").increment(daXuat);
+                log.info("[AUDIT PARTITION] Archived {} ({} rows) to {}/{} and dropped it", ten, daXuat, bucket, objectName);
+            }
+        } finally {
+            Files.deleteIfExists(tam);
+        }
+    }
+
+    /**
+     * Stream a partition into a gzipped CSV file with a header row; returns the number of rows
+     */
+    private long xuatCsv(String ten, Path tam) {
+        return jdbcTemplate.query("SELECT * FROM " + ten + " ORDER BY thoi_gian_thay_doi, id",
+                (ResultSetExtractor<Long>) rs -> {
+                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                            new GZIPOutputStream(Files.newOutputStream(tam)), StandardCharsets.UTF_8))) {
+                        ResultSetMetaData meta = rs.getMetaData();
+                        int soCot = meta.getColumnCount();
+                        for (int i = 1; i <= soCot; i++) {
+                            ghiO(writer, meta.getColumnName(i), i == soCot);
+                        }
+                        long soDong = 0;
+                        while (rs.next()) {
+                            for (int i = 1; i <= soCot; i++) {
+                                ghiO(writer, rs.getString(i), i == soCot);
+                            }
+                            soDong++;
+                        }
+                        return soDong;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private static void ghiO(Writer writer, String giaTri, boolean cuoiDong) throws IOException {
+        if (giaTri != null) {
+            if (giaTri.indexOf(',') >= 0 || giaTri.indexOf('"') >= 0 || giaTri.indexOf('\n') >= 0 || giaTri.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(giaTri.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(giaTri);
+            }
+        }
+        writer.write(cuoiDong ? '\n' : ',');
+    }
+
+    private boolean daPhanVung(String bang) {
+        Boolean ketQua = jdbcTemplate.queryForObject("""
+                SELECT EXISTS (
+                    SELECT 1 FROM pg_partitioned_table pt
+                    JOIN pg_class c ON c.oid = pt.partrelid
+                    WHERE c.relname = ? AND pg_table_is_visible(c.oid))
+                """, Boolean.class, bang);
+        return Boolean.TRUE.equals(ketQua);
+    }
+
+    private static String tenPhanVung(String bang, LocalDate thang) {
+        return bang + "_p" + thang.format(THANG);
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("audit.partition.archives")
+                .description("Audit history partitions processed by the retention job")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
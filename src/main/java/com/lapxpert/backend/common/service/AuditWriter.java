@@ -0,0 +1,346 @@
+package com.lapxpert.backend.common.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lapxpert.backend.common.entity.AuditOutbox;
+import com.lapxpert.backend.common.repository.AuditOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.support.Repositories;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes audit history entries off the business transaction.
+ *
+ * By default every entry is inserted into audit_outbox in the caller's transaction, so it
+ * commits or rolls back with the change it describes and survives a crash. A scheduled replay
+ * moves outbox rows to their audit tables with one saveAll per table; rows are locked with
+ * FOR UPDATE SKIP LOCKED and deleted in the same transaction, so each row is replayed by one
+ * node only.
+ *
+ * With audit.async.durable=false entries are instead held until the transaction commits and
+ * placed in a bounded in-memory ring buffer that a scheduled flush drains. This skips the
+ * outbox insert but loses entries still buffered if the process crashes; a full buffer or a
+ * failed flush still falls back to the outbox, and the buffer is drained on shutdown.
+ * With audit.async.enabled=false entries are saved synchronously as before.
+ */
+@Service
+@Slf4j
+public class AuditWriter {
+
+    private final AuditOutboxRepository auditOutboxRepository;
+    private final ObjectMapper objectMapper;
+    private final ListableBeanFactory beanFactory;
+    private final TransactionTemplate newTransaction;
+    private final MeterRegistry meterRegistry;
+    private final BlockingQueue<Object> buffer;
+    private volatile Repositories repositories;
+
+    @Value("${audit.async.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.async.durable:true}")
+    private boolean durable;
+
+    @Value("${audit.async.batch-size:200}")
+    private int batchSize;
+
+    @Value("${audit.outbox.batch-size:200}")
+    private int outboxBatchSize;
+
+    @Value("${audit.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    public AuditWriter(AuditOutboxRepository auditOutboxRepository,
+                       ObjectMapper objectMapper,
+                       ListableBeanFactory beanFactory,
+                       PlatformTransactionManager transactionManager,
+                       MeterRegistry meterRegistry,
+                       @Value("${audit.async.buffer-capacity:10000}") int bufferCapacity) {
+        this.auditOutboxRepository = auditOutboxRepository;
+        this.objectMapper = objectMapper;
+        this.beanFactory = beanFactory;
+        // Flushes run after the business transaction has committed, so they always need their own
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.meterRegistry = meterRegistry;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+
+        Gauge.builder("audit.async.buffer.size", buffer, BlockingQueue::size)
+                .description("Audit entries waiting in memory to be written")
+                .register(meterRegistry);
+        Gauge.builder("audit.outbox.pending", auditOutboxRepository, AuditOutboxRepository::count)
+                .description("Audit entries waiting in audit_outbox")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue one audit entity for writing
+     */
+    public void submit(Object entry) {
+        if (entry != null) {
+            submitAll(List.of(entry));
+        }
+    }
+
+    /**
+     * Queue audit entities for writing; they may belong to different audit tables
+     */
+    public void submitAll(Collection<?> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return;
+        }
+        List<Object> copy = new ArrayList<>(entries);
+
+        if (!enabled) {
+            saveGrouped(copy);
+            return;
+        }
+        if (durable) {
+            auditOutboxRepository.saveAll(toOutbox(copy));
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pendingForCurrentTransaction().addAll(copy);
+            return;
+        }
+        enqueue(copy);
+    }
+
+    /**
+     * Drain the ring buffer in batches
+     */
+    @Scheduled(fixedDelayString = "${audit.async.flush-interval-ms:500}")
+    public void flush() {
+        while (true) {
+            List<Object> batch = new ArrayList<>(batchSize);
+            buffer.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                return;
+            }
+            writeBatch(batch);
+            if (batch.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move entries from audit_outbox to their audit tables
+     */
+    @Scheduled(fixedDelayString = "${audit.outbox.poll-interval-ms:2000}")
+    public void replayOutbox() {
+        try {
+            Boolean more = newTransaction.execute(status -> {
+                List<AuditOutbox> rows = auditOutboxRepository.lockNextBatch(maxAttempts, outboxBatchSize);
+                if (rows.isEmpty()) {
+                    return false;
+                }
+                List<Object> entries = new ArrayList<>(rows.size());
+                for (AuditOutbox row : rows) {
+                    entries.add(fromOutbox(row));
+                }
+                saveGrouped(entries);
+                auditOutboxRepository.deleteAllInBatch(rows);
+                counter("replayed").increment(rows.size());
+                return rows.size() == outboxBatchSize;
+            });
+            if (Boolean.TRUE.equals(more)) {
+                replayOutbox();
+            }
+        } catch (Exception e) {
+            log.warn("[AUDIT] Outbox batch replay failed, retrying row by row: {}", e.getMessage());
+            replayRowByRow();
+        }
+    }
+
+    @PreDestroy
+    public void drainOnShutdown() {
+        int pending = buffer.size();
+        if (pending > 0) {
+            log.info("[AUDIT] Flushing {} buffered audit entries before shutdown", pending);
+            flush();
+        }
+    }
+
+    private List<Object> pendingForCurrentTransaction() {
+        @SuppressWarnings("unchecked")
+        List<Object> pending = (List<Object>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            List<Object> entries = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, entries);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(entries);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(AuditWriter.this);
+                }
+            });
+            pending = entries;
+        }
+        return pending;
+    }
+
+    private void enqueue(List<Object> entries) {
+        List<Object> overflow = new ArrayList<>();
+        for (Object entry : entries) {
+            if (!buffer.offer(entry)) {
+                overflow.add(entry);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            log.warn("[AUDIT] Buffer full, writing {} audit entries to the outbox", overflow.size());
+            writeToOutbox(overflow, "overflow");
+        }
+    }
+
+    private void writeBatch(List<Object> batch) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            newTransaction.executeWithoutResult(status -> saveGrouped(batch));
+            counter("written").increment(batch.size());
+        } catch (Exception e) {
+            log.warn("[AUDIT] Failed to flush {} audit entries, moving them to the outbox: {}", batch.size(), e.getMessage());
+            writeToOutbox(batch, "flush_failed");
+        } finally {
+            sample.stop(Timer.builder("audit.async.flush")
+                    .description("Time to write one batch of audit entries")
+                    .register(meterRegistry));
+        }
+    }
+
+    private void writeToOutbox(List<Object> entries, String reason) {
+        try {
+            newTransaction.executeWithoutResult(status -> auditOutboxRepository.saveAll(toOutbox(entries)));
+            counter(reason).increment(entries.size());
+        } catch (Exception e) {
+            // Last resort: keep the entries in the log so they can be restored by hand
+            counter("lost").increment(entries.size());
+            for (AuditOutbox row : toOutbox(entries)) {
+                log.error("[AUDIT] Lost audit entry {}: {}", row.getLoaiAudit(), row.getDuLieu());
+            }
+            log.error("[AUDIT] Failed to write {} audit entries to the outbox: {}", entries.size(), e.getMessage(), e);
+        }
+    }
+
+    private void replayRowByRow() {
+        // Candidate IDs only; each row is locked again, replayed and deleted in its own transaction
+        List<Long> ids = newTransaction.execute(status ->
+                auditOutboxRepository.lockNextBatch(maxAttempts, outboxBatchSize).stream()
+                        .map(AuditOutbox::getId)
+                        .toList());
+        if (ids == null) {
+            return;
+        }
+        for (Long id : ids) {
+            try {
+                Boolean replayed = newTransaction.execute(status -> {
+                    // Empty when another node holds the row or has already replayed it
+                    AuditOutbox row = auditOutboxRepository.lockById(id, maxAttempts).orElse(null);
+                    if (row == null) {
+                        return false;
+                    }
+                    saveGrouped(List.of(fromOutbox(row)));
+                    auditOutboxRepository.delete(row);
+                    return true;
+                });
+                if (Boolean.TRUE.equals(replayed)) {
+                    counter("replayed").increment();
+                }
+            } catch (Exception e) {
+                String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                newTransaction.executeWithoutResult(status -> auditOutboxRepository.findById(id).ifPresent(stored -> {
+                    stored.setSoLanThu(stored.getSoLanThu() + 1);
+                    stored.setLoiCuoi(message.length() > 1000 ? message.substring(0, 1000) : message);
+                    auditOutboxRepository.save(stored);
+                }));
+                log.warn("[AUDIT] Outbox entry {} failed: {}", id, message);
+            }
+        }
+    }
+
+    /**
+     * One saveAll per audit table, in the order the entries were submitted
+     */
+    private void saveGrouped(List<Object> entries) {
+        Map<Class<?>, List<Object>> byType = new LinkedHashMap<>();
+        for (Object entry : entries) {
+            byType.computeIfAbsent(entry.getClass(), k -> new ArrayList<>()).add(entry);
+        }
+        byType.forEach((type, group) -> repositoryFor(type).saveAll(group));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CrudRepository<Object, ?> repositoryFor(Class<?> type) {
+        Object repository = repositories().getRepositoryFor(type)
+                .orElseThrow(() -> new IllegalStateException("No repository for audit type " + type.getName()));
+        return (CrudRepository<Object, ?>) repository;
+    }
+
+    private Repositories repositories() {
+        // Built lazily: the repository beans must all exist before they can be indexed
+        Repositories current = repositories;
+        if (current == null) {
+            current = new Repositories(beanFactory);
+            repositories = current;
+        }
+        return current;
+    }
+
+    private List<AuditOutbox> toOutbox(List<Object> entries) {
+        List<AuditOutbox> rows = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            try {
+                rows.add(AuditOutbox.pending(entry.getClass().getName(), objectMapper.writeValueAsString(entry)));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Cannot serialize audit entry " + entry.getClass().getName(), e);
+            }
+        }
+        return rows;
+    }
+
+    private Object fromOutbox(AuditOutbox row) {
+        try {
+            Class<?> type = Class.forName(row.getLoaiAudit());
+            // Only entity types with a repository are accepted, so the outbox cannot instantiate arbitrary classes
+            if (!repositories().hasRepositoryFor(type)) {
+                throw new IllegalStateException("No repository for audit type " + row.getLoaiAudit());
+            }
+            return objectMapper.readValue(row.getDuLieu(), type);
+        } catch (ClassNotFoundException | JsonProcessingException e) {
+            throw new IllegalStateException("Cannot restore audit entry " + row.getId(), e);
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("audit.async.entries")
+                .description("Audit entries by write path")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -1,13 +1,16 @@
 package com.lapxpert.backend.common.service;
 
+import com.lapxpert.backend.common.util.AuditDiffUtils;
 import com.lapxpert.backend.common.util.ValidationUtils;
 import com.lapxpert.backend.common.util.ExceptionHandlingUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.transaction.annotation.Transactional;
 
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -31,11 +34,57 @@ public abstract class BaseService<T, ID, DTO, AUDIT> {
     protected abstract JpaRepository<AUDIT, Long> getAuditRepository();
     protected abstract DTO toDto(T entity);
     protected abstract T toEntity(DTO dto);
-    protected abstract String buildAuditJson(T entity);
+    protected abstract Map<String, Object> captureAuditFields(T entity); // Audited values by field name, the one source for snapshots and diffs
     protected abstract AUDIT createAuditEntry(ID entityId, String action, String oldValues, String newValues, String nguoiThucHien, String lyDo);
     protected abstract String getEntityName(); // For Vietnamese error messages
     protected abstract void validateEntity(T entity); // Business-specific validation
 
+    private AuditWriter auditWriter;
+
+    @Autowired
+    public void setAuditWriter(AuditWriter auditWriter) {
+        this.auditWriter = auditWriter;
+    }
+
+    /**
+     * Hand an audit entry to the async writer; it is written after the current transaction commits
+     */
+    protected void writeAudit(AUDIT auditEntry) {
+        if (auditWriter == null) {
+            // Built outside Spring: write in the current transaction as before
+            getAuditRepository().save(auditEntry);
+            return;
+        }
+        auditWriter.submit(auditEntry);
+    }
+
+    /**
+     * Batch variant of {@link #writeAudit(Object)}
+     */
+    protected void writeAudits(List<AUDIT> auditEntries) {
+        if (auditWriter == null) {
+            getAuditRepository().saveAll(auditEntries);
+            return;
+        }
+        auditWriter.submitAll(auditEntries);
+    }
+
+    /**
+     * Full audit snapshot of the entity, serialized from captureAuditFields
+     */
+    protected String buildAuditJson(T entity) {
+        return entity != null ? AuditDiffUtils.toJson(captureAuditFields(entity)) : "{}";
+    }
+
+    /**
+     * Update entry that keeps only the fields that changed, from values captured by captureAuditFields
+     */
+    protected AUDIT createUpdateAuditEntry(ID entityId, Map<String, Object> oldFields, Map<String, Object> newFields,
+                                           String nguoiThucHien, String lyDo) {
+        AuditDiffUtils.AuditDiff diff = AuditDiffUtils.diff(oldFields, newFields);
+        return createAuditEntry(entityId, "UPDATE", diff.giaTriCu(), diff.giaTriMoi(), nguoiThucHien, lyDo);
+    }
+
 
     /**
      * Find all entities with DTO conversion
@@ -92,7 +141,7 @@ public abstract class BaseService<T, ID, DTO, AUDIT> {
                 nguoiThucHien,
                 lyDo != null ? lyDo : String.format("Tạo %s mới", getEntityName())
             );
-            getAuditRepository().save(auditEntry);
+            writeAudit(auditEntry);
 
             log.info("Đã tạo {} mới với ID: {}", getEntityName(), getEntityId(savedEntity));
             return toDto(savedEntity);
@@ -117,7 +166,7 @@ public abstract class BaseService<T, ID, DTO, AUDIT> {
                         String.format("%s không tồn tại với ID: %s", getEntityName(), id)));
             
             // Capture old values for audit
-            String oldValues = buildAuditJson(existingEntity);
+            Map<String, Object> oldFields = captureAuditFields(existingEntity);
             
             // Update entity
             T updatedEntity = toEntity(dto);
@@ -128,16 +177,14 @@ public abstract class BaseService<T, ID, DTO, AUDIT> {
             T savedEntity = getRepository().save(updatedEntity);
             
             // Create audit trail
-            String newValues = buildAuditJson(savedEntity);
-            AUDIT auditEntry = createAuditEntry(
+            AUDIT auditEntry = createUpdateAuditEntry(
                 id,
-                "UPDATE",
-                oldValues,
-                newValues,
+                oldFields,
+                captureAuditFields(savedEntity),
                 nguoiThucHien,
                 lyDo != null ? lyDo : String.format("Cập nhật thông tin %s", getEntityName())
             );
-            getAuditRepository().save(auditEntry);
+            writeAudit(auditEntry);
 
             log.info("Đã cập nhật {} với ID: {}", getEntityName(), id);
             return toDto(savedEntity);
@@ -177,7 +224,7 @@ public abstract class BaseService<T, ID, DTO, AUDIT> {
                 nguoiThucHien,
                 lyDo != null ? lyDo : String.format("Xóa mềm %s", getEntityName())
             );
-            getAuditRepository().save(auditEntry);
+            writeAudit(auditEntry);
 
             log.info("Đã xóa mềm {} với ID: {}", getEntityName(), id);
             
@@ -218,7 +265,7 @@ public abstract class BaseService<T, ID, DTO, AUDIT> {
                         );
                     })
                     .toList();
-            getAuditRepository().saveAll(auditEntries);
+            writeAudits(auditEntries);
 
             log.info("Đã tạo hàng loạt {} {} thực thể", savedEntities.size(), getEntityName());
             return savedEntities.stream()
@@ -8,6 +8,7 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -64,7 +65,7 @@ public abstract class BusinessEntityService<T, ID, DTO, AUDIT> extends BaseServi
                 nguoiThucHien,
                 lyDo != null ? lyDo : String.format("Tạo %s mới", getEntityName())
             );
-            getAuditRepository().save(auditEntry);
+            writeAudit(auditEntry);
 
             // Publish event for real-time updates
             publishEntityCreatedEvent(savedEntity);
@@ -97,8 +98,8 @@ public abstract class BusinessEntityService<T, ID, DTO, AUDIT> extends BaseServi
                     .orElseThrow(() -> ExceptionHandlingUtils.createNotFoundException(
                         String.format("%s không tồn tại với ID: %s", getEntityName(), id)));
 
-            // Capture old values for audit and event
-            String oldValues = buildAuditJson(existingEntity);
+            // Capture old values for audit, and the pre-update state the update events compare against
+            Map<String, Object> oldFields = captureAuditFields(existingEntity);
             T oldEntityCopy = cloneEntity(existingEntity);
 
             // Update entity
@@ -113,16 +114,14 @@ public abstract class BusinessEntityService<T, ID, DTO, AUDIT> extends BaseServi
             T savedEntity = getRepository().save(updatedEntity);
 
             // Create audit trail
-            String newValues = buildAuditJson(savedEntity);
-            AUDIT auditEntry = createAuditEntry(
+            AUDIT auditEntry = createUpdateAuditEntry(
                 id,
-                "UPDATE",
-                oldValues,
-                newValues,
+                oldFields,
+                captureAuditFields(savedEntity),
                 nguoiThucHien,
                 lyDo != null ? lyDo : String.format("Cập nhật thông tin %s", getEntityName())
             );
-            getAuditRepository().save(auditEntry);
+            writeAudit(auditEntry);
 
             // Publish event for real-time updates
             publishEntityUpdatedEvent(savedEntity, oldEntityCopy);
@@ -171,7 +170,7 @@ public abstract class BusinessEntityService<T, ID, DTO, AUDIT> extends BaseServi
                 nguoiThucHien,
                 lyDo != null ? lyDo : String.format("Xóa mềm %s", getEntityName())
             );
-            getAuditRepository().save(auditEntry);
+            writeAudit(auditEntry);
 
             // Publish event for real-time updates
             publishEntityDeletedEvent(id);
@@ -259,7 +258,7 @@ public abstract class BusinessEntityService<T, ID, DTO, AUDIT> extends BaseServi
                         );
                     })
                     .toList();
-            getAuditRepository().saveAll(auditEntries);
+            writeAudits(auditEntries);
 
             // Publish events for all created entities
             savedEntities.forEach(this::publishEntityCreatedEvent);
@@ -0,0 +1,269 @@
+package com.lapxpert.backend.common.service;
+
+import com.lapxpert.backend.common.entity.EmailOutbox;
+import com.lapxpert.backend.common.enums.TrangThaiEmailOutbox;
+import com.lapxpert.backend.common.repository.EmailOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers emails queued in the email_outbox table.
+ *
+ * A short scheduled poll claims batches with FOR UPDATE SKIP LOCKED and hands each batch
+ * to the emailDispatchExecutor pool. Workers send a batch over one SMTP connection,
+ * respect a global send rate, and reschedule failures with exponential backoff until
+ * the attempt limit is reached. Sent/failed/retried counts and send latency are
+ * published to Micrometer per template.
+ */
+@Service
+@Slf4j
+public class EmailDispatchWorker {
+
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final EmailService emailService;
+    private final ThreadPoolTaskExecutor emailDispatchExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final SendRateLimiter rateLimiter;
+
+    @Value("${email.outbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${email.outbox.batch-size:50}")
+    private int batchSize;
+
+    @Value("${email.outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${email.outbox.backoff-base-seconds:30}")
+    private long backoffBaseSeconds;
+
+    @Value("${email.outbox.backoff-max-seconds:3600}")
+    private long backoffMaxSeconds;
+
+    @Value("${email.outbox.stale-claim-minutes:10}")
+    private long staleClaimMinutes;
+
+    @Value("${email.outbox.retention-days:7}")
+    private long retentionDays;
+
+    public EmailDispatchWorker(EmailOutboxRepository emailOutboxRepository,
+                               EmailService emailService,
+                               @Qualifier("emailDispatchExecutor") ThreadPoolTaskExecutor emailDispatchExecutor,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${email.outbox.rate-per-second:10}") double ratePerSecond) {
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.emailService = emailService;
+        this.emailDispatchExecutor = emailDispatchExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.rateLimiter = new SendRateLimiter(ratePerSecond);
+    }
+
+    /**
+     * Claim work for every idle worker. Runs frequently and returns immediately,
+     * actual SMTP traffic happens on the dispatch pool.
+     */
+    @Scheduled(fixedDelayString = "${email.outbox.poll-interval-ms:5000}")
+    public void pollOutbox() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            int idleWorkers = emailDispatchExecutor.getMaxPoolSize() - emailDispatchExecutor.getActiveCount();
+            for (int i = 0; i < idleWorkers; i++) {
+                List<EmailOutbox> batch = claimBatch();
+                if (batch.isEmpty()) {
+                    return;
+                }
+                try {
+                    emailDispatchExecutor.execute(() -> dispatchBatch(batch));
+                } catch (TaskRejectedException e) {
+                    log.debug("[EMAIL OUTBOX] Dispatch pool busy, releasing {} claimed emails", batch.size());
+                    releaseClaim(batch);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("[EMAIL OUTBOX] Failed to poll email outbox: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Remove delivered emails past the retention window, daily at 3 AM
+     */
+    @Scheduled(cron = "0 0 3 * * *")
+    public void purgeSentEmails() {
+        Instant before = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+        Integer deleted = transactionTemplate.execute(status -> emailOutboxRepository.deleteSentBefore(before));
+        log.info("[EMAIL OUTBOX] Purged {} delivered emails older than {} days", deleted, retentionDays);
+    }
+
+    /**
+     * Lock the next batch and mark it DANG_GUI in a short transaction of its own
+     */
+    List<EmailOutbox> claimBatch() {
+        List<EmailOutbox> claimed = transactionTemplate.execute(status -> {
+            Instant now = Instant.now();
+            List<EmailOutbox> rows = emailOutboxRepository.lockNextBatch(
+                    now, now.minus(staleClaimMinutes, ChronoUnit.MINUTES), batchSize);
+            for (EmailOutbox row : rows) {
+                row.setTrangThai(TrangThaiEmailOutbox.DANG_GUI);
+                row.setThoiGianNhanXuLy(now);
+            }
+            return emailOutboxRepository.saveAll(rows);
+        });
+        return claimed != null ? claimed : List.of();
+    }
+
+    /**
+     * Send one claimed batch, grouped by template so latency is measured per template
+     */
+    void dispatchBatch(List<EmailOutbox> batch) {
+        Map<String, List<EmailOutbox>> byTemplate = new LinkedHashMap<>();
+        for (EmailOutbox row : batch) {
+            byTemplate.computeIfAbsent(row.getMauEmail(), k -> new ArrayList<>()).add(row);
+        }
+
+        List<EmailOutbox> results = new ArrayList<>(batch.size());
+        byTemplate.forEach((template, rows) -> results.addAll(sendTemplateGroup(template, rows)));
+
+        transactionTemplate.executeWithoutResult(status -> emailOutboxRepository.saveAll(results));
+    }
+
+    private List<EmailOutbox> sendTemplateGroup(String template, List<EmailOutbox> rows) {
+        List<SimpleMailMessage> messages = new ArrayList<>(rows.size());
+        for (EmailOutbox row : rows) {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(row.getNguoiNhan());
+            message.setSubject(row.getTieuDe());
+            message.setText(row.getNoiDung());
+            messages.add(message);
+        }
+
+        rateLimiter.acquire(messages.size());
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Map<SimpleMailMessage, Exception> failures = emailService.sendBatch(messages);
+        sample.stop(Timer.builder("email.outbox.send")
+                .description("SMTP send latency per outbox batch")
+                .tag("template", template)
+                .register(meterRegistry));
+
+        Instant now = Instant.now();
+        for (int i = 0; i < rows.size(); i++) {
+            EmailOutbox row = rows.get(i);
+            Exception failure = failures.get(messages.get(i));
+            row.setSoLanThu(row.getSoLanThu() + 1);
+            if (failure == null) {
+                row.setTrangThai(TrangThaiEmailOutbox.DA_GUI);
+                row.setThoiGianGui(now);
+                row.setLoiCuoi(null);
+                counter("email.outbox.sent", template).increment();
+            } else {
+                markFailed(row, template, failure, now);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            log.warn("[EMAIL OUTBOX] {} of {} emails failed for template {}", failures.size(), rows.size(), template);
+        }
+        return rows;
+    }
+
+    private void markFailed(EmailOutbox row, String template, Exception failure, Instant now) {
+        String message = failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+        row.setLoiCuoi(message.length() > 1000 ? message.substring(0, 1000) : message);
+
+        if (row.getSoLanThu() >= maxAttempts) {
+            row.setTrangThai(TrangThaiEmailOutbox.THAT_BAI);
+            counter("email.outbox.failed", template).increment();
+            log.error("[EMAIL OUTBOX] Giving up on email {} to {} after {} attempts: {}",
+                    row.getId(), row.getNguoiNhan(), row.getSoLanThu(), message);
+        } else {
+            row.setTrangThai(TrangThaiEmailOutbox.CHO_GUI);
+            row.setThoiGianGuiTiep(now.plus(backoffFor(row.getSoLanThu())));
+            counter("email.outbox.retried", template).increment();
+        }
+    }
+
+    private void releaseClaim(List<EmailOutbox> batch) {
+        batch.forEach(row -> row.setTrangThai(TrangThaiEmailOutbox.CHO_GUI));
+        transactionTemplate.executeWithoutResult(status -> emailOutboxRepository.saveAll(batch));
+    }
+
+    /**
+     * Exponential backoff: base * 2^(attempt-1), capped at the configured maximum
+     */
+    private Duration backoffFor(int attempt) {
+        long multiplier = 1L << Math.min(attempt - 1, 20);
+        return Duration.ofSeconds(Math.min(backoffBaseSeconds * multiplier, backoffMaxSeconds));
+    }
+
+    private Counter counter(String name, String template) {
+        return Counter.builder(name)
+                .tag("template", template)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Token bucket shared by all dispatch workers so the provider's send quota is respected
+     * regardless of the pool size.
+     */
+    static class SendRateLimiter {
+        private final double permitsPerSecond;
+        private double availablePermits;
+        private long lastRefillNanos;
+
+        SendRateLimiter(double permitsPerSecond) {
+            this.permitsPerSecond = Math.max(permitsPerSecond, 0.1);
+            this.availablePermits = this.permitsPerSecond;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        void acquire(int permits) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                availablePermits -= permits;
+                waitNanos = availablePermits >= 0 ? 0
+                        : (long) (-availablePermits / permitsPerSecond * 1_000_000_000L);
+            }
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(Duration.ofNanos(waitNanos));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            availablePermits = Math.min(permitsPerSecond,
+                    availablePermits + (now - lastRefillNanos) / 1_000_000_000.0 * permitsPerSecond);
+            lastRefillNanos = now;
+        }
+    }
+}
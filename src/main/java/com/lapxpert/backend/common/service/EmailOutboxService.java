@@ -0,0 +1,85 @@
+package com.lapxpert.backend.common.service;
+
+import com.lapxpert.backend.common.entity.EmailOutbox;
+import com.lapxpert.backend.common.repository.EmailOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Entry point for queueing outbound email.
+ *
+ * Callers enqueue inside their own business transaction, so the email is persisted
+ * atomically with the change that caused it and no SMTP call is made while the
+ * transaction holds its connection. Delivery is handled by EmailDispatchWorker.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class EmailOutboxService {
+
+    // Template names used as metric tags
+    public static final String MAU_VOUCHER_MOI = "VOUCHER_CREATED";
+    public static final String MAU_VOUCHER_CAP_NHAT = "VOUCHER_UPDATED";
+    public static final String MAU_VOUCHER_TRANG_THAI = "VOUCHER_STATUS";
+    public static final String MAU_VOUCHER_DONG = "VOUCHER_CLOSED";
+    public static final String MAU_DON_HANG_MOI = "ORDER_CREATED";
+    public static final String MAU_DON_HANG_TRANG_THAI = "ORDER_STATUS";
+    public static final String MAU_DON_HANG_HET_HAN = "ORDER_EXPIRED";
+
+    private final EmailOutboxRepository emailOutboxRepository;
+
+    /**
+     * Queue a single email
+     */
+    @Transactional
+    public void enqueue(String mauEmail, String to, String subject, String text) {
+        enqueueBulk(mauEmail, List.of(to), subject, text);
+    }
+
+    /**
+     * Queue already built emails, each with its own recipient and content, in one saveAll
+     * @return number of rows queued
+     */
+    @Transactional
+    public int enqueueAll(Collection<EmailOutbox> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return 0;
+        }
+        emailOutboxRepository.saveAll(entries);
+        log.debug("[EMAIL OUTBOX] Queued {} individual emails", entries.size());
+        return entries.size();
+    }
+
+    /**
+     * Queue the same email for many recipients, one outbox row per distinct address
+     * @return number of rows queued
+     */
+    @Transactional
+    public int enqueueBulk(String mauEmail, Collection<String> recipients, String subject, String text) {
+        if (recipients == null || recipients.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> distinctRecipients = new LinkedHashSet<>();
+        for (String email : recipients) {
+            if (email != null && !email.trim().isEmpty()) {
+                distinctRecipients.add(email.trim());
+            }
+        }
+
+        List<EmailOutbox> entries = distinctRecipients.stream()
+                .map(email -> EmailOutbox.pending(mauEmail, email, subject, text))
+                .toList();
+        emailOutboxRepository.saveAll(entries);
+
+        log.debug("[EMAIL OUTBOX] Queued {} emails for template {}", entries.size(), mauEmail);
+        return entries.size();
+    }
+}
@@ -2,11 +2,15 @@ package com.lapxpert.backend.common.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class EmailService {
@@ -44,6 +48,43 @@ public class EmailService {
         emailSender.send(message);
     }
 
+    /**
+     * Send several single-recipient messages over one SMTP connection.
+     * Returns the messages that could not be delivered together with their cause,
+     * so callers can retry them individually instead of resending the whole batch.
+     */
+    public Map<SimpleMailMessage, Exception> sendBatch(List<SimpleMailMessage> messages) {
+        Map<SimpleMailMessage, Exception> failed = new IdentityHashMap<>();
+        if (messages.isEmpty()) {
+            return failed;
+        }
+
+        for (SimpleMailMessage message : messages) {
+            if (message.getFrom() == null) {
+                message.setFrom(configuredSenderEmail);
+            }
+        }
+
+        try {
+            emailSender.send(messages.toArray(new SimpleMailMessage[0]));
+        } catch (MailSendException e) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for (SimpleMailMessage message : messages) {
+                Exception cause = failedMessages.get(message);
+                if (cause != null) {
+                    failed.put(message, cause);
+                }
+            }
+            // No per-message detail available, treat the whole batch as failed
+            if (failed.isEmpty()) {
+                messages.forEach(message -> failed.put(message, e));
+            }
+        } catch (MailException e) {
+            messages.forEach(message -> failed.put(message, e));
+        }
+        return failed;
+    }
+
     public void sendPasswordEmail(String to, String rawPassword) {
         String subject = "Mật khẩu mới của bạn";
         String text = String.format(
@@ -58,10 +99,24 @@ public class EmailService {
     }
 
     public void sendOrderStatusUpdateEmail(String to, Long orderId, String orderCode, String oldStatus, String newStatus, String reason) {
-        String subject = String.format("Cập nhật trạng thái đơn hàng #%s", orderCode);
+        sendEmail(to, buildOrderStatusUpdateSubject(orderCode),
+                buildOrderStatusUpdateText(orderId, orderCode, oldStatus, newStatus, reason));
+    }
+
+    /**
+     * Subject of the order status email, shared with callers that queue it through the outbox
+     */
+    public String buildOrderStatusUpdateSubject(String orderCode) {
+        return String.format("Cập nhật trạng thái đơn hàng #%s", orderCode);
+    }
+
+    /**
+     * Body of the order status email, shared with callers that queue it through the outbox
+     */
+    public String buildOrderStatusUpdateText(Long orderId, String orderCode, String oldStatus, String newStatus, String reason) {
         String orderLink = "http://localhost:5173/shop/orders/" + orderId;
 
-        String text = String.format(
+        return String.format(
                 "Chào bạn,\n\n" +
                         "Chúng tôi xin thông báo về sự thay đổi trạng thái của đơn hàng #%s của bạn.\n\n" +
                         "Trạng thái cũ: %s\n" +
@@ -77,8 +132,6 @@ public class EmailService {
                 reason != null && !reason.isEmpty() ? reason : "Không có lý do cụ thể.",
                 orderLink
         );
-
-        sendEmail(to, subject, text);
     }
 
 }
@@ -0,0 +1,289 @@
+package com.lapxpert.backend.common.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency layer for retried POST endpoints, keyed by the Idempotency-Key header.
+ *
+ * The first request with a key claims it in Redis (lapxpert:idempotency:{scope}:{principal}:{key})
+ * together with a fingerprint of the request body. A successful response is stored under the key
+ * for idempotency.ttl-hours and replayed to any retry with the same key and fingerprint, so a
+ * retry costs one Redis round trip instead of another reservation or payment attempt.
+ * A retry that arrives while the first request is still running gets 409, a key reused with a
+ * different body gets 422. Failed requests release the key so the client can retry them.
+ * The PROCESSING claim expires after idempotency.processing-ttl-seconds and is renewed while the
+ * request runs, so a slow request keeps its key. When a request succeeds but its response cannot
+ * be stored, the key is kept as UNKNOWN and retries get 409 instead of running it again.
+ * Requests without the header, or when Redis is unavailable, run normally.
+ */
+@Service
+@Slf4j
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final String KEY_PREFIX = "lapxpert:idempotency:";
+    private static final String STATE_PROCESSING = "PROCESSING";
+    private static final String STATE_COMPLETED = "COMPLETED";
+    private static final String STATE_UNKNOWN = "UNKNOWN";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Return the existing record, or claim the key as PROCESSING when there is none
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local h = redis.call('HMGET', KEYS[1], 'state', 'fingerprint', 'status', 'body') " +
+            "if h[1] then return {h[1], h[2] or '', h[3] or '', h[4] or ''} end " +
+            "redis.call('HSET', KEYS[1], 'state', 'PROCESSING', 'fingerprint', ARGV[1]) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "return {}",
+            List.class);
+
+    /**
+     * Extend the claim only while it is still PROCESSING
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HGET', KEYS[1], 'state') == 'PROCESSING' then " +
+            "return redis.call('PEXPIRE', KEYS[1], ARGV[1]) end " +
+            "return 0",
+            Long.class);
+
+    private final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-renew").daemon().factory());
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${idempotency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${idempotency.processing-ttl-seconds:120}")
+    private long processingTtlSeconds;
+
+    public IdempotencyService(StringRedisTemplate redisTemplate,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        // Compact, key-ordered JSON so identical requests always produce the same fingerprint
+        this.objectMapper = objectMapper.copy()
+                .disable(SerializationFeature.INDENT_OUTPUT)
+                .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Run the action once per idempotency key
+     * @param idempotencyKey value of the Idempotency-Key header, may be null
+     * @param scope endpoint name, keeps keys of different endpoints apart
+     * @param principal caller identity, keeps keys of different users apart
+     * @param request request data used for the fingerprint
+     * @param action the endpoint logic
+     * @return the action's response, or the stored response for a retry
+     */
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> execute(String idempotencyKey, String scope, Object principal, Object request,
+                                     Supplier<? extends ResponseEntity<?>> action) {
+        if (!enabled || idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return errorResponse(HttpStatus.BAD_REQUEST, "IDEMPOTENCY_KEY_INVALID",
+                    "Idempotency-Key không được vượt quá " + MAX_KEY_LENGTH + " ký tự");
+        }
+
+        String redisKey = KEY_PREFIX + scope + ":" + principal + ":" + idempotencyKey;
+        String fingerprint = fingerprint(request);
+
+        List<Object> existing;
+        try {
+            existing = redisTemplate.execute(CLAIM_SCRIPT, List.of(redisKey), fingerprint,
+                    String.valueOf(Duration.ofSeconds(processingTtlSeconds).toMillis()));
+        } catch (Exception e) {
+            log.warn("Idempotency store unavailable for {} key {}, running request without it: {}",
+                    scope, idempotencyKey, e.getMessage());
+            record(scope, "bypassed");
+            return action.get();
+        }
+
+        if (existing != null && !existing.isEmpty()) {
+            return handleExisting(scope, idempotencyKey, fingerprint, existing);
+        }
+
+        ResponseEntity<?> response;
+        ScheduledFuture<?> renewal = scheduleRenewal(redisKey);
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            release(redisKey);
+            record(scope, "failed");
+            throw e;
+        } finally {
+            renewal.cancel(false);
+        }
+
+        if (response.getStatusCode().is2xxSuccessful()) {
+            store(redisKey, response);
+            record(scope, "executed");
+        } else {
+            release(redisKey);
+            record(scope, "failed");
+        }
+        return response;
+    }
+
+    private ResponseEntity<?> handleExisting(String scope, String idempotencyKey, String fingerprint, List<Object> existing) {
+        String state = String.valueOf(existing.get(0));
+        String storedFingerprint = String.valueOf(existing.get(1));
+
+        if (!fingerprint.equals(storedFingerprint)) {
+            record(scope, "mismatch");
+            return errorResponse(HttpStatus.UNPROCESSABLE_ENTITY, "IDEMPOTENCY_KEY_REUSED",
+                    "Idempotency-Key đã được sử dụng cho một yêu cầu khác");
+        }
+
+        if (STATE_UNKNOWN.equals(state)) {
+            record(scope, "unknown");
+            return errorResponse(HttpStatus.CONFLICT, "IDEMPOTENCY_RESULT_UNKNOWN",
+                    "Yêu cầu đã được xử lý nhưng không thể lưu kết quả, vui lòng kiểm tra lại trước khi gửi yêu cầu mới");
+        }
+
+        if (STATE_PROCESSING.equals(state)) {
+            record(scope, "in_progress");
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header("Retry-After", "1")
+                    .body(errorBody("IDEMPOTENCY_IN_PROGRESS", "Yêu cầu với Idempotency-Key này đang được xử lý"));
+        }
+
+        try {
+            int status = Integer.parseInt(String.valueOf(existing.get(2)));
+            String body = String.valueOf(existing.get(3));
+            log.info("Replaying stored response for {} key {}", scope, idempotencyKey);
+            record(scope, "replayed");
+            return ResponseEntity.status(status)
+                    .header(REPLAYED_HEADER, "true")
+                    .body(body.isEmpty() ? null : objectMapper.readTree(body));
+        } catch (NumberFormatException | JsonProcessingException e) {
+            log.error("Stored idempotent response for {} key {} is unreadable: {}", scope, idempotencyKey, e.getMessage());
+            record(scope, "unreadable");
+            return errorResponse(HttpStatus.CONFLICT, "IDEMPOTENCY_IN_PROGRESS",
+                    "Không thể đọc kết quả đã lưu của yêu cầu này");
+        }
+    }
+
+    private void store(String redisKey, ResponseEntity<?> response) {
+        try {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("state", STATE_COMPLETED);
+            fields.put("status", String.valueOf(response.getStatusCode().value()));
+            fields.put("body", response.getBody() != null ? objectMapper.writeValueAsString(response.getBody()) : "");
+            redisTemplate.opsForHash().putAll(redisKey, fields);
+            redisTemplate.expire(redisKey, Duration.ofHours(ttlHours));
+        } catch (Exception e) {
+            // The request already succeeded, so the key must not be released or a retry would run it again
+            log.error("Failed to store idempotent response under {}, keeping the key as {}: {}",
+                    redisKey, STATE_UNKNOWN, e.getMessage());
+            markUnknown(redisKey);
+        }
+    }
+
+    private void markUnknown(String redisKey) {
+        try {
+            redisTemplate.opsForHash().put(redisKey, "state", STATE_UNKNOWN);
+            redisTemplate.expire(redisKey, Duration.ofHours(ttlHours));
+        } catch (Exception e) {
+            log.error("Failed to mark idempotency key {} as {}, it expires in {}s: {}",
+                    redisKey, STATE_UNKNOWN, processingTtlSeconds, e.getMessage());
+        }
+    }
+
+    /**
+     * Keep the PROCESSING claim alive while the action runs, renewing it at a third of its TTL
+     */
+    private ScheduledFuture<?> scheduleRenewal(String redisKey) {
+        long ttlMillis = Duration.ofSeconds(processingTtlSeconds).toMillis();
+        long periodMillis = Math.max(1000, ttlMillis / 3);
+        return leaseRenewer.scheduleAtFixedRate(() -> {
+            try {
+                redisTemplate.execute(RENEW_SCRIPT, List.of(redisKey), String.valueOf(ttlMillis));
+            } catch (Exception e) {
+                log.warn("Failed to renew idempotency key {}: {}", redisKey, e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void dong() {
+        leaseRenewer.shutdownNow();
+    }
+
+    private void release(String redisKey) {
+        try {
+            redisTemplate.delete(redisKey);
+        } catch (Exception e) {
+            log.warn("Failed to release idempotency key {}, it expires in {}s: {}",
+                    redisKey, processingTtlSeconds, e.getMessage());
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            byte[] json = request != null ? objectMapper.writeValueAsBytes(request) : new byte[0];
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Không thể tạo fingerprint cho yêu cầu", e);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> errorResponse(HttpStatus status, String error, String message) {
+        return ResponseEntity.status(status).body(errorBody(error, message));
+    }
+
+    private Map<String, Object> errorBody(String error, String message) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("success", false);
+        body.put("error", error);
+        body.put("message", message);
+        return body;
+    }
+
+    private void record(String scope, String result) {
+        Counter.builder("idempotency.requests")
+                .description("Requests carrying an Idempotency-Key, by outcome")
+                .tag("scope", scope)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -12,6 +12,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -78,6 +80,40 @@ public class MinioService {
         return objectNames;
     }
 
+    /**
+     * Uploads a local file to the specified MinIO bucket, creating the bucket if needed.
+     * The file is streamed in parts, so large exports are never held in memory.
+     *
+     * @param bucketName  The name of the bucket.
+     * @param objectName  The object name to store the file under.
+     * @param file        The local file to upload.
+     * @param contentType The content type of the object.
+     * @throws MinioException if an error occurs during upload.
+     */
+    public void uploadFile(String bucketName, String objectName, Path file, String contentType) throws MinioException {
+        try {
+            boolean bucketExists = minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucketName).build());
+            if (!bucketExists) {
+                minioClient.makeBucket(MakeBucketArgs.builder().bucket(bucketName).build());
+                logger.info("Bucket '{}' created successfully.", bucketName);
+            }
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                minioClient.putObject(
+                        PutObjectArgs.builder()
+                                .bucket(bucketName)
+                                .object(objectName)
+                                .stream(inputStream, Files.size(file), -1)
+                                .contentType(contentType)
+                                .build());
+            }
+            logger.info("File '{}' uploaded successfully as '{}' to bucket '{}'.", file.getFileName(), objectName, bucketName);
+        } catch (Exception e) {
+            logger.error("Error uploading file '{}' as '{}' to bucket '{}': {}", file, objectName, bucketName,
+                    e.getMessage(), e);
+            throw new MinioException("Failed to upload file: " + objectName + ". " + e.getMessage());
+        }
+    }
+
     /**
      * Generates a pre-signed URL for accessing an object in MinIO.
      *
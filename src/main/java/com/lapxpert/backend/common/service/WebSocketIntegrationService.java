@@ -12,6 +12,7 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -650,6 +651,40 @@ public class WebSocketIntegrationService {
         }
     }
 
+    /**
+     * Send wishlist alert (price drop, back in stock) to every user wishlisting a product
+     * Vietnamese topic: /topic/yeu-thich/{userId}/alerts
+     * @param userIds Users that have the product in their wishlist
+     * @param alertType Alert type (PRICE_DROP, BACK_IN_STOCK)
+     * @param productData Product information for the alert
+     */
+    public void sendWishlistAlerts(Collection<String> userIds, String alertType, Object productData) {
+        if (!integrationEnabled) {
+            log.debug("WebSocket integration disabled - skipping wishlist alerts");
+            return;
+        }
+
+        int sent = 0;
+        for (String userId : userIds) {
+            try {
+                Map<String, Object> alert = new HashMap<>();
+                alert.put("userId", userId);
+                alert.put("alertType", alertType);
+                alert.put("data", productData);
+                alert.put("timestamp", Instant.now());
+                alert.put("sequenceNumber", generateSequenceNumber());
+
+                publishMessage(GLOBAL_CHANNEL, "/topic/yeu-thich/" + userId + "/alerts", alert, "WISHLIST_" + alertType);
+                sent++;
+            } catch (Exception e) {
+                sendErrors.incrementAndGet();
+                log.error("Failed to send wishlist alert {} to user {}: {}", alertType, userId, e.getMessage());
+            }
+        }
+
+        log.debug("Sent {} wishlist {} alerts", sent, alertType);
+    }
+
     /**
      * Send discount campaign update notification
      * Vietnamese topic: /topic/dot-giam-gia/{campaignId}
@@ -0,0 +1,63 @@
+package com.lapxpert.backend.common.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reduces a before/after pair of captured audit fields to the fields that changed.
+ * Values are compared directly and only the changed ones are serialized, so an update costs one
+ * small JSON document per side instead of two full snapshots.
+ */
+public final class AuditDiffUtils {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private AuditDiffUtils() {
+    }
+
+    /**
+     * Changed fields only: giaTriCu holds their old values, giaTriMoi their new values
+     */
+    public record AuditDiff(String giaTriCu, String giaTriMoi) {
+    }
+
+    public static AuditDiff diff(Map<String, ?> oldFields, Map<String, ?> newFields) {
+        Set<String> fieldNames = new LinkedHashSet<>(oldFields.keySet());
+        fieldNames.addAll(newFields.keySet());
+
+        Map<String, Object> oldChanged = new LinkedHashMap<>();
+        Map<String, Object> newChanged = new LinkedHashMap<>();
+        for (String field : fieldNames) {
+            Object oldValue = oldFields.get(field);
+            Object newValue = newFields.get(field);
+            if (!sameValue(oldValue, newValue)) {
+                oldChanged.put(field, oldValue);
+                newChanged.put(field, newValue);
+            }
+        }
+        return new AuditDiff(toJson(oldChanged), toJson(newChanged));
+    }
+
+    private static boolean sameValue(Object oldValue, Object newValue) {
+        // 10.0 and 10.00 are the same amount
+        if (oldValue instanceof BigDecimal oldDecimal && newValue instanceof BigDecimal newDecimal) {
+            return oldDecimal.compareTo(newDecimal) == 0;
+        }
+        return Objects.equals(oldValue, newValue);
+    }
+
+    public static String toJson(Map<String, ?> fields) {
+        try {
+            return MAPPER.writeValueAsString(fields);
+        } catch (JsonProcessingException e) {
+            return String.valueOf(fields);
+        }
+    }
+}
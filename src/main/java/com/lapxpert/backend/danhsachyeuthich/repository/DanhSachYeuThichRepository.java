@@ -10,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -146,4 +147,42 @@ public interface DanhSachYeuThichRepository extends JpaRepository<DanhSachYeuThi
     @Query("SELECT d.sanPham.id, COUNT(d) as wishlistCount FROM DanhSachYeuThich d " +
            "GROUP BY d.sanPham.id ORDER BY wishlistCount DESC")
     Page<Object[]> findMostWishlistedProducts(Pageable pageable);
+
+    /**
+     * Find wishlist items of a user restricted to the given products
+     * @param nguoiDungId the user ID
+     * @param sanPhamIds the product IDs
+     * @return list of wishlist items
+     */
+    List<DanhSachYeuThich> findByNguoiDungIdAndSanPhamIdIn(Long nguoiDungId, Collection<Long> sanPhamIds);
+
+    /**
+     * Find product IDs in a user's wishlist
+     * @param nguoiDungId the user ID
+     * @return list of product IDs
+     */
+    @Query("SELECT d.sanPham.id FROM DanhSachYeuThich d WHERE d.nguoiDung.id = :nguoiDungId")
+    List<Long> findSanPhamIdsByNguoiDungId(@Param("nguoiDungId") Long nguoiDungId);
+
+    /**
+     * Find all (user, product) pairs, used to rebuild the wishlist index
+     * @return rows of [nguoiDungId, sanPhamId]
+     */
+    @Query("SELECT d.nguoiDung.id, d.sanPham.id FROM DanhSachYeuThich d")
+    List<Object[]> findAllNguoiDungSanPhamPairs();
+
+    /**
+     * Find users that have a product in their wishlist
+     * @param sanPhamId the product ID
+     * @return list of user IDs
+     */
+    @Query("SELECT d.nguoiDung.id FROM DanhSachYeuThich d WHERE d.sanPham.id = :sanPhamId")
+    List<Long> findNguoiDungIdsBySanPhamId(@Param("sanPhamId") Long sanPhamId);
+
+    /**
+     * Find distinct products present in any wishlist
+     * @return list of product IDs
+     */
+    @Query("SELECT DISTINCT d.sanPham.id FROM DanhSachYeuThich d")
+    List<Long> findDistinctSanPhamIds();
 }
@@ -0,0 +1,465 @@
+package com.lapxpert.backend.danhsachyeuthich.service;
+
+import com.lapxpert.backend.common.event.InventoryUpdateEvent;
+import com.lapxpert.backend.common.service.DistributedLockService;
+import com.lapxpert.backend.common.service.WebSocketIntegrationService;
+import com.lapxpert.backend.danhsachyeuthich.repository.DanhSachYeuThichRepository;
+import com.lapxpert.backend.sanpham.entity.sanpham.SanPham;
+import com.lapxpert.backend.sanpham.entity.sanpham.SanPhamChiTiet;
+import com.lapxpert.backend.sanpham.event.PriceChangeEvent;
+import com.lapxpert.backend.sanpham.repository.SanPhamChiTietRepository;
+import com.lapxpert.backend.sanpham.repository.SanPhamRepository;
+import com.lapxpert.backend.sanpham.service.PricingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Redis inverted index over wishlists.
+ *
+ * Wishlists are kept per product (SanPham), so the index maps each product to the users
+ * wishlisting it (lapxpert:wishlist:product:{sanPhamId}) with the reverse set per user
+ * (lapxpert:wishlist:user:{nguoiDungId}). A third set holds the wishlisted products that
+ * currently sell below list price. With these, price and stock events notify exactly the
+ * interested users without scanning wishlists, and a user's discounted items are one SINTER.
+ *
+ * The database stays the source of truth: the index is maintained after commit, rebuilt
+ * at startup when missing and nightly, and callers fall back to the database while it is
+ * not ready.
+ */
+@Service
+@Slf4j
+public class DanhSachYeuThichIndexService {
+
+    private static final String PRODUCT_USERS_PREFIX = "lapxpert:wishlist:product:";
+    private static final String USER_PRODUCTS_PREFIX = "lapxpert:wishlist:user:";
+    private static final String DISCOUNTED_KEY = "lapxpert:wishlist:discounted";
+    private static final String DISCOUNTED_TMP_KEY = "lapxpert:wishlist:discounted:tmp";
+    private static final String READY_KEY = "lapxpert:wishlist:index-ready";
+    private static final String REFRESH_LOCK = "wishlist-index-refresh";
+
+    public static final String ALERT_PRICE_DROP = "PRICE_DROP";
+    public static final String ALERT_BACK_IN_STOCK = "BACK_IN_STOCK";
+
+    private final StringRedisTemplate redisTemplate;
+    private final DanhSachYeuThichRepository danhSachYeuThichRepository;
+    private final SanPhamRepository sanPhamRepository;
+    private final SanPhamChiTietRepository sanPhamChiTietRepository;
+    private final PricingService pricingService;
+    private final WebSocketIntegrationService webSocketIntegrationService;
+    private final DistributedLockService distributedLockService;
+    private final TransactionTemplate readOnlyTransaction;
+
+    @Value("${wishlist.index.enabled:true}")
+    private boolean enabled;
+
+    public DanhSachYeuThichIndexService(StringRedisTemplate redisTemplate,
+                                        DanhSachYeuThichRepository danhSachYeuThichRepository,
+                                        SanPhamRepository sanPhamRepository,
+                                        SanPhamChiTietRepository sanPhamChiTietRepository,
+                                        PricingService pricingService,
+                                        WebSocketIntegrationService webSocketIntegrationService,
+                                        DistributedLockService distributedLockService,
+                                        PlatformTransactionManager transactionManager) {
+        this.redisTemplate = redisTemplate;
+        this.danhSachYeuThichRepository = danhSachYeuThichRepository;
+        this.sanPhamRepository = sanPhamRepository;
+        this.sanPhamChiTietRepository = sanPhamChiTietRepository;
+        this.pricingService = pricingService;
+        this.webSocketIntegrationService = webSocketIntegrationService;
+        this.distributedLockService = distributedLockService;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    // ==================== INDEX MAINTENANCE ====================
+
+    public void addAfterCommit(Long nguoiDungId, Long sanPhamId) {
+        runAfterCommit(() -> pipelined(ops -> {
+            ops.opsForSet().add(productKey(sanPhamId), nguoiDungId.toString());
+            ops.opsForSet().add(userKey(nguoiDungId), sanPhamId.toString());
+        }));
+    }
+
+    public void removeAfterCommit(Long nguoiDungId, Long sanPhamId) {
+        runAfterCommit(() -> pipelined(ops -> {
+            ops.opsForSet().remove(productKey(sanPhamId), nguoiDungId.toString());
+            ops.opsForSet().remove(userKey(nguoiDungId), sanPhamId.toString());
+        }));
+    }
+
+    public void removeAllAfterCommit(Long nguoiDungId, Collection<Long> sanPhamIds) {
+        runAfterCommit(() -> pipelined(ops -> {
+            for (Long sanPhamId : sanPhamIds) {
+                ops.opsForSet().remove(productKey(sanPhamId), nguoiDungId.toString());
+            }
+            ops.delete(userKey(nguoiDungId));
+        }));
+    }
+
+    /**
+     * Rebuild the index when it is missing, e.g. after a Redis flush
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfMissing() {
+        if (enabled && !isReady()) {
+            rebuildWithLock();
+        }
+    }
+
+    /**
+     * Full rebuild from the database, nightly at 3:30 AM, to repair any drift
+     */
+    @Scheduled(cron = "${wishlist.index.rebuild-cron:0 30 3 * * *}")
+    public void scheduledRebuild() {
+        if (enabled) {
+            rebuildWithLock();
+        }
+    }
+
+    private void rebuildWithLock() {
+        try {
+            distributedLockService.executeWithLock(REFRESH_LOCK, () -> {
+                rebuildIndex();
+                return null;
+            }, 0, 300);
+        } catch (RuntimeException e) {
+            log.debug("Skipped wishlist index rebuild: {}", e.getMessage());
+        }
+    }
+
+    private void rebuildIndex() {
+        long startTime = System.currentTimeMillis();
+        try {
+            Map<Long, Set<String>> usersByProduct = new HashMap<>();
+            Map<Long, Set<String>> productsByUser = new HashMap<>();
+            for (Object[] row : danhSachYeuThichRepository.findAllNguoiDungSanPhamPairs()) {
+                Long nguoiDungId = (Long) row[0];
+                Long sanPhamId = (Long) row[1];
+                usersByProduct.computeIfAbsent(sanPhamId, k -> new HashSet<>()).add(nguoiDungId.toString());
+                productsByUser.computeIfAbsent(nguoiDungId, k -> new HashSet<>()).add(sanPhamId.toString());
+            }
+
+            // Drop keys of products and users that no longer have wishlist rows
+            Set<String> staleKeys = new HashSet<>();
+            staleKeys.addAll(scanKeys(PRODUCT_USERS_PREFIX + "*"));
+            staleKeys.addAll(scanKeys(USER_PRODUCTS_PREFIX + "*"));
+
+            pipelined(ops -> {
+                usersByProduct.forEach((sanPhamId, users) -> {
+                    String key = productKey(sanPhamId);
+                    staleKeys.remove(key);
+                    ops.delete(key);
+                    ops.opsForSet().add(key, users.toArray(String[]::new));
+                });
+                productsByUser.forEach((nguoiDungId, products) -> {
+                    String key = userKey(nguoiDungId);
+                    staleKeys.remove(key);
+                    ops.delete(key);
+                    ops.opsForSet().add(key, products.toArray(String[]::new));
+                });
+                if (!staleKeys.isEmpty()) {
+                    ops.delete(staleKeys);
+                }
+            });
+
+            replaceDiscountedSet(computeDiscounted(usersByProduct.keySet()));
+            redisTemplate.opsForValue().set(READY_KEY, Instant.now().toString());
+
+            log.info("Rebuilt wishlist index: {} products, {} users in {}ms",
+                    usersByProduct.size(), productsByUser.size(), System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("Failed to rebuild wishlist index: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Campaigns start and end on schedule without a PriceChangeEvent, so the discounted set
+     * is recomputed periodically. Products that became discounted trigger price-drop alerts.
+     * Runs on one node at a time; also rebuilds the index if it was marked unavailable.
+     */
+    @Scheduled(fixedDelayString = "${wishlist.index.discount-refresh-ms:300000}")
+    public void refreshDiscounted() {
+        if (!enabled) {
+            return;
+        }
+        if (!isReady()) {
+            rebuildWithLock();
+            return;
+        }
+        try {
+            distributedLockService.executeWithLock(REFRESH_LOCK, () -> {
+                Set<Long> previous = toIds(redisTemplate.opsForSet().members(DISCOUNTED_KEY));
+                Set<Long> current = computeDiscounted(danhSachYeuThichRepository.findDistinctSanPhamIds());
+                replaceDiscountedSet(current);
+
+                for (Long sanPhamId : current) {
+                    if (!previous.contains(sanPhamId)) {
+                        notifyWishlisters(sanPhamId, ALERT_PRICE_DROP, Map.of("sanPhamId", sanPhamId));
+                    }
+                }
+                return null;
+            }, 0, 300);
+        } catch (RuntimeException e) {
+            log.debug("Skipped wishlist discount refresh: {}", e.getMessage());
+        }
+    }
+
+    // ==================== QUERIES ====================
+
+    public boolean isReady() {
+        if (!enabled) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(READY_KEY));
+        } catch (DataAccessException e) {
+            log.warn("Wishlist index unavailable: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Products in the user's wishlist that are currently discounted
+     * @return product IDs, or null when the index is not available and the caller must use the database
+     */
+    public Set<Long> findDiscountedInWishlist(Long nguoiDungId) {
+        if (!isReady()) {
+            return null;
+        }
+        try {
+            return toIds(redisTemplate.opsForSet().intersect(userKey(nguoiDungId), DISCOUNTED_KEY));
+        } catch (DataAccessException e) {
+            log.warn("Wishlist index intersection failed for user {}: {}", nguoiDungId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A product is discounted when any active variant currently sells below its list price.
+     * Must be called inside a transaction since variants and campaigns are loaded lazily.
+     */
+    public boolean isDiscounted(SanPham sanPham) {
+        if (sanPham == null || sanPham.getSanPhamChiTiets() == null) {
+            return false;
+        }
+        return sanPham.getSanPhamChiTiets().stream()
+                .filter(variant -> Boolean.TRUE.equals(variant.getTrangThai()) && variant.getGiaBan() != null)
+                .anyMatch(variant -> pricingService.calculateEffectivePrice(variant).compareTo(variant.getGiaBan()) < 0);
+    }
+
+    // ==================== EVENT HANDLERS ====================
+
+    /**
+     * Keep the discounted set current and alert wishlisting users when a variant gets cheaper
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handlePriceChange(PriceChangeEvent event) {
+        if (!enabled || event.getVariantId() == null || !event.hasPriceChanged()) {
+            return;
+        }
+        try {
+            ProductState state = readOnlyTransaction.execute(status ->
+                    sanPhamChiTietRepository.findById(event.getVariantId())
+                            .map(SanPhamChiTiet::getSanPham)
+                            .map(sanPham -> new ProductState(sanPham.getId(), isDiscounted(sanPham)))
+                            .orElse(null));
+            if (state == null) {
+                return;
+            }
+
+            if (isReady()) {
+                if (state.discounted()) {
+                    redisTemplate.opsForSet().add(DISCOUNTED_KEY, state.sanPhamId().toString());
+                } else {
+                    redisTemplate.opsForSet().remove(DISCOUNTED_KEY, state.sanPhamId().toString());
+                }
+            }
+
+            if (event.getEffectiveOldPrice() != null && event.getEffectiveNewPrice() != null
+                    && event.getEffectiveNewPrice().compareTo(event.getEffectiveOldPrice()) < 0) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("sanPhamId", state.sanPhamId());
+                data.put("variantId", event.getVariantId());
+                data.put("sku", event.getSku());
+                data.put("tenSanPham", event.getProductName());
+                data.put("giaCu", event.getEffectiveOldPrice());
+                data.put("giaMoi", event.getEffectiveNewPrice());
+                notifyWishlisters(state.sanPhamId(), ALERT_PRICE_DROP, data);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to process price change of variant {} for wishlists: {}", event.getVariantId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Alert wishlisting users when a variant comes back in stock
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handleInventoryUpdate(InventoryUpdateEvent event) {
+        if (!enabled || event.getVariantId() == null || !event.isBackInStock()) {
+            return;
+        }
+        try {
+            Long sanPhamId = readOnlyTransaction.execute(status ->
+                    sanPhamChiTietRepository.findById(event.getVariantId())
+                            .map(variant -> variant.getSanPham().getId())
+                            .orElse(null));
+            if (sanPhamId == null) {
+                return;
+            }
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("sanPhamId", sanPhamId);
+            data.put("variantId", event.getVariantId());
+            data.put("sku", event.getSku());
+            data.put("tenSanPham", event.getTenSanPham());
+            data.put("soLuongTonKho", event.getSoLuongTonKhoMoi());
+            notifyWishlisters(sanPhamId, ALERT_BACK_IN_STOCK, data);
+        } catch (Exception e) {
+            log.warn("Failed to process inventory update of variant {} for wishlists: {}", event.getVariantId(), e.getMessage());
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    private record ProductState(Long sanPhamId, boolean discounted) {
+    }
+
+    private void notifyWishlisters(Long sanPhamId, String alertType, Object data) {
+        Set<String> users = findWishlisters(sanPhamId);
+        if (users.isEmpty()) {
+            return;
+        }
+        webSocketIntegrationService.sendWishlistAlerts(users, alertType, data);
+        log.info("Sent {} wishlist alerts for product {} to {} users", alertType, sanPhamId, users.size());
+    }
+
+    private Set<String> findWishlisters(Long sanPhamId) {
+        if (isReady()) {
+            try {
+                Set<String> users = redisTemplate.opsForSet().members(productKey(sanPhamId));
+                return users != null ? users : Set.of();
+            } catch (DataAccessException e) {
+                log.warn("Wishlist index lookup failed for product {}, using database: {}", sanPhamId, e.getMessage());
+            }
+        }
+        return danhSachYeuThichRepository.findNguoiDungIdsBySanPhamId(sanPhamId).stream()
+                .map(String::valueOf)
+                .collect(Collectors.toSet());
+    }
+
+    private Set<Long> computeDiscounted(Collection<Long> sanPhamIds) {
+        if (sanPhamIds.isEmpty()) {
+            return Set.of();
+        }
+        Set<Long> discounted = readOnlyTransaction.execute(status -> {
+            Set<Long> result = new HashSet<>();
+            for (SanPham sanPham : sanPhamRepository.findAllById(sanPhamIds)) {
+                if (isDiscounted(sanPham)) {
+                    result.add(sanPham.getId());
+                }
+            }
+            return result;
+        });
+        return discounted != null ? discounted : Set.of();
+    }
+
+    /**
+     * Swap in a new discounted set atomically so readers never see a half-built set
+     */
+    private void replaceDiscountedSet(Set<Long> discounted) {
+        if (discounted.isEmpty()) {
+            redisTemplate.delete(DISCOUNTED_KEY);
+            return;
+        }
+        redisTemplate.delete(DISCOUNTED_TMP_KEY);
+        redisTemplate.opsForSet().add(DISCOUNTED_TMP_KEY,
+                discounted.stream().map(String::valueOf).toArray(String[]::new));
+        redisTemplate.rename(DISCOUNTED_TMP_KEY, DISCOUNTED_KEY);
+    }
+
+    private Set<String> scanKeys(String pattern) {
+        Set<String> keys = new HashSet<>();
+        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+            cursor.forEachRemaining(keys::add);
+        }
+        return keys;
+    }
+
+    private Set<Long> toIds(Set<String> members) {
+        if (members == null || members.isEmpty()) {
+            return new HashSet<>();
+        }
+        return members.stream().map(Long::valueOf).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pipelined(Consumer<RedisOperations<String, String>> commands) {
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    commands.accept((RedisOperations<String, String>) operations);
+                    return null;
+                }
+            });
+        } catch (DataAccessException e) {
+            // A missed update is repaired by the nightly rebuild; drop readiness so reads use the database
+            log.warn("Wishlist index update failed, marking index for rebuild: {}", e.getMessage());
+            try {
+                redisTemplate.delete(READY_KEY);
+            } catch (DataAccessException ignored) {
+                // Redis unavailable, readiness check will fail anyway
+            }
+        }
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private String productKey(Long sanPhamId) {
+        return PRODUCT_USERS_PREFIX + sanPhamId;
+    }
+
+    private String userKey(Long nguoiDungId) {
+        return USER_PRODUCTS_PREFIX + nguoiDungId;
+    }
+}
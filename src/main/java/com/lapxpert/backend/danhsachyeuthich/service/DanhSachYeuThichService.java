@@ -27,6 +27,7 @@ import jakarta.persistence.EntityNotFoundException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Core service for DanhSachYeuThich (Wishlist) module
@@ -44,6 +45,7 @@ public class DanhSachYeuThichService {
     private final NguoiDungRepository nguoiDungRepository;
     private final SanPhamRepository sanPhamRepository;
     private final GioHangService gioHangService;
+    private final DanhSachYeuThichIndexService danhSachYeuThichIndexService;
 
     /**
      * Get all wishlist items for a user
@@ -133,6 +135,7 @@ public class DanhSachYeuThichService {
                 .build();
 
         DanhSachYeuThich savedItem = danhSachYeuThichRepository.save(wishlistItem);
+        danhSachYeuThichIndexService.addAfterCommit(request.getNguoiDungId(), request.getSanPhamId());
         log.info("Successfully added product {} to wishlist for user {}", request.getSanPhamId(), request.getNguoiDungId());
 
         return danhSachYeuThichMapper.toDto(savedItem);
@@ -150,6 +153,7 @@ public class DanhSachYeuThichService {
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy sản phẩm trong danh sách yêu thích"));
 
         danhSachYeuThichRepository.delete(wishlistItem);
+        danhSachYeuThichIndexService.removeAfterCommit(nguoiDungId, sanPhamId);
         log.info("Successfully removed product {} from wishlist for user {}", sanPhamId, nguoiDungId);
     }
 
@@ -160,7 +164,9 @@ public class DanhSachYeuThichService {
     public void xoaToanBoYeuThich(Long nguoiDungId) {
         log.info("Clearing entire wishlist for user {}", nguoiDungId);
 
+        List<Long> sanPhamIds = danhSachYeuThichRepository.findSanPhamIdsByNguoiDungId(nguoiDungId);
         danhSachYeuThichRepository.deleteByNguoiDungId(nguoiDungId);
+        danhSachYeuThichIndexService.removeAllAfterCommit(nguoiDungId, sanPhamIds);
         log.info("Successfully cleared wishlist for user {}", nguoiDungId);
     }
 
@@ -199,7 +205,9 @@ public class DanhSachYeuThichService {
     }
 
     /**
-     * Get wishlist items with price drops
+     * Get wishlist items that are currently discounted
+     * Answered by intersecting the user's wishlist with the discounted-product set of the
+     * wishlist index; evaluated against the database while the index is unavailable
      * @param nguoiDungId the user ID
      * @return list of wishlist DTOs with price drops
      */
@@ -207,7 +215,17 @@ public class DanhSachYeuThichService {
     public List<DanhSachYeuThichDto> getSanPhamGiamGiaTrongYeuThich(Long nguoiDungId) {
         log.debug("Getting price drop items in wishlist for user: {}", nguoiDungId);
 
-        List<DanhSachYeuThich> priceDropItems = danhSachYeuThichRepository.findItemsWithPriceDrops(nguoiDungId);
+        Set<Long> discountedIds = danhSachYeuThichIndexService.findDiscountedInWishlist(nguoiDungId);
+        List<DanhSachYeuThich> priceDropItems;
+        if (discountedIds != null) {
+            priceDropItems = discountedIds.isEmpty()
+                    ? List.of()
+                    : danhSachYeuThichRepository.findByNguoiDungIdAndSanPhamIdIn(nguoiDungId, discountedIds);
+        } else {
+            priceDropItems = danhSachYeuThichRepository.findByNguoiDungId(nguoiDungId).stream()
+                    .filter(item -> danhSachYeuThichIndexService.isDiscounted(item.getSanPham()))
+                    .toList();
+        }
         return danhSachYeuThichMapper.toDtoList(priceDropItems);
     }
 
@@ -34,7 +34,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -128,7 +130,7 @@ public class DotGiamGiaService extends BusinessEntityService<DotGiamGia, Long, D
             savedCampaign.getNguoiCapNhat(),
             "Khôi phục chiến dịch từ trạng thái bị hủy"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         return dotGiamGiaMapper.toDto(savedCampaign);
     }
@@ -156,7 +158,7 @@ public class DotGiamGiaService extends BusinessEntityService<DotGiamGia, Long, D
                 savedCampaign.getNguoiCapNhat(),
                 "Khôi phục hàng loạt chiến dịch từ trạng thái bị hủy"
             );
-            auditHistoryRepository.save(auditEntry);
+            writeAudit(auditEntry);
         }
 
         return dotGiamGiaMapper.toDtos(campaigns);
@@ -261,7 +263,7 @@ public class DotGiamGiaService extends BusinessEntityService<DotGiamGia, Long, D
                 savedEntity.getNguoiCapNhat(),
                 "Đóng đợt giảm giá"
             );
-            auditHistoryRepository.save(auditEntry);
+            writeAudit(auditEntry);
 
             return ResponseEntity.ok(dotGiamGiaMapper.toDto(savedEntity));
         } else {
@@ -501,7 +503,7 @@ public class DotGiamGiaService extends BusinessEntityService<DotGiamGia, Long, D
                             savedCampaign.getNguoiCapNhat(),
                             lyDoThayDoi != null ? lyDoThayDoi : "Cập nhật trạng thái hàng loạt"
                         );
-                        auditHistoryRepository.save(auditEntry);
+                        writeAudit(auditEntry);
                     },
                     () -> {
                         throw new RuntimeException("Chiến dịch không tồn tại với ID: " + campaignId);
@@ -548,7 +550,7 @@ public class DotGiamGiaService extends BusinessEntityService<DotGiamGia, Long, D
                             savedCampaign.getNguoiCapNhat(),
                             lyDoThayDoi != null ? lyDoThayDoi : "Hủy chiến dịch hàng loạt"
                         );
-                        auditHistoryRepository.save(auditEntry);
+                        writeAudit(auditEntry);
                     },
                     () -> {
                         throw new RuntimeException("Chiến dịch không tồn tại với ID: " + campaignId);
@@ -890,24 +892,15 @@ public class DotGiamGiaService extends BusinessEntityService<DotGiamGia, Long, D
      * @return JSON string representation
      */
     @Override
-    protected String buildAuditJson(DotGiamGia entity) {
-        if (entity == null) return "{}";
-
-        try {
-            return String.format(
-                "{\"maDotGiamGia\":\"%s\",\"tenDotGiamGia\":\"%s\",\"phanTramGiam\":%s," +
-                "\"ngayBatDau\":\"%s\",\"ngayKetThuc\":\"%s\",\"trangThai\":\"%s\"}",
-                entity.getMaDotGiamGia() != null ? entity.getMaDotGiamGia() : "",
-                entity.getTenDotGiamGia() != null ? entity.getTenDotGiamGia() : "",
-                entity.getPhanTramGiam() != null ? entity.getPhanTramGiam() : "null",
-                entity.getNgayBatDau() != null ? entity.getNgayBatDau().toString() : "",
-                entity.getNgayKetThuc() != null ? entity.getNgayKetThuc().toString() : "",
-                entity.getTrangThai() != null ? entity.getTrangThai().name() : ""
-            );
-        } catch (Exception e) {
-            System.err.println("Error building audit JSON: " + e.getMessage());
-            return "{\"error\":\"Could not serialize discount campaign data\"}";
-        }
+    protected Map<String, Object> captureAuditFields(DotGiamGia entity) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("maDotGiamGia", entity.getMaDotGiamGia());
+        fields.put("tenDotGiamGia", entity.getTenDotGiamGia());
+        fields.put("phanTramGiam", entity.getPhanTramGiam());
+        fields.put("ngayBatDau", entity.getNgayBatDau() != null ? entity.getNgayBatDau().toString() : null);
+        fields.put("ngayKetThuc", entity.getNgayKetThuc() != null ? entity.getNgayKetThuc().toString() : null);
+        fields.put("trangThai", entity.getTrangThai());
+        return fields;
     }
 
 
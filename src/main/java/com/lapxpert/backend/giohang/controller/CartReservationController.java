@@ -1,5 +1,6 @@
 package com.lapxpert.backend.giohang.controller;
 
+import com.lapxpert.backend.common.datasource.ReadFromPrimary;
 import com.lapxpert.backend.common.response.ApiResponse;
 import com.lapxpert.backend.nguoidung.entity.NguoiDung;
 import com.lapxpert.backend.giohang.dto.CartReservationRequest;
@@ -260,6 +261,7 @@ public class CartReservationController {
      */
     @GetMapping("/availability/{variantId}")
     @PreAuthorize("hasAnyRole('ADMIN', 'MANAGER', 'STAFF')")
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public ResponseEntity<ApiResponse<InventoryAvailabilityResponse>> getInventoryAvailability(
             @PathVariable Long variantId,
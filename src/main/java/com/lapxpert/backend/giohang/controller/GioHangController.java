@@ -5,6 +5,7 @@ import com.lapxpert.backend.giohang.dto.GioHangChiTietDto;
 import com.lapxpert.backend.giohang.dto.GioHangConversionDto;
 import com.lapxpert.backend.giohang.dto.ThemSanPhamVaoGioRequest;
 import com.lapxpert.backend.giohang.dto.CapNhatSoLuongRequest;
+import com.lapxpert.backend.giohang.dto.CapNhatGioHangHangLoatRequest;
 import com.lapxpert.backend.giohang.dto.CartToOrderRequestDto;
 import com.lapxpert.backend.giohang.service.CartValidationResult;
 import com.lapxpert.backend.giohang.service.GioHangService;
@@ -178,6 +179,42 @@ public class GioHangController {
         }
     }
 
+    /**
+     * Apply several add/update/remove operations in one request
+     * All operations succeed or none are applied
+     * @param request batch of cart operations
+     * @param currentUser authenticated user
+     * @return updated cart
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<GioHangDto> applyCartOperations(
+            @Valid @RequestBody CapNhatGioHangHangLoatRequest request,
+            @AuthenticationPrincipal NguoiDung currentUser) {
+
+        if (currentUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        // Set user ID from authenticated user
+        request.setNguoiDungId(currentUser.getId());
+
+        log.info("Applying {} cart operations for user {}", request.getThaoTacs().size(), currentUser.getEmail());
+
+        try {
+            GioHangDto updatedCart = gioHangService.applyCartOperations(request);
+            return ResponseEntity.ok(updatedCart);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid batch cart request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (EntityNotFoundException e) {
+            log.warn("Batch cart request references missing item: {}", e.getMessage());
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            log.error("Error applying batch cart operations", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     /**
      * Get cart items with price changes
      * @param currentUser authenticated user
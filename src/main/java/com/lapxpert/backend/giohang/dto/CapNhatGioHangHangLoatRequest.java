@@ -0,0 +1,63 @@
+package com.lapxpert.backend.giohang.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.*;
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request DTO for applying several cart operations at once
+ * Operations are applied in order within a single transaction; if any operation fails
+ * the whole batch is rolled back and the cart is left unchanged
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CapNhatGioHangHangLoatRequest {
+
+    private Long nguoiDungId;
+
+    @NotEmpty(message = "Danh sách thao tác không được để trống")
+    @Size(max = 100, message = "Không được thực hiện quá 100 thao tác trong một lần")
+    @Valid
+    @Builder.Default
+    private List<ThaoTacGioHang> thaoTacs = new ArrayList<>();
+
+    /**
+     * Cart operation type
+     */
+    public enum LoaiThaoTac {
+        /** Add quantity to the line, creating it if missing */
+        ADD,
+        /** Set the line quantity; 0 removes the line */
+        UPDATE,
+        /** Remove the line */
+        REMOVE
+    }
+
+    /**
+     * Single operation within the batch
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ThaoTacGioHang {
+
+        @NotNull(message = "Loại thao tác không được để trống")
+        private LoaiThaoTac loai;
+
+        @NotNull(message = "ID sản phẩm chi tiết không được để trống")
+        private Long sanPhamChiTietId;
+
+        /**
+         * Quantity to add (ADD) or the new quantity (UPDATE). Ignored for REMOVE.
+         */
+        @Min(value = 0, message = "Số lượng phải lớn hơn hoặc bằng 0")
+        @Max(value = 999, message = "Số lượng không được vượt quá 999")
+        private Integer soLuong;
+    }
+}
@@ -105,6 +105,14 @@ public interface GioHangRepository extends JpaRepository<GioHang, Long> {
     @Query("SELECT DISTINCT g FROM GioHang g JOIN g.chiTiets c WHERE c.sanPhamChiTiet.id = :sanPhamChiTietId")
     List<GioHang> findCartsContainingProduct(@Param("sanPhamChiTietId") Long sanPhamChiTietId);
 
+    /**
+     * Find owners of carts containing a specific product (for cart cache invalidation)
+     * @param sanPhamChiTietId product variant ID
+     * @return list of user IDs whose cart holds the product
+     */
+    @Query("SELECT DISTINCT g.nguoiDung.id FROM GioHang g JOIN g.chiTiets c WHERE c.sanPhamChiTiet.id = :sanPhamChiTietId")
+    List<Long> findUserIdsWithVariantInCart(@Param("sanPhamChiTietId") Long sanPhamChiTietId);
+
     /**
      * Find carts with total value greater than specified amount
      * @param minAmount minimum cart value
@@ -0,0 +1,253 @@
+package com.lapxpert.backend.giohang.service;
+
+import com.lapxpert.backend.common.datasource.ReplicaRoutingDataSource;
+import com.lapxpert.backend.phieugiamgia.entity.PhieuGiamGia;
+import com.lapxpert.backend.phieugiamgia.repository.PhieuGiamGiaRepository;
+import com.lapxpert.backend.sanpham.entity.sanpham.SanPhamChiTiet;
+import com.lapxpert.backend.sanpham.repository.SanPhamChiTietRepository;
+import com.lapxpert.backend.sanpham.repository.SerialNumberRepository;
+import com.lapxpert.backend.sanpham.service.PricingService;
+import com.lapxpert.backend.shipping.dto.ShippingFeeResponse;
+import com.lapxpert.backend.shipping.dto.ShippingRequest;
+import com.lapxpert.backend.shipping.service.GHNService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Read-only stages of cart checkout, run concurrently before the order is written.
+ *
+ * Pricing snapshot, voucher selection, GHN shipping quote and inventory availability do not
+ * depend on each other, so they run in parallel on the checkoutPipelineExecutor and are joined
+ * against one request-scoped deadline. Pricing and inventory are required: if either fails or
+ * misses the deadline the checkout is rejected. Voucher selection degrades to "no automatic
+ * voucher"; a failed or late shipping quote leaves the fee null so HoaDonService quotes it again
+ * through its own fallback chain.
+ * Each stage's duration is published as the cart.checkout.stage timer. Stages keep the caller's
+ * {@link com.lapxpert.backend.common.datasource.ReadFromPrimary} pinning, so checkout reads do not
+ * see a lagging replica.
+ */
+@Service
+@Slf4j
+public class CartCheckoutPipeline {
+
+    private static final String STAGE_PRICING = "pricing";
+    private static final String STAGE_INVENTORY = "inventory";
+    private static final String STAGE_VOUCHER = "voucher";
+    private static final String STAGE_SHIPPING = "shipping";
+
+    private final SanPhamChiTietRepository sanPhamChiTietRepository;
+    private final SerialNumberRepository serialNumberRepository;
+    private final PhieuGiamGiaRepository phieuGiamGiaRepository;
+    private final PricingService pricingService;
+    private final GHNService ghnService;
+    private final TaskExecutor checkoutPipelineExecutor;
+    private final TransactionTemplate readOnlyTransaction;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${cart.checkout.deadline-ms:3000}")
+    private long deadlineMs;
+
+    public CartCheckoutPipeline(SanPhamChiTietRepository sanPhamChiTietRepository,
+                                SerialNumberRepository serialNumberRepository,
+                                PhieuGiamGiaRepository phieuGiamGiaRepository,
+                                PricingService pricingService,
+                                GHNService ghnService,
+                                @Qualifier("checkoutPipelineExecutor") TaskExecutor checkoutPipelineExecutor,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry) {
+        this.sanPhamChiTietRepository = sanPhamChiTietRepository;
+        this.serialNumberRepository = serialNumberRepository;
+        this.phieuGiamGiaRepository = phieuGiamGiaRepository;
+        this.pricingService = pricingService;
+        this.ghnService = ghnService;
+        this.checkoutPipelineExecutor = checkoutPipelineExecutor;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Inputs captured from the cart in a short read transaction
+     * @param nguoiDungId customer ID
+     * @param soLuongTheoBienThe requested quantity per variant ID
+     * @param phieuGiamGiaIds vouchers chosen by the customer, possibly empty
+     * @param shippingRequest shipping quote request for the delivery address
+     */
+    public record CheckoutInput(Long nguoiDungId,
+                                Map<Long, Integer> soLuongTheoBienThe,
+                                List<Long> phieuGiamGiaIds,
+                                ShippingRequest shippingRequest) {
+    }
+
+    /**
+     * Joined result of all stages
+     * @param giaHienTai current effective price per variant ID
+     * @param soLuongKhaDung orderable serial numbers per variant ID (missing means zero)
+     * @param voucherCodes voucher codes to apply to the order
+     * @param phiVanChuyen quoted shipping fee, null when the GHN quote failed or timed out
+     * @param thoiGianTheoBuoc duration in milliseconds per stage
+     */
+    public record CheckoutSnapshot(Map<Long, BigDecimal> giaHienTai,
+                                   Map<Long, Long> soLuongKhaDung,
+                                   List<String> voucherCodes,
+                                   BigDecimal phiVanChuyen,
+                                   Map<String, Long> thoiGianTheoBuoc) {
+    }
+
+    public CheckoutSnapshot run(CheckoutInput input) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        Map<String, Long> timings = new ConcurrentHashMap<>();
+
+        CompletableFuture<Map<Long, BigDecimal>> pricing =
+                stage(STAGE_PRICING, () -> snapshotPrices(input), timings);
+        CompletableFuture<Map<Long, Long>> inventory =
+                stage(STAGE_INVENTORY, () -> countOrderable(input), timings);
+        CompletableFuture<List<String>> vouchers =
+                stage(STAGE_VOUCHER, () -> pickVouchers(input), timings);
+        CompletableFuture<BigDecimal> shipping =
+                stage(STAGE_SHIPPING, () -> quoteShipping(input), timings);
+
+        try {
+            Map<Long, BigDecimal> giaHienTai = awaitRequired(pricing, STAGE_PRICING, deadlineNanos);
+            Map<Long, Long> soLuongKhaDung = awaitRequired(inventory, STAGE_INVENTORY, deadlineNanos);
+            List<String> voucherCodes = awaitOptional(vouchers, STAGE_VOUCHER, deadlineNanos, List.of());
+            BigDecimal phiVanChuyen = awaitOptional(shipping, STAGE_SHIPPING, deadlineNanos, null);
+
+            long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            log.info("Checkout pipeline for user {} completed in {} ms, stages: {}",
+                    input.nguoiDungId(), totalMs, timings);
+            return new CheckoutSnapshot(giaHienTai, soLuongKhaDung, voucherCodes, phiVanChuyen,
+                    new LinkedHashMap<>(timings));
+        } finally {
+            // Stop waiting on anything still running once the outcome is decided
+            pricing.cancel(true);
+            inventory.cancel(true);
+            vouchers.cancel(true);
+            shipping.cancel(true);
+        }
+    }
+
+    private Map<Long, BigDecimal> snapshotPrices(CheckoutInput input) {
+        // Campaigns are loaded lazily from the variant, so keep one session for the whole stage
+        return readOnlyTransaction.execute(status -> {
+            Map<Long, BigDecimal> prices = new HashMap<>();
+            for (SanPhamChiTiet variant : sanPhamChiTietRepository.findAllById(input.soLuongTheoBienThe().keySet())) {
+                prices.put(variant.getId(), pricingService.calculateEffectivePrice(variant));
+            }
+            return prices;
+        });
+    }
+
+    private Map<Long, Long> countOrderable(CheckoutInput input) {
+        Map<Long, Long> counts = new HashMap<>();
+        for (Object[] row : serialNumberRepository.countOrderableByVariantIds(input.soLuongTheoBienThe().keySet())) {
+            counts.put((Long) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
+    private List<String> pickVouchers(CheckoutInput input) {
+        // Only the vouchers the customer chose; HoaDonService validates them when the order is written
+        if (input.phieuGiamGiaIds() == null || input.phieuGiamGiaIds().isEmpty()) {
+            return List.of();
+        }
+        return phieuGiamGiaRepository.findAllById(input.phieuGiamGiaIds()).stream()
+                .map(PhieuGiamGia::getMaPhieuGiamGia)
+                .toList();
+    }
+
+    private BigDecimal quoteShipping(CheckoutInput input) {
+        ShippingFeeResponse response = ghnService.calculateShippingFee(input.shippingRequest());
+        if (response.isSuccess() && response.getTotalFee() != null) {
+            return response.getTotalFee();
+        }
+        log.warn("GHN shipping quote failed for user {}: {}, leaving the fee to order creation",
+                input.nguoiDungId(), response.getErrorMessage());
+        return null;
+    }
+
+    private <T> CompletableFuture<T> stage(String name, Supplier<T> work, Map<String, Long> timings) {
+        Supplier<T> routedWork = ReplicaRoutingDataSource.withCallerRouting(work);
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            String outcome = "success";
+            try {
+                return routedWork.get();
+            } catch (RuntimeException e) {
+                outcome = "error";
+                throw e;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                timings.put(name, TimeUnit.NANOSECONDS.toMillis(elapsed));
+                Timer.builder("cart.checkout.stage")
+                        .description("Duration of a cart checkout pipeline stage")
+                        .tag("stage", name)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry)
+                        .record(elapsed, TimeUnit.NANOSECONDS);
+            }
+        }, checkoutPipelineExecutor);
+    }
+
+    private <T> T awaitRequired(CompletableFuture<T> future, String name, long deadlineNanos) {
+        try {
+            return future.get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            recordTimeout(name);
+            throw new IllegalStateException("Checkout stage '" + name + "' exceeded the " + deadlineMs + " ms deadline");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Checkout stage '" + name + "' failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Checkout interrupted while waiting for stage '" + name + "'", e);
+        }
+    }
+
+    private <T> T awaitOptional(CompletableFuture<T> future, String name, long deadlineNanos, T fallback) {
+        try {
+            return future.get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            recordTimeout(name);
+            log.warn("Checkout stage '{}' exceeded the {} ms deadline, continuing without it", name, deadlineMs);
+            return fallback;
+        } catch (ExecutionException e) {
+            log.warn("Checkout stage '{}' failed, continuing without it: {}", name, e.getCause().getMessage());
+            return fallback;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Checkout interrupted while waiting for stage '" + name + "'", e);
+        }
+    }
+
+    private void recordTimeout(String name) {
+        Counter.builder("cart.checkout.stage.timeout")
+                .description("Checkout stages that missed the request deadline")
+                .tag("stage", name)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,282 @@
+package com.lapxpert.backend.giohang.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.lapxpert.backend.giohang.dto.GioHangDto;
+import com.lapxpert.backend.giohang.repository.GioHangRepository;
+import com.lapxpert.backend.sanpham.event.PriceChangeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis read model for user carts.
+ *
+ * Each cart lives in one Redis hash (lapxpert:cart:{userId}) holding the assembled
+ * GioHangDto snapshot plus a version counter. The database stays the source of truth:
+ * mutations write the fresh snapshot through after commit, price changes bump the version
+ * and drop the snapshot, and cache misses repopulate only if no newer version was written
+ * while the database was being read. A cart hit costs exactly one Redis round trip.
+ */
+@Service
+@Slf4j
+public class GioHangCacheService {
+
+    private static final String CART_KEY_PREFIX = "lapxpert:cart:";
+    private static final String EMAIL_KEY_PREFIX = "lapxpert:cart:email:";
+    private static final String FIELD_DATA = "data";
+    private static final String FIELD_VERSION = "version";
+
+    /**
+     * Store the snapshot only if the version has not moved since the miss was observed
+     */
+    private static final RedisScript<Long> POPULATE_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('HGET', KEYS[1], 'version') " +
+            "if (v or '0') ~= ARGV[1] then return 0 end " +
+            "redis.call('HSET', KEYS[1], 'version', ARGV[1], 'data', ARGV[2]) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[3]) " +
+            "return 1",
+            Long.class);
+
+    /**
+     * Replace the snapshot after a committed mutation and advance the version
+     */
+    private static final RedisScript<Long> WRITE_THROUGH_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('HINCRBY', KEYS[1], 'version', 1) " +
+            "redis.call('HSET', KEYS[1], 'data', ARGV[1]) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "return v",
+            Long.class);
+
+    /**
+     * Drop the snapshot but keep (and advance) the version so in-flight repopulation is rejected
+     */
+    private static final RedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('HINCRBY', KEYS[1], 'version', 1) " +
+            "redis.call('HDEL', KEYS[1], 'data') " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1]) " +
+            "return v",
+            Long.class);
+
+    /**
+     * Resolve email -> user id and read the cart hash in a single round trip
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> GET_BY_EMAIL_SCRIPT = new DefaultRedisScript<>(
+            "local uid = redis.call('GET', KEYS[1]) " +
+            "if not uid then return {} end " +
+            "local h = redis.call('HMGET', ARGV[1] .. uid, 'version', 'data') " +
+            "return {uid, h[1] or '0', h[2] or ''}",
+            List.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final GioHangRepository gioHangRepository;
+
+    @Value("${cart.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cart.cache.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    public GioHangCacheService(StringRedisTemplate redisTemplate,
+                               ObjectMapper objectMapper,
+                               GioHangRepository gioHangRepository) {
+        this.redisTemplate = redisTemplate;
+        // Compact JSON for Redis storage; the shared mapper pretty-prints
+        this.objectMapper = objectMapper.copy().disable(SerializationFeature.INDENT_OUTPUT);
+        this.gioHangRepository = gioHangRepository;
+    }
+
+    /**
+     * Result of a cache lookup. A miss still carries the observed version
+     * so the caller can repopulate safely with {@link #populate}.
+     */
+    public record CartLookup(Long nguoiDungId, long version, GioHangDto gioHang) {
+        public boolean isHit() {
+            return gioHang != null;
+        }
+    }
+
+    public CartLookup getByUserId(Long nguoiDungId) {
+        if (!enabled) {
+            return new CartLookup(nguoiDungId, -1, null);
+        }
+        try {
+            Map<Object, Object> hash = redisTemplate.opsForHash().entries(cartKey(nguoiDungId));
+            long version = parseVersion(hash.get(FIELD_VERSION));
+            Object data = hash.get(FIELD_DATA);
+            return new CartLookup(nguoiDungId, version, deserialize(data));
+        } catch (Exception e) {
+            log.warn("Cart cache read failed for user {}: {}", nguoiDungId, e.getMessage());
+            return new CartLookup(nguoiDungId, -1, null);
+        }
+    }
+
+    /**
+     * Look up a cart by user email. Returns a lookup with null user id when the email
+     * mapping is unknown, in which case the caller must resolve the user from the database.
+     */
+    @SuppressWarnings("unchecked")
+    public CartLookup getByEmail(String email) {
+        if (!enabled || email == null) {
+            return new CartLookup(null, -1, null);
+        }
+        try {
+            List<Object> result = redisTemplate.execute(GET_BY_EMAIL_SCRIPT, List.of(emailKey(email)), CART_KEY_PREFIX);
+            if (result == null || result.isEmpty()) {
+                return new CartLookup(null, -1, null);
+            }
+            Long nguoiDungId = Long.valueOf(result.get(0).toString());
+            long version = parseVersion(result.get(1));
+            return new CartLookup(nguoiDungId, version, deserialize(result.get(2)));
+        } catch (Exception e) {
+            log.warn("Cart cache read by email failed: {}", e.getMessage());
+            return new CartLookup(null, -1, null);
+        }
+    }
+
+    /**
+     * Repopulate after a miss. Ignored when the cart was written or invalidated in the meantime.
+     */
+    public void populate(CartLookup miss, GioHangDto gioHang, String email) {
+        if (!enabled || miss.version() < 0 || gioHang == null || gioHang.getNguoiDungId() == null) {
+            return;
+        }
+        try {
+            Long stored = redisTemplate.execute(POPULATE_SCRIPT,
+                    List.of(cartKey(gioHang.getNguoiDungId())),
+                    String.valueOf(miss.version()), serialize(gioHang), String.valueOf(ttl().toMillis()));
+            if (email != null) {
+                redisTemplate.opsForValue().set(emailKey(email), gioHang.getNguoiDungId().toString(), ttl());
+            }
+            log.debug("Cart cache populate for user {} (version {}): {}",
+                    gioHang.getNguoiDungId(), miss.version(), Long.valueOf(1).equals(stored) ? "stored" : "skipped");
+        } catch (Exception e) {
+            log.warn("Cart cache populate failed for user {}: {}", gioHang.getNguoiDungId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Write the cart snapshot through to Redis once the surrounding transaction commits.
+     * Outside a transaction the write happens immediately.
+     */
+    public void writeThroughAfterCommit(Long nguoiDungId, GioHangDto gioHang) {
+        if (!enabled) {
+            return;
+        }
+        runAfterCommit(() -> writeThrough(nguoiDungId, gioHang));
+    }
+
+    /**
+     * Invalidate one cart once the surrounding transaction commits
+     */
+    public void invalidateAfterCommit(Long nguoiDungId) {
+        if (!enabled) {
+            return;
+        }
+        runAfterCommit(() -> invalidate(List.of(nguoiDungId)));
+    }
+
+    /**
+     * Price changes alter giaHienTai/hasPriceChanges for every cart holding the variant.
+     * Bump those carts' versions so the next read rebuilds from the database.
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handlePriceChange(PriceChangeEvent event) {
+        if (!enabled || event.getVariantId() == null) {
+            return;
+        }
+        if (!event.hasRegularPriceChanged() && !event.hasPromotionalPriceChanged()) {
+            return;
+        }
+        try {
+            List<Long> affectedUsers = gioHangRepository.findUserIdsWithVariantInCart(event.getVariantId());
+            invalidate(affectedUsers);
+            log.debug("Invalidated {} cached carts after price change of variant {}",
+                    affectedUsers.size(), event.getVariantId());
+        } catch (Exception e) {
+            log.warn("Failed to invalidate cached carts for variant {}: {}", event.getVariantId(), e.getMessage());
+        }
+    }
+
+    private void writeThrough(Long nguoiDungId, GioHangDto gioHang) {
+        try {
+            redisTemplate.execute(WRITE_THROUGH_SCRIPT, List.of(cartKey(nguoiDungId)),
+                    serialize(gioHang), String.valueOf(ttl().toMillis()));
+        } catch (Exception e) {
+            log.warn("Cart cache write-through failed for user {}, invalidating: {}", nguoiDungId, e.getMessage());
+            invalidate(List.of(nguoiDungId));
+        }
+    }
+
+    private void invalidate(List<Long> nguoiDungIds) {
+        if (nguoiDungIds.isEmpty()) {
+            return;
+        }
+        String ttlMillis = String.valueOf(ttl().toMillis());
+        List<String> failed = new ArrayList<>();
+        for (Long nguoiDungId : nguoiDungIds) {
+            try {
+                redisTemplate.execute(INVALIDATE_SCRIPT, List.of(cartKey(nguoiDungId)), ttlMillis);
+            } catch (Exception e) {
+                failed.add(String.valueOf(nguoiDungId));
+            }
+        }
+        if (!failed.isEmpty()) {
+            log.warn("Failed to invalidate cached carts for users {}", failed);
+        }
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private String serialize(GioHangDto gioHang) throws Exception {
+        return objectMapper.writeValueAsString(gioHang);
+    }
+
+    private GioHangDto deserialize(Object data) throws Exception {
+        if (data == null || data.toString().isEmpty()) {
+            return null;
+        }
+        return objectMapper.readValue(data.toString(), GioHangDto.class);
+    }
+
+    private long parseVersion(Object version) {
+        return version != null ? Long.parseLong(version.toString()) : 0L;
+    }
+
+    private Duration ttl() {
+        return Duration.ofMinutes(ttlMinutes);
+    }
+
+    private String cartKey(Long nguoiDungId) {
+        return CART_KEY_PREFIX + nguoiDungId;
+    }
+
+    private String emailKey(String email) {
+        return EMAIL_KEY_PREFIX + email.toLowerCase();
+    }
+}
@@ -1,10 +1,12 @@
 package com.lapxpert.backend.giohang.service;
 
+import com.lapxpert.backend.common.datasource.ReadFromPrimary;
 import com.lapxpert.backend.giohang.dto.GioHangDto;
 import com.lapxpert.backend.giohang.dto.GioHangChiTietDto;
 import com.lapxpert.backend.giohang.dto.GioHangConversionDto;
 import com.lapxpert.backend.giohang.dto.ThemSanPhamVaoGioRequest;
 import com.lapxpert.backend.giohang.dto.CapNhatSoLuongRequest;
+import com.lapxpert.backend.giohang.dto.CapNhatGioHangHangLoatRequest;
 import com.lapxpert.backend.giohang.dto.CartToOrderRequestDto;
 import com.lapxpert.backend.giohang.mapper.GioHangMapper;
 import com.lapxpert.backend.giohang.mapper.GioHangChiTietMapper;
@@ -24,17 +26,26 @@ import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
 import com.lapxpert.backend.nguoidung.entity.DiaChi;
 import com.lapxpert.backend.nguoidung.repository.DiaChiRepository;
 import com.lapxpert.backend.common.service.WebSocketIntegrationService;
+import com.lapxpert.backend.shipping.dto.ShippingRequest;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import jakarta.persistence.EntityNotFoundException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Service class for GioHang (Shopping Cart) operations
@@ -57,16 +68,57 @@ public class GioHangService {
     private final HoaDonService hoaDonService;
     private final DiaChiRepository diaChiRepository;
     private final WebSocketIntegrationService webSocketIntegrationService;
+    private final GioHangCacheService gioHangCacheService;
+    private final PlatformTransactionManager transactionManager;
+    private final CartCheckoutPipeline cartCheckoutPipeline;
 
     /**
      * Get cart for a specific user, create if doesn't exist
-     * Cache removed - using WebSocket real-time updates for cart data
+     * Served from the Redis cart read model; the database is only hit on a cache miss
      * @param nguoiDungId user ID
      * @return user's cart DTO
      */
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public GioHangDto getCartByUserId(Long nguoiDungId) {
-        log.debug("Getting cart for user ID: {}", nguoiDungId);
+        GioHangCacheService.CartLookup cached = gioHangCacheService.getByUserId(nguoiDungId);
+        if (cached.isHit()) {
+            return cached.gioHang();
+        }
+
+        GioHangDto gioHang = new TransactionTemplate(transactionManager)
+            .execute(status -> loadCartByUserId(nguoiDungId));
+        gioHangCacheService.populate(cached, gioHang, null);
+        return gioHang;
+    }
+
+    /**
+     * Get cart by user email
+     * Served from the Redis cart read model; the database is only hit on a cache miss
+     * @param email user email
+     * @return user's cart DTO
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public GioHangDto getCartByUserEmail(String email) {
+        GioHangCacheService.CartLookup cached = gioHangCacheService.getByEmail(email);
+        if (cached.isHit()) {
+            return cached.gioHang();
+        }
+
+        GioHangDto gioHang = new TransactionTemplate(transactionManager)
+            .execute(status -> loadCartByUserEmail(email));
+        if (cached.nguoiDungId() == null && gioHang != null) {
+            // Email mapping unknown, observe the cart version before populating
+            cached = gioHangCacheService.getByUserId(gioHang.getNguoiDungId());
+        }
+        gioHangCacheService.populate(cached, gioHang, email);
+        return gioHang;
+    }
+
+    /**
+     * Load cart for a user from the database, creating an empty one if needed
+     */
+    private GioHangDto loadCartByUserId(Long nguoiDungId) {
+        log.debug("Loading cart for user ID: {}", nguoiDungId);
 
         Optional<GioHang> gioHangOpt = gioHangRepository.findByNguoiDung_Id(nguoiDungId);
 
@@ -82,14 +134,10 @@ public class GioHangService {
     }
 
     /**
-     * Get cart by user email
-     * Cache removed - using WebSocket real-time updates for cart data
-     * @param email user email
-     * @return user's cart DTO
+     * Load cart for a user email from the database, creating an empty one if needed
      */
-    @Transactional(readOnly = true)
-    public GioHangDto getCartByUserEmail(String email) {
-        log.debug("Getting cart for user email: {}", email);
+    private GioHangDto loadCartByUserEmail(String email) {
+        log.debug("Loading cart for user email: {}", email);
 
         Optional<GioHang> gioHangOpt = gioHangRepository.findByNguoiDung_Email(email);
 
@@ -169,7 +217,7 @@ public class GioHangService {
         // Send WebSocket notification for real-time cart updates
         notifyCartUpdate(request.getNguoiDungId(), "ITEM_ADDED");
 
-        return gioHangMapper.toDto(gioHang);
+        return cacheCart(request.getNguoiDungId(), gioHang);
     }
 
     /**
@@ -210,7 +258,7 @@ public class GioHangService {
         // Send WebSocket notification for real-time cart updates
         notifyCartUpdate(request.getNguoiDungId(), "QUANTITY_UPDATED");
 
-        return gioHangMapper.toDto(gioHang);
+        return cacheCart(request.getNguoiDungId(), gioHang);
     }
 
     /**
@@ -238,7 +286,7 @@ public class GioHangService {
         notifyCartUpdate(nguoiDungId, "ITEM_REMOVED");
 
         log.info("Successfully removed item from cart");
-        return gioHangMapper.toDto(gioHang);
+        return cacheCart(nguoiDungId, gioHang);
     }
 
     /**
@@ -261,7 +309,104 @@ public class GioHangService {
         notifyCartUpdate(nguoiDungId, "CART_CLEARED");
 
         log.info("Successfully cleared cart");
-        return gioHangMapper.toDto(gioHang);
+        return cacheCart(nguoiDungId, gioHang);
+    }
+
+    /**
+     * Apply a batch of add/update/remove operations in one transaction
+     * Touched variants are loaded in a single query, operations are applied in order against
+     * the in-memory cart and a single coalesced WebSocket notification is sent
+     * @param request batch of cart operations
+     * @return updated cart DTO
+     */
+    public GioHangDto applyCartOperations(CapNhatGioHangHangLoatRequest request) {
+        validateBatchRequest(request);
+        Long nguoiDungId = request.getNguoiDungId();
+        List<CapNhatGioHangHangLoatRequest.ThaoTacGioHang> thaoTacs = request.getThaoTacs();
+        log.info("Applying {} cart operations for user {}", thaoTacs.size(), nguoiDungId);
+
+        GioHang gioHang = getOrCreateCart(nguoiDungId);
+
+        // Load every touched variant in one query
+        Set<Long> variantIds = new LinkedHashSet<>();
+        thaoTacs.forEach(thaoTac -> variantIds.add(thaoTac.getSanPhamChiTietId()));
+        Map<Long, SanPhamChiTiet> variants = new HashMap<>();
+        sanPhamChiTietRepository.findAllById(variantIds).forEach(variant -> variants.put(variant.getId(), variant));
+
+        Map<Long, GioHangChiTiet> items = new LinkedHashMap<>();
+        for (GioHangChiTiet item : gioHang.getChiTiets()) {
+            items.put(item.getSanPhamChiTiet().getId(), item);
+        }
+
+        Map<Long, BigDecimal> currentPrices = new HashMap<>();
+        for (CapNhatGioHangHangLoatRequest.ThaoTacGioHang thaoTac : thaoTacs) {
+            Long variantId = thaoTac.getSanPhamChiTietId();
+            GioHangChiTiet item = items.get(variantId);
+
+            switch (thaoTac.getLoai()) {
+                case ADD -> {
+                    SanPhamChiTiet variant = variants.get(variantId);
+                    if (variant == null) {
+                        throw new EntityNotFoundException("Product variant not found: " + variantId);
+                    }
+                    BigDecimal currentPrice = currentPrices.computeIfAbsent(variantId,
+                        id -> pricingService.calculateEffectivePrice(variant));
+                    if (item == null) {
+                        item = GioHangChiTiet.builder()
+                            .gioHang(gioHang)
+                            .sanPhamChiTiet(variant)
+                            .soLuong(thaoTac.getSoLuong())
+                            .giaTaiThoiDiemThem(currentPrice)
+                            .build();
+                        gioHang.getChiTiets().add(item);
+                        items.put(variantId, item);
+                    } else {
+                        item.setSoLuong(item.getSoLuong() + thaoTac.getSoLuong());
+                        if (shouldUpdatePrice(item.getGiaTaiThoiDiemThem(), currentPrice)) {
+                            item.setGiaTaiThoiDiemThem(currentPrice);
+                        }
+                    }
+                }
+                case UPDATE -> {
+                    if (item == null) {
+                        throw new EntityNotFoundException("Cart item not found: " + variantId);
+                    }
+                    if (thaoTac.getSoLuong() <= 0) {
+                        gioHang.getChiTiets().remove(item);
+                        items.remove(variantId);
+                    } else {
+                        item.setSoLuong(thaoTac.getSoLuong());
+                    }
+                }
+                case REMOVE -> {
+                    if (item == null) {
+                        throw new EntityNotFoundException("Cart item not found: " + variantId);
+                    }
+                    gioHang.getChiTiets().remove(item);
+                    items.remove(variantId);
+                }
+            }
+        }
+
+        // Validate the resulting state of every touched line that is still in the cart
+        for (Long variantId : variantIds) {
+            GioHangChiTiet item = items.get(variantId);
+            if (item == null) {
+                continue;
+            }
+            if (item.getSoLuong() > 999) {
+                throw new IllegalArgumentException("Quantity cannot exceed 999");
+            }
+            validateProductAvailability(item.getSanPhamChiTiet(), item.getSoLuong());
+        }
+
+        // Lines are cascaded from the cart: new lines are inserted, removed lines are orphan-deleted
+        gioHangRepository.save(gioHang);
+
+        notifyCartUpdate(nguoiDungId, "BATCH_UPDATED");
+
+        log.info("Applied {} cart operations for user {}", thaoTacs.size(), nguoiDungId);
+        return cacheCart(nguoiDungId, gioHang);
     }
 
     /**
@@ -287,6 +432,7 @@ public class GioHangService {
      * @param request cart to order validation request
      * @return validation result with detailed information
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public CartValidationResult validateCartForOrderPreview(CartToOrderRequestDto request) {
         log.debug("Validating cart for order conversion preview for user {}", request.getNguoiDungId());
@@ -311,6 +457,7 @@ public class GioHangService {
      * @param request cart to order conversion request
      * @return conversion preview with validation results and pricing breakdown
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public GioHangConversionDto getCartConversionPreview(CartToOrderRequestDto request) {
         log.debug("Getting cart conversion preview for user {}", request.getNguoiDungId());
@@ -359,56 +506,64 @@ public class GioHangService {
         // Send WebSocket notification for real-time cart updates
         notifyCartUpdate(nguoiDungId, "PRICES_SYNCED");
 
-        return gioHangMapper.toDto(gioHang);
+        return cacheCart(nguoiDungId, gioHang);
     }
 
     /**
      * Convert cart to order
+     * The cart is captured in a short read transaction, then pricing, inventory, voucher selection
+     * and the GHN shipping quote run concurrently in CartCheckoutPipeline. Only the final order
+     * write holds a transaction, so no connection is pinned while waiting on remote calls.
+     * All reads, including the pipeline stages, go to the primary: an item added just before
+     * checkout may not have reached the replica yet.
      * @param request cart to order conversion request
      * @return created order DTO
      */
+    @ReadFromPrimary
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public HoaDonDto convertCartToOrder(CartToOrderRequestDto request) {
         log.info("Converting cart to order for user {}", request.getNguoiDungId());
 
-        // Step 1: Validate request
-        validateCartToOrderRequest(request);
+        // Step 1: Validate request and capture the cart in a short read transaction
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        PreparedCheckout prepared = readOnlyTransaction.execute(status -> prepareCheckout(request));
 
-        // Step 2: Get user's cart
-        GioHang gioHang = gioHangRepository.findByNguoiDung_Id(request.getNguoiDungId())
-            .orElseThrow(() -> new EntityNotFoundException("Cart not found for user: " + request.getNguoiDungId()));
+        // Step 2: Run the independent read-only stages concurrently
+        CartCheckoutPipeline.CheckoutSnapshot snapshot = cartCheckoutPipeline.run(prepared.input());
 
-        // Step 3: Validate cart is not empty
-        if (gioHang.getChiTiets().isEmpty()) {
-            throw new IllegalArgumentException("Cannot create order from empty cart");
-        }
-
-        // Step 4: Validate cart contents
-        CartValidationResult validationResult = validateCartContents(gioHang, request);
+        // Step 3: Validate cart contents against the pricing and inventory snapshot
+        CartValidationResult validationResult = validateCartContents(
+            prepared.gioHang(), request, snapshot.giaHienTai(), snapshot.soLuongKhaDung());
 
-        // Step 5: Handle validation issues based on force flags
+        // Step 4: Handle validation issues based on force flags
         handleCartValidationIssues(validationResult, request);
 
-        // Step 6: Create order DTO from cart
-        HoaDonDto hoaDonDto = createOrderFromCart(gioHang, request);
+        // Step 5: Apply voucher selection and shipping quote to the order
+        HoaDonDto hoaDonDto = prepared.hoaDonDto();
+        hoaDonDto.setVoucherCodes(snapshot.voucherCodes());
+        if (snapshot.phiVanChuyen() != null) {
+            // A null fee lets HoaDonService apply its own shipping fallback
+            hoaDonDto.setPhiVanChuyen(snapshot.phiVanChuyen());
+        }
 
-        // Step 7: Create order through HoaDonService
+        // Step 6: Create order through HoaDonService, which manages its own short write transaction
         HoaDonDto createdOrder;
         try {
             NguoiDung currentUser = nguoiDungRepository.findById(request.getNguoiDungId())
                 .orElseThrow(() -> new EntityNotFoundException("User not found: " + request.getNguoiDungId()));
-
             createdOrder = hoaDonService.createHoaDon(hoaDonDto, currentUser);
-            log.info("Successfully created order {} from cart for user {}",
-                    createdOrder.getId(), request.getNguoiDungId());
+            log.info("Successfully created order {} from cart for user {} (stage timings: {})",
+                    createdOrder.getId(), request.getNguoiDungId(), snapshot.thoiGianTheoBuoc());
         } catch (Exception e) {
             log.error("Failed to create order from cart for user {}: {}",
                     request.getNguoiDungId(), e.getMessage());
             throw new RuntimeException("Failed to create order from cart: " + e.getMessage(), e);
         }
 
-        // Step 8: Clear cart after successful order creation
+        // Step 7: Clear cart after successful order creation
         try {
-            clearCart(request.getNguoiDungId());
+            new TransactionTemplate(transactionManager).execute(status -> clearCart(request.getNguoiDungId()));
             log.info("Successfully cleared cart after order creation for user {}", request.getNguoiDungId());
         } catch (Exception e) {
             log.warn("Order created successfully but failed to clear cart for user {}: {}",
@@ -419,12 +574,71 @@ public class GioHangService {
         return createdOrder;
     }
 
+    /**
+     * Cart state captured before the checkout pipeline runs
+     */
+    private record PreparedCheckout(GioHang gioHang, HoaDonDto hoaDonDto, CartCheckoutPipeline.CheckoutInput input) {
+    }
+
+    /**
+     * Validate the request, load the cart and build the order draft and pipeline input.
+     * Runs inside a read transaction; everything used afterwards is initialized here.
+     */
+    private PreparedCheckout prepareCheckout(CartToOrderRequestDto request) {
+        DiaChi deliveryAddress = validateCartToOrderRequest(request);
+
+        GioHang gioHang = gioHangRepository.findByNguoiDung_Id(request.getNguoiDungId())
+            .orElseThrow(() -> new EntityNotFoundException("Cart not found for user: " + request.getNguoiDungId()));
+
+        if (gioHang.getChiTiets().isEmpty()) {
+            throw new IllegalArgumentException("Cannot create order from empty cart");
+        }
+
+        HoaDonDto hoaDonDto = createOrderFromCart(gioHang, request);
+
+        Map<Long, Integer> soLuongTheoBienThe = new LinkedHashMap<>();
+        for (GioHangChiTiet cartItem : gioHang.getChiTiets()) {
+            soLuongTheoBienThe.merge(cartItem.getSanPhamChiTiet().getId(), cartItem.getSoLuong(), Integer::sum);
+        }
+        BigDecimal tamTinh = hoaDonDto.getChiTiet().stream()
+            .map(HoaDonChiTietDto::getThanhTien)
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        CartCheckoutPipeline.CheckoutInput input = new CartCheckoutPipeline.CheckoutInput(
+            request.getNguoiDungId(),
+            soLuongTheoBienThe,
+            request.getPhieuGiamGiaIds() != null ? List.copyOf(request.getPhieuGiamGiaIds()) : List.of(),
+            buildShippingRequest(deliveryAddress, hoaDonDto.getChiTiet(), tamTinh));
+
+        return new PreparedCheckout(gioHang, hoaDonDto, input);
+    }
+
+    /**
+     * Build the GHN quote request, using the same package estimate as HoaDonService
+     */
+    private ShippingRequest buildShippingRequest(DiaChi diaChi, List<HoaDonChiTietDto> orderItems, BigDecimal tamTinh) {
+        // Assume 500g per item, minimum 100g
+        int totalWeight = orderItems.stream()
+            .mapToInt(item -> item.getSoLuong() * 500)
+            .sum();
+        totalWeight = Math.max(totalWeight, 100);
+
+        return ShippingRequest.builder()
+            .province(diaChi.getTinhThanh())
+            .district(diaChi.getQuanHuyen())
+            .ward(diaChi.getPhuongXa())
+            .address(diaChi.getDuong())
+            .weight(totalWeight)
+            .value(tamTinh)
+            .build();
+    }
+
     // Private helper methods for cart-to-order conversion
 
     /**
      * Validate cart to order request
      */
-    private void validateCartToOrderRequest(CartToOrderRequestDto request) {
+    private DiaChi validateCartToOrderRequest(CartToOrderRequestDto request) {
         if (request.getNguoiDungId() == null) {
             throw new IllegalArgumentException("User ID cannot be null");
         }
@@ -445,25 +659,48 @@ public class GioHangService {
         if (!deliveryAddress.getNguoiDung().getId().equals(request.getNguoiDungId())) {
             throw new IllegalArgumentException("Delivery address does not belong to the specified user");
         }
+
+        return deliveryAddress;
     }
 
     /**
-     * Validate cart contents for order conversion
+     * Validate cart contents for order conversion, pricing each item sequentially
      */
     private CartValidationResult validateCartContents(GioHang gioHang, CartToOrderRequestDto request) {
+        Map<Long, BigDecimal> giaHienTai = new HashMap<>();
+        for (GioHangChiTiet cartItem : gioHang.getChiTiets()) {
+            if (cartItem.getSanPhamChiTiet().getTrangThai()) {
+                giaHienTai.put(cartItem.getSanPhamChiTiet().getId(),
+                    pricingService.calculateEffectivePrice(cartItem.getSanPhamChiTiet()));
+            }
+        }
+        return validateCartContents(gioHang, request, giaHienTai, null);
+    }
+
+    /**
+     * Validate cart contents against a pricing snapshot and, when provided,
+     * the orderable stock per variant
+     */
+    private CartValidationResult validateCartContents(GioHang gioHang, CartToOrderRequestDto request,
+                                                      Map<Long, BigDecimal> giaHienTai,
+                                                      Map<Long, Long> soLuongKhaDung) {
         CartValidationResult result = new CartValidationResult();
         BigDecimal calculatedTotal = BigDecimal.ZERO;
 
         for (GioHangChiTiet cartItem : gioHang.getChiTiets()) {
-            // Check product availability
-            if (!cartItem.getSanPhamChiTiet().getTrangThai()) {
+            Long variantId = cartItem.getSanPhamChiTiet().getId();
+
+            // Check product availability and, when known, remaining stock
+            boolean outOfStock = soLuongKhaDung != null
+                && soLuongKhaDung.getOrDefault(variantId, 0L) < cartItem.getSoLuong();
+            if (!cartItem.getSanPhamChiTiet().getTrangThai() || outOfStock) {
                 result.addUnavailableItem(cartItem);
                 continue; // Skip price calculation for unavailable items
             }
 
             // Check for price changes
-            BigDecimal currentPrice = pricingService.calculateEffectivePrice(cartItem.getSanPhamChiTiet());
-            if (!cartItem.getGiaTaiThoiDiemThem().equals(currentPrice)) {
+            BigDecimal currentPrice = giaHienTai.get(variantId);
+            if (currentPrice != null && !cartItem.getGiaTaiThoiDiemThem().equals(currentPrice)) {
                 result.addPriceChangedItem(cartItem, currentPrice);
             }
 
@@ -637,6 +874,30 @@ public class GioHangService {
         }
     }
 
+    /**
+     * Validate batch cart operation request
+     */
+    private void validateBatchRequest(CapNhatGioHangHangLoatRequest request) {
+        if (request.getNguoiDungId() == null) {
+            throw new IllegalArgumentException("User ID cannot be null");
+        }
+        if (request.getThaoTacs() == null || request.getThaoTacs().isEmpty()) {
+            throw new IllegalArgumentException("Operation list cannot be empty");
+        }
+        for (CapNhatGioHangHangLoatRequest.ThaoTacGioHang thaoTac : request.getThaoTacs()) {
+            if (thaoTac.getLoai() == null || thaoTac.getSanPhamChiTietId() == null) {
+                throw new IllegalArgumentException("Operation type and product variant ID cannot be null");
+            }
+            if (thaoTac.getLoai() == CapNhatGioHangHangLoatRequest.LoaiThaoTac.ADD
+                    && (thaoTac.getSoLuong() == null || thaoTac.getSoLuong() <= 0)) {
+                throw new IllegalArgumentException("Quantity must be greater than 0");
+            }
+            if (thaoTac.getLoai() == CapNhatGioHangHangLoatRequest.LoaiThaoTac.UPDATE && thaoTac.getSoLuong() == null) {
+                throw new IllegalArgumentException("New quantity cannot be null");
+            }
+        }
+    }
+
     /**
      * Validate product availability
      */
@@ -676,6 +937,15 @@ public class GioHangService {
         log.debug("Refreshing price information for cart with {} items", gioHang.getChiTiets().size());
     }
 
+    /**
+     * Map the cart and write the snapshot through to the Redis read model after commit
+     */
+    private GioHangDto cacheCart(Long nguoiDungId, GioHang gioHang) {
+        GioHangDto gioHangDto = gioHangMapper.toDto(gioHang);
+        gioHangCacheService.writeThroughAfterCommit(nguoiDungId, gioHangDto);
+        return gioHangDto;
+    }
+
     /**
      * Send WebSocket notification for cart updates
      * Replaces cache eviction with real-time notifications
@@ -1,24 +1,34 @@
 package com.lapxpert.backend.hoadon.controller;
 
+import com.lapxpert.backend.common.service.IdempotencyService;
+import com.lapxpert.backend.hoadon.dto.CapNhatTrangThaiHangLoatRequest;
 import com.lapxpert.backend.hoadon.dto.HoaDonDto;
+import com.lapxpert.backend.hoadon.dto.KetQuaCapNhatTrangThaiHangLoatDto;
+import com.lapxpert.backend.hoadon.dto.HoaDonListPageDto;
 import com.lapxpert.backend.hoadon.entity.HoaDonAuditHistory;
+import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
 import com.lapxpert.backend.hoadon.enums.PhuongThucThanhToan;
 import com.lapxpert.backend.hoadon.enums.TrangThaiThanhToan;
 import com.lapxpert.backend.hoadon.service.HoaDonService;
 import com.lapxpert.backend.hoadon.service.ReceiptPreviewService;
 import com.lapxpert.backend.nguoidung.entity.NguoiDung;
+import com.lapxpert.backend.nguoidung.entity.VaiTro;
 
 
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import jakarta.servlet.http.HttpServletRequest;
 
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -27,11 +37,14 @@ public class HoaDonController {
 
     private final HoaDonService hoaDonService;
     private final ReceiptPreviewService receiptPreviewService;
+    private final IdempotencyService idempotencyService;
 
 
-    public HoaDonController(HoaDonService hoaDonService, ReceiptPreviewService receiptPreviewService) {
+    public HoaDonController(HoaDonService hoaDonService, ReceiptPreviewService receiptPreviewService,
+                            IdempotencyService idempotencyService) {
         this.hoaDonService = hoaDonService;
         this.receiptPreviewService = receiptPreviewService;
+        this.idempotencyService = idempotencyService;
     }
 
     // Lấy tất cả hóa đơn hoặc lọc theo trạng thái giao hàng
@@ -42,11 +55,60 @@ public class HoaDonController {
         return ResponseEntity.ok(hoaDonDtos);
     }
 
+    // Danh sách hóa đơn phân trang theo con trỏ (keyset), dùng cho màn hình quản lý đơn hàng
+    @GetMapping("/page")
+    public ResponseEntity<?> getHoaDonListPage(
+            @RequestParam(value = "trangThai", required = false) String trangThai,
+            @RequestParam(value = "loaiHoaDon", required = false) LoaiHoaDon loaiHoaDon,
+            @RequestParam(value = "tuNgay", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant tuNgay,
+            @RequestParam(value = "denNgay", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant denNgay,
+            @RequestParam(value = "khachHangId", required = false) Long khachHangId,
+            @RequestParam(value = "nhanVienId", required = false) Long nhanVienId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", required = false) Integer size) {
+        try {
+            HoaDonListPageDto page = hoaDonService.getHoaDonListPage(
+                    trangThai, loaiHoaDon, tuNgay, denNgay, khachHangId, nhanVienId, cursor, size);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+    }
+
     // Thêm mới hóa đơn - Path changed from /add to / to match frontend, NguoiDung added
+    // Retries with the same Idempotency-Key header get the stored response instead of creating the order again
     @PostMapping
-    public ResponseEntity<HoaDonDto> createHoaDon(@RequestBody HoaDonDto hoaDonDto, @AuthenticationPrincipal NguoiDung currentUser) {
-        HoaDonDto createdHoaDonDto = hoaDonService.createHoaDon(hoaDonDto, currentUser);
-        return new ResponseEntity<>(createdHoaDonDto, HttpStatus.CREATED);
+    public ResponseEntity<?> createHoaDon(@RequestBody HoaDonDto hoaDonDto,
+                                          @AuthenticationPrincipal NguoiDung currentUser,
+                                          @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, "hoa-don-create", principalOf(currentUser), hoaDonDto, () -> {
+            HoaDonDto createdHoaDonDto = hoaDonService.createHoaDon(hoaDonDto, currentUser);
+            return new ResponseEntity<>(createdHoaDonDto, HttpStatus.CREATED);
+        });
+    }
+
+    // Idempotency keys are scoped per user so two clients cannot collide on the same key
+    private String principalOf(NguoiDung currentUser) {
+        return currentUser != null && currentUser.getId() != null ? currentUser.getId().toString() : "anonymous";
+    }
+
+    // Cập nhật trạng thái hàng loạt, trả về kết quả theo từng hóa đơn
+    @PostMapping("/bulk-status")
+    public ResponseEntity<?> capNhatTrangThaiHangLoat(@RequestBody CapNhatTrangThaiHangLoatRequest request,
+                                                      @AuthenticationPrincipal NguoiDung currentUser) {
+        try {
+            KetQuaCapNhatTrangThaiHangLoatDto ketQua = hoaDonService.capNhatTrangThaiHangLoat(
+                    request.getHoaDonIds(), request.getTrangThaiMoi(), request.getLyDo(), currentUser);
+            return ResponseEntity.ok(ketQua);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("success", false);
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
     }
 
     // Lấy hóa đơn theo ID với kiểm tra bảo mật
@@ -93,12 +155,16 @@ public class HoaDonController {
 
     // Endpoint để xác nhận thanh toán với kiểm tra bảo mật
     @PostMapping("/{orderId}/confirm-payment")
-    public ResponseEntity<HoaDonDto> confirmPayment(
+    public ResponseEntity<?> confirmPayment(
             @PathVariable Long orderId,
             @RequestParam PhuongThucThanhToan phuongThucThanhToan,
-            @AuthenticationPrincipal NguoiDung currentUser) {
-        HoaDonDto confirmedOrder = hoaDonService.confirmPaymentSecure(orderId, phuongThucThanhToan, currentUser);
-        return ResponseEntity.ok(confirmedOrder);
+            @AuthenticationPrincipal NguoiDung currentUser,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        Map<String, Object> fingerprint = Map.of("orderId", orderId, "phuongThucThanhToan", phuongThucThanhToan);
+        return idempotencyService.execute(idempotencyKey, "hoa-don-confirm-payment", principalOf(currentUser), fingerprint, () -> {
+            HoaDonDto confirmedOrder = hoaDonService.confirmPaymentSecure(orderId, phuongThucThanhToan, currentUser);
+            return ResponseEntity.ok(confirmedOrder);
+        });
     }
 
     // Endpoint để hủy đơn hàng với kiểm tra bảo mật
@@ -193,10 +259,23 @@ public class HoaDonController {
 
     // Endpoint để xử lý thanh toán hỗn hợp cho đơn hàng cụ thể
     @PostMapping("/{orderId}/mixed-payment")
-    public ResponseEntity<Map<String, Object>> processMixedPayment(
+    public ResponseEntity<?> processMixedPayment(
             @PathVariable Long orderId,
             @RequestBody MixedPaymentRequest mixedPaymentRequest,
             @AuthenticationPrincipal NguoiDung currentUser,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            HttpServletRequest request) {
+        Map<String, Object> fingerprint = new HashMap<>();
+        fingerprint.put("orderId", orderId);
+        fingerprint.put("payment", mixedPaymentRequest);
+        return idempotencyService.execute(idempotencyKey, "hoa-don-mixed-payment", principalOf(currentUser), fingerprint,
+                () -> doProcessMixedPayment(orderId, mixedPaymentRequest, currentUser, request));
+    }
+
+    private ResponseEntity<Map<String, Object>> doProcessMixedPayment(
+            Long orderId,
+            MixedPaymentRequest mixedPaymentRequest,
+            NguoiDung currentUser,
             HttpServletRequest request) {
 
         try {
@@ -420,22 +499,31 @@ public class HoaDonController {
 
     // Endpoint để tạo và tải PDF hóa đơn
     @GetMapping("/{orderId}/receipt")
-    public ResponseEntity<byte[]> generateReceiptPdf(
+    public ResponseEntity<StreamingResponseBody> generateReceiptPdf(
             @PathVariable Long orderId,
             @AuthenticationPrincipal NguoiDung currentUser) {
         // Security check through service layer
         hoaDonService.getHoaDonByIdSecure(orderId, currentUser); // This will throw if user doesn't have access
 
-        try {
-            byte[] pdfBytes = receiptPreviewService.generateReceiptPdf(orderId);
+        return ResponseEntity.ok()
+                .header("Content-Type", "application/pdf")
+                .header("Content-Disposition", "attachment; filename=hoa-don-" + orderId + ".pdf")
+                .body(receiptPreviewService.streamReceiptPdf(orderId));
+    }
 
-            return ResponseEntity.ok()
-                    .header("Content-Type", "application/pdf")
-                    .header("Content-Disposition", "attachment; filename=hoa-don-" + orderId + ".pdf")
-                    .body(pdfBytes);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to generate PDF receipt: " + e.getMessage(), e);
+    // Endpoint để tải PDF tất cả hóa đơn đã thanh toán trong một ngày (chỉ nhân viên)
+    @GetMapping("/receipts/daily")
+    public ResponseEntity<StreamingResponseBody> generateDailyReceiptsPdf(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate ngay,
+            @AuthenticationPrincipal NguoiDung currentUser) {
+        if (currentUser == null || currentUser.getVaiTro() == null || currentUser.getVaiTro() == VaiTro.CUSTOMER) {
+            throw new SecurityException("Bạn không có quyền tải hóa đơn theo ngày");
         }
+
+        return ResponseEntity.ok()
+                .header("Content-Type", "application/pdf")
+                .header("Content-Disposition", "attachment; filename=hoa-don-" + ngay + ".pdf")
+                .body(receiptPreviewService.streamDailyReceiptsPdf(ngay));
     }
 
     // Endpoint để lấy lịch sử audit của đơn hàng
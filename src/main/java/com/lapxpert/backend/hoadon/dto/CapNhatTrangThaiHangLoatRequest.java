@@ -0,0 +1,18 @@
+package com.lapxpert.backend.hoadon.dto;
+
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Request to move many orders to the same status in one call.
+ */
+@Data
+@NoArgsConstructor
+public class CapNhatTrangThaiHangLoatRequest {
+    private List<Long> hoaDonIds;
+    private TrangThaiDonHang trangThaiMoi;
+    private String lyDo;
+}
@@ -0,0 +1,37 @@
+package com.lapxpert.backend.hoadon.dto;
+
+import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
+import com.lapxpert.backend.hoadon.enums.PhuongThucThanhToan;
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import com.lapxpert.backend.hoadon.enums.TrangThaiThanhToan;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Flat row of the admin order list, selected directly by HoaDonRepository.findOrderListPage
+ * without loading line items, vouchers or addresses.
+ * Constructor argument order must match the JPQL constructor expression.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HoaDonListItemDto {
+    private Long id;
+    private String maHoaDon;
+    private LoaiHoaDon loaiHoaDon;
+    private TrangThaiDonHang trangThaiDonHang;
+    private TrangThaiThanhToan trangThaiThanhToan;
+    private BigDecimal tongThanhToan;
+    private Long khachHangId;
+    private String tenKhachHang;
+    private String nguoiNhanTen;
+    private String nguoiNhanSdt;
+    private Long nhanVienId;
+    private String tenNhanVien;
+    private PhuongThucThanhToan phuongThucThanhToan;
+    private Instant ngayTao;
+}
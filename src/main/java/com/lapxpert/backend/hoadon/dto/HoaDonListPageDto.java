@@ -0,0 +1,19 @@
+package com.lapxpert.backend.hoadon.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One keyset page of the order list.
+ * nextCursor is null on the last page; pass it back unchanged to fetch the following page.
+ */
+@Data
+@Builder
+public class HoaDonListPageDto {
+    private List<HoaDonListItemDto> items;
+    private int size;
+    private boolean hasNext;
+    private String nextCursor;
+}
@@ -0,0 +1,33 @@
+package com.lapxpert.backend.hoadon.dto;
+
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk status change, with one entry per requested order in request order.
+ */
+@Data
+@Builder
+public class KetQuaCapNhatTrangThaiHangLoatDto {
+    private TrangThaiDonHang trangThaiMoi;
+    private int tongSo;
+    private int soThanhCong;
+    private int soThatBai;
+    private List<KetQuaDonHang> ketQua;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class KetQuaDonHang {
+        private Long hoaDonId;
+        private String maHoaDon;
+        private TrangThaiDonHang trangThaiCu;
+        private boolean thanhCong;
+        private String thongBao;
+    }
+}
@@ -26,7 +26,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Table(name = "hoa_don_audit_history", indexes = {
-    @Index(name = "idx_audit_hoa_don_id", columnList = "hoa_don_id"),
+    @Index(name = "idx_audit_hoa_don_id", columnList = "hoa_don_id, thoi_gian_thay_doi"),
     @Index(name = "idx_hoa_don_audit_timestamp", columnList = "thoi_gian_thay_doi"),
     @Index(name = "idx_hoa_don_audit_action", columnList = "hanh_dong")
 })
@@ -30,6 +30,14 @@ public interface ChuyenDoiTrangThaiHoaDonRepository extends JpaRepository<Chuyen
         TrangThaiDonHang trangThaiDen
     );
 
+    /**
+     * Tìm tất cả quy tắc chuyển đổi đến một trạng thái đích
+     * 
+     * @param trangThaiDen Trạng thái đích
+     * @return Danh sách quy tắc chuyển đổi, kể cả quy tắc không được phép
+     */
+    List<ChuyenDoiTrangThaiHoaDon> findByTrangThaiDen(TrangThaiDonHang trangThaiDen);
+
     /**
      * Tìm tất cả các chuyển đổi được phép từ một trạng thái cụ thể
      * 
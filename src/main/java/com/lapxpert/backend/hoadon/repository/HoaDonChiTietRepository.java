@@ -7,7 +7,9 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -58,6 +60,125 @@ public interface HoaDonChiTietRepository extends JpaRepository<HoaDonChiTiet, Lo
                                          @Param("denNgay") Instant denNgay,
                                          Pageable pageable);
 
+    /**
+     * Units and revenue of one product, optionally within one order
+     */
+    interface BanHangTheoSanPham {
+        Long getHoaDonId();
+        Long getSanPhamId();
+        String getTenSanPham();
+        String getHinhAnh();
+        String getThuongHieu();
+        Instant getNgayTao();
+        Long getSoLuong();
+        BigDecimal getDoanhThu();
+    }
+
+    /**
+     * Units and revenue per product of the given orders, with each order's creation time
+     * @param hoaDonIds order IDs
+     * @return one row per order and product
+     */
+    @Query(value = "SELECT " +
+           "hd.id AS hoaDonId, " +
+           "sp.id AS sanPhamId, " +
+           "sp.ten_san_pham AS tenSanPham, " +
+           "(SELECT anh.hinh_anh->>0 FROM san_pham_chi_tiet anh " +
+           " WHERE anh.san_pham_id = sp.id AND anh.hinh_anh IS NOT NULL AND jsonb_array_length(anh.hinh_anh) > 0 " +
+           " ORDER BY anh.id LIMIT 1) AS hinhAnh, " +
+           "COALESCE(th.mo_ta_thuong_hieu, 'Không có') AS thuongHieu, " +
+           "hd.ngay_tao AS ngayTao, " +
+           "SUM(hct.so_luong) AS soLuong, " +
+           "SUM(hct.thanh_tien) AS doanhThu " +
+           "FROM hoa_don_chi_tiet hct " +
+           "JOIN hoa_don hd ON hct.hoa_don_id = hd.id " +
+           "JOIN san_pham_chi_tiet spc ON hct.san_pham_chi_tiet_id = spc.id " +
+           "JOIN san_pham sp ON spc.san_pham_id = sp.id " +
+           "LEFT JOIN thuong_hieu th ON sp.thuong_hieu_id = th.id " +
+           "WHERE hd.id IN (:hoaDonIds) " +
+           "GROUP BY hd.id, hd.ngay_tao, sp.id, sp.ten_san_pham, th.mo_ta_thuong_hieu",
+           nativeQuery = true)
+    List<BanHangTheoSanPham> tongHopBanHangTheoHoaDon(@Param("hoaDonIds") Collection<Long> hoaDonIds);
+
+    /**
+     * Exact units and revenue per product in completed orders created in [tuNgay, denNgay),
+     * best sellers first; hoaDonId and ngayTao are not selected
+     * @param tuNgay Start time, inclusive
+     * @param denNgay End time, exclusive
+     * @param pageable Number of products to return
+     */
+    @Query(value = "SELECT " +
+           "sp.id AS sanPhamId, " +
+           "sp.ten_san_pham AS tenSanPham, " +
+           "(SELECT anh.hinh_anh->>0 FROM san_pham_chi_tiet anh " +
+           " WHERE anh.san_pham_id = sp.id AND anh.hinh_anh IS NOT NULL AND jsonb_array_length(anh.hinh_anh) > 0 " +
+           " ORDER BY anh.id LIMIT 1) AS hinhAnh, " +
+           "COALESCE(th.mo_ta_thuong_hieu, 'Không có') AS thuongHieu, " +
+           "SUM(hct.so_luong) AS soLuong, " +
+           "SUM(hct.thanh_tien) AS doanhThu " +
+           "FROM hoa_don_chi_tiet hct " +
+           "JOIN hoa_don hd ON hct.hoa_don_id = hd.id " +
+           "JOIN san_pham_chi_tiet spc ON hct.san_pham_chi_tiet_id = spc.id " +
+           "JOIN san_pham sp ON spc.san_pham_id = sp.id " +
+           "LEFT JOIN thuong_hieu th ON sp.thuong_hieu_id = th.id " +
+           "WHERE hd.ngay_tao >= :tuNgay AND hd.ngay_tao < :denNgay " +
+           "AND hd.trang_thai_don_hang = 'HOAN_THANH' " +
+           "GROUP BY sp.id, sp.ten_san_pham, th.mo_ta_thuong_hieu " +
+           "ORDER BY SUM(hct.so_luong) DESC, sp.id",
+           nativeQuery = true)
+    List<BanHangTheoSanPham> tongHopBanChayTheoSanPham(@Param("tuNgay") Instant tuNgay,
+                                                        @Param("denNgay") Instant denNgay,
+                                                        Pageable pageable);
+
+    interface BanHangTheoBienThe {
+        Long getHoaDonId();
+        Long getSanPhamChiTietId();
+        Instant getNgayTao();
+        Long getSoLuong();
+    }
+
+    /**
+     * Units per variant of the given orders, with each order's creation time
+     * @param hoaDonIds order IDs
+     * @return one row per order and variant
+     */
+    @Query(value = "SELECT " +
+           "hd.id AS hoaDonId, " +
+           "hct.san_pham_chi_tiet_id AS sanPhamChiTietId, " +
+           "hd.ngay_tao AS ngayTao, " +
+           "SUM(hct.so_luong) AS soLuong " +
+           "FROM hoa_don_chi_tiet hct " +
+           "JOIN hoa_don hd ON hct.hoa_don_id = hd.id " +
+           "WHERE hd.id IN (:hoaDonIds) " +
+           "GROUP BY hd.id, hd.ngay_tao, hct.san_pham_chi_tiet_id",
+           nativeQuery = true)
+    List<BanHangTheoBienThe> tongHopBanHangTheoBienThe(@Param("hoaDonIds") Collection<Long> hoaDonIds);
+
+    interface TrongSoBanHang {
+        Long getSanPhamChiTietId();
+        Double getTrongSo();
+    }
+
+    /**
+     * Exponentially weighted units per variant in completed orders created since tuNgay: each
+     * line counts so_luong * exp((ngay_tao - moc) / tau)
+     * @param tuNgay Oldest order creation time to include
+     * @param mocGiay Reference time, epoch seconds
+     * @param tauGiay Decay time constant in seconds
+     */
+    @Query(value = "SELECT " +
+           "hct.san_pham_chi_tiet_id AS sanPhamChiTietId, " +
+           "SUM(hct.so_luong * EXP((EXTRACT(EPOCH FROM hd.ngay_tao) - :mocGiay) / :tauGiay)) AS trongSo " +
+           "FROM hoa_don_chi_tiet hct " +
+           "JOIN hoa_don hd ON hct.hoa_don_id = hd.id " +
+           "WHERE hd.ngay_tao >= :tuNgay " +
+           "AND hd.trang_thai_don_hang = 'HOAN_THANH' " +
+           "GROUP BY hct.san_pham_chi_tiet_id",
+           nativeQuery = true)
+    List<TrongSoBanHang> tongHopTrongSoBanHang(@Param("tuNgay") Instant tuNgay,
+                                               @Param("mocGiay") double mocGiay,
+                                               @Param("tauGiay") double tauGiay);
+
     /**
      * Find top selling categories by quantity sold in completed orders
      * @param tuNgay Start date
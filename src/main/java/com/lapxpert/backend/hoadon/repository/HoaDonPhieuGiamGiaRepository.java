@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -23,4 +24,11 @@ public interface HoaDonPhieuGiamGiaRepository extends JpaRepository<HoaDonPhieuG
     void insertVoucherOrderRelationship(@Param("hoaDonId") Long hoaDonId,
                                        @Param("phieuGiamGiaId") Long phieuGiamGiaId,
                                        @Param("giaTriDaGiam") BigDecimal giaTriDaGiam);
+
+    /**
+     * Remove all voucher links of a set of orders in one statement
+     */
+    @Modifying
+    @Query("DELETE FROM HoaDonPhieuGiamGia h WHERE h.hoaDon.id IN :hoaDonIds")
+    int deleteByHoaDonIdIn(@Param("hoaDonIds") Collection<Long> hoaDonIds);
 }
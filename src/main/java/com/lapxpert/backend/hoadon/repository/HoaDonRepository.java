@@ -1,10 +1,14 @@
 package com.lapxpert.backend.hoadon.repository;
 
+import com.lapxpert.backend.hoadon.dto.HoaDonListItemDto;
 import com.lapxpert.backend.hoadon.entity.HoaDon;
 import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
 import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
 import com.lapxpert.backend.hoadon.enums.PhuongThucThanhToan;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -12,6 +16,7 @@ import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,6 +29,103 @@ public interface HoaDonRepository extends JpaRepository<HoaDon, Long> {
     // Find invoices by customer's email
     List<HoaDon> findByKhachHang_Email(String email);
 
+    // Find invoice by its unique code
+    Optional<HoaDon> findByMaHoaDon(String maHoaDon);
+
+    /**
+     * Keyset page of the order list as flat rows, newest first.
+     * The primary payment method is the most recent HoaDonThanhToan, same as HoaDonService.getPaymentMethodFromThanhToan.
+     * Null filters are ignored; a null cursor starts from the newest order.
+     * Pass a Pageable of size + 1 to detect whether another page exists.
+     */
+    @Query("SELECT new com.lapxpert.backend.hoadon.dto.HoaDonListItemDto(" +
+            "h.id, h.maHoaDon, h.loaiHoaDon, h.trangThaiDonHang, h.trangThaiThanhToan, h.tongThanhToan, " +
+            "kh.id, kh.hoTen, h.nguoiNhanTen, h.nguoiNhanSdt, nv.id, nv.hoTen, " +
+            "(SELECT t.phuongThucThanhToan FROM HoaDonThanhToan hdt JOIN hdt.thanhToan t " +
+            " WHERE hdt.hoaDon.id = h.id ORDER BY hdt.ngayTao DESC, t.id DESC LIMIT 1), " +
+            "h.ngayTao) " +
+            "FROM HoaDon h " +
+            "LEFT JOIN h.khachHang kh " +
+            "LEFT JOIN h.nhanVien nv " +
+            "WHERE (:trangThai IS NULL OR h.trangThaiDonHang = :trangThai) " +
+            "AND (:loaiHoaDon IS NULL OR h.loaiHoaDon = :loaiHoaDon) " +
+            "AND (:tuNgay IS NULL OR h.ngayTao >= :tuNgay) " +
+            "AND (:denNgay IS NULL OR h.ngayTao < :denNgay) " +
+            "AND (:khachHangId IS NULL OR kh.id = :khachHangId) " +
+            "AND (:nhanVienId IS NULL OR nv.id = :nhanVienId) " +
+            "AND (:cursorId IS NULL OR h.ngayTao < :cursorNgayTao " +
+            "     OR (h.ngayTao = :cursorNgayTao AND h.id < :cursorId)) " +
+            "ORDER BY h.ngayTao DESC, h.id DESC")
+    List<HoaDonListItemDto> findOrderListPage(@Param("trangThai") TrangThaiDonHang trangThai,
+                                              @Param("loaiHoaDon") LoaiHoaDon loaiHoaDon,
+                                              @Param("tuNgay") Instant tuNgay,
+                                              @Param("denNgay") Instant denNgay,
+                                              @Param("khachHangId") Long khachHangId,
+                                              @Param("nhanVienId") Long nhanVienId,
+                                              @Param("cursorNgayTao") Instant cursorNgayTao,
+                                              @Param("cursorId") Long cursorId,
+                                              Pageable pageable);
+
+    /**
+     * Lock a set of orders for a bulk status change, in ID order so concurrent bulk requests cannot deadlock.
+     * The customer is fetched because the status email goes to the customer address.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT h FROM HoaDon h LEFT JOIN FETCH h.khachHang WHERE h.id IN :ids ORDER BY h.id")
+    List<HoaDon> findAllByIdInForUpdate(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Set-based status change for orders already locked and validated by the caller
+     * @return number of updated rows
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE HoaDon h SET h.trangThaiDonHang = :trangThaiMoi, " +
+            "h.ngayCapNhat = :ngayCapNhat, h.nguoiCapNhat = :nguoiCapNhat " +
+            "WHERE h.id IN :ids")
+    int updateTrangThaiDonHangByIdIn(@Param("ids") Collection<Long> ids,
+                                     @Param("trangThaiMoi") TrangThaiDonHang trangThaiMoi,
+                                     @Param("ngayCapNhat") Instant ngayCapNhat,
+                                     @Param("nguoiCapNhat") String nguoiCapNhat);
+
+    /**
+     * Version of an order's detail views, used by OrderReadCache.
+     * Covers the order row, its line items and its payments.
+     */
+    interface OrderReadVersion {
+        Instant getNgayCapNhat();
+        Long getKhachHangId();
+        Instant getChiTietCapNhat();
+        Long getSoChiTiet();
+        Instant getThanhToanCapNhat();
+    }
+
+    @Query("SELECT h.ngayCapNhat AS ngayCapNhat, k.id AS khachHangId, " +
+            "(SELECT MAX(ct.ngayCapNhat) FROM HoaDonChiTiet ct WHERE ct.hoaDon.id = h.id) AS chiTietCapNhat, " +
+            "(SELECT COUNT(ct) FROM HoaDonChiTiet ct WHERE ct.hoaDon.id = h.id) AS soChiTiet, " +
+            "(SELECT MAX(tt.ngayCapNhat) FROM HoaDonThanhToan tt WHERE tt.hoaDon.id = h.id) AS thanhToanCapNhat " +
+            "FROM HoaDon h LEFT JOIN h.khachHang k WHERE h.id = :id")
+    Optional<OrderReadVersion> findReadVersionById(@Param("id") Long id);
+
+    /**
+     * Paid orders created in a time range, oldest first, for the daily receipt PDF
+     */
+    @Query("SELECT h.id FROM HoaDon h " +
+            "WHERE h.ngayTao >= :tuNgay AND h.ngayTao < :denNgay " +
+            "AND h.trangThaiThanhToan = com.lapxpert.backend.hoadon.enums.TrangThaiThanhToan.DA_THANH_TOAN " +
+            "ORDER BY h.ngayTao, h.id")
+    List<Long> findPaidOrderIdsForReceipts(@Param("tuNgay") Instant tuNgay, @Param("denNgay") Instant denNgay);
+
+    /**
+     * Orders with everything a receipt shows, loaded in one query
+     */
+    @Query("SELECT DISTINCT h FROM HoaDon h " +
+            "LEFT JOIN FETCH h.hoaDonChiTiets " +
+            "LEFT JOIN FETCH h.khachHang " +
+            "LEFT JOIN FETCH h.nhanVien " +
+            "LEFT JOIN FETCH h.diaChiGiaoHang " +
+            "WHERE h.id IN :ids ORDER BY h.ngayTao, h.id")
+    List<HoaDon> findAllForReceiptsByIdIn(@Param("ids") Collection<Long> ids);
+
     /**
      * Get customer ID for an order without fetching full entities
      */
@@ -47,6 +149,17 @@ public interface HoaDonRepository extends JpaRepository<HoaDon, Long> {
      */
     Long countByTrangThaiDonHang(TrangThaiDonHang trangThaiDonHang);
 
+    /**
+     * Order count per status, all statuses in one grouped scan
+     */
+    interface SoLuongTheoTrangThai {
+        TrangThaiDonHang getTrangThai();
+        Long getSoLuong();
+    }
+
+    @Query("SELECT h.trangThaiDonHang AS trangThai, COUNT(h) AS soLuong FROM HoaDon h GROUP BY h.trangThaiDonHang")
+    List<SoLuongTheoTrangThai> countGroupByTrangThaiDonHang();
+
     /**
      * Count orders by type (online/POS)
      */
@@ -125,12 +238,6 @@ public interface HoaDonRepository extends JpaRepository<HoaDon, Long> {
 
     // ==================== PAYMENT MONITORING METHODS ====================
 
-    /**
-     * Find orders with payment timeout
-     */
-    @Query("SELECT h FROM HoaDon h WHERE h.trangThaiThanhToan = 'CHUA_THANH_TOAN' AND h.ngayTao < :timeoutThreshold")
-    List<HoaDon> findOrdersWithPaymentTimeout(@Param("timeoutThreshold") Instant timeoutThreshold);
-
     /**
      * Count orders in period
      */
@@ -162,14 +269,26 @@ public interface HoaDonRepository extends JpaRepository<HoaDon, Long> {
     // ==================== ORDER EXPIRATION METHODS ====================
 
     /**
-     * Find expired unpaid orders for automatic cancellation
-     * Orders that are unpaid and created before the cutoff time
+     * Claim a chunk of expired unpaid orders for automatic cancellation.
+     * SKIP LOCKED lets several nodes run the expiry job at once, each taking different orders.
+     * The rows stay locked until the caller's transaction ends.
      */
-    @Query("SELECT h FROM HoaDon h " +
-            "LEFT JOIN FETCH h.khachHang " +
-            "LEFT JOIN FETCH h.hoaDonChiTiets " +
+    @Query(value = "SELECT id FROM hoa_don " +
+            "WHERE trang_thai_thanh_toan = 'CHUA_THANH_TOAN' " +
+            "AND trang_thai_don_hang NOT IN ('DA_HUY', 'HOAN_THANH') " +
+            "AND ngay_tao < :cutoffTime " +
+            "ORDER BY ngay_tao " +
+            "LIMIT :limit " +
+            "FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<Long> claimExpiredUnpaidOrderIds(@Param("cutoffTime") Instant cutoffTime, @Param("limit") int limit);
+
+    /**
+     * Creation time of the oldest order that has expired but is not cancelled yet, null when there is none
+     */
+    @Query("SELECT MIN(h.ngayTao) FROM HoaDon h " +
             "WHERE h.trangThaiThanhToan = 'CHUA_THANH_TOAN' " +
             "AND h.trangThaiDonHang NOT IN ('DA_HUY', 'HOAN_THANH') " +
             "AND h.ngayTao < :cutoffTime")
-    List<HoaDon> findExpiredUnpaidOrders(@Param("cutoffTime") Instant cutoffTime);
+    Instant findOldestExpiredUnpaidOrderTime(@Param("cutoffTime") Instant cutoffTime);
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -32,4 +33,13 @@ public interface HoaDonThanhToanRepository extends JpaRepository<HoaDonThanhToan
            "WHERE hdt.hoaDon.id = :hoaDonId " +
            "ORDER BY hdt.ngayTao DESC")
     List<HoaDonThanhToan> findByHoaDonIdWithPaymentDetails(@Param("hoaDonId") Long hoaDonId);
+
+    /**
+     * Find payment records for several orders with payment details, newest first per order
+     */
+    @Query("SELECT hdt FROM HoaDonThanhToan hdt " +
+           "JOIN FETCH hdt.thanhToan t " +
+           "WHERE hdt.hoaDon.id IN :hoaDonIds " +
+           "ORDER BY hdt.hoaDon.id, hdt.ngayTao DESC")
+    List<HoaDonThanhToan> findByHoaDonIdInWithPaymentDetails(@Param("hoaDonIds") Collection<Long> hoaDonIds);
 }
@@ -1,11 +1,17 @@
 package com.lapxpert.backend.hoadon.service;
 
+import com.lapxpert.backend.common.datasource.ReadFromPrimary;
+import com.lapxpert.backend.common.entity.EmailOutbox;
 import com.lapxpert.backend.common.service.BusinessEntityService;
+import com.lapxpert.backend.common.service.EmailOutboxService;
 import com.lapxpert.backend.common.service.EmailService;
 import com.lapxpert.backend.common.service.OptimisticLockingService;
 import com.lapxpert.backend.common.service.WebSocketIntegrationService;
 import com.lapxpert.backend.hoadon.dto.HoaDonDto;
 import com.lapxpert.backend.hoadon.dto.HoaDonChiTietDto;
+import com.lapxpert.backend.hoadon.dto.HoaDonListItemDto;
+import com.lapxpert.backend.hoadon.dto.HoaDonListPageDto;
+import com.lapxpert.backend.hoadon.dto.KetQuaCapNhatTrangThaiHangLoatDto;
 import com.lapxpert.backend.hoadon.dto.PaymentSummaryDto;
 import com.lapxpert.backend.hoadon.dto.PaymentDetailDto;
 import com.lapxpert.backend.hoadon.entity.HoaDon;
@@ -26,6 +32,7 @@ import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
 import com.lapxpert.backend.hoadon.enums.TrangThaiCongNo;
 import com.lapxpert.backend.hoadon.enums.TrangThaiThanhToan;
 import com.lapxpert.backend.hoadon.enums.TrangThaiGiaoDich;
+import com.lapxpert.backend.nguoidung.dto.DiaChiDto;
 import com.lapxpert.backend.nguoidung.entity.NguoiDung;
 import com.lapxpert.backend.nguoidung.entity.DiaChi;
 import com.lapxpert.backend.nguoidung.entity.VaiTro;
@@ -39,6 +46,9 @@ import com.lapxpert.backend.sanpham.service.PricingService;
 import com.lapxpert.backend.phieugiamgia.service.PhieuGiamGiaService;
 
 import com.lapxpert.backend.shipping.service.ShippingCalculatorService;
+import com.lapxpert.backend.thongke.service.CompletedOrderFeed;
+import com.lapxpert.backend.thongke.service.CustomerMetricsService;
+import com.lapxpert.backend.thongke.service.RevenueRollupService;
 import com.lapxpert.backend.shipping.service.GHNService;
 import com.lapxpert.backend.shipping.dto.ShippingRequest;
 import com.lapxpert.backend.shipping.dto.ShippingFeeResponse;
@@ -47,22 +57,35 @@ import com.lapxpert.backend.payment.service.MoMoService;
 import com.lapxpert.backend.payment.service.PaymentValidationService;
 import com.lapxpert.backend.hoadon.controller.HoaDonController.PaymentComponent;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import java.util.stream.Collectors;
 
@@ -71,6 +94,22 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto, HoaDonAuditHistory> {
 
+    private static final int DEFAULT_ORDER_PAGE_SIZE = 20;
+    private static final int MAX_ORDER_PAGE_SIZE = 100;
+    // Upper bound for one bulk status change; the orders are row-locked for the whole transaction
+    private static final int MAX_BULK_STATUS_ORDERS = 200;
+
+    // Order placement stages, used as the "stage" tag of order.placement.stage
+    private static final String STAGE_VALIDATE = "validate";
+    private static final String STAGE_PRICING = "pricing";
+    private static final String STAGE_SHIPPING = "shipping";
+    private static final String STAGE_WRITE = "write";
+    private static final String STAGE_RESERVE = "reserve";
+    private static final String STAGE_BUILD = "build";
+    private static final String STAGE_PERSIST = "persist";
+    private static final String STAGE_PAYMENT = "payment";
+    private static final String STAGE_AUDIT = "audit";
+
     private final HoaDonRepository hoaDonRepository;
     private final HoaDonAuditHistoryRepository auditHistoryRepository;
     private final HoaDonThanhToanRepository hoaDonThanhToanRepository;
@@ -83,6 +122,9 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     private final PricingService pricingService;
     private final PhieuGiamGiaService phieuGiamGiaService;
     private final KiemTraTrangThaiHoaDonService kiemTraTrangThaiService;
+    private final RevenueRollupService revenueRollupService;
+    private final CompletedOrderFeed completedOrderFeed;
+    private final CustomerMetricsService customerMetricsService;
     private final MoMoService moMoGatewayService;
     private final PaymentValidationService paymentParameterValidationService;
 
@@ -93,6 +135,10 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     private final WebSocketIntegrationService webSocketIntegrationService;
     private final OptimisticLockingService optimisticLockingService;
     private final EmailService emailService;
+    private final EmailOutboxService emailOutboxService;
+    private final MeterRegistry meterRegistry;
+    private final PlatformTransactionManager transactionManager;
+    private final OrderReadCache orderReadCache;
 
     @Transactional(readOnly = true)
     public List<HoaDonDto> getHoaDonsByTrangThai(String trangThaiStr) {
@@ -110,181 +156,371 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         return toDtoListWithPaymentMethod(hoaDons);
     }
 
-    @Transactional
+    /**
+     * Keyset-paginated order list for the admin order screen.
+     * Returns flat rows with the primary payment method selected in the same query,
+     * instead of mapping full HoaDon aggregates and looking up payments per order.
+     * @param trangThaiStr order status filter (optional)
+     * @param loaiHoaDon channel filter (optional)
+     * @param tuNgay inclusive lower bound of ngayTao (optional)
+     * @param denNgay exclusive upper bound of ngayTao (optional)
+     * @param khachHangId customer filter (optional)
+     * @param nhanVienId staff filter (optional)
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param size page size, capped at MAX_ORDER_PAGE_SIZE
+     */
+    @Transactional(readOnly = true)
+    public HoaDonListPageDto getHoaDonListPage(String trangThaiStr, LoaiHoaDon loaiHoaDon,
+                                               Instant tuNgay, Instant denNgay,
+                                               Long khachHangId, Long nhanVienId,
+                                               String cursor, Integer size) {
+        TrangThaiDonHang trangThai = null;
+        if (trangThaiStr != null && !trangThaiStr.trim().isEmpty()) {
+            try {
+                trangThai = TrangThaiDonHang.valueOf(trangThaiStr.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Trạng thái đơn hàng không hợp lệ: " + trangThaiStr, e);
+            }
+        }
+        if (tuNgay != null && denNgay != null && !tuNgay.isBefore(denNgay)) {
+            throw new IllegalArgumentException("Khoảng thời gian không hợp lệ: tuNgay phải trước denNgay");
+        }
+
+        int pageSize = size == null || size <= 0 ? DEFAULT_ORDER_PAGE_SIZE : Math.min(size, MAX_ORDER_PAGE_SIZE);
+        Instant cursorNgayTao = null;
+        Long cursorId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            OrderListCursor decoded = OrderListCursor.decode(cursor);
+            cursorNgayTao = decoded.ngayTao();
+            cursorId = decoded.id();
+        }
+
+        // Fetch one extra row to know whether another page exists without a COUNT query
+        List<HoaDonListItemDto> rows = hoaDonRepository.findOrderListPage(
+                trangThai, loaiHoaDon, tuNgay, denNgay, khachHangId, nhanVienId,
+                cursorNgayTao, cursorId, PageRequest.of(0, pageSize + 1));
+
+        boolean hasNext = rows.size() > pageSize;
+        List<HoaDonListItemDto> items = hasNext ? new ArrayList<>(rows.subList(0, pageSize)) : rows;
+        String nextCursor = null;
+        if (hasNext) {
+            HoaDonListItemDto last = items.get(items.size() - 1);
+            nextCursor = new OrderListCursor(last.getNgayTao(), last.getId()).encode();
+        }
+
+        return HoaDonListPageDto.builder()
+                .items(items)
+                .size(items.size())
+                .hasNext(hasNext)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Position of the last row of an order list page: (ngayTao, id) matches the list sort order.
+     * Encoded as opaque URL-safe text so clients do not depend on its layout.
+     */
+    private record OrderListCursor(Instant ngayTao, Long id) {
+
+        String encode() {
+            String raw = ngayTao.toString() + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static OrderListCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new OrderListCursor(Instant.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor, e);
+            }
+        }
+    }
+
+    /**
+     * Create an order through explicit placement stages.
+     *
+     * validate -> pricing -> shipping run before any write transaction: pricing snapshots
+     * campaign prices in a short read-only transaction and the shipping quote calls GHN with
+     * no connection held. The write stage then reserves POS inventory, builds and saves the order,
+     * payment record and audit entries in one short transaction. The confirmation email is queued
+     * in the outbox and the WebSocket notification is published after commit.
+     * Every stage is recorded in the order.placement.stage timer, the whole call in order.placement.
+     * A request that repeats the maHoaDon of an order it already created returns that order.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public HoaDonDto createHoaDon(HoaDonDto hoaDonDto, NguoiDung currentUser) {
-        System.out.println(hoaDonDto.getNguoiNhanEmail());
-        long startTime = System.currentTimeMillis();
-        String orderChannel = hoaDonDto.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY ? "POS" : "ONLINE";
-        String tempOrderId = "TEMP-" + System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        String orderChannel = hoaDonDto != null && hoaDonDto.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY ? "POS" : "ONLINE";
+        String outcome = "success";
+
+        try {
+            // Retried request: return the order the first attempt created
+            Optional<HoaDonDto> replayed = findReplayedOrder(hoaDonDto, currentUser);
+            if (replayed.isPresent()) {
+                outcome = "replayed";
+                return replayed.get();
+            }
+
+            // Stage 1: Request validation
+            timeOrderStage(STAGE_VALIDATE, orderChannel, () -> {
+                validateOrderCreationRequest(hoaDonDto, currentUser);
+                return null;
+            });
+
+            // Stage 2: Price snapshot for lines without a cart price, in a short read-only transaction
+            Map<Long, BigDecimal> giaHienTai = timeOrderStage(STAGE_PRICING, orderChannel, () -> {
+                TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+                readOnlyTransaction.setReadOnly(true);
+                return readOnlyTransaction.execute(status -> snapshotOrderPrices(hoaDonDto));
+            });
 
-        // Step 1: Pre-transaction validation
-        validateOrderCreationRequest(hoaDonDto, currentUser);
+            // Stage 3: Shipping quote, a remote call made without holding a connection
+            BigDecimal phiVanChuyen = timeOrderStage(STAGE_SHIPPING, orderChannel,
+                    () -> quoteShippingFee(hoaDonDto, giaHienTai));
 
-        // Step 2: Reserve inventory ONLY for TAI_QUAY orders
-        List<Long> reservedItemIds = new ArrayList<>(); // Initialize with an empty list
-        if (hoaDonDto.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY) {
+            // Stage 4: Short write transaction
+            HoaDonDto createdOrder;
+            try {
+                createdOrder = timeOrderStage(STAGE_WRITE, orderChannel,
+                        () -> new TransactionTemplate(transactionManager).execute(status ->
+                                writeOrder(hoaDonDto, currentUser, orderChannel, giaHienTai, phiVanChuyen)));
+            } catch (RuntimeException e) {
+                // A concurrent attempt with the same maHoaDon won the insert
+                Optional<HoaDonDto> concurrent = findReplayedOrder(hoaDonDto, currentUser);
+                if (concurrent.isPresent()) {
+                    outcome = "replayed";
+                    return concurrent.get();
+                }
+                throw e;
+            }
+
+            log.info("Order creation completed successfully - Order: {}, Execution time: {}ms, Total: {}",
+                    createdOrder.getId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                    createdOrder.getTongThanhToan());
+            return createdOrder;
+
+        } catch (RuntimeException e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            Timer.builder("order.placement")
+                    .description("End-to-end order creation latency")
+                    .tag("channel", orderChannel)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Write stage of order creation. Runs inside the order write transaction;
+     * prices and shipping fee were computed by the earlier stages.
+     */
+    private HoaDonDto writeOrder(HoaDonDto hoaDonDto, NguoiDung currentUser, String orderChannel,
+                                 Map<Long, BigDecimal> giaHienTai, BigDecimal phiVanChuyen) {
+        // Build order entity, line items, vouchers and totals
+        HoaDon hoaDon = timeOrderStage(STAGE_BUILD, orderChannel, () -> {
+            HoaDon draft = createOrderEntityWithCoordination(hoaDonDto, currentUser);
+            mapOrderItemsFromDto(draft, hoaDonDto);
+            BigDecimal tongTienHang = processOrderItems(draft, hoaDonDto, giaHienTai);
+            BigDecimal totalVoucherDiscount = processVouchers(draft, hoaDonDto, tongTienHang);
+
+            draft.setTongTienHang(tongTienHang);
+            draft.setPhiVanChuyen(phiVanChuyen);
+            draft.setGiaTriGiamGiaVoucher(totalVoucherDiscount);
+            BigDecimal tongCong = tongTienHang.add(draft.getPhiVanChuyen()).subtract(totalVoucherDiscount);
+            draft.setTongThanhToan(tongCong.max(BigDecimal.ZERO));
+
+            setOrderStatus(draft, hoaDonDto);
+            draft.setTrangThaiCongNo(TrangThaiCongNo.HOAN_THANH.name());
+            return draft;
+        });
+
+        // Save order first: the ID comes from hoa_don_id_seq on persist, and the flush surfaces
+        // a duplicate maHoaDon before any inventory is touched
+        HoaDon savedHoaDon = timeOrderStage(STAGE_PERSIST, orderChannel,
+                () -> optimisticLockingService.executeWithRetryAndConstraintHandling(
+                        () -> hoaDonRepository.saveAndFlush(hoaDon),
+                        "HoaDon",
+                        hoaDon.getMaHoaDon()
+                ));
+        String orderId = savedHoaDon.getId().toString();
+
+        // Reserve inventory ONLY for TAI_QUAY orders, directly under the final order ID.
+        // Reservations share this transaction, so a failure later in the write rolls them back too.
+        List<Long> reservedIds;
+        if (savedHoaDon.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY) {
             log.info("TAI_QUAY order detected, proceeding with serial number reservation.");
-            reservedItemIds = reserveInventoryWithCoordination(hoaDonDto, orderChannel, tempOrderId);
+            reservedIds = timeOrderStage(STAGE_RESERVE, orderChannel,
+                    () -> reserveInventoryWithCoordination(hoaDonDto, orderChannel, orderId));
         } else {
             log.info("ONLINE order detected, skipping automatic serial number reservation at creation time.");
             // For ONLINE orders, we do not reserve inventory upfront.
             // Serial number assignment will be handled later in the fulfillment process.
+            reservedIds = List.of();
         }
 
-        try {
-            // Step 3: Create order entity with enhanced transaction coordination
-            HoaDon hoaDon = createOrderEntityWithCoordination(hoaDonDto, currentUser, tempOrderId);
-
-            // Step 4.7: Map order items from DTO to entity
-            mapOrderItemsFromDto(hoaDon, hoaDonDto);
-
-            // Step 5: Process order items and calculate totals
-            BigDecimal tongTienHang = processOrderItems(hoaDon, hoaDonDto);
-
-            // Step 6: Validate and apply vouchers
-            BigDecimal totalVoucherDiscount = processVouchers(hoaDon, hoaDonDto, tongTienHang);
-
-            // Step 7: Set order totals
-            hoaDon.setTongTienHang(tongTienHang);
-
-            // Step 7.1: Calculate shipping fee automatically if not provided manually
-            BigDecimal shippingFee = calculateShippingFee(hoaDon, hoaDonDto);
-            hoaDon.setPhiVanChuyen(shippingFee);
-            hoaDon.setGiaTriGiamGiaVoucher(totalVoucherDiscount);
-            BigDecimal tongCong = tongTienHang.add(hoaDon.getPhiVanChuyen()).subtract(totalVoucherDiscount);
-            hoaDon.setTongThanhToan(tongCong.max(BigDecimal.ZERO));
-
-            // Step 7: Set order status
-            setOrderStatus(hoaDon, hoaDonDto);
-
-            // Step 7.1: Cập nhật trạng thái công nợ
-            hoaDon.setTrangThaiCongNo(TrangThaiCongNo.HOAN_THANH.name()); // enum HOAN_THANH
-//            if (hoaDon.getTrangThaiThanhToan().equals(TrangThaiThanhToan.DA_THANH_TOAN)) {
-//                hoaDon.setTrangThaiCongNo(TrangThaiCongNo.HOAN_THANH.name()); // enum HOAN_THANH
-//            } else if (hoaDon.getTrangThaiThanhToan().equals(TrangThaiThanhToan.CHO_XU_LY_HOAN_TIEN)) {
-//                hoaDon.setTrangThaiCongNo(TrangThaiCongNo.HOAN_PHI.name()); // cần enum TrangThaiCongNo với giá trị KHACH_NO
-//            } else if (hoaDon.getTrangThaiThanhToan().equals(TrangThaiThanhToan.DA_HOAN_TIEN)) {
-//                hoaDon.setTrangThaiCongNo(TrangThaiCongNo.DA_HOAN_PHI.name()); // cần enum TrangThaiCongNo với giá trị KHACH_NO
-//            }  else if (hoaDon.getTrangThaiThanhToan().equals(TrangThaiThanhToan.THANH_TOAN_MOT_PHAN)) {
-//                hoaDon.setTrangThaiCongNo(TrangThaiCongNo.PHU_PHI.name()); // cần enum TrangThaiCongNo với giá trị KHACH_NO
-//            }
-//            else {
-//                hoaDon.setTrangThaiCongNo(TrangThaiCongNo.DA_THU_PHU_PHI.name()); // enum SHOP_NO
-//            }
-
-            // Step 8: Save order with optimistic locking retry
-            HoaDon savedHoaDon = optimisticLockingService.executeWithRetryAndConstraintHandling(
-                    () -> hoaDonRepository.save(hoaDon),
-                    "HoaDon",
-                    hoaDon.getId()
-            );
+        // Create initial payment record for order (skip for mixed payments)
+        timeOrderStage(STAGE_PAYMENT, orderChannel, () -> {
+            createInitialPaymentRecordIfNeeded(savedHoaDon, hoaDonDto, currentUser);
+            return null;
+        });
 
-            // Step 8.1: Update reserved items with actual order ID synchronously within transaction
-            // This eliminates the race condition where frontend queries for serial numbers before they are updated
-            final Long finalOrderId = savedHoaDon.getId();
+        // Audit entries, POS sale confirmation and voucher usage
+        timeOrderStage(STAGE_AUDIT, orderChannel, () -> {
+            createOrderCreationAuditEntries(savedHoaDon, hoaDonDto);
 
-            try {
-                serialNumberService.updateReservationOrderId(reservedItemIds, tempOrderId, finalOrderId.toString());
-                log.debug("Successfully updated serial number reservations synchronously for order: {}", finalOrderId);
-            } catch (Exception e) {
-                log.error("Failed to update serial number reservations for order {}: {}", finalOrderId, e.getMessage());
-                throw new RuntimeException("Không thể cập nhật thông tin serial number cho đơn hàng", e);
+            // For POS orders with immediate payment, confirm the sale
+            if (savedHoaDon.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY &&
+                    savedHoaDon.getTrangThaiThanhToan() == TrangThaiThanhToan.DA_THANH_TOAN) {
+                serialNumberService.confirmSale(reservedIds, orderId, "system");
+                log.info("POS order {} completed with immediate payment confirmation", orderId);
+            } else {
+                log.info("Order {} created with inventory reserved. Payment pending.", orderId);
             }
 
-            // Step 8.2: Create initial payment record for order (skip for mixed payments)
-            if (hoaDonDto.getPhuongThucThanhToan() != null) {
-                // Skip creating initial payment record for mixed payment orders
-                // Mixed payments will create their own payment records during processing
-                if (Boolean.TRUE.equals(hoaDonDto.getIsMixedPayment())) {
-                    log.debug("Skipping initial payment record creation for mixed payment order {}", savedHoaDon.getId());
-                } else {
-                    // Create initial payment record for single payment orders (preserves existing behavior)
-                    try {
-                        createInitialPaymentRecord(savedHoaDon, hoaDonDto.getPhuongThucThanhToan(), currentUser);
-                        log.debug("Initial payment record created successfully for order {} with method {}",
-                                savedHoaDon.getId(), hoaDonDto.getPhuongThucThanhToan());
-                    } catch (Exception e) {
-                        log.error("Failed to create initial payment record for order {}: {}", savedHoaDon.getId(), e.getMessage());
-                        throw new RuntimeException("Không thể tạo bản ghi thanh toán cho đơn hàng", e);
+            applyVouchersToOrderSeparateTransaction(savedHoaDon.getId(), hoaDonDto, savedHoaDon.getTongTienHang());
+            return null;
+        });
+
+        // Side effects: email goes through the outbox in this transaction,
+        // the WebSocket notification is queued until after commit
+        sendOrderConfirmationEmail(savedHoaDon);
+        publishEntityCreatedEvent(savedHoaDon);
+
+        return toDtoWithPaymentMethod(savedHoaDon);
+    }
+
+    /**
+     * Order already created by an earlier attempt of the same request.
+     * Clients that retry send the same maHoaDon; the order is only replayed to the user who created it.
+     */
+    private Optional<HoaDonDto> findReplayedOrder(HoaDonDto hoaDonDto, NguoiDung currentUser) {
+        if (hoaDonDto == null || hoaDonDto.getMaHoaDon() == null || hoaDonDto.getMaHoaDon().isBlank()) {
+            return Optional.empty();
+        }
+
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        return readOnlyTransaction.execute(status -> hoaDonRepository.findByMaHoaDon(hoaDonDto.getMaHoaDon())
+                .map(existing -> {
+                    String requester = currentUser != null ? currentUser.getEmail() : "system";
+                    if (!Objects.equals(existing.getNguoiTao(), requester)) {
+                        throw new IllegalArgumentException("Mã hóa đơn đã tồn tại: " + hoaDonDto.getMaHoaDon());
                     }
-                }
-            } else {
-                log.warn("No payment method specified for order {}, skipping payment record creation", savedHoaDon.getId());
-            }
+                    log.info("Order {} already exists for maHoaDon {}, returning it for the retried request",
+                            existing.getId(), existing.getMaHoaDon());
+                    return toDtoWithPaymentMethod(existing);
+                }));
+    }
 
-            // Step 8.5: Create audit entry for order creation
-            String newValues = createAuditValues(savedHoaDon);
-            HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
+    /**
+     * Create the initial payment record for single payment orders.
+     * Mixed payment orders create their own payment records during processing.
+     */
+    private void createInitialPaymentRecordIfNeeded(HoaDon savedHoaDon, HoaDonDto hoaDonDto, NguoiDung currentUser) {
+        if (hoaDonDto.getPhuongThucThanhToan() == null) {
+            log.warn("No payment method specified for order {}, skipping payment record creation", savedHoaDon.getId());
+            return;
+        }
+
+        if (Boolean.TRUE.equals(hoaDonDto.getIsMixedPayment())) {
+            log.debug("Skipping initial payment record creation for mixed payment order {}", savedHoaDon.getId());
+            return;
+        }
+
+        try {
+            createInitialPaymentRecord(savedHoaDon, hoaDonDto.getPhuongThucThanhToan(), currentUser);
+            log.debug("Initial payment record created successfully for order {} with method {}",
+                    savedHoaDon.getId(), hoaDonDto.getPhuongThucThanhToan());
+        } catch (Exception e) {
+            log.error("Failed to create initial payment record for order {}: {}", savedHoaDon.getId(), e.getMessage());
+            throw new RuntimeException("Không thể tạo bản ghi thanh toán cho đơn hàng", e);
+        }
+    }
+
+    /**
+     * Audit entries written when an order is created: creation, automatic staff assignment
+     * and the TAI_QUAY status decision.
+     */
+    private void createOrderCreationAuditEntries(HoaDon savedHoaDon, HoaDonDto hoaDonDto) {
+        String newValues = buildAuditJson(savedHoaDon);
+        HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
+                savedHoaDon.getId(),
+                newValues,
+                savedHoaDon.getNguoiTao(),
+                "Tạo hóa đơn mới"
+        );
+        writeAudit(auditEntry);
+
+        if (savedHoaDon.getNhanVien() != null && hoaDonDto.getNhanVienId() == null) {
+            // This was an automatic assignment - create simple audit entry
+            String assignmentReason = String.format("Tự động gán nhân viên %s cho đơn hàng %s",
+                    savedHoaDon.getNhanVien().getHoTen(), savedHoaDon.getLoaiHoaDon().name());
+            HoaDonAuditHistory staffAssignmentAudit = HoaDonAuditHistory.createEntry(
                     savedHoaDon.getId(),
                     newValues,
                     savedHoaDon.getNguoiTao(),
-                    "Tạo hóa đơn mới"
+                    assignmentReason
             );
-            auditHistoryRepository.save(auditEntry);
-
-            // Step 8.6: Create audit entry for automatic staff assignment if applicable
-            if (savedHoaDon.getNhanVien() != null && hoaDonDto.getNhanVienId() == null) {
-                // This was an automatic assignment - create simple audit entry
-                String assignmentReason = String.format("Tự động gán nhân viên %s cho đơn hàng %s",
-                        savedHoaDon.getNhanVien().getHoTen(), savedHoaDon.getLoaiHoaDon().name());
-                HoaDonAuditHistory staffAssignmentAudit = HoaDonAuditHistory.createEntry(
-                        savedHoaDon.getId(),
-                        createAuditValues(savedHoaDon),
-                        savedHoaDon.getNguoiTao(),
-                        assignmentReason
-                );
-                auditHistoryRepository.save(staffAssignmentAudit);
-            }
+            writeAudit(staffAssignmentAudit);
+        }
 
-            // Step 8.7: Create specific audit entry for TAI_QUAY order status logic
-            if (savedHoaDon.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY) {
-                createTaiQuayOrderStatusAuditEntry(savedHoaDon);
-            }
+        if (savedHoaDon.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY) {
+            createTaiQuayOrderStatusAuditEntry(savedHoaDon);
+        }
+    }
 
-            // Step 9: For POS orders with immediate payment, confirm the sale
-            if (hoaDon.getLoaiHoaDon() == LoaiHoaDon.TAI_QUAY &&
-                    hoaDon.getTrangThaiThanhToan() == TrangThaiThanhToan.DA_THANH_TOAN) {
-                serialNumberService.confirmSale(reservedItemIds, savedHoaDon.getId().toString(), "system");
-                log.info("POS order {} completed with immediate payment confirmation", savedHoaDon.getId());
-            } else {
-                log.info("Order {} created with inventory reserved. Payment pending.", savedHoaDon.getId());
+    /**
+     * Effective price per variant for order lines that do not carry a cart price.
+     * Runs in a read-only transaction because campaign lookups load lazily from the variant.
+     */
+    private Map<Long, BigDecimal> snapshotOrderPrices(HoaDonDto hoaDonDto) {
+        Set<Long> variantIds = new HashSet<>();
+        for (HoaDonChiTietDto chiTietDto : hoaDonDto.getChiTiet()) {
+            if (chiTietDto.getGiaBan() == null || chiTietDto.getGiaBan().compareTo(BigDecimal.ZERO) <= 0) {
+                variantIds.add(chiTietDto.getSanPhamChiTietId());
             }
+        }
 
-            // Step 10: Apply vouchers to the saved order in a separate transaction
-            applyVouchersToOrderSeparateTransaction(savedHoaDon.getId(), hoaDonDto, tongTienHang);
-
-            // Step 11: Log performance metrics
-            long executionTime = System.currentTimeMillis() - startTime;
-            log.info("Order creation completed successfully - Order: {}, Execution time: {}ms, Items: {}, Total: {}",
-                    savedHoaDon.getId(), executionTime, savedHoaDon.getHoaDonChiTiets().size(), savedHoaDon.getTongThanhToan());
-
-            // Step 12: Send order confirmation email
-            sendOrderConfirmationEmail(savedHoaDon);
-
-            return toDtoWithPaymentMethod(savedHoaDon);
+        Map<Long, BigDecimal> prices = new HashMap<>();
+        if (variantIds.isEmpty()) {
+            return prices;
+        }
+        for (SanPhamChiTiet variant : sanPhamChiTietRepository.findAllById(variantIds)) {
+            prices.put(variant.getId(), pricingService.calculateEffectivePrice(variant));
+        }
+        return prices;
+    }
 
-        } catch (Exception e) {
-            // Step 10: Release reserved inventory if order creation fails
-            log.error("Order creation failed, releasing reserved inventory: {}", e.getMessage());
-            try {
-                // Find items reserved with the temporary order ID and release them
-                List<Long> tempReservedItems = serialNumberService.getReservedSerialNumberIdsForOrder(tempOrderId);
-                if (!tempReservedItems.isEmpty()) {
-                    serialNumberService.releaseReservationsSafely(tempReservedItems);
-                } else {
-                    // Fallback to the original list if temp order ID tracking fails
-                    serialNumberService.releaseReservationsSafely(reservedItemIds);
-                }
-            } catch (Exception releaseException) {
-                log.error("Failed to release inventory reservations after order creation failure: {}", releaseException.getMessage());
-                // Don't throw this exception as it would mask the original error
-            }
+    /**
+     * Record one order placement stage in the order.placement.stage timer
+     */
+    private <T> T timeOrderStage(String stage, String orderChannel, Supplier<T> work) {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            return work.get();
+        } catch (RuntimeException e) {
+            outcome = "error";
             throw e;
+        } finally {
+            Timer.builder("order.placement.stage")
+                    .description("Duration of an order placement stage")
+                    .tag("stage", stage)
+                    .tag("channel", orderChannel)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
     /**
-     * Sends an order confirmation email to the customer.
+     * Queues an order confirmation email to the customer in the email outbox.
+     * Must run inside the order write transaction so the email is only sent if the order commits.
      *
      * @param hoaDon The created order.
      */
@@ -298,8 +534,8 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                     hoaDon.getMaHoaDon(),
                     orderLink
             );
-            emailService.sendEmail(customerEmail, subject, text);
-            log.info("Order confirmation email sent to {}", customerEmail);
+            emailOutboxService.enqueue(EmailOutboxService.MAU_DON_HANG_MOI, customerEmail, subject, text);
+            log.info("Order confirmation email queued for {}", customerEmail);
         } else if(hoaDon.getNguoiNhanTen() != null && hoaDon.getNguoiNhanEmail() != null && !hoaDon.getNguoiNhanEmail().trim().isEmpty()){
             String customerEmail = hoaDon.getNguoiNhanEmail();
             String subject = "Xác nhận đơn hàng #" + hoaDon.getMaHoaDon() + " của bạn tại LapXpert Store";
@@ -309,8 +545,8 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                     hoaDon.getMaHoaDon(),
                     orderLink
             );
-            emailService.sendEmail(customerEmail, subject, text);
-            log.info("Order confirmation email sent to {}", customerEmail);
+            emailOutboxService.enqueue(EmailOutboxService.MAU_DON_HANG_MOI, customerEmail, subject, text);
+            log.info("Order confirmation email queued for {}", customerEmail);
         } else {
             log.warn("Cannot send order confirmation email: customer or email not found for order {}", hoaDon.getId());
         }
@@ -419,7 +655,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
      * Process order items and calculate line totals.
      * Items are already reserved by InventoryService.
      */
-    private BigDecimal processOrderItems(HoaDon hoaDon, HoaDonDto hoaDonDto) {
+    private BigDecimal processOrderItems(HoaDon hoaDon, HoaDonDto hoaDonDto, Map<Long, BigDecimal> giaHienTai) {
         BigDecimal tongTienHang = BigDecimal.ZERO;
         List<HoaDonChiTiet> processedChiTietList = new ArrayList<>();
 
@@ -428,9 +664,21 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                 if (mappedChiTiet.getSanPhamChiTiet() == null || mappedChiTiet.getSanPhamChiTiet().getId() == null) {
                     throw new IllegalArgumentException("Thông tin sản phẩm chi tiết không hợp lệ trong chi tiết hóa đơn.");
                 }
+            }
+
+            // Load all variants of the order in one query
+            Set<Long> variantIds = hoaDon.getHoaDonChiTiets().stream()
+                    .map(chiTiet -> chiTiet.getSanPhamChiTiet().getId())
+                    .collect(Collectors.toSet());
+            Map<Long, SanPhamChiTiet> variants = sanPhamChiTietRepository.findAllById(variantIds).stream()
+                    .collect(Collectors.toMap(SanPhamChiTiet::getId, variant -> variant));
+
+            for (HoaDonChiTiet mappedChiTiet : hoaDon.getHoaDonChiTiets()) {
                 Long sanPhamChiTietId = mappedChiTiet.getSanPhamChiTiet().getId();
-                SanPhamChiTiet sanPhamChiTiet = sanPhamChiTietRepository.findById(sanPhamChiTietId)
-                        .orElseThrow(() -> new EntityNotFoundException("Sản phẩm chi tiết không tồn tại với ID: " + sanPhamChiTietId));
+                SanPhamChiTiet sanPhamChiTiet = variants.get(sanPhamChiTietId);
+                if (sanPhamChiTiet == null) {
+                    throw new EntityNotFoundException("Sản phẩm chi tiết không tồn tại với ID: " + sanPhamChiTietId);
+                }
 
                 mappedChiTiet.setSanPhamChiTiet(sanPhamChiTiet);
                 mappedChiTiet.setHoaDon(hoaDon);
@@ -443,8 +691,10 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                     sellingPrice = mappedChiTiet.getGiaBan();
                     log.debug("Preserving cart price {} for product variant ID: {}", sellingPrice, sanPhamChiTietId);
                 } else {
-                    // Fallback to current price calculation for backward compatibility
-                    sellingPrice = pricingService.calculateEffectivePrice(sanPhamChiTiet);
+                    // Fallback to the current price snapshotted by the pricing stage
+                    sellingPrice = giaHienTai.containsKey(sanPhamChiTietId)
+                            ? giaHienTai.get(sanPhamChiTietId)
+                            : pricingService.calculateEffectivePrice(sanPhamChiTiet);
                     mappedChiTiet.setGiaBan(sellingPrice);
                     log.debug("Using calculated current price {} for product variant ID: {}", sellingPrice, sanPhamChiTietId);
                 }
@@ -700,11 +950,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
 
         HoaDonAuditHistory statusAuditEntry = HoaDonAuditHistory.createEntry(
                 hoaDon.getId(),
-                createAuditValues(hoaDon),
+                buildAuditJson(hoaDon),
                 hoaDon.getNguoiTao(),
                 auditMessage
         );
-        auditHistoryRepository.save(statusAuditEntry);
+        writeAudit(statusAuditEntry);
 
         log.info("Created TAI_QUAY order status audit entry for order {} - {}", hoaDon.getId(), auditMessage);
     }
@@ -790,6 +1040,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         }
     }
 
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public HoaDonDto getHoaDonById(Long id) {
         HoaDon hoaDon = hoaDonRepository.findByIdWithStaffAndCustomer(id)
@@ -801,12 +1052,20 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
      * Get order by ID with security check.
      * Users can only access their own orders, admins can access any order.
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public HoaDonDto getHoaDonByIdSecure(Long id, NguoiDung currentUser) {
-        HoaDon hoaDon = hoaDonRepository.findByIdWithStaffAndCustomer(id)
-                .orElseThrow(() -> new EntityNotFoundException("Hóa đơn không tồn tại với ID: " + id));
+        // The access check only needs the customer ID, which comes with the version lookup
+        OrderReadCache.Snapshot snapshot = orderReadCache.snapshot(id);
+        if (!isOrderAccessible(snapshot.khachHangId(), currentUser)) {
+            throw new SecurityException("Bạn không có quyền xem hóa đơn này");
+        }
 
-        return toDtoWithPaymentMethod(hoaDon);
+        return orderReadCache.get(snapshot, OrderReadCache.View.CHI_TIET, () -> {
+            HoaDon hoaDon = hoaDonRepository.findByIdWithStaffAndCustomer(id)
+                    .orElseThrow(() -> new EntityNotFoundException("Hóa đơn không tồn tại với ID: " + id));
+            return toDtoWithPaymentMethod(hoaDon);
+        });
     }
 
     /**
@@ -814,6 +1073,13 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
      * Users can access their own orders, admins can access any order.
      */
     public boolean isOrderAccessible(HoaDon hoaDon, NguoiDung currentUser) {
+        return isOrderAccessible(hoaDon.getKhachHang() != null ? hoaDon.getKhachHang().getId() : null, currentUser);
+    }
+
+    /**
+     * Same check from the order's customer ID, for callers that have not loaded the order
+     */
+    public boolean isOrderAccessible(Long khachHangId, NguoiDung currentUser) {
         if (currentUser == null) {
             return false;
         }
@@ -829,8 +1095,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         }
 
         // Customer can only access their own orders
-        return hoaDon.getKhachHang() != null &&
-                hoaDon.getKhachHang().getId().equals(currentUser.getId());
+        return khachHangId != null && khachHangId.equals(currentUser.getId());
     }
 
     /**
@@ -1069,7 +1334,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         phieuGiamGiaService.removeVouchersFromOrder(hoaDon.getId());
 
         // Store old values for audit
-        String oldValues = createAuditValues(hoaDon);
+        String oldValues = buildAuditJson(hoaDon);
 
         // Update order status with optimistic locking retry
         hoaDon.setTrangThaiDonHang(TrangThaiDonHang.DA_HUY);
@@ -1086,7 +1351,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                 savedHoaDon.getNguoiCapNhat(),
                 reason != null ? reason : "Hủy hóa đơn"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         log.info("Order {} cancelled. Reason: {}", hoaDon.getId(), reason);
 
@@ -1191,11 +1456,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                 phuongThucThanhToan, paymentAmount, transactionRef);
         HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
                 orderId,
-                createAuditValues(hoaDon),
+                buildAuditJson(hoaDon),
                 hoaDon.getNguoiTao(),
                 auditMessage
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         // Save order with updated payment status
         HoaDon savedHoaDon = optimisticLockingService.executeWithRetryAndConstraintHandling(
@@ -1333,7 +1598,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                 currentUser != null ? currentUser.getEmail() : "SYSTEM",
                 ghiChu != null ? ghiChu : "Cập nhật trạng thái thanh toán"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         log.info("Payment status updated for order {} from {} to {} by user {}",
                 hoaDon.getId(), oldPaymentStatus, trangThaiThanhToan,
@@ -1616,11 +1881,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
             // Create audit entry for skipped confirmation
             HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
                     hoaDon.getId(),
-                    createAuditValues(hoaDon),
+                    buildAuditJson(hoaDon),
                     "system",
                     "Bỏ qua xác nhận bán - inventory đã được xác nhận trước đó (ngăn chặn xác nhận kép)"
             );
-            auditHistoryRepository.save(auditEntry);
+            writeAudit(auditEntry);
 
             return; // Skip confirmation to prevent double confirmation bug
         }
@@ -1742,7 +2007,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                 nguoiDungHienTai != null ? nguoiDungHienTai.getEmail() : "SYSTEM",
                 lyDo
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         log.info("Trạng thái hóa đơn {} đã được cập nhật từ {} thành {} bởi người dùng {}",
                 savedHoaDon.getId(), trangThaiHienTai, trangThaiMoi,
@@ -1776,6 +2041,163 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         return toDtoWithPaymentMethod(savedHoaDon);
     }
 
+    /**
+     * Cập nhật trạng thái cho nhiều hóa đơn cùng lúc.
+     * Các hóa đơn được khóa và kiểm tra trong bộ nhớ, sau đó cập nhật bằng một câu lệnh UPDATE duy nhất.
+     * Audit được ghi bằng một saveAll, email được đưa vào outbox và thông báo WebSocket gửi sau khi commit.
+     * Hóa đơn không hợp lệ không làm hỏng cả lô mà được trả về với lý do thất bại.
+     *
+     * @param hoaDonIds Danh sách ID hóa đơn cần cập nhật
+     * @param trangThaiMoi Trạng thái mới cần đặt
+     * @param lyDo Lý do thay đổi trạng thái
+     * @param nguoiDungHienTai Người dùng thực hiện thay đổi
+     * @return Kết quả theo từng hóa đơn, theo thứ tự yêu cầu
+     */
+    @Transactional
+    public KetQuaCapNhatTrangThaiHangLoatDto capNhatTrangThaiHangLoat(List<Long> hoaDonIds, TrangThaiDonHang trangThaiMoi,
+                                                                      String lyDo, NguoiDung nguoiDungHienTai) {
+        if (trangThaiMoi == null) {
+            throw new IllegalArgumentException("Trạng thái mới không được để trống");
+        }
+        if (hoaDonIds == null || hoaDonIds.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách hóa đơn không được để trống");
+        }
+        List<Long> distinctIds = hoaDonIds.stream().filter(Objects::nonNull).distinct().toList();
+        if (distinctIds.size() > MAX_BULK_STATUS_ORDERS) {
+            throw new IllegalArgumentException("Chỉ có thể cập nhật tối đa " + MAX_BULK_STATUS_ORDERS + " hóa đơn mỗi lần");
+        }
+
+        Map<Long, HoaDon> hoaDonTheoId = hoaDonRepository.findAllByIdInForUpdate(distinctIds).stream()
+                .collect(Collectors.toMap(HoaDon::getId, hoaDon -> hoaDon));
+
+        // Mỗi trạng thái nguồn chỉ cần kiểm tra quy tắc một lần
+        Set<TrangThaiDonHang> cacTrangThaiHienTai = hoaDonTheoId.values().stream()
+                .map(HoaDon::getTrangThaiDonHang)
+                .collect(Collectors.toSet());
+        Map<TrangThaiDonHang, KiemTraTrangThaiHoaDonService.KetQuaKiemTra> kiemTraTheoTrangThai =
+                kiemTraTrangThaiService.kiemTraChuyenDoiHangLoat(cacTrangThaiHienTai, trangThaiMoi, nguoiDungHienTai, false);
+
+        List<KetQuaCapNhatTrangThaiHangLoatDto.KetQuaDonHang> ketQua = new ArrayList<>();
+        List<HoaDon> hoaDonHopLe = new ArrayList<>();
+        for (Long hoaDonId : distinctIds) {
+            HoaDon hoaDon = hoaDonTheoId.get(hoaDonId);
+            if (hoaDon == null) {
+                ketQua.add(new KetQuaCapNhatTrangThaiHangLoatDto.KetQuaDonHang(
+                        hoaDonId, null, null, false, "Không tìm thấy hóa đơn với ID: " + hoaDonId));
+                continue;
+            }
+
+            TrangThaiDonHang trangThaiHienTai = hoaDon.getTrangThaiDonHang();
+            KiemTraTrangThaiHoaDonService.KetQuaKiemTra ketQuaKiemTra = kiemTraTheoTrangThai.get(trangThaiHienTai);
+            if (!ketQuaKiemTra.isHopLe()) {
+                ketQua.add(new KetQuaCapNhatTrangThaiHangLoatDto.KetQuaDonHang(
+                        hoaDonId, hoaDon.getMaHoaDon(), trangThaiHienTai, false,
+                        "Chuyển đổi trạng thái không được phép: " + ketQuaKiemTra.getThongBao()));
+                continue;
+            }
+
+            ketQua.add(new KetQuaCapNhatTrangThaiHangLoatDto.KetQuaDonHang(
+                    hoaDonId, hoaDon.getMaHoaDon(), trangThaiHienTai, true, ketQuaKiemTra.getThongBao()));
+            if (trangThaiHienTai != trangThaiMoi) {
+                hoaDonHopLe.add(hoaDon);
+            }
+        }
+
+        if (!hoaDonHopLe.isEmpty()) {
+            String nguoiThucHien = nguoiDungHienTai != null ? nguoiDungHienTai.getEmail() : "SYSTEM";
+            // Ghi nhận trạng thái cũ trước khi UPDATE xóa persistence context
+            Map<Long, TrangThaiDonHang> trangThaiCuTheoId = hoaDonHopLe.stream()
+                    .collect(Collectors.toMap(HoaDon::getId, HoaDon::getTrangThaiDonHang));
+
+            int soDongCapNhat = hoaDonRepository.updateTrangThaiDonHangByIdIn(
+                    trangThaiCuTheoId.keySet(), trangThaiMoi, Instant.now(), nguoiThucHien);
+            // Bulk UPDATE bypasses the entity listeners that keep the statistics read models current
+            hoaDonHopLe.forEach(hoaDon -> {
+                TrangThaiDonHang trangThaiCu = trangThaiCuTheoId.get(hoaDon.getId());
+                revenueRollupService.danhDauChuyenTrangThai(hoaDon, trangThaiCu, trangThaiMoi);
+                customerMetricsService.danhDauChuyenTrangThai(hoaDon, trangThaiCu, trangThaiMoi);
+                if ((trangThaiCu == TrangThaiDonHang.HOAN_THANH) != (trangThaiMoi == TrangThaiDonHang.HOAN_THANH)) {
+                    completedOrderFeed.ghiNhan(hoaDon.getId(), trangThaiMoi == TrangThaiDonHang.HOAN_THANH ? 1 : -1);
+                }
+            });
+
+            List<HoaDonAuditHistory> auditEntries = hoaDonHopLe.stream()
+                    .map(hoaDon -> HoaDonAuditHistory.statusChangeEntry(
+                            hoaDon.getId(),
+                            trangThaiCuTheoId.get(hoaDon.getId()).name(),
+                            trangThaiMoi.name(),
+                            nguoiThucHien,
+                            lyDo))
+                    .toList();
+            writeAudits(auditEntries);
+
+            queueBulkStatusNotifications(hoaDonHopLe, trangThaiCuTheoId, trangThaiMoi, lyDo, nguoiThucHien);
+
+            log.info("Cập nhật hàng loạt {} hóa đơn sang trạng thái {} bởi {}",
+                    soDongCapNhat, trangThaiMoi, nguoiThucHien);
+        }
+
+        int soThanhCong = (int) ketQua.stream().filter(KetQuaCapNhatTrangThaiHangLoatDto.KetQuaDonHang::isThanhCong).count();
+        return KetQuaCapNhatTrangThaiHangLoatDto.builder()
+                .trangThaiMoi(trangThaiMoi)
+                .tongSo(ketQua.size())
+                .soThanhCong(soThanhCong)
+                .soThatBai(ketQua.size() - soThanhCong)
+                .ketQua(ketQua)
+                .build();
+    }
+
+    /**
+     * Emails go to the outbox in the same transaction as the status change; WebSocket updates
+     * and OrderChangeEvents are published per order and delivered after commit.
+     */
+    private void queueBulkStatusNotifications(List<HoaDon> hoaDons, Map<Long, TrangThaiDonHang> trangThaiCuTheoId,
+                                              TrangThaiDonHang trangThaiMoi, String lyDo, String nguoiThucHien) {
+        List<EmailOutbox> emails = new ArrayList<>();
+        for (HoaDon hoaDon : hoaDons) {
+            TrangThaiDonHang trangThaiCu = trangThaiCuTheoId.get(hoaDon.getId());
+
+            String email = hoaDon.getKhachHang() != null && hoaDon.getKhachHang().getEmail() != null
+                    && !hoaDon.getKhachHang().getEmail().trim().isEmpty()
+                    ? hoaDon.getKhachHang().getEmail()
+                    : hoaDon.getNguoiNhanEmail();
+            if (email != null && !email.trim().isEmpty()) {
+                emails.add(EmailOutbox.pending(
+                        EmailOutboxService.MAU_DON_HANG_TRANG_THAI,
+                        email.trim(),
+                        emailService.buildOrderStatusUpdateSubject(hoaDon.getMaHoaDon()),
+                        emailService.buildOrderStatusUpdateText(hoaDon.getId(), hoaDon.getMaHoaDon(),
+                                trangThaiCu.name(), trangThaiMoi.name(), lyDo)));
+            } else {
+                log.warn("Không thể gửi email thông báo thay đổi trạng thái cho đơn hàng {}: không tìm thấy email khách hàng hoặc người nhận.", hoaDon.getId());
+            }
+
+            eventPublisher.publishEvent(OrderChangeEvent.builder()
+                    .hoaDonId(hoaDon.getId())
+                    .maHoaDon(hoaDon.getMaHoaDon())
+                    .khachHangId(hoaDon.getKhachHang() != null ? hoaDon.getKhachHang().getId() : null)
+                    .tenKhachHang(hoaDon.getKhachHang() != null ? hoaDon.getKhachHang().getHoTen() : "Khách lẻ")
+                    .trangThaiCu(trangThaiCu.name())
+                    .trangThaiMoi(trangThaiMoi.name())
+                    .tongTienCu(hoaDon.getTongThanhToan())
+                    .tongTienMoi(hoaDon.getTongThanhToan())
+                    .loaiThayDoi("UPDATED")
+                    .nguoiThucHien(nguoiThucHien)
+                    .lyDoThayDoi(lyDo != null ? lyDo : "Cập nhật trạng thái hàng loạt")
+                    .timestamp(Instant.now())
+                    .phuongThucThanhToan(null)
+                    .build());
+
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("id", hoaDon.getId());
+            payload.put("maHoaDon", hoaDon.getMaHoaDon());
+            payload.put("trangThaiCu", trangThaiCu.name());
+            payload.put("trangThaiDonHang", trangThaiMoi.name());
+            webSocketIntegrationService.sendOrderUpdate(hoaDon.getId().toString(), "STATUS_CHANGED", payload);
+        }
+        emailOutboxService.enqueueAll(emails);
+    }
+
     /**
      * Lấy các chuyển đổi trạng thái được phép cho một hóa đơn.
      *
@@ -1874,6 +2296,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     /**
      * Update order line items with inventory management.
      * This handles adding, removing, and updating quantities of line items.
+     *
+     * The requested lines are diffed against the current ones first. Inventory then changes once per
+     * variant by the net quantity: one release of this order's reserved serials when it shrinks,
+     * one reservation under the order ID when it grows. Line changes are applied to the collection
+     * and written together when the order is saved.
      */
     @Transactional
     public void updateOrderLineItems(HoaDon existingHoaDon, HoaDonDto hoaDonDto) {
@@ -1885,155 +2312,119 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
             throw new IllegalStateException("Cannot modify line items for orders in status: " + existingHoaDon.getTrangThaiDonHang());
         }
 
-        // Get current line items
-        List<HoaDonChiTiet> currentItems = new ArrayList<>(existingHoaDon.getHoaDonChiTiets());
-        List<HoaDonChiTietDto> newItems = hoaDonDto.getChiTiet();
-
-        // Track inventory changes
-        List<Long> itemsToRelease = new ArrayList<>();
-
-        // Process removals and updates
-        for (HoaDonChiTiet currentItem : currentItems) {
-            boolean found = false;
-            for (HoaDonChiTietDto newItem : newItems) {
-                if (newItem.getId() != null && newItem.getId().equals(currentItem.getId())) {
-                    found = true;
-                    // Update existing item
-                    if (!newItem.getSoLuong().equals(currentItem.getSoLuong())) {
-                        int quantityDiff = newItem.getSoLuong() - currentItem.getSoLuong();
-                        if (quantityDiff > 0) {
-                            // Need to reserve more items - check availability first
-                            int availableQuantity = serialNumberService.getAvailableQuantityByVariant(currentItem.getSanPhamChiTiet().getId());
-                            if (availableQuantity < quantityDiff) {
-                                throw new IllegalArgumentException("Insufficient inventory to increase quantity for product: " +
-                                        currentItem.getSanPhamChiTiet().getId() + ". Requested: " + quantityDiff + ", Available: " + availableQuantity);
-                            }
-                            log.info("Validated availability for {} additional items for product {}", quantityDiff, currentItem.getSanPhamChiTiet().getId());
-                        } else if (quantityDiff < 0) {
-                            // Need to release some items
-                            int itemsToReleaseCount = Math.abs(quantityDiff);
-                            List<SerialNumber> availableSerialNumbers = serialNumberService.getAvailableSerialNumbers(
-                                    currentItem.getSanPhamChiTiet().getId());
-                            for (int i = 0; i < Math.min(itemsToReleaseCount, availableSerialNumbers.size()); i++) {
-                                itemsToRelease.add(availableSerialNumbers.get(i).getId());
-                            }
-                        }
-
-                        // Update quantity and recalculate line total
-                        currentItem.setSoLuong(newItem.getSoLuong());
-                        BigDecimal lineTotal = currentItem.getGiaBan().multiply(BigDecimal.valueOf(newItem.getSoLuong()));
-                        currentItem.setThanhTien(lineTotal);
-                    }
-                    break;
-                }
-            }
-
-            if (!found) {
-                // Item was removed, release its inventory
-                List<SerialNumber> availableSerialNumbers = serialNumberService.getAvailableSerialNumbers(
-                        currentItem.getSanPhamChiTiet().getId());
-                for (int i = 0; i < Math.min(currentItem.getSoLuong(), availableSerialNumbers.size()); i++) {
-                    itemsToRelease.add(availableSerialNumbers.get(i).getId());
-                }
-                existingHoaDon.getHoaDonChiTiets().remove(currentItem);
-            }
+        OrderLineItemDiff diff = OrderLineItemDiff.compute(existingHoaDon.getHoaDonChiTiets(), hoaDonDto.getChiTiet());
+        if (diff.isEmpty()) {
+            return;
         }
 
-        // Apply inventory releases
-        if (!itemsToRelease.isEmpty()) {
-            serialNumberService.releaseReservations(itemsToRelease, "system", "Order update");
-            log.info("Released {} items during order update", itemsToRelease.size());
-        }
+        String orderId = existingHoaDon.getId().toString();
+        applyInventoryDeltas(orderId, diff.chenhLechTheoBienThe());
 
-        // Process additions - handle new items without IDs
-        List<Long> itemsToReserve = new ArrayList<>();
-        for (HoaDonChiTietDto newItem : newItems) {
-            if (newItem.getId() == null) {
-                // This is a new item to be added
-                log.info("Adding new item to order: sanPhamChiTietId={}, soLuong={}",
-                        newItem.getSanPhamChiTietId(), newItem.getSoLuong());
+        // Updates and removals only touch managed entities; the cascade writes them with the order
+        for (OrderLineItemDiff.CapNhat capNhat : diff.capNhat()) {
+            HoaDonChiTiet chiTiet = capNhat.chiTiet();
+            chiTiet.setSoLuong(capNhat.soLuongMoi());
+            chiTiet.setThanhTien(chiTiet.getGiaBan().multiply(BigDecimal.valueOf(capNhat.soLuongMoi())));
+        }
+        existingHoaDon.getHoaDonChiTiets().removeAll(diff.xoa());
 
-                // Validate product variant exists
-                SanPhamChiTiet sanPhamChiTiet = sanPhamChiTietRepository.findById(newItem.getSanPhamChiTietId())
-                        .orElseThrow(() -> new EntityNotFoundException("Sản phẩm chi tiết không tồn tại với ID: " + newItem.getSanPhamChiTietId()));
+        if (!diff.them().isEmpty()) {
+            Set<Long> variantIds = diff.them().stream()
+                    .map(HoaDonChiTietDto::getSanPhamChiTietId)
+                    .collect(Collectors.toSet());
+            Map<Long, SanPhamChiTiet> variants = sanPhamChiTietRepository.findAllById(variantIds).stream()
+                    .collect(Collectors.toMap(SanPhamChiTiet::getId, variant -> variant));
 
-                // Check inventory availability
-                int availableQuantity = serialNumberService.getAvailableQuantityByVariant(newItem.getSanPhamChiTietId());
-                if (availableQuantity < newItem.getSoLuong()) {
-                    throw new IllegalArgumentException("Insufficient inventory for product: " +
-                            sanPhamChiTiet.getSanPham().getTenSanPham() +
-                            ". Available: " + availableQuantity + ", Requested: " + newItem.getSoLuong());
+            for (HoaDonChiTietDto newItem : diff.them()) {
+                SanPhamChiTiet sanPhamChiTiet = variants.get(newItem.getSanPhamChiTietId());
+                if (sanPhamChiTiet == null) {
+                    throw new EntityNotFoundException("Sản phẩm chi tiết không tồn tại với ID: " + newItem.getSanPhamChiTietId());
                 }
+                existingHoaDon.getHoaDonChiTiets().add(buildAddedLineItem(existingHoaDon, sanPhamChiTiet, newItem));
+            }
+        }
 
-                // Create new HoaDonChiTiet entity
-                HoaDonChiTiet newChiTiet = new HoaDonChiTiet();
-                newChiTiet.setHoaDon(existingHoaDon);
-                newChiTiet.setSanPhamChiTiet(sanPhamChiTiet);
-                newChiTiet.setSoLuong(newItem.getSoLuong());
+        // Recalculate order totals
+        recalculateOrderTotals(existingHoaDon);
 
-                // Set price from DTO or use current product price
-                BigDecimal giaBan = newItem.getGiaBan() != null ? newItem.getGiaBan() :
-                        (sanPhamChiTiet.getGiaKhuyenMai() != null && sanPhamChiTiet.getGiaKhuyenMai().compareTo(BigDecimal.ZERO) > 0 ?
-                                sanPhamChiTiet.getGiaKhuyenMai() : sanPhamChiTiet.getGiaBan());
-                newChiTiet.setGiaBan(giaBan);
+        log.info("Updated line items for order {}: {} changed, {} removed, {} added, {} variants with inventory changes - {} items total",
+                existingHoaDon.getId(), diff.capNhat().size(), diff.xoa().size(), diff.them().size(),
+                diff.chenhLechTheoBienThe().size(), existingHoaDon.getHoaDonChiTiets().size());
+    }
 
-                // Set original price (required field)
-                newChiTiet.setGiaGoc(sanPhamChiTiet.getGiaBan());
+    /**
+     * Release and reserve serial numbers by the net change of each variant.
+     * Releases run first so a variant moving between lines never needs extra stock.
+     */
+    private void applyInventoryDeltas(String orderId, Map<Long, Integer> chenhLechTheoBienThe) {
+        if (chenhLechTheoBienThe.isEmpty()) {
+            return;
+        }
 
-                // Calculate line total
-                BigDecimal thanhTien = giaBan.multiply(BigDecimal.valueOf(newItem.getSoLuong()));
-                newChiTiet.setThanhTien(thanhTien);
+        boolean hasRelease = chenhLechTheoBienThe.values().stream().anyMatch(delta -> delta < 0);
+        if (hasRelease) {
+            // One lookup for every serial this order holds, grouped by variant
+            Map<Long, List<Long>> reservedByVariant = serialNumberService.getSerialNumbersByOrderId(orderId).stream()
+                    .filter(SerialNumber::isReserved)
+                    .collect(Collectors.groupingBy(serial -> serial.getSanPhamChiTiet().getId(),
+                            Collectors.mapping(SerialNumber::getId, Collectors.toList())));
 
-                // Set snapshot fields for audit trail (required fields)
-                if (sanPhamChiTiet.getSanPham() != null) {
-                    newChiTiet.setTenSanPhamSnapshot(sanPhamChiTiet.getSanPham().getTenSanPham());
+            chenhLechTheoBienThe.forEach((variantId, delta) -> {
+                if (delta >= 0) {
+                    return;
                 }
-                newChiTiet.setSkuSnapshot(sanPhamChiTiet.getSku());
-                if (sanPhamChiTiet.getHinhAnh() != null && !sanPhamChiTiet.getHinhAnh().isEmpty()) {
-                    newChiTiet.setHinhAnhSnapshot(sanPhamChiTiet.getHinhAnh().get(0));
+                List<Long> reserved = reservedByVariant.getOrDefault(variantId, List.of());
+                int releaseCount = Math.min(-delta, reserved.size());
+                if (releaseCount < -delta) {
+                    log.warn("Order {} holds {} reserved serials for variant {}, expected to release {}",
+                            orderId, reserved.size(), variantId, -delta);
                 }
-
-                // Add to order
-                existingHoaDon.getHoaDonChiTiets().add(newChiTiet);
-
-                // Reserve inventory for new items - always reserve available serial numbers
-                List<SerialNumber> availableSerialNumbers = serialNumberService.getAvailableSerialNumbers(newItem.getSanPhamChiTietId());
-                for (int i = 0; i < Math.min(newItem.getSoLuong(), availableSerialNumbers.size()); i++) {
-                    itemsToReserve.add(availableSerialNumbers.get(i).getId());
+                if (releaseCount > 0) {
+                    serialNumberService.releaseReservations(new ArrayList<>(reserved.subList(0, releaseCount)), "system", "Order update");
                 }
-
-                log.info("Added new item to order {}: {} x {} = {}",
-                        existingHoaDon.getId(), sanPhamChiTiet.getSanPham().getTenSanPham(),
-                        newItem.getSoLuong(), thanhTien);
-            }
+            });
         }
 
-        // Apply inventory reservations for new items
-        if (!itemsToReserve.isEmpty()) {
-            // Create temporary order items for reservation
-            List<HoaDonChiTietDto> tempOrderItems = new ArrayList<>();
-            for (HoaDonChiTietDto newItem : newItems) {
-                if (newItem.getId() == null) {
-                    tempOrderItems.add(newItem);
-                }
+        chenhLechTheoBienThe.forEach((variantId, delta) -> {
+            if (delta <= 0) {
+                return;
             }
-
-            // Reserve items using the existing service method
-            if (!tempOrderItems.isEmpty()) {
-                serialNumberService.reserveItemsWithTracking(
-                        tempOrderItems,
-                        "ORDER_UPDATE",
-                        existingHoaDon.getId().toString(),
-                        "system"
-                );
+            try {
+                serialNumberService.reserveSerialNumbers(variantId, delta, "ORDER_UPDATE", orderId, "system");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Insufficient inventory for product variant " + variantId + ": " + e.getMessage(), e);
             }
-            log.info("Reserved {} items for order update", itemsToReserve.size());
-        }
+        });
+    }
 
-        // Recalculate order totals
-        recalculateOrderTotals(existingHoaDon);
+    /**
+     * New line with the price from the request or the variant's current price, plus snapshot fields
+     */
+    private HoaDonChiTiet buildAddedLineItem(HoaDon hoaDon, SanPhamChiTiet sanPhamChiTiet, HoaDonChiTietDto newItem) {
+        HoaDonChiTiet newChiTiet = new HoaDonChiTiet();
+        newChiTiet.setHoaDon(hoaDon);
+        newChiTiet.setSanPhamChiTiet(sanPhamChiTiet);
+        newChiTiet.setSoLuong(newItem.getSoLuong());
+
+        // Set price from DTO or use current product price
+        BigDecimal giaBan = newItem.getGiaBan() != null ? newItem.getGiaBan() :
+                (sanPhamChiTiet.getGiaKhuyenMai() != null && sanPhamChiTiet.getGiaKhuyenMai().compareTo(BigDecimal.ZERO) > 0 ?
+                        sanPhamChiTiet.getGiaKhuyenMai() : sanPhamChiTiet.getGiaBan());
+        newChiTiet.setGiaBan(giaBan);
 
-        log.info("Updated line items for order {} - {} items total", existingHoaDon.getId(), existingHoaDon.getHoaDonChiTiets().size());
+        // Set original price (required field)
+        newChiTiet.setGiaGoc(sanPhamChiTiet.getGiaBan());
+        newChiTiet.setThanhTien(giaBan.multiply(BigDecimal.valueOf(newItem.getSoLuong())));
+
+        // Set snapshot fields for audit trail (required fields)
+        if (sanPhamChiTiet.getSanPham() != null) {
+            newChiTiet.setTenSanPhamSnapshot(sanPhamChiTiet.getSanPham().getTenSanPham());
+        }
+        newChiTiet.setSkuSnapshot(sanPhamChiTiet.getSku());
+        if (sanPhamChiTiet.getHinhAnh() != null && !sanPhamChiTiet.getHinhAnh().isEmpty()) {
+            newChiTiet.setHinhAnhSnapshot(sanPhamChiTiet.getHinhAnh().get(0));
+        }
+        return newChiTiet;
     }
 
     /**
@@ -2055,21 +2446,6 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         hoaDon.setTongThanhToan(tongThanhToan.max(BigDecimal.ZERO));
     }
 
-    /**
-     * Create JSON representation of entity for audit trail
-     */
-    private String createAuditValues(HoaDon entity) {
-        return String.format(
-                "{\"maHoaDon\":\"%s\",\"loaiHoaDon\":\"%s\",\"trangThaiDonHang\":\"%s\",\"trangThaiThanhToan\":\"%s\",\"tongThanhToan\":\"%s\",\"khachHangId\":\"%s\"}",
-                entity.getMaHoaDon(),
-                entity.getLoaiHoaDon(),
-                entity.getTrangThaiDonHang(),
-                entity.getTrangThaiThanhToan(),
-                entity.getTongThanhToan(),
-                entity.getKhachHang() != null ? entity.getKhachHang().getId() : null
-        );
-    }
-
     /**
      * Get audit history for a specific order
      */
@@ -2108,11 +2484,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         String auditMessage = String.format("VNPay payment initiated - Amount: %d, OrderInfo: %s", amount, orderInfo);
         HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
                 orderId,
-                createAuditValues(hoaDon),
+                buildAuditJson(hoaDon),
                 hoaDon.getNguoiTao(),
                 auditMessage
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         log.info("VNPay payment URL created for order {} with amount {}", orderId, amount);
         return vnpayUrl;
@@ -2181,11 +2557,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                 paymentMethod, paymentAmount, transactionRef, cumulativePayments);
         HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
                 orderId,
-                createAuditValues(hoaDon),
+                buildAuditJson(hoaDon),
                 currentUser != null ? currentUser.getEmail() : "SYSTEM",
                 auditMessage
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         log.info("Payment added to order {} - Method: {}, Amount: {}, Cumulative context: {}",
                 orderId, paymentMethod, paymentAmount, cumulativePayments);
@@ -2268,11 +2644,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
                     payments.size(), totalPaymentAmount);
             HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
                     orderId,
-                    createAuditValues(hoaDon),
+                    buildAuditJson(hoaDon),
                     currentUser != null ? currentUser.getEmail() : "SYSTEM",
                     auditMessage
             );
-            auditHistoryRepository.save(auditEntry);
+            writeAudit(auditEntry);
 
             // Prepare response
             paymentResults.put("processedPayments", processedPayments);
@@ -2394,8 +2770,13 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     /**
      * Get payment summary for an order including all payment methods used.
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public PaymentSummaryDto getOrderPaymentSummary(Long orderId) {
+        return orderReadCache.get(orderId, OrderReadCache.View.THANH_TOAN, () -> buildOrderPaymentSummary(orderId));
+    }
+
+    private PaymentSummaryDto buildOrderPaymentSummary(Long orderId) {
         HoaDon hoaDon = hoaDonRepository.findById(orderId)
                 .orElseThrow(() -> new EntityNotFoundException("Order not found with ID: " + orderId));
 
@@ -2688,7 +3069,25 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
      */
     private List<HoaDonDto> toDtoListWithPaymentMethod(List<HoaDon> hoaDons) {
         List<HoaDonDto> dtos = hoaDonMapper.toDtoList(hoaDons);
-        dtos.forEach(this::populatePaymentMethod);
+        if (dtos.isEmpty()) {
+            return dtos;
+        }
+
+        // Load payments for all orders in one query instead of one lookup per order
+        Set<Long> hoaDonIds = dtos.stream()
+                .map(HoaDonDto::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, PhuongThucThanhToan> paymentMethods = new HashMap<>();
+        try {
+            // Rows are ordered newest first per order, so the first one seen is the primary payment
+            for (HoaDonThanhToan payment : hoaDonThanhToanRepository.findByHoaDonIdInWithPaymentDetails(hoaDonIds)) {
+                paymentMethods.putIfAbsent(payment.getHoaDon().getId(), payment.getThanhToan().getPhuongThucThanhToan());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to retrieve payment methods for {} orders: {}", hoaDonIds.size(), e.getMessage());
+        }
+        dtos.forEach(dto -> dto.setPhuongThucThanhToan(paymentMethods.get(dto.getId())));
         return dtos;
     }
 
@@ -2739,11 +3138,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         String auditMessage = String.format("MoMo payment initiated - Amount: %d, OrderInfo: %s", amount, orderInfo);
         HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
                 orderId,
-                createAuditValues(hoaDon),
+                buildAuditJson(hoaDon),
                 hoaDon.getNguoiTao(),
                 auditMessage
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         log.info("MoMo payment URL created for order {} with amount {}", orderId, amount);
         return momoUrl;
@@ -2752,12 +3151,12 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
 
 
     /**
-     * Calculate shipping fee automatically using GHN service with manual override capability.
+     * Quote the shipping fee automatically using GHN service with manual override capability.
      * If manual shipping fee is provided in DTO, it takes precedence over automatic calculation.
-     * Uses GHN service directly for shipping fee calculation.
-     * Falls back to zero shipping fee if GHN service fails.
+     * Runs before the order write transaction, so no connection is held during the GHN call.
+     * Falls back to the primary shipping service, then to zero shipping fee if both fail.
      */
-    private BigDecimal calculateShippingFee(HoaDon hoaDon, HoaDonDto hoaDonDto) {
+    private BigDecimal quoteShippingFee(HoaDonDto hoaDonDto, Map<Long, BigDecimal> giaHienTai) {
         // Step 1: Check if manual shipping fee is provided (manual override)
         if (hoaDonDto.getPhiVanChuyen() != null) {
             log.info("Using manual shipping fee: {} VND", hoaDonDto.getPhiVanChuyen());
@@ -2765,84 +3164,97 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         }
 
         // Step 2: Check if order requires shipping (has delivery address)
-        if (hoaDon.getDiaChiGiaoHang() == null) {
+        DiaChiDto diaChiGiaoHang = resolveShippingAddress(hoaDonDto);
+        if (diaChiGiaoHang == null) {
             log.info("No delivery address provided, setting shipping fee to zero");
             return BigDecimal.ZERO;
         }
 
-        try {
-            // Step 3: Build shipping request from order data
-            ShippingRequest shippingRequest = buildShippingRequest(hoaDon);
+        // Step 3: Build shipping request from order data
+        ShippingRequest shippingRequest = buildShippingRequest(diaChiGiaoHang, hoaDonDto, giaHienTai);
 
+        try {
             // Step 4: Use GHN service directly for shipping fee calculation
             ShippingFeeResponse ghnResponse = ghnService.calculateShippingFee(shippingRequest);
 
             if (ghnResponse.isSuccess() && ghnResponse.getTotalFee() != null) {
                 log.info("GHN shipping fee calculated successfully: {} VND", ghnResponse.getTotalFee());
                 return ghnResponse.getTotalFee();
-            } else {
-                log.warn("GHN shipping fee calculation failed: {}", ghnResponse.getErrorMessage());
-
-                // Fallback: Try primary shipping service directly
-                if (shippingCalculatorService.isAvailable()) {
-                    ShippingFeeResponse fallbackResponse = shippingCalculatorService.calculateShippingFee(shippingRequest);
-                    if (fallbackResponse.isSuccess() && fallbackResponse.getTotalFee() != null) {
-                        log.info("Fallback shipping fee using {}: {} VND",
-                                fallbackResponse.getProviderName(), fallbackResponse.getTotalFee());
-                        return fallbackResponse.getTotalFee();
-                    }
-                }
-
-                log.warn("All shipping providers failed, setting shipping fee to zero");
-                return BigDecimal.ZERO;
             }
-
+            log.warn("GHN shipping fee calculation failed: {}", ghnResponse.getErrorMessage());
         } catch (Exception e) {
             log.error("Error calculating shipping fee: {}", e.getMessage(), e);
+        }
 
-            // Final fallback: Try primary service
-            try {
-                if (shippingCalculatorService.isAvailable()) {
-                    ShippingRequest shippingRequest = buildShippingRequest(hoaDon);
-                    ShippingFeeResponse fallbackResponse = shippingCalculatorService.calculateShippingFee(shippingRequest);
-                    if (fallbackResponse.isSuccess() && fallbackResponse.getTotalFee() != null) {
-                        log.info("Emergency fallback shipping fee: {} VND", fallbackResponse.getTotalFee());
-                        return fallbackResponse.getTotalFee();
-                    }
+        // Fallback: Try primary shipping service directly
+        try {
+            if (shippingCalculatorService.isAvailable()) {
+                ShippingFeeResponse fallbackResponse = shippingCalculatorService.calculateShippingFee(shippingRequest);
+                if (fallbackResponse.isSuccess() && fallbackResponse.getTotalFee() != null) {
+                    log.info("Fallback shipping fee using {}: {} VND",
+                            fallbackResponse.getProviderName(), fallbackResponse.getTotalFee());
+                    return fallbackResponse.getTotalFee();
                 }
-            } catch (Exception fallbackException) {
-                log.error("Emergency fallback also failed: {}", fallbackException.getMessage());
             }
+        } catch (Exception fallbackException) {
+            log.error("Fallback shipping provider also failed: {}", fallbackException.getMessage());
+        }
 
-            return BigDecimal.ZERO;
+        log.warn("All shipping providers failed, setting shipping fee to zero");
+        return BigDecimal.ZERO;
+    }
+
+    /**
+     * Delivery address of the order as plain values, or null when the order has none.
+     * An existing address is read by ID; ownership is validated later in the write stage.
+     */
+    private DiaChiDto resolveShippingAddress(HoaDonDto hoaDonDto) {
+        Long diaChiId = hoaDonDto.getDiaChiGiaoHangId() != null
+                ? hoaDonDto.getDiaChiGiaoHangId()
+                : hoaDonDto.getDiaChiGiaoHang() != null ? hoaDonDto.getDiaChiGiaoHang().getId() : null;
+
+        if (diaChiId != null) {
+            return diaChiRepository.findById(diaChiId)
+                    .map(diaChi -> DiaChiDto.builder()
+                            .tinhThanh(diaChi.getTinhThanh())
+                            .quanHuyen(diaChi.getQuanHuyen())
+                            .phuongXa(diaChi.getPhuongXa())
+                            .duong(diaChi.getDuong())
+                            .build())
+                    .orElse(null);
         }
+        return hoaDonDto.getDiaChiGiaoHang();
     }
 
     /**
      * Build shipping request from order data for shipping API.
-     * Extracts delivery address and package information from the order.
+     * Package value is the order subtotal at cart prices, or current prices for lines without one.
      */
-    private ShippingRequest buildShippingRequest(HoaDon hoaDon) {
-        // Calculate total weight (assuming 500g per item as default)
-        int totalWeight = hoaDon.getHoaDonChiTiets().stream()
-                .mapToInt(chiTiet -> chiTiet.getSoLuong() * 500) // 500g per item
-                .sum();
+    private ShippingRequest buildShippingRequest(DiaChiDto diaChiGiaoHang, HoaDonDto hoaDonDto, Map<Long, BigDecimal> giaHienTai) {
+        int totalWeight = 0;
+        BigDecimal orderValue = BigDecimal.ZERO;
+        for (HoaDonChiTietDto chiTiet : hoaDonDto.getChiTiet()) {
+            // Calculate total weight (assuming 500g per item as default)
+            totalWeight += chiTiet.getSoLuong() * 500;
+
+            BigDecimal price = chiTiet.getGiaBan() != null && chiTiet.getGiaBan().compareTo(BigDecimal.ZERO) > 0
+                    ? chiTiet.getGiaBan()
+                    : giaHienTai.getOrDefault(chiTiet.getSanPhamChiTietId(), BigDecimal.ZERO);
+            orderValue = orderValue.add(price.multiply(BigDecimal.valueOf(chiTiet.getSoLuong())));
+        }
 
         // Ensure minimum weight of 100g
         totalWeight = Math.max(totalWeight, 100);
 
-        // Extract delivery address information from DiaChi entity
-        DiaChi diaChiGiaoHang = hoaDon.getDiaChiGiaoHang();
-
         return ShippingRequest.builder()
-                // Delivery location (from DiaChi entity)
+                // Delivery location
                 .province(diaChiGiaoHang.getTinhThanh())
                 .district(diaChiGiaoHang.getQuanHuyen())
                 .ward(diaChiGiaoHang.getPhuongXa())
                 .address(diaChiGiaoHang.getDuong())
                 // Package details
                 .weight(totalWeight)
-                .value(hoaDon.getTongTienHang()) // Order value for insurance
+                .value(orderValue) // Order value for insurance
                 .build();
     }
 
@@ -2925,8 +3337,15 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     }
 
     @Override
-    protected String buildAuditJson(HoaDon entity) {
-        return createAuditValues(entity);
+    protected Map<String, Object> captureAuditFields(HoaDon entity) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("maHoaDon", entity.getMaHoaDon());
+        fields.put("loaiHoaDon", entity.getLoaiHoaDon());
+        fields.put("trangThaiDonHang", entity.getTrangThaiDonHang());
+        fields.put("trangThaiThanhToan", entity.getTrangThaiThanhToan());
+        fields.put("tongThanhToan", entity.getTongThanhToan());
+        fields.put("khachHangId", entity.getKhachHang() != null ? entity.getKhachHang().getId() : null);
+        return fields;
     }
 
     @Override
@@ -3336,12 +3755,12 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     /**
      * Enhanced inventory reservation with better coordination and error handling.
      */
-    private List<Long> reserveInventoryWithCoordination(HoaDonDto hoaDonDto, String orderChannel, String tempOrderId) {
+    private List<Long> reserveInventoryWithCoordination(HoaDonDto hoaDonDto, String orderChannel, String orderId) {
         long startTime = System.currentTimeMillis();
 
         if (log.isInfoEnabled()) {
             log.info("Bắt đầu đặt trước tồn kho cho đơn hàng {} - Kênh: {}, Số_sản_phẩm: {}",
-                    tempOrderId, orderChannel, hoaDonDto.getChiTiet().size());
+                    orderId, orderChannel, hoaDonDto.getChiTiet().size());
         }
 
         // Enhanced pre-validation logging
@@ -3374,7 +3793,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
             List<Long> reservedItemIds = serialNumberService.reserveItemsWithTracking(
                     hoaDonDto.getChiTiet(),
                     orderChannel,
-                    tempOrderId,
+                    orderId,
                     "system"
             );
 
@@ -3384,7 +3803,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
             if (log.isInfoEnabled()) {
                 log.info("Hoàn thành đặt trước tồn kho thành công: {} serial number cho đơn hàng {}, " +
                                 "kênh={}, thời_gian={}ms",
-                        reservedItemIds.size(), tempOrderId, orderChannel, executionTime);
+                        reservedItemIds.size(), orderId, orderChannel, executionTime);
             }
 
             return reservedItemIds;
@@ -3395,11 +3814,11 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
             // Enhanced error logging with Vietnamese terminology and context
             log.error("Thất bại trong việc đặt trước tồn kho cho đơn hàng {}: {}, " +
                             "kênh={}, số_sản_phẩm={}, thời_gian_thất_bại={}ms",
-                    tempOrderId, e.getMessage(), orderChannel, hoaDonDto.getChiTiet().size(), executionTime);
+                    orderId, e.getMessage(), orderChannel, hoaDonDto.getChiTiet().size(), executionTime);
 
             // Log specific inventory issues for troubleshooting
             if (e.getMessage().contains("Không đủ hàng tồn kho") || e.getMessage().contains("Insufficient inventory")) {
-                log.warn("Chi tiết lỗi tồn kho cho đơn hàng {}:", tempOrderId);
+                log.warn("Chi tiết lỗi tồn kho cho đơn hàng {}:", orderId);
                 for (HoaDonChiTietDto item : hoaDonDto.getChiTiet()) {
                     try {
                         int availableQuantity = serialNumberService.getAvailableQuantityByVariant(item.getSanPhamChiTietId());
@@ -3419,8 +3838,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
     /**
      * Create order entity with enhanced transaction coordination.
      */
-    private HoaDon createOrderEntityWithCoordination(HoaDonDto hoaDonDto, NguoiDung currentUser, String tempOrderId) {
-        log.debug("Creating order entity for temp order: {}", tempOrderId);
+    private HoaDon createOrderEntityWithCoordination(HoaDonDto hoaDonDto, NguoiDung currentUser) {
 
         // Create HoaDon entity manually to avoid mapper issues with nested entities
         HoaDon hoaDon = new HoaDon();
@@ -3443,7 +3861,7 @@ public class HoaDonService extends BusinessEntityService<HoaDon, Long, HoaDonDto
         // Validate and set delivery address
         validateAndSetDeliveryAddress(hoaDon, hoaDonDto);
 
-        log.debug("Order entity created successfully for temp order: {}", tempOrderId);
+        log.debug("Order entity created successfully: {}", hoaDon.getMaHoaDon());
         return hoaDon;
     }
 
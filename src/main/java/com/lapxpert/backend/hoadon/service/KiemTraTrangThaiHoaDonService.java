@@ -10,7 +10,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -48,6 +51,45 @@ public class KiemTraTrangThaiHoaDonService {
         Optional<ChuyenDoiTrangThaiHoaDon> chuyenDoiOpt = 
             chuyenDoiTrangThaiRepository.findByTrangThaiTuAndTrangThaiDen(trangThaiTu, trangThaiDen);
 
+        return kiemTraTheoQuyTac(trangThaiTu, trangThaiDen, chuyenDoiOpt, nguoiDung, laHanhDongHeThong);
+    }
+
+    /**
+     * Kiểm tra chuyển đổi đến cùng một trạng thái đích cho nhiều trạng thái nguồn.
+     * Các quy tắc được tải bằng một truy vấn, dùng cho cập nhật trạng thái hàng loạt.
+     *
+     * @param cacTrangThaiTu Các trạng thái hiện tại cần kiểm tra
+     * @param trangThaiDen Trạng thái hóa đơn đích
+     * @param nguoiDung Người dùng đang cố gắng chuyển đổi
+     * @param laHanhDongHeThong Liệu đây có phải là hành động do hệ thống khởi tạo không
+     * @return Kết quả kiểm tra theo từng trạng thái nguồn
+     */
+    public Map<TrangThaiDonHang, KetQuaKiemTra> kiemTraChuyenDoiHangLoat(Collection<TrangThaiDonHang> cacTrangThaiTu,
+                                                                        TrangThaiDonHang trangThaiDen,
+                                                                        NguoiDung nguoiDung,
+                                                                        boolean laHanhDongHeThong) {
+        Map<TrangThaiDonHang, ChuyenDoiTrangThaiHoaDon> quyTacTheoTrangThaiTu = new EnumMap<>(TrangThaiDonHang.class);
+        for (ChuyenDoiTrangThaiHoaDon chuyenDoi : chuyenDoiTrangThaiRepository.findByTrangThaiDen(trangThaiDen)) {
+            quyTacTheoTrangThaiTu.put(chuyenDoi.getTrangThaiTu(), chuyenDoi);
+        }
+
+        Map<TrangThaiDonHang, KetQuaKiemTra> ketQua = new EnumMap<>(TrangThaiDonHang.class);
+        for (TrangThaiDonHang trangThaiTu : cacTrangThaiTu) {
+            if (trangThaiTu == trangThaiDen) {
+                ketQua.put(trangThaiTu, KetQuaKiemTra.thanhCong("Không cần thay đổi trạng thái"));
+                continue;
+            }
+            ketQua.put(trangThaiTu, kiemTraTheoQuyTac(trangThaiTu, trangThaiDen,
+                    Optional.ofNullable(quyTacTheoTrangThaiTu.get(trangThaiTu)), nguoiDung, laHanhDongHeThong));
+        }
+        return ketQua;
+    }
+
+    private KetQuaKiemTra kiemTraTheoQuyTac(TrangThaiDonHang trangThaiTu,
+                                           TrangThaiDonHang trangThaiDen,
+                                           Optional<ChuyenDoiTrangThaiHoaDon> chuyenDoiOpt,
+                                           NguoiDung nguoiDung,
+                                           boolean laHanhDongHeThong) {
         if (chuyenDoiOpt.isEmpty()) {
             return KetQuaKiemTra.thatBai(
                 String.format("Không có quy tắc chuyển đổi được định nghĩa từ %s đến %s", trangThaiTu, trangThaiDen)
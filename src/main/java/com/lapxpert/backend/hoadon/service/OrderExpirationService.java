@@ -1,5 +1,8 @@
 package com.lapxpert.backend.hoadon.service;
 
+import com.lapxpert.backend.common.entity.EmailOutbox;
+import com.lapxpert.backend.common.event.OrderChangeEvent;
+import com.lapxpert.backend.common.service.EmailOutboxService;
 import com.lapxpert.backend.hoadon.entity.HoaDon;
 import com.lapxpert.backend.hoadon.entity.HoaDonAuditHistory;
 import com.lapxpert.backend.hoadon.repository.HoaDonRepository;
@@ -7,67 +10,119 @@ import com.lapxpert.backend.hoadon.repository.HoaDonAuditHistoryRepository;
 import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
 import com.lapxpert.backend.sanpham.service.SerialNumberService;
 import com.lapxpert.backend.phieugiamgia.service.PhieuGiamGiaService;
-import com.lapxpert.backend.common.service.EmailService;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Order Expiration Service with Inventory Release
- * Handles automatic order expiration for unpaid orders after 24 hours
- * Follows existing scheduler patterns from DotGiamGiaService and PhieuGiamGiaService
+ * Cancels unpaid orders once the payment window has passed (24 hours by default).
+ *
+ * Expired orders are claimed in chunks with FOR UPDATE SKIP LOCKED, so several nodes can run
+ * the job at once without picking the same order. Each chunk is one transaction: serial numbers
+ * and vouchers of all its orders are released with set-based statements, the orders are
+ * cancelled with one UPDATE, audit rows are written with saveAll and the customer emails go to
+ * the email outbox. The age of the oldest order still waiting to be cancelled is published as
+ * the order.expiration.backlog.age gauge.
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class OrderExpirationService {
 
+    private static final String NGUOI_THUC_HIEN = "SYSTEM";
+
     private final HoaDonRepository hoaDonRepository;
     private final HoaDonAuditHistoryRepository auditHistoryRepository;
     private final SerialNumberService serialNumberService;
     private final PhieuGiamGiaService phieuGiamGiaService;
-    private final EmailService emailService;
+    private final EmailOutboxService emailOutboxService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong backlogAgeSeconds = new AtomicLong();
+
+    @Value("${order.expiration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${order.expiration.unpaid-timeout-minutes:1440}")
+    private long unpaidTimeoutMinutes;
+
+    @Value("${order.expiration.chunk-size:100}")
+    private int chunkSize;
+
+    @Value("${order.expiration.max-chunks-per-run:50}")
+    private int maxChunksPerRun;
+
+    public OrderExpirationService(HoaDonRepository hoaDonRepository,
+                                  HoaDonAuditHistoryRepository auditHistoryRepository,
+                                  SerialNumberService serialNumberService,
+                                  PhieuGiamGiaService phieuGiamGiaService,
+                                  EmailOutboxService emailOutboxService,
+                                  ApplicationEventPublisher eventPublisher,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry) {
+        this.hoaDonRepository = hoaDonRepository;
+        this.auditHistoryRepository = auditHistoryRepository;
+        this.serialNumberService = serialNumberService;
+        this.phieuGiamGiaService = phieuGiamGiaService;
+        this.emailOutboxService = emailOutboxService;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("order.expiration.backlog.age", backlogAgeSeconds, AtomicLong::get)
+                .description("Seconds the oldest expired unpaid order has been waiting to be cancelled")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
 
     /**
-     * Process expired orders every 5 minutes
-     * Orders expire after 24 hours without payment
-     * Following the same pattern as SerialNumberService.cleanupExpiredReservations()
+     * Process expired orders every 5 minutes.
+     * Keeps claiming chunks until the backlog is empty or the per-run limit is reached,
+     * so a large backlog is drained over several runs instead of in one long transaction.
      */
-    @Scheduled(cron = "0 */5 * * * ?") // Every 5 minutes
-    @Transactional
+    @Scheduled(fixedDelayString = "${order.expiration.poll-interval-ms:300000}")
     public void processExpiredOrders() {
+        if (!enabled) {
+            return;
+        }
+
         try {
-            // Calculate cutoff time: 24 hours ago
-            Instant cutoffTime = Instant.now().minus(24, ChronoUnit.HOURS);
-            
-            // Find expired unpaid orders
-            List<HoaDon> expiredOrders = hoaDonRepository.findExpiredUnpaidOrders(cutoffTime);
-            
-            if (expiredOrders.isEmpty()) {
-                log.debug("No expired orders found for processing");
-                return;
-            }
-            
-            log.info("Found {} expired orders to process", expiredOrders.size());
-            
-            // Process each expired order
-            for (HoaDon order : expiredOrders) {
-                try {
-                    processExpiredOrder(order);
-                } catch (Exception e) {
-                    log.error("Failed to process expired order {}: {}", order.getId(), e.getMessage(), e);
-                    // Continue processing other orders even if one fails
+            Instant cutoffTime = Instant.now().minus(unpaidTimeoutMinutes, ChronoUnit.MINUTES);
+            int totalCancelled = 0;
+
+            for (int chunk = 0; chunk < maxChunksPerRun; chunk++) {
+                Integer cancelled = transactionTemplate.execute(status -> expireChunk(cutoffTime));
+                int count = cancelled != null ? cancelled : 0;
+                totalCancelled += count;
+                if (count < chunkSize) {
+                    break;
                 }
             }
-            
-            log.info("Completed processing {} expired orders", expiredOrders.size());
-            
+
+            if (totalCancelled > 0) {
+                log.info("Cancelled {} expired unpaid orders", totalCancelled);
+            } else {
+                log.debug("No expired orders found for processing");
+            }
+
+            updateBacklogAge(cutoffTime);
+
         } catch (Exception e) {
             // Log error but don't throw to prevent scheduler from stopping
             log.error("Error in order expiration scheduler: {}", e.getMessage(), e);
@@ -75,147 +130,133 @@ public class OrderExpirationService {
     }
 
     /**
-     * Process a single expired order
-     * 1. Release serial numbers back to inventory
-     * 2. Remove applied vouchers
-     * 3. Update order status to DA_HUY
-     * 4. Send email notification to customer
-     * 5. Create audit trail entry
+     * Claim and cancel one chunk of expired orders inside the caller's transaction
+     * 1. Lock the oldest expired orders, skipping rows another node holds
+     * 2. Release their reserved serial numbers
+     * 3. Remove applied vouchers and restore usage counts
+     * 4. Cancel the orders with one UPDATE
+     * 5. Write audit entries and queue customer emails
+     *
+     * @return number of orders cancelled
      */
-    @Transactional
-    public void processExpiredOrder(HoaDon order) {
-        log.info("Processing expired order: {}", order.getId());
-        
-        try {
-            // Step 1: Release serial numbers back to inventory
-            releaseOrderInventory(order);
-            
-            // Step 2: Remove applied vouchers and restore usage counts
-            removeOrderVouchers(order);
-            
-            // Step 3: Update order status to cancelled with Vietnamese reason
-            order.setTrangThaiDonHang(TrangThaiDonHang.DA_HUY);
-            HoaDon savedOrder = hoaDonRepository.save(order);
-            
-            // Step 4: Create audit trail entry
-            createExpirationAuditEntry(savedOrder);
-            
-            // Step 5: Send email notification to customer
-            sendExpirationNotification(savedOrder);
-            
-            log.info("Successfully processed expired order: {}", order.getId());
-            
-        } catch (Exception e) {
-            log.error("Failed to process expired order {}: {}", order.getId(), e.getMessage(), e);
-            throw e; // Re-throw to ensure transaction rollback
+    int expireChunk(Instant cutoffTime) {
+        List<Long> orderIds = hoaDonRepository.claimExpiredUnpaidOrderIds(cutoffTime, chunkSize);
+        if (orderIds.isEmpty()) {
+            return 0;
         }
-    }
 
-    /**
-     * Release serial numbers back to inventory using existing SerialNumberService
-     */
-    private void releaseOrderInventory(HoaDon order) {
-        try {
-            // Get reserved serial numbers for this order
-            List<Long> reservedItemIds = serialNumberService.getReservedSerialNumberIdsForOrder(order.getId().toString());
-            
-            if (!reservedItemIds.isEmpty()) {
-                // Release reservations safely
-                serialNumberService.releaseReservationsSafely(reservedItemIds);
-                log.info("Released {} reserved items for expired order {}", reservedItemIds.size(), order.getId());
-            } else {
-                log.debug("No reserved items found for expired order {}", order.getId());
-            }
-            
-        } catch (Exception e) {
-            log.error("Failed to release inventory for expired order {}: {}", order.getId(), e.getMessage());
-            throw new RuntimeException("Failed to release inventory for expired order", e);
-        }
-    }
+        // Rows are already locked by the claim; this only loads the data needed for audit and email
+        List<HoaDon> orders = hoaDonRepository.findAllByIdInForUpdate(orderIds);
+        List<ExpiredOrder> expiredOrders = orders.stream().map(ExpiredOrder::of).toList();
+        String lyDo = "Đơn hàng hết hạn thanh toán - tự động hủy sau " + formatTimeout();
 
-    /**
-     * Remove applied vouchers and restore usage counts
-     */
-    private void removeOrderVouchers(HoaDon order) {
-        try {
-            // Use existing PhieuGiamGiaService method to remove vouchers from order
-            phieuGiamGiaService.removeVouchersFromOrder(order.getId());
-            log.info("Removed vouchers from expired order {}", order.getId());
-            
-        } catch (Exception e) {
-            log.error("Failed to remove vouchers from expired order {}: {}", order.getId(), e.getMessage());
-            // Don't throw exception here as voucher removal is not critical for order cancellation
-        }
-    }
+        List<String> reservationKeys = orderIds.stream().map(String::valueOf).toList();
+        int releasedSerials = serialNumberService.releaseReservationsForOrders(reservationKeys, NGUOI_THUC_HIEN, lyDo);
+        int restoredVouchers = phieuGiamGiaService.removeVouchersFromOrders(orderIds);
 
-    /**
-     * Create audit trail entry for order expiration
-     */
-    private void createExpirationAuditEntry(HoaDon order) {
-        try {
-            String auditValues = buildAuditJson(order);
-            HoaDonAuditHistory auditEntry = HoaDonAuditHistory.createEntry(
-                order.getId(),
-                auditValues,
-                "SYSTEM",
-                "Đơn hàng hết hạn thanh toán - tự động hủy sau 24 giờ"
-            );
-            auditHistoryRepository.save(auditEntry);
-            
-            log.debug("Created audit entry for expired order {}", order.getId());
-            
-        } catch (Exception e) {
-            log.error("Failed to create audit entry for expired order {}: {}", order.getId(), e.getMessage());
-            // Don't throw exception as audit failure shouldn't prevent order cancellation
-        }
+        hoaDonRepository.updateTrangThaiDonHangByIdIn(orderIds, TrangThaiDonHang.DA_HUY, Instant.now(), NGUOI_THUC_HIEN);
+
+        auditHistoryRepository.saveAll(expiredOrders.stream()
+                .map(order -> HoaDonAuditHistory.statusChangeEntry(
+                        order.id(),
+                        order.trangThaiCu().name(),
+                        TrangThaiDonHang.DA_HUY.name(),
+                        NGUOI_THUC_HIEN,
+                        lyDo))
+                .toList());
+
+        queueExpirationNotifications(expiredOrders, lyDo);
+
+        Counter.builder("order.expiration.cancelled")
+                .description("Unpaid orders cancelled by the expiry job")
+                .register(meterRegistry)
+                .increment(expiredOrders.size());
+
+        log.info("Expired chunk of {} orders: released {} serial numbers, restored {} vouchers",
+                expiredOrders.size(), releasedSerials, restoredVouchers);
+        return expiredOrders.size();
     }
 
     /**
-     * Send email notification to customer about order expiration
+     * Emails go to the outbox with the chunk's transaction; order events are published for listeners
      */
-    private void sendExpirationNotification(HoaDon order) {
-        try {
-            if (order.getKhachHang() == null || order.getKhachHang().getEmail() == null) {
-                log.warn("Cannot send expiration notification for order {} - no customer email", order.getId());
-                return;
+    private void queueExpirationNotifications(List<ExpiredOrder> expiredOrders, String lyDo) {
+        List<EmailOutbox> emails = new ArrayList<>();
+        for (ExpiredOrder order : expiredOrders) {
+            eventPublisher.publishEvent(OrderChangeEvent.builder()
+                    .hoaDonId(order.id())
+                    .maHoaDon(order.maHoaDon())
+                    .khachHangId(order.khachHangId())
+                    .tenKhachHang(order.tenKhachHang() != null ? order.tenKhachHang() : "Khách lẻ")
+                    .trangThaiCu(order.trangThaiCu().name())
+                    .trangThaiMoi(TrangThaiDonHang.DA_HUY.name())
+                    .tongTienCu(order.tongThanhToan())
+                    .tongTienMoi(order.tongThanhToan())
+                    .loaiThayDoi("UPDATED")
+                    .nguoiThucHien(NGUOI_THUC_HIEN)
+                    .lyDoThayDoi(lyDo)
+                    .timestamp(Instant.now())
+                    .phuongThucThanhToan(null)
+                    .build());
+
+            if (order.email() == null || order.email().trim().isEmpty()) {
+                log.warn("Cannot send expiration notification for order {} - no customer email", order.id());
+                continue;
             }
-            
-            String customerEmail = order.getKhachHang().getEmail();
-            String customerName = order.getKhachHang().getHoTen() != null ? 
-                order.getKhachHang().getHoTen() : "Quý khách";
-            
-            String subject = "Thông báo hết hạn thanh toán đơn hàng #" + order.getId();
+
+            String customerName = order.tenKhachHang() != null ? order.tenKhachHang() : "Quý khách";
+            String subject = "Thông báo hết hạn thanh toán đơn hàng #" + order.maHoaDon();
             String text = String.format(
                 "Chào %s,\n\n" +
-                "Đơn hàng #%s của bạn đã hết hạn thanh toán sau 24 giờ.\n" +
+                "Đơn hàng #%s của bạn đã hết hạn thanh toán sau %s.\n" +
                 "Đơn hàng đã được hủy tự động và các sản phẩm đã được trả về kho.\n\n" +
                 "Nếu bạn vẫn muốn mua các sản phẩm này, vui lòng tạo đơn hàng mới.\n\n" +
                 "Xin lỗi vì sự bất tiện này.\n\n" +
                 "Trân trọng,\nLapXpert Team",
                 customerName,
-                order.getId()
+                order.maHoaDon(),
+                formatTimeout()
             );
-            
-            emailService.sendEmail(customerEmail, subject, text);
-            log.info("Sent expiration notification to customer {} for order {}", customerEmail, order.getId());
-            
-        } catch (Exception e) {
-            log.error("Failed to send expiration notification for order {}: {}", order.getId(), e.getMessage());
-            // Don't throw exception as email failure shouldn't prevent order cancellation
+            emails.add(EmailOutbox.pending(EmailOutboxService.MAU_DON_HANG_HET_HAN, order.email().trim(), subject, text));
+        }
+        emailOutboxService.enqueueAll(emails);
+    }
+
+    /**
+     * How long the oldest order still waiting for cancellation has been past its deadline
+     */
+    private void updateBacklogAge(Instant cutoffTime) {
+        Instant oldest = hoaDonRepository.findOldestExpiredUnpaidOrderTime(cutoffTime);
+        if (oldest == null) {
+            backlogAgeSeconds.set(0);
+            return;
         }
+        Instant deadline = oldest.plus(unpaidTimeoutMinutes, ChronoUnit.MINUTES);
+        backlogAgeSeconds.set(Math.max(Duration.between(deadline, Instant.now()).getSeconds(), 0));
+    }
+
+    private String formatTimeout() {
+        return unpaidTimeoutMinutes % 60 == 0
+                ? (unpaidTimeoutMinutes / 60) + " giờ"
+                : unpaidTimeoutMinutes + " phút";
     }
 
     /**
-     * Build audit JSON for order expiration
-     * Following the same pattern as other services
+     * Values captured before the bulk UPDATE clears the persistence context
      */
-    private String buildAuditJson(HoaDon order) {
-        return String.format(
-            "{\"orderId\":%d,\"status\":\"%s\",\"totalAmount\":%s,\"expirationTime\":\"%s\"}",
-            order.getId(),
-            order.getTrangThaiDonHang().name(),
-            order.getTongThanhToan().toString(),
-            Instant.now().toString()
-        );
+    private record ExpiredOrder(Long id, String maHoaDon, TrangThaiDonHang trangThaiCu,
+                                BigDecimal tongThanhToan, Long khachHangId,
+                                String tenKhachHang, String email) {
+
+        static ExpiredOrder of(HoaDon hoaDon) {
+            return new ExpiredOrder(
+                    hoaDon.getId(),
+                    hoaDon.getMaHoaDon(),
+                    hoaDon.getTrangThaiDonHang(),
+                    hoaDon.getTongThanhToan(),
+                    hoaDon.getKhachHang() != null ? hoaDon.getKhachHang().getId() : null,
+                    hoaDon.getKhachHang() != null ? hoaDon.getKhachHang().getHoTen() : null,
+                    hoaDon.getKhachHang() != null ? hoaDon.getKhachHang().getEmail() : null);
+        }
     }
 }
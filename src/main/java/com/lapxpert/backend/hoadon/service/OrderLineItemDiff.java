@@ -0,0 +1,109 @@
+package com.lapxpert.backend.hoadon.service;
+
+import com.lapxpert.backend.hoadon.dto.HoaDonChiTietDto;
+import com.lapxpert.backend.hoadon.entity.HoaDonChiTiet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Difference between an order's current line items and the requested ones.
+ *
+ * Lines are matched by ID: requested lines without an ID are additions, current lines missing
+ * from the request are removals and matched lines with another quantity are updates. Quantity
+ * changes are also summed per product variant, so inventory is reserved or released once per
+ * variant however many lines share it. Variants are kept in ID order so concurrent edits take
+ * inventory locks in the same order.
+ */
+final class OrderLineItemDiff {
+
+    /**
+     * Existing line whose quantity changes
+     */
+    record CapNhat(HoaDonChiTiet chiTiet, int soLuongMoi) {
+    }
+
+    private final List<CapNhat> capNhat;
+    private final List<HoaDonChiTiet> xoa;
+    private final List<HoaDonChiTietDto> them;
+    private final SortedMap<Long, Integer> chenhLechTheoBienThe;
+
+    private OrderLineItemDiff(List<CapNhat> capNhat, List<HoaDonChiTiet> xoa,
+                              List<HoaDonChiTietDto> them, SortedMap<Long, Integer> chenhLechTheoBienThe) {
+        this.capNhat = capNhat;
+        this.xoa = xoa;
+        this.them = them;
+        this.chenhLechTheoBienThe = chenhLechTheoBienThe;
+    }
+
+    static OrderLineItemDiff compute(List<HoaDonChiTiet> hienTai, List<HoaDonChiTietDto> yeuCau) {
+        Map<Long, HoaDonChiTietDto> yeuCauTheoId = new HashMap<>();
+        List<HoaDonChiTietDto> them = new ArrayList<>();
+        for (HoaDonChiTietDto dong : yeuCau) {
+            if (dong.getSoLuong() == null || dong.getSoLuong() <= 0) {
+                throw new IllegalArgumentException("Số lượng sản phẩm phải lớn hơn 0");
+            }
+            if (dong.getId() != null) {
+                yeuCauTheoId.put(dong.getId(), dong);
+            } else {
+                if (dong.getSanPhamChiTietId() == null) {
+                    throw new IllegalArgumentException("Sản phẩm chi tiết không được để trống khi thêm dòng mới");
+                }
+                them.add(dong);
+            }
+        }
+
+        List<CapNhat> capNhat = new ArrayList<>();
+        List<HoaDonChiTiet> xoa = new ArrayList<>();
+        SortedMap<Long, Integer> chenhLech = new TreeMap<>();
+
+        for (HoaDonChiTiet chiTiet : hienTai) {
+            Long bienTheId = chiTiet.getSanPhamChiTiet().getId();
+            HoaDonChiTietDto dong = yeuCauTheoId.get(chiTiet.getId());
+            if (dong == null) {
+                xoa.add(chiTiet);
+                chenhLech.merge(bienTheId, -chiTiet.getSoLuong(), Integer::sum);
+            } else if (!dong.getSoLuong().equals(chiTiet.getSoLuong())) {
+                capNhat.add(new CapNhat(chiTiet, dong.getSoLuong()));
+                chenhLech.merge(bienTheId, dong.getSoLuong() - chiTiet.getSoLuong(), Integer::sum);
+            }
+        }
+
+        for (HoaDonChiTietDto dong : them) {
+            chenhLech.merge(dong.getSanPhamChiTietId(), dong.getSoLuong(), Integer::sum);
+        }
+
+        // A line moved between rows of the same variant nets out and needs no inventory work
+        chenhLech.values().removeIf(delta -> delta == 0);
+
+        return new OrderLineItemDiff(capNhat, xoa, them, chenhLech);
+    }
+
+    List<CapNhat> capNhat() {
+        return Collections.unmodifiableList(capNhat);
+    }
+
+    List<HoaDonChiTiet> xoa() {
+        return Collections.unmodifiableList(xoa);
+    }
+
+    List<HoaDonChiTietDto> them() {
+        return Collections.unmodifiableList(them);
+    }
+
+    /**
+     * Net quantity change per variant: positive needs a reservation, negative a release
+     */
+    SortedMap<Long, Integer> chenhLechTheoBienThe() {
+        return Collections.unmodifiableSortedMap(chenhLechTheoBienThe);
+    }
+
+    boolean isEmpty() {
+        return capNhat.isEmpty() && xoa.isEmpty() && them.isEmpty();
+    }
+}
@@ -0,0 +1,180 @@
+package com.lapxpert.backend.hoadon.service;
+
+import com.lapxpert.backend.common.event.OrderChangeEvent;
+import com.lapxpert.backend.hoadon.repository.HoaDonRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Read cache for the order detail views: order DTO, receipt preview and payment summary.
+ *
+ * Entries are keyed by order ID and stamped with the order version, made of the order's
+ * ngay_cap_nhat, the latest line item and payment change and the line item count. Every read
+ * looks the version up with one indexed query and reloads when it differs, so changes made on
+ * another node or without an event are never served stale. OrderChangeEvent evicts the entry
+ * early on this node. The version lookup also returns the customer ID, which is all
+ * {@link HoaDonService#isOrderAccessible} needs, so the access check runs before any cached view
+ * is returned.
+ *
+ * Cached views are shared between requests and must be treated as read-only.
+ */
+@Service
+public class OrderReadCache {
+
+    /**
+     * Views assembled from one order
+     */
+    public enum View {
+        CHI_TIET,
+        BIEN_LAI,
+        THANH_TOAN
+    }
+
+    /**
+     * Current version of an order together with the customer used for access checks
+     */
+    public record Snapshot(Long hoaDonId, Long khachHangId, Version version) {
+    }
+
+    public record Version(Instant ngayCapNhat, Instant chiTietCapNhat, long soChiTiet, Instant thanhToanCapNhat) {
+    }
+
+    private static final class Entry {
+        private final Version version;
+        private final long expiresAt;
+        private final Map<View, Object> views = new EnumMap<>(View.class);
+
+        private Entry(Version version, long expiresAt) {
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final HoaDonRepository hoaDonRepository;
+    private final Map<Long, Entry> entries;
+    private final Counter hits;
+    private final Counter misses;
+
+    @Value("${order.read-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${order.read-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    public OrderReadCache(HoaDonRepository hoaDonRepository,
+                          MeterRegistry meterRegistry,
+                          @Value("${order.read-cache.max-entries:2000}") int maxEntries) {
+        this.hoaDonRepository = hoaDonRepository;
+        // Access-ordered map: the least recently read order is dropped first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.hits = Counter.builder("order.read-cache.requests")
+                .description("Order detail view lookups")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("order.read-cache.requests")
+                .description("Order detail view lookups")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("order.read-cache.size", this, OrderReadCache::size)
+                .description("Orders held in the order detail read cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Current version of an order; throws when the order does not exist
+     */
+    public Snapshot snapshot(Long hoaDonId) {
+        HoaDonRepository.OrderReadVersion row = hoaDonRepository.findReadVersionById(hoaDonId)
+                .orElseThrow(() -> new EntityNotFoundException("Hóa đơn không tồn tại với ID: " + hoaDonId));
+        Version version = new Version(
+                row.getNgayCapNhat(),
+                row.getChiTietCapNhat(),
+                row.getSoChiTiet() != null ? row.getSoChiTiet() : 0L,
+                row.getThanhToanCapNhat());
+        return new Snapshot(hoaDonId, row.getKhachHangId(), version);
+    }
+
+    /**
+     * Return a view of the order at the snapshot's version, building it with the loader on a miss
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(Snapshot snapshot, View view, Supplier<V> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        Long hoaDonId = snapshot.hoaDonId();
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(hoaDonId);
+            if (entry != null && entry.version.equals(snapshot.version()) && entry.expiresAt > now) {
+                Object cached = entry.views.get(view);
+                if (cached != null) {
+                    hits.increment();
+                    return (V) cached;
+                }
+            }
+        }
+
+        // Built outside the lock: two threads may race to build the same view, which is harmless
+        misses.increment();
+        V value = loader.get();
+        if (value == null) {
+            return null;
+        }
+
+        synchronized (entries) {
+            Entry entry = entries.get(hoaDonId);
+            if (entry == null || !entry.version.equals(snapshot.version()) || entry.expiresAt <= now) {
+                entry = new Entry(snapshot.version(), now + ttlSeconds * 1000);
+                entries.put(hoaDonId, entry);
+            }
+            entry.views.put(view, value);
+        }
+        return value;
+    }
+
+    /**
+     * Version lookup and view in one call, for callers that do not need the access check
+     */
+    public <V> V get(Long hoaDonId, View view, Supplier<V> loader) {
+        return get(snapshot(hoaDonId), view, loader);
+    }
+
+    public void evict(Long hoaDonId) {
+        if (hoaDonId == null) {
+            return;
+        }
+        synchronized (entries) {
+            entries.remove(hoaDonId);
+        }
+    }
+
+    @EventListener
+    public void onOrderChanged(OrderChangeEvent event) {
+        evict(event.getHoaDonId());
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.lapxpert.backend.hoadon.service;
+
+import com.itextpdf.html2pdf.ConverterProperties;
+import com.itextpdf.html2pdf.HtmlConverter;
+import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.AreaBreak;
+import com.itextpdf.layout.element.IBlockElement;
+import com.itextpdf.layout.element.IElement;
+import com.itextpdf.layout.element.Image;
+import com.itextpdf.layout.font.FontProvider;
+import com.itextpdf.layout.font.FontSet;
+import com.itextpdf.layout.properties.AreaBreakType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Receipt rendering engine shared by the HTML preview and the PDF download.
+ *
+ * Templates are compiled once into literal and placeholder segments, so a render only
+ * concatenates escaped values. Fonts are parsed once into a shared FontSet: html2pdf ships
+ * FreeSans, which covers Vietnamese, and receipt.pdf.font-dir can add more TTF/OTF files.
+ * A FontProvider keeps a selector cache that is not thread-safe, so every render gets a
+ * lightweight provider over the shared FontSet instead of sharing one instance.
+ * PDFs are written straight to the caller's stream.
+ */
+@Service
+@Slf4j
+public class ReceiptPdfRenderer {
+
+    private static final CompiledTemplate PAGE = CompiledTemplate.compile("""
+            <!DOCTYPE html>
+            <html><head>
+            <meta charset='UTF-8'>
+            <title>Hóa đơn {{maHoaDon}}</title>
+            <style>
+            @page { margin: 1cm; size: A4; }
+            body { font-family: {{fontFamily}}; margin: 20px; font-size: 12pt; line-height: 1.4; }
+            .header { text-align: center; margin-bottom: 30px; }
+            .company-name { font-size: 24px; font-weight: bold; color: #2c3e50; }
+            .receipt-title { font-size: 18px; margin-top: 10px; }
+            .section { margin-bottom: 20px; }
+            .section-title { font-weight: bold; font-size: 16px; margin-bottom: 10px; color: #34495e; }
+            .info-row { margin-bottom: 5px; }
+            .label { font-weight: bold; display: inline-block; width: 150px; }
+            table { width: 100%; border-collapse: collapse; margin-top: 10px; }
+            th, td { border: 1px solid #ddd; padding: 8px; text-align: left; }
+            th { background-color: #f2f2f2; font-weight: bold; }
+            .text-right { text-align: right; }
+            .total-row { font-weight: bold; background-color: #f8f9fa; }
+            .footer { margin-top: 30px; text-align: center; font-size: 12px; color: #7f8c8d; }
+            .no-print { display: none; }
+            </style>
+            </head><body>
+            <div class='header'>
+            <div class='company-name'>LAPXPERT</div>
+            <div class='receipt-title'>HÓA ĐƠN BÁN HÀNG</div>
+            </div>
+            <div class='section'>
+            <div class='section-title'>Thông tin đơn hàng</div>
+            {{thongTinDonHang}}
+            </div>
+            {{cacPhanTuyChon}}
+            <div class='section'>
+            <div class='section-title'>Chi tiết đơn hàng</div>
+            <table>
+            <thead><tr>
+            <th>Sản phẩm</th><th>SKU</th><th class='text-right'>Số lượng</th><th class='text-right'>Đơn giá</th><th class='text-right'>Thành tiền</th>
+            </tr></thead>
+            <tbody>
+            {{dongSanPham}}
+            </tbody>
+            </table>
+            </div>
+            <div class='section'>
+            <div class='section-title'>Tổng kết</div>
+            <table>
+            {{dongTongKet}}
+            </table>
+            </div>
+            {{ghiChu}}
+            <div class='footer'>
+            Cảm ơn quý khách đã mua hàng tại LAPXPERT!<br>
+            Hotline: 1900-xxxx | Email: support@lapxpert.com
+            </div>
+            </body></html>
+            """);
+
+    private static final CompiledTemplate SECTION = CompiledTemplate.compile(
+            "<div class='section'><div class='section-title'>{{tieuDe}}</div>{{noiDung}}</div>");
+
+    private static final CompiledTemplate INFO_ROW = CompiledTemplate.compile(
+            "<div class='info-row'><span class='label'>{{nhan}}:</span>{{giaTri}}</div>");
+
+    private static final CompiledTemplate ITEM_ROW = CompiledTemplate.compile(
+            "<tr><td>{{tenSanPham}}</td><td>{{sku}}</td><td class='text-right'>{{soLuong}}</td>"
+                    + "<td class='text-right'>{{giaBan}}</td><td class='text-right'>{{thanhTien}}</td></tr>");
+
+    private static final CompiledTemplate SUMMARY_ROW = CompiledTemplate.compile(
+            "<tr class='{{lop}}'><td>{{nhan}}:</td><td class='text-right'>{{giaTri}}</td></tr>");
+
+    private final FontSet fontSet;
+    private final String fontFamily;
+    private final MeterRegistry meterRegistry;
+
+    public ReceiptPdfRenderer(MeterRegistry meterRegistry,
+                              @Value("${receipt.pdf.font-dir:}") String fontDir,
+                              @Value("${receipt.pdf.font-family:FreeSans}") String fontFamily) {
+        this.meterRegistry = meterRegistry;
+        this.fontFamily = fontFamily;
+
+        // Standard and shipped fonts only: scanning system fonts is slow and differs between hosts
+        DefaultFontProvider fonts = new DefaultFontProvider(true, true, false);
+        if (fontDir != null && !fontDir.isBlank()) {
+            if (Files.isDirectory(Path.of(fontDir))) {
+                int added = fonts.addDirectory(fontDir);
+                log.info("Loaded {} receipt fonts from {}", added, fontDir);
+            } else {
+                log.warn("Receipt font directory {} does not exist, using shipped fonts only", fontDir);
+            }
+        }
+        this.fontSet = fonts.getFontSet();
+        log.info("Receipt renderer ready with {} fonts, default family {}", fontSet.size(), fontFamily);
+    }
+
+    /**
+     * Receipt HTML, used for the browser preview and as PDF input
+     */
+    public String renderHtml(ReceiptPreviewService.ReceiptPreviewData preview) {
+        StringBuilder thongTinDonHang = new StringBuilder();
+        appendInfoRow(thongTinDonHang, "Mã hóa đơn", preview.getMaHoaDon());
+        appendInfoRow(thongTinDonHang, "Ngày tạo", preview.getNgayTao());
+        appendInfoRow(thongTinDonHang, "Loại hóa đơn", preview.getLoaiHoaDon());
+        appendInfoRow(thongTinDonHang, "Trạng thái", preview.getTrangThaiDonHang());
+        appendInfoRow(thongTinDonHang, "Thanh toán", preview.getTrangThaiThanhToan());
+        if (preview.getPhuongThucThanhToan() != null) {
+            appendInfoRow(thongTinDonHang, "Phương thức", preview.getPhuongThucThanhToan());
+        }
+
+        StringBuilder cacPhanTuyChon = new StringBuilder();
+        if (preview.getTenKhachHang() != null) {
+            StringBuilder khachHang = new StringBuilder();
+            appendInfoRow(khachHang, "Tên khách hàng", preview.getTenKhachHang());
+            if (preview.getEmailKhachHang() != null) {
+                appendInfoRow(khachHang, "Email", preview.getEmailKhachHang());
+            }
+            if (preview.getSdtKhachHang() != null) {
+                appendInfoRow(khachHang, "Số điện thoại", preview.getSdtKhachHang());
+            }
+            appendSection(cacPhanTuyChon, "Thông tin khách hàng", khachHang);
+        }
+        if (preview.getTenNhanVien() != null) {
+            StringBuilder nhanVien = new StringBuilder();
+            appendInfoRow(nhanVien, "Tên nhân viên", preview.getTenNhanVien());
+            appendSection(cacPhanTuyChon, "Nhân viên phụ trách", nhanVien);
+        }
+        if (preview.getDiaChiGiaoHang() != null || preview.getNguoiNhanTen() != null) {
+            StringBuilder giaoHang = new StringBuilder();
+            if (preview.getNguoiNhanTen() != null) {
+                appendInfoRow(giaoHang, "Người nhận", preview.getNguoiNhanTen());
+            }
+            if (preview.getNguoiNhanSdt() != null) {
+                appendInfoRow(giaoHang, "SĐT người nhận", preview.getNguoiNhanSdt());
+            }
+            if (preview.getDiaChiGiaoHang() != null) {
+                appendInfoRow(giaoHang, "Địa chỉ", preview.getDiaChiGiaoHang());
+            }
+            appendSection(cacPhanTuyChon, "Thông tin giao hàng", giaoHang);
+        }
+
+        StringBuilder dongSanPham = new StringBuilder();
+        for (ReceiptPreviewService.ReceiptItemData item : preview.getItems()) {
+            ITEM_ROW.renderTo(dongSanPham, key -> switch (key) {
+                case "tenSanPham" -> escape(item.getTenSanPham());
+                case "sku" -> escape(item.getSku());
+                case "soLuong" -> item.getSoLuong() != null ? item.getSoLuong().toString() : "";
+                case "giaBan" -> formatCurrency(item.getGiaBan());
+                case "thanhTien" -> formatCurrency(item.getThanhTien());
+                default -> "";
+            });
+        }
+
+        StringBuilder dongTongKet = new StringBuilder();
+        appendSummaryRow(dongTongKet, "", "Tổng tiền hàng", formatCurrency(preview.getTongTienHang()));
+        if (isPositive(preview.getPhiVanChuyen())) {
+            appendSummaryRow(dongTongKet, "", "Phí vận chuyển", formatCurrency(preview.getPhiVanChuyen()));
+        }
+        if (isPositive(preview.getGiaTriGiamGiaVoucher())) {
+            appendSummaryRow(dongTongKet, "", "Giảm giá voucher", "-" + formatCurrency(preview.getGiaTriGiamGiaVoucher()));
+        }
+        appendSummaryRow(dongTongKet, "total-row", "Tổng thanh toán", formatCurrency(preview.getTongThanhToan()));
+
+        StringBuilder ghiChu = new StringBuilder();
+        if (hasText(preview.getGhiChu()) || hasText(preview.getLyDoHuy())) {
+            StringBuilder noiDung = new StringBuilder();
+            if (hasText(preview.getGhiChu())) {
+                noiDung.append("<div class='info-row'>").append(escape(preview.getGhiChu())).append("</div>");
+            }
+            if (hasText(preview.getLyDoHuy())) {
+                noiDung.append("<div class='info-row'><strong>Lý do hủy:</strong> ").append(escape(preview.getLyDoHuy())).append("</div>");
+            }
+            appendSection(ghiChu, "Ghi chú", noiDung);
+        }
+
+        StringBuilder html = new StringBuilder(4096);
+        PAGE.renderTo(html, key -> switch (key) {
+            case "maHoaDon" -> escape(preview.getMaHoaDon());
+            case "fontFamily" -> "'" + fontFamily + "', sans-serif";
+            case "thongTinDonHang" -> thongTinDonHang.toString();
+            case "cacPhanTuyChon" -> cacPhanTuyChon.toString();
+            case "dongSanPham" -> dongSanPham.toString();
+            case "dongTongKet" -> dongTongKet.toString();
+            case "ghiChu" -> ghiChu.toString();
+            default -> "";
+        });
+        return html.toString();
+    }
+
+    /**
+     * Render one receipt as a PDF into the given stream; the stream is left open
+     */
+    public void writePdf(ReceiptPreviewService.ReceiptPreviewData preview, OutputStream out) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String html = renderHtml(preview);
+        PdfWriter writer = new PdfWriter(out);
+        writer.setCloseStream(false);
+        HtmlConverter.convertToPdf(html, new PdfDocument(writer), converterProperties(newFontProvider()));
+        sample.stop(renderTimer("single"));
+    }
+
+    /**
+     * Render several receipts into one PDF, each starting on a new page; the stream is left open.
+     * Receipts are pulled from the iterable one at a time, so it may load them lazily.
+     *
+     * @return number of receipts written
+     */
+    public int writeBatchPdf(Iterable<ReceiptPreviewService.ReceiptPreviewData> previews, OutputStream out) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long startNanos = System.nanoTime();
+
+        PdfWriter writer = new PdfWriter(out);
+        writer.setCloseStream(false);
+        FontProvider fontProvider = newFontProvider();
+        ConverterProperties properties = converterProperties(fontProvider);
+
+        // One document for the whole batch: fonts are embedded once and pages are flushed as they fill
+        int count = 0;
+        try (Document document = new Document(new PdfDocument(writer), PageSize.A4)) {
+            document.setFontProvider(fontProvider);
+            for (ReceiptPreviewService.ReceiptPreviewData preview : previews) {
+                if (count++ > 0) {
+                    document.add(new AreaBreak(AreaBreakType.NEXT_PAGE));
+                }
+                for (IElement element : HtmlConverter.convertToElements(renderHtml(preview), properties)) {
+                    if (element instanceof IBlockElement block) {
+                        document.add(block);
+                    } else if (element instanceof Image image) {
+                        document.add(image);
+                    }
+                }
+            }
+        }
+
+        sample.stop(renderTimer("batch"));
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        if (count > 0) {
+            log.info("Rendered {} receipts into one PDF in {} ms ({} receipts/s)",
+                    count, Math.round(seconds * 1000), String.format("%.1f", count / Math.max(seconds, 0.001)));
+        }
+        return count;
+    }
+
+    private FontProvider newFontProvider() {
+        return new FontProvider(fontSet, fontFamily);
+    }
+
+    private ConverterProperties converterProperties(FontProvider fontProvider) {
+        return new ConverterProperties()
+                .setCharset("UTF-8")
+                .setFontProvider(fontProvider);
+    }
+
+    private Timer renderTimer(String mode) {
+        return Timer.builder("receipt.pdf.render")
+                .description("Time to render receipts to PDF")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+
+    private static void appendInfoRow(StringBuilder target, String nhan, String giaTri) {
+        INFO_ROW.renderTo(target, key -> "nhan".equals(key) ? nhan : escape(giaTri));
+    }
+
+    private static void appendSection(StringBuilder target, String tieuDe, CharSequence noiDung) {
+        SECTION.renderTo(target, key -> "tieuDe".equals(key) ? tieuDe : noiDung.toString());
+    }
+
+    private static void appendSummaryRow(StringBuilder target, String lop, String nhan, String giaTri) {
+        SUMMARY_ROW.renderTo(target, key -> switch (key) {
+            case "lop" -> lop;
+            case "nhan" -> nhan;
+            default -> giaTri;
+        });
+    }
+
+    private static String escape(String value) {
+        return value != null ? HtmlUtils.htmlEscape(value, "UTF-8") : "";
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    private static boolean isPositive(BigDecimal value) {
+        return value != null && value.compareTo(BigDecimal.ZERO) > 0;
+    }
+
+    private static String formatCurrency(BigDecimal amount) {
+        if (amount == null) {
+            return "0 ₫";
+        }
+        return String.format("%,.0f ₫", amount);
+    }
+
+    /**
+     * Template split once into literal text and {{placeholder}} names
+     */
+    static final class CompiledTemplate {
+        private final String[] literals;
+        private final String[] keys;
+
+        private CompiledTemplate(String[] literals, String[] keys) {
+            this.literals = literals;
+            this.keys = keys;
+        }
+
+        static CompiledTemplate compile(String source) {
+            List<String> literals = new ArrayList<>();
+            List<String> keys = new ArrayList<>();
+            int position = 0;
+            while (true) {
+                int start = source.indexOf("{{", position);
+                if (start < 0) {
+                    break;
+                }
+                int end = source.indexOf("}}", start);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed placeholder at " + start);
+                }
+                literals.add(source.substring(position, start));
+                keys.add(source.substring(start + 2, end).trim());
+                position = end + 2;
+            }
+            literals.add(source.substring(position));
+            return new CompiledTemplate(literals.toArray(String[]::new), keys.toArray(String[]::new));
+        }
+
+        void renderTo(StringBuilder target, Function<String, String> values) {
+            for (int i = 0; i < keys.length; i++) {
+                target.append(literals[i]).append(values.apply(keys[i]));
+            }
+            target.append(literals[keys.length]);
+        }
+    }
+}
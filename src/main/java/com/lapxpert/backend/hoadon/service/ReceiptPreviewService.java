@@ -6,18 +6,21 @@ import com.lapxpert.backend.hoadon.repository.HoaDonRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.persistence.EntityNotFoundException;
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
-
-// PDF generation imports (commented out until dependencies are available)
-// import com.itextpdf.html2pdf.HtmlConverter;
-// import com.itextpdf.kernel.pdf.PdfDocument;
-// import com.itextpdf.kernel.pdf.PdfWriter;
+import java.util.stream.IntStream;
 
 /**
  * Service for generating receipt preview data and PDF receipts.
@@ -28,7 +31,13 @@ import java.util.List;
 @Slf4j
 public class ReceiptPreviewService {
 
+    private static final ZoneId BUSINESS_ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final int DAILY_BATCH_CHUNK = 200;
+
     private final HoaDonRepository hoaDonRepository;
+    private final OrderReadCache orderReadCache;
+    private final ReceiptPdfRenderer receiptPdfRenderer;
+    private final PlatformTransactionManager transactionManager;
 
     /**
      * Receipt preview data structure containing all information needed for display.
@@ -191,10 +200,11 @@ public class ReceiptPreviewService {
      */
     @Transactional(readOnly = true)
     public ReceiptPreviewData generateReceiptPreview(Long orderId) {
-        HoaDon hoaDon = hoaDonRepository.findById(orderId)
-            .orElseThrow(() -> new EntityNotFoundException("Order not found with ID: " + orderId));
-
-        return buildReceiptPreviewData(hoaDon);
+        return orderReadCache.get(orderId, OrderReadCache.View.BIEN_LAI, () -> {
+            HoaDon hoaDon = hoaDonRepository.findById(orderId)
+                .orElseThrow(() -> new EntityNotFoundException("Order not found with ID: " + orderId));
+            return buildReceiptPreviewData(hoaDon);
+        });
     }
 
     /**
@@ -276,160 +286,7 @@ public class ReceiptPreviewService {
     @Transactional(readOnly = true)
     public String generateReceiptPreviewHtml(Long orderId) {
         ReceiptPreviewData preview = generateReceiptPreview(orderId);
-        return buildReceiptHtml(preview);
-    }
-
-    /**
-     * Build HTML receipt from preview data.
-     */
-    private String buildReceiptHtml(ReceiptPreviewData preview) {
-        StringBuilder html = new StringBuilder();
-        
-        html.append("<!DOCTYPE html>");
-        html.append("<html><head>");
-        html.append("<meta charset='UTF-8'>");
-        html.append("<title>Hóa đơn ").append(preview.getMaHoaDon()).append("</title>");
-        html.append("<style>");
-        html.append("body { font-family: Arial, sans-serif; margin: 20px; }");
-        html.append(".header { text-align: center; margin-bottom: 30px; }");
-        html.append(".company-name { font-size: 24px; font-weight: bold; color: #2c3e50; }");
-        html.append(".receipt-title { font-size: 18px; margin-top: 10px; }");
-        html.append(".section { margin-bottom: 20px; }");
-        html.append(".section-title { font-weight: bold; font-size: 16px; margin-bottom: 10px; color: #34495e; }");
-        html.append(".info-row { margin-bottom: 5px; }");
-        html.append(".label { font-weight: bold; display: inline-block; width: 150px; }");
-        html.append("table { width: 100%; border-collapse: collapse; margin-top: 10px; }");
-        html.append("th, td { border: 1px solid #ddd; padding: 8px; text-align: left; }");
-        html.append("th { background-color: #f2f2f2; font-weight: bold; }");
-        html.append(".text-right { text-align: right; }");
-        html.append(".total-row { font-weight: bold; background-color: #f8f9fa; }");
-        html.append(".footer { margin-top: 30px; text-align: center; font-size: 12px; color: #7f8c8d; }");
-        html.append("</style>");
-        html.append("</head><body>");
-
-        // Header
-        html.append("<div class='header'>");
-        html.append("<div class='company-name'>LAPXPERT</div>");
-        html.append("<div class='receipt-title'>HÓA ĐƠN BÁN HÀNG</div>");
-        html.append("</div>");
-
-        // Order information
-        html.append("<div class='section'>");
-        html.append("<div class='section-title'>Thông tin đơn hàng</div>");
-        html.append("<div class='info-row'><span class='label'>Mã hóa đơn:</span>").append(preview.getMaHoaDon()).append("</div>");
-        html.append("<div class='info-row'><span class='label'>Ngày tạo:</span>").append(preview.getNgayTao()).append("</div>");
-        html.append("<div class='info-row'><span class='label'>Loại hóa đơn:</span>").append(preview.getLoaiHoaDon()).append("</div>");
-        html.append("<div class='info-row'><span class='label'>Trạng thái:</span>").append(preview.getTrangThaiDonHang()).append("</div>");
-        html.append("<div class='info-row'><span class='label'>Thanh toán:</span>").append(preview.getTrangThaiThanhToan()).append("</div>");
-        if (preview.getPhuongThucThanhToan() != null) {
-            html.append("<div class='info-row'><span class='label'>Phương thức:</span>").append(preview.getPhuongThucThanhToan()).append("</div>");
-        }
-        html.append("</div>");
-
-        // Customer information
-        if (preview.getTenKhachHang() != null) {
-            html.append("<div class='section'>");
-            html.append("<div class='section-title'>Thông tin khách hàng</div>");
-            html.append("<div class='info-row'><span class='label'>Tên khách hàng:</span>").append(preview.getTenKhachHang()).append("</div>");
-            if (preview.getEmailKhachHang() != null) {
-                html.append("<div class='info-row'><span class='label'>Email:</span>").append(preview.getEmailKhachHang()).append("</div>");
-            }
-            if (preview.getSdtKhachHang() != null) {
-                html.append("<div class='info-row'><span class='label'>Số điện thoại:</span>").append(preview.getSdtKhachHang()).append("</div>");
-            }
-            html.append("</div>");
-        }
-
-        // Staff information
-        if (preview.getTenNhanVien() != null) {
-            html.append("<div class='section'>");
-            html.append("<div class='section-title'>Nhân viên phụ trách</div>");
-            html.append("<div class='info-row'><span class='label'>Tên nhân viên:</span>").append(preview.getTenNhanVien()).append("</div>");
-            html.append("</div>");
-        }
-
-        // Delivery information
-        if (preview.getDiaChiGiaoHang() != null || preview.getNguoiNhanTen() != null) {
-            html.append("<div class='section'>");
-            html.append("<div class='section-title'>Thông tin giao hàng</div>");
-            if (preview.getNguoiNhanTen() != null) {
-                html.append("<div class='info-row'><span class='label'>Người nhận:</span>").append(preview.getNguoiNhanTen()).append("</div>");
-            }
-            if (preview.getNguoiNhanSdt() != null) {
-                html.append("<div class='info-row'><span class='label'>SĐT người nhận:</span>").append(preview.getNguoiNhanSdt()).append("</div>");
-            }
-            if (preview.getDiaChiGiaoHang() != null) {
-                html.append("<div class='info-row'><span class='label'>Địa chỉ:</span>").append(preview.getDiaChiGiaoHang()).append("</div>");
-            }
-            html.append("</div>");
-        }
-
-        // Order items
-        html.append("<div class='section'>");
-        html.append("<div class='section-title'>Chi tiết đơn hàng</div>");
-        html.append("<table>");
-        html.append("<thead>");
-        html.append("<tr>");
-        html.append("<th>Sản phẩm</th>");
-        html.append("<th>SKU</th>");
-        html.append("<th class='text-right'>Số lượng</th>");
-        html.append("<th class='text-right'>Đơn giá</th>");
-        html.append("<th class='text-right'>Thành tiền</th>");
-        html.append("</tr>");
-        html.append("</thead>");
-        html.append("<tbody>");
-
-        for (ReceiptItemData item : preview.getItems()) {
-            html.append("<tr>");
-            html.append("<td>").append(item.getTenSanPham() != null ? item.getTenSanPham() : "").append("</td>");
-            html.append("<td>").append(item.getSku() != null ? item.getSku() : "").append("</td>");
-            html.append("<td class='text-right'>").append(item.getSoLuong()).append("</td>");
-            html.append("<td class='text-right'>").append(formatCurrency(item.getGiaBan())).append("</td>");
-            html.append("<td class='text-right'>").append(formatCurrency(item.getThanhTien())).append("</td>");
-            html.append("</tr>");
-        }
-
-        html.append("</tbody>");
-        html.append("</table>");
-        html.append("</div>");
-
-        // Financial summary
-        html.append("<div class='section'>");
-        html.append("<div class='section-title'>Tổng kết</div>");
-        html.append("<table>");
-        html.append("<tr><td>Tổng tiền hàng:</td><td class='text-right'>").append(formatCurrency(preview.getTongTienHang())).append("</td></tr>");
-        if (preview.getPhiVanChuyen() != null && preview.getPhiVanChuyen().compareTo(BigDecimal.ZERO) > 0) {
-            html.append("<tr><td>Phí vận chuyển:</td><td class='text-right'>").append(formatCurrency(preview.getPhiVanChuyen())).append("</td></tr>");
-        }
-        if (preview.getGiaTriGiamGiaVoucher() != null && preview.getGiaTriGiamGiaVoucher().compareTo(BigDecimal.ZERO) > 0) {
-            html.append("<tr><td>Giảm giá voucher:</td><td class='text-right'>-").append(formatCurrency(preview.getGiaTriGiamGiaVoucher())).append("</td></tr>");
-        }
-        html.append("<tr class='total-row'><td>Tổng thanh toán:</td><td class='text-right'>").append(formatCurrency(preview.getTongThanhToan())).append("</td></tr>");
-        html.append("</table>");
-        html.append("</div>");
-
-        // Additional information
-        if (preview.getGhiChu() != null || preview.getLyDoHuy() != null) {
-            html.append("<div class='section'>");
-            html.append("<div class='section-title'>Ghi chú</div>");
-            if (preview.getGhiChu() != null) {
-                html.append("<div class='info-row'>").append(preview.getGhiChu()).append("</div>");
-            }
-            if (preview.getLyDoHuy() != null) {
-                html.append("<div class='info-row'><strong>Lý do hủy:</strong> ").append(preview.getLyDoHuy()).append("</div>");
-            }
-            html.append("</div>");
-        }
-
-        // Footer
-        html.append("<div class='footer'>");
-        html.append("Cảm ơn quý khách đã mua hàng tại LAPXPERT!<br>");
-        html.append("Hotline: 1900-xxxx | Email: support@lapxpert.com");
-        html.append("</div>");
-
-        html.append("</body></html>");
-
-        return html.toString();
+        return receiptPdfRenderer.renderHtml(preview);
     }
 
     /**
@@ -440,45 +297,48 @@ public class ReceiptPreviewService {
      */
     @Transactional(readOnly = true)
     public byte[] generateReceiptPdf(Long orderId) {
-        try {
-            // Generate HTML content with enhanced styling for PDF
-            String htmlContent = generateReceiptPreviewHtml(orderId);
-
-            // For now, return HTML as bytes with proper PDF-like styling
-            // This can be enhanced with actual PDF generation libraries later
-            String enhancedHtml = enhanceHtmlForPdf(htmlContent);
-
-            log.info("Successfully generated HTML receipt for order {}", orderId);
-            return enhancedHtml.getBytes("UTF-8");
-
-        } catch (Exception e) {
-            log.error("Error generating receipt for order {}: {}", orderId, e.getMessage());
-            throw new RuntimeException("Failed to generate receipt", e);
-        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        receiptPdfRenderer.writePdf(generateReceiptPreview(orderId), out);
+        return out.toByteArray();
     }
 
     /**
-     * Enhance HTML content for better PDF-like appearance
+     * Stream the PDF receipt of an order.
+     * The preview data is loaded inside the transaction; rendering happens when the body is written,
+     * so no database work runs while bytes go to the client.
      */
-    private String enhanceHtmlForPdf(String htmlContent) {
-        // Add print-specific styles
-        String printStyles = "<style media='print'>" +
-            "@page { margin: 1cm; size: A4; }" +
-            "body { font-size: 12pt; line-height: 1.4; }" +
-            ".no-print { display: none; }" +
-            "</style>";
-
-        // Insert print styles before closing head tag
-        return htmlContent.replace("</head>", printStyles + "</head>");
+    @Transactional(readOnly = true)
+    public StreamingResponseBody streamReceiptPdf(Long orderId) {
+        ReceiptPreviewData preview = generateReceiptPreview(orderId);
+        return out -> receiptPdfRenderer.writePdf(preview, out);
     }
 
     /**
-     * Format currency for display.
+     * Stream all paid receipts created on one day as a single PDF, one receipt per page.
+     * Only the order IDs are read up front. While the body is written, orders are loaded in chunks
+     * of DAILY_BATCH_CHUNK, each in its own short read transaction with line items, customer,
+     * staff and address fetched together, so memory stays bounded by one chunk.
      */
-    private String formatCurrency(BigDecimal amount) {
-        if (amount == null) {
-            return "0 ₫";
-        }
-        return String.format("%,.0f ₫", amount);
+    @Transactional(readOnly = true)
+    public StreamingResponseBody streamDailyReceiptsPdf(LocalDate ngay) {
+        Instant tuNgay = ngay.atStartOfDay(BUSINESS_ZONE).toInstant();
+        Instant denNgay = ngay.plusDays(1).atStartOfDay(BUSINESS_ZONE).toInstant();
+        List<Long> orderIds = hoaDonRepository.findPaidOrderIdsForReceipts(tuNgay, denNgay);
+        log.info("Streaming {} receipts for {}", orderIds.size(), ngay);
+
+        Iterable<ReceiptPreviewData> previews = () -> IntStream
+                .iterate(0, from -> from < orderIds.size(), from -> from + DAILY_BATCH_CHUNK)
+                .mapToObj(from -> orderIds.subList(from, Math.min(from + DAILY_BATCH_CHUNK, orderIds.size())))
+                .flatMap(chunk -> loadReceiptChunk(chunk).stream())
+                .iterator();
+        return out -> receiptPdfRenderer.writeBatchPdf(previews, out);
+    }
+
+    private List<ReceiptPreviewData> loadReceiptChunk(List<Long> orderIds) {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        return readOnly.execute(status -> hoaDonRepository.findAllForReceiptsByIdIn(orderIds).stream()
+                .map(this::buildReceiptPreviewData)
+                .toList());
     }
 }
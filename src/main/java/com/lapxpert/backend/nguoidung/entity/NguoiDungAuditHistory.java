@@ -26,7 +26,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Table(name = "nguoi_dung_audit_history", indexes = {
-    @Index(name = "idx_audit_nguoi_dung_id", columnList = "nguoi_dung_id"),
+    @Index(name = "idx_audit_nguoi_dung_id", columnList = "nguoi_dung_id, thoi_gian_thay_doi"),
     @Index(name = "idx_nguoi_dung_audit_timestamp", columnList = "thoi_gian_thay_doi"),
     @Index(name = "idx_nguoi_dung_audit_action", columnList = "hanh_dong")
 })
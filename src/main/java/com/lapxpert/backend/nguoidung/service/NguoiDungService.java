@@ -227,14 +227,14 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
         }
 
         // Create audit entry for user creation
-        String newValues = createAuditValues(savedNguoiDung);
+        String newValues = buildAuditJson(savedNguoiDung);
         NguoiDungAuditHistory auditEntry = NguoiDungAuditHistory.createEntry(
             savedNguoiDung.getId(),
             newValues,
             savedNguoiDung.getNguoiTao(),
             "Tạo khách hàng mới"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
 //        emailService.sendPasswordEmail(nguoiDung.getEmail(), rawPassword);
 
@@ -284,14 +284,14 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
         }
 
         // Create audit entry for staff creation
-        String newValues = createAuditValues(savedNguoiDung);
+        String newValues = buildAuditJson(savedNguoiDung);
         NguoiDungAuditHistory auditEntry = NguoiDungAuditHistory.createEntry(
             savedNguoiDung.getId(),
             newValues,
             savedNguoiDung.getNguoiTao(),
             "Tạo nhân viên mới"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         emailService.sendPasswordEmail(nguoiDung.getEmail(), rawPassword);
 
@@ -372,7 +372,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
                 .orElseThrow(() -> UserNotFoundException.customer(id));
 
         // Store old values for audit
-        String oldValues = createAuditValues(existingNguoiDung);
+        String oldValues = buildAuditJson(existingNguoiDung);
 
         // Validate email and phone uniqueness if changed
         if (!Objects.equals(existingNguoiDung.getEmail(), khachHangDTO.getEmail()) ||
@@ -396,7 +396,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
         }
 
         // Create audit entry for update
-        String newValues = createAuditValues(savedNguoiDung);
+        String newValues = buildAuditJson(savedNguoiDung);
         NguoiDungAuditHistory auditEntry = NguoiDungAuditHistory.updateEntry(
             savedNguoiDung.getId(),
             oldValues,
@@ -404,7 +404,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
             savedNguoiDung.getNguoiCapNhat(),
             "Cập nhật thông tin khách hàng"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         KhachHangDTO result = nguoiDungMapper.toKhachHangDto(savedNguoiDung);
         // Convert avatar filename to full URL for response
@@ -418,7 +418,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
                 .orElseThrow(() -> UserNotFoundException.staff(id));
 
         // Store old values for audit
-        String oldValues = createAuditValues(existingNguoiDung);
+        String oldValues = buildAuditJson(existingNguoiDung);
 
         // Validate email and phone uniqueness if changed
         if (!Objects.equals(existingNguoiDung.getEmail(), nhanVienDTO.getEmail()) ||
@@ -442,7 +442,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
         }
 
         // Create audit entry for update
-        String newValues = createAuditValues(savedNguoiDung);
+        String newValues = buildAuditJson(savedNguoiDung);
         NguoiDungAuditHistory auditEntry = NguoiDungAuditHistory.updateEntry(
             savedNguoiDung.getId(),
             oldValues,
@@ -450,7 +450,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
             savedNguoiDung.getNguoiCapNhat(),
             "Cập nhật thông tin nhân viên"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         NhanVienDTO result = nguoiDungMapper.toNhanVienDto(savedNguoiDung);
         // Convert avatar filename to full URL for response
@@ -464,7 +464,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
                 .orElseThrow(() -> UserNotFoundException.customer(id));
 
         // Store old values for audit
-        String oldValues = createAuditValues(existingNguoiDung);
+        String oldValues = buildAuditJson(existingNguoiDung);
 
         existingNguoiDung.deactivate();
         NguoiDung savedNguoiDung = nguoiDungRepository.save(existingNguoiDung);
@@ -476,7 +476,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
             savedNguoiDung.getNguoiCapNhat(),
             "Vô hiệu hóa khách hàng"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
     }
 
     @Transactional
@@ -485,7 +485,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
                 .orElseThrow(() -> UserNotFoundException.staff(id));
 
         // Store old values for audit
-        String oldValues = createAuditValues(existingNguoiDung);
+        String oldValues = buildAuditJson(existingNguoiDung);
 
         existingNguoiDung.deactivate();
         NguoiDung savedNguoiDung = nguoiDungRepository.save(existingNguoiDung);
@@ -497,7 +497,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
             savedNguoiDung.getNguoiCapNhat(),
             "Vô hiệu hóa nhân viên"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
     }
 
     @Transactional
@@ -516,7 +516,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
             savedNguoiDung.getNguoiCapNhat(),
             "Khôi phục khách hàng"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
     }
 
     @Transactional
@@ -535,7 +535,7 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
             savedNguoiDung.getNguoiCapNhat(),
             "Khôi phục nhân viên"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
     }
 
     // Utility methods for frontend validation
@@ -562,25 +562,6 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
         return nguoiDungRepository.findByCccd(cccd).isEmpty();
     }
 
-    /**
-     * Create JSON representation of entity for audit trail
-     */
-    private String createAuditValues(NguoiDung entity) {
-        return String.format(
-            "{\"maNguoiDung\":\"%s\",\"hoTen\":\"%s\",\"gioiTinh\":\"%s\",\"ngaySinh\":\"%s\",\"email\":\"%s\",\"soDienThoai\":\"%s\",\"cccd\":\"%s\",\"avatar\":\"%s\",\"vaiTro\":\"%s\",\"trangThai\":\"%s\"}",
-            entity.getMaNguoiDung() != null ? entity.getMaNguoiDung() : "",
-            entity.getHoTen() != null ? entity.getHoTen() : "",
-            entity.getGioiTinh() != null ? entity.getGioiTinh() : "",
-            entity.getNgaySinh() != null ? entity.getNgaySinh().toString() : "",
-            entity.getEmail() != null ? entity.getEmail() : "",
-            entity.getSoDienThoai() != null ? entity.getSoDienThoai() : "",
-            entity.getCccd() != null ? entity.getCccd() : "",
-            entity.getAvatar() != null ? entity.getAvatar() : "",
-            entity.getVaiTro() != null ? entity.getVaiTro() : "",
-            entity.getTrangThai() != null ? entity.getTrangThai() : ""
-        );
-    }
-
     /**
      * Get audit history for a specific user
      */
@@ -672,8 +653,19 @@ public class NguoiDungService extends BusinessEntityService<NguoiDung, Long, Ngu
     }
 
     @Override
-    protected String buildAuditJson(NguoiDung entity) {
-        return createAuditValues(entity);
+    protected Map<String, Object> captureAuditFields(NguoiDung entity) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("maNguoiDung", entity.getMaNguoiDung());
+        fields.put("hoTen", entity.getHoTen());
+        fields.put("gioiTinh", entity.getGioiTinh());
+        fields.put("ngaySinh", entity.getNgaySinh() != null ? entity.getNgaySinh().toString() : null);
+        fields.put("email", entity.getEmail());
+        fields.put("soDienThoai", entity.getSoDienThoai());
+        fields.put("cccd", entity.getCccd());
+        fields.put("avatar", entity.getAvatar());
+        fields.put("vaiTro", entity.getVaiTro());
+        fields.put("trangThai", entity.getTrangThai());
+        return fields;
     }
 
     @Override
@@ -23,7 +23,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Table(name = "phieu_giam_gia_audit_history", indexes = {
-    @Index(name = "idx_audit_phieu_id", columnList = "phieu_giam_gia_id"),
+    @Index(name = "idx_audit_phieu_id", columnList = "phieu_giam_gia_id, thoi_gian_thay_doi"),
     @Index(name = "idx_phieu_giam_gia_audit_timestamp", columnList = "thoi_gian_thay_doi"),
     @Index(name = "idx_phieu_giam_gia_audit_action", columnList = "hanh_dong")
 })
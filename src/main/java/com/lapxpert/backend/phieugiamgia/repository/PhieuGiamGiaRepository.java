@@ -10,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -45,6 +46,20 @@ public interface PhieuGiamGiaRepository extends JpaRepository<PhieuGiamGia, Long
     @Query("SELECT p FROM PhieuGiamGia p LEFT JOIN p.danhSachNguoiDung d WHERE d.id IS NULL")
     List<PhieuGiamGia> findPublicVouchers();
 
+    /**
+     * Give back one use per order for every voucher applied to the given orders, never going below zero.
+     * Must run before the order-voucher links are deleted.
+     * @return number of vouchers updated
+     */
+    @Modifying
+    @Query(value = "UPDATE phieu_giam_gia p " +
+                   "SET so_luong_da_dung = GREATEST(COALESCE(p.so_luong_da_dung, 0) - u.so_lan, 0) " +
+                   "FROM (SELECT phieu_giam_gia_id, COUNT(*) AS so_lan FROM hoa_don_phieu_giam_gia " +
+                   "      WHERE hoa_don_id IN (:hoaDonIds) GROUP BY phieu_giam_gia_id) u " +
+                   "WHERE p.id = u.phieu_giam_gia_id",
+           nativeQuery = true)
+    int restoreUsageForOrders(@Param("hoaDonIds") Collection<Long> hoaDonIds);
+
     /**
      * Find voucher for update operations
      * Note: For production, consider adding @Lock(LockModeType.PESSIMISTIC_WRITE) for concurrency control
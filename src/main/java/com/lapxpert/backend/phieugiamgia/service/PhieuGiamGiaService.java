@@ -3,7 +3,7 @@ package com.lapxpert.backend.phieugiamgia.service;
 import com.lapxpert.backend.common.enums.TrangThaiCampaign;
 import com.lapxpert.backend.common.enums.LoaiGiamGia;
 import com.lapxpert.backend.common.service.BusinessEntityService;
-import com.lapxpert.backend.common.service.EmailService;
+import com.lapxpert.backend.common.service.EmailOutboxService;
 import com.lapxpert.backend.common.service.VietnamTimeZoneService;
 import com.lapxpert.backend.common.service.WebSocketIntegrationService;
 import com.lapxpert.backend.common.util.ValidationUtils;
@@ -37,6 +37,8 @@ import org.springframework.stereotype.Service;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -51,7 +53,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
     private final PhieuGiamGiaNguoiDungRepository phieuGiamGiaNguoiDungRepository;
     private final PhieuGiamGiaAuditHistoryRepository auditHistoryRepository;
     private final NguoiDungRepository nguoiDungRepository;
-    private final EmailService emailService;
+    private final EmailOutboxService emailOutboxService;
     private final HoaDonPhieuGiamGiaRepository hoaDonPhieuGiamGiaRepository;
     private final PhieuGiamGiaMapper phieuGiamGiaMapper;
     private final VietnamTimeZoneService vietnamTimeZoneService;
@@ -120,7 +122,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                 selectedCustomerEmails.size(), subject);
             log.debug("[VOUCHER NOTIFICATION] Email content: {}", text);
 
-            emailService.sendBulkEmail(selectedCustomerEmails, subject, text);
+            emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_MOI, selectedCustomerEmails, subject, text);
         } else {
             // Nếu phiếu giảm giá công khai
             List<String> allCustomerEmails = nguoiDungRepository.findAll().stream()
@@ -139,7 +141,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                 allCustomerEmails.size(), subject);
             log.debug("[VOUCHER NOTIFICATION] Email content: {}", text);
 
-            emailService.sendBulkEmail(allCustomerEmails, subject, text);
+            emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_MOI, allCustomerEmails, subject, text);
         }
 
         // Return the created voucher DTO (already created by inherited method)
@@ -222,7 +224,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
             log.info("[VOUCHER STATUS CHANGE] Sending to {} users: {}", emails.size(), subject);
             log.debug("[VOUCHER STATUS CHANGE] Email content: {}", text);
 
-            emailService.sendBulkEmail(emails, subject, text);
+            emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_TRANG_THAI, emails, subject, text);
         }
 
         // Validate private voucher requirements
@@ -281,7 +283,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                     selectedCustomerEmails.size(), subject);
                 log.debug("[VOUCHER UPDATE] Email content: {}", text);
 
-                emailService.sendBulkEmail(selectedCustomerEmails, subject, text);
+                emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_CAP_NHAT, selectedCustomerEmails, subject, text);
             }
         } else {
             // Nếu phiếu giảm giá không phải là phiếu riêng tư, xóa tất cả khách hàng đã gán
@@ -347,7 +349,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                     auditUser,
                     reason != null ? reason : "Đóng phiếu giảm giá"
                 );
-                auditHistoryRepository.save(auditEntry);
+                writeAudit(auditEntry);
             } catch (Exception e) {
                 System.err.println("Warning: Could not save audit history: " + e.getMessage());
                 e.printStackTrace();
@@ -394,12 +396,6 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
      */
     private void sendVoucherClosureNotifications(PhieuGiamGia phieuGiamGia, String reason) {
         try {
-            // Skip email notifications if email service is not available or configured
-            if (emailService == null) {
-                System.out.println("Email service not available, skipping notifications for voucher closure: " + phieuGiamGia.getMaPhieuGiamGia());
-                return;
-            }
-
             String subject = "Thông báo: Phiếu giảm giá đã được đóng";
             String baseText = String.format(
                 "Chào bạn,\n\n" +
@@ -421,10 +417,12 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
 
                 if (!assignedUserEmails.isEmpty()) {
                     try {
-                        emailService.sendBulkEmail(assignedUserEmails, subject, baseText);
-                        System.out.println("Sent closure notification to " + assignedUserEmails.size() + " assigned users for voucher: " + phieuGiamGia.getMaPhieuGiamGia());
+                        emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_DONG, assignedUserEmails, subject, baseText);
+                        log.info("Queued closure notification for {} assigned users for voucher: {}",
+                                assignedUserEmails.size(), phieuGiamGia.getMaPhieuGiamGia());
                     } catch (Exception emailError) {
-                        System.err.println("Failed to send email to assigned users: " + emailError.getMessage());
+                        log.error("Failed to queue email for assigned users of voucher {}: {}",
+                                phieuGiamGia.getMaPhieuGiamGia(), emailError.getMessage(), emailError);
                     }
                 }
             } else {
@@ -437,17 +435,18 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
 
                 if (!allCustomerEmails.isEmpty()) {
                     try {
-                        emailService.sendBulkEmail(allCustomerEmails, subject, baseText);
-                        System.out.println("Sent closure notification to " + allCustomerEmails.size() + " customers for voucher: " + phieuGiamGia.getMaPhieuGiamGia());
+                        emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_DONG, allCustomerEmails, subject, baseText);
+                        log.info("Queued closure notification for {} customers for voucher: {}",
+                                allCustomerEmails.size(), phieuGiamGia.getMaPhieuGiamGia());
                     } catch (Exception emailError) {
-                        System.err.println("Failed to send email to all customers: " + emailError.getMessage());
+                        log.error("Failed to queue email for all customers of voucher {}: {}",
+                                phieuGiamGia.getMaPhieuGiamGia(), emailError.getMessage(), emailError);
                     }
                 }
             }
         } catch (Exception e) {
             // Log the error but don't let email failures prevent voucher closure
-            System.err.println("Failed to send voucher closure notifications: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to send voucher closure notifications: {}", e.getMessage(), e);
         }
     }
 
@@ -486,6 +485,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
      * Runs every hour to check for status updates with precise timing
      */
     @Scheduled(cron = "0 0 * * * *") // Every hour
+    @Transactional
     public void nhacHoatDongPhieu() {
         try {
             // Use Vietnam timezone for business logic
@@ -506,7 +506,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                     phieu.setTrangThai(newStatus);
                     phieuGiamGiaRepository.save(phieu);
 
-                    // Send timezone-aware email notifications
+                    // Queue timezone-aware email notifications in the same transaction
                     sendStatusChangeNotification(phieu, oldStatus, newStatus);
                 }
             }
@@ -549,7 +549,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                     .collect(Collectors.toList());
 
             if (!activeUserEmails.isEmpty()) {
-//                emailService.sendBulkEmail(activeUserEmails, subject, text);
+//                emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_TRANG_THAI, activeUserEmails, subject, text);
             }
         } else if (newStatus == TrangThaiCampaign.DA_DIEN_RA) {
             // Only send public notifications for activation, not expiration
@@ -559,7 +559,7 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
                     .collect(Collectors.toList());
 
             if (!activeCustomerEmails.isEmpty()) {
-//                emailService.sendBulkEmail(activeCustomerEmails, subject, text);
+//                emailOutboxService.enqueueBulk(EmailOutboxService.MAU_VOUCHER_TRANG_THAI, activeCustomerEmails, subject, text);
             }
         }
     }
@@ -1021,6 +1021,23 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
         }
     }
 
+    /**
+     * Remove vouchers from many cancelled orders at once.
+     * Usage counts are restored and links deleted with one statement each instead of per voucher.
+     *
+     * @param hoaDonIds The order IDs to remove vouchers from
+     * @return number of vouchers whose usage count was restored
+     */
+    @Transactional
+    public int removeVouchersFromOrders(Collection<Long> hoaDonIds) {
+        if (hoaDonIds == null || hoaDonIds.isEmpty()) {
+            return 0;
+        }
+        int restored = phieuGiamGiaRepository.restoreUsageForOrders(hoaDonIds);
+        hoaDonPhieuGiamGiaRepository.deleteByHoaDonIdIn(hoaDonIds);
+        return restored;
+    }
+
     /**
      * Calculate the discount amount based on voucher type and order total.
      * Enhanced with enum-based logic and validation.
@@ -1685,45 +1702,24 @@ public class PhieuGiamGiaService extends BusinessEntityService<PhieuGiamGia, Lon
 
     // ==================== AUDIT TRAIL HELPER METHODS ====================
 
-    /**
-     * Build JSON representation of voucher for audit trail
-     * @param phieu the voucher entity
-     * @return JSON string representation
-     */
     @Override
-    protected String buildAuditJson(PhieuGiamGia phieu) {
-        if (phieu == null) return "{}";
-
+    protected Map<String, Object> captureAuditFields(PhieuGiamGia phieu) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("maPhieuGiamGia", phieu.getMaPhieuGiamGia());
+        fields.put("loaiGiamGia", phieu.getLoaiGiamGia());
+        fields.put("trangThai", phieu.getTrangThai());
+        fields.put("giaTriGiam", phieu.getGiaTriGiam());
+        fields.put("giaTriDonHangToiThieu", phieu.getGiaTriDonHangToiThieu());
+        fields.put("ngayBatDau", phieu.getNgayBatDau() != null ? phieu.getNgayBatDau().toString() : null);
+        fields.put("ngayKetThuc", phieu.getNgayKetThuc() != null ? phieu.getNgayKetThuc().toString() : null);
+        fields.put("soLuongBanDau", phieu.getSoLuongBanDau());
+        fields.put("soLuongDaDung", phieu.getSoLuongDaDung());
+        fields.put("moTa", phieu.getMoTa());
         try {
-            // Safely check if it's a private voucher
-            boolean isPrivate = false;
-            try {
-                isPrivate = phieu.isPrivateVoucher();
-            } catch (Exception e) {
-                System.err.println("Warning: Could not determine if voucher is private: " + e.getMessage());
-                isPrivate = false;
-            }
-
-            return String.format(
-                "{\"maPhieuGiamGia\":\"%s\",\"loaiGiamGia\":\"%s\",\"trangThai\":\"%s\"," +
-                "\"giaTriGiam\":%s,\"giaTriDonHangToiThieu\":%s,\"ngayBatDau\":\"%s\"," +
-                "\"ngayKetThuc\":\"%s\",\"soLuongBanDau\":%d,\"soLuongDaDung\":%d," +
-                "\"moTa\":\"%s\",\"isPrivateVoucher\":%s}",
-                phieu.getMaPhieuGiamGia() != null ? phieu.getMaPhieuGiamGia() : "",
-                phieu.getLoaiGiamGia() != null ? phieu.getLoaiGiamGia().name() : "",
-                phieu.getTrangThai() != null ? phieu.getTrangThai().name() : "",
-                phieu.getGiaTriGiam() != null ? phieu.getGiaTriGiam() : "null",
-                phieu.getGiaTriDonHangToiThieu() != null ? phieu.getGiaTriDonHangToiThieu() : "null",
-                phieu.getNgayBatDau() != null ? phieu.getNgayBatDau().toString() : "",
-                phieu.getNgayKetThuc() != null ? phieu.getNgayKetThuc().toString() : "",
-                phieu.getSoLuongBanDau() != null ? phieu.getSoLuongBanDau() : 0,
-                phieu.getSoLuongDaDung() != null ? phieu.getSoLuongDaDung() : 0,
-                phieu.getMoTa() != null ? phieu.getMoTa().replace("\"", "\\\"") : "",
-                isPrivate
-            );
+            fields.put("isPrivateVoucher", phieu.isPrivateVoucher());
         } catch (Exception e) {
-            System.err.println("Error building audit JSON: " + e.getMessage());
-            return "{\"error\":\"Could not serialize voucher data\"}";
+            log.warn("Could not determine if voucher {} is private: {}", phieu.getMaPhieuGiamGia(), e.getMessage());
         }
+        return fields;
     }
 }
\ No newline at end of file
@@ -26,7 +26,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Table(name = "san_pham_audit_history", indexes = {
-    @Index(name = "idx_audit_san_pham_id", columnList = "san_pham_id"),
+    @Index(name = "idx_audit_san_pham_id", columnList = "san_pham_id, thoi_gian_thay_doi"),
     @Index(name = "idx_san_pham_audit_timestamp", columnList = "thoi_gian_thay_doi"),
     @Index(name = "idx_san_pham_audit_action", columnList = "hanh_dong")
 })
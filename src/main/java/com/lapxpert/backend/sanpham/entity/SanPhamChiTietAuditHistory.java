@@ -27,7 +27,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Table(name = "san_pham_chi_tiet_audit_history", indexes = {
-    @Index(name = "idx_audit_san_pham_chi_tiet_id", columnList = "san_pham_chi_tiet_id"),
+    @Index(name = "idx_audit_san_pham_chi_tiet_id", columnList = "san_pham_chi_tiet_id, thoi_gian_thay_doi"),
     @Index(name = "idx_san_pham_chi_tiet_audit_timestamp", columnList = "thoi_gian_thay_doi"),
     @Index(name = "idx_san_pham_chi_tiet_audit_action", columnList = "hanh_dong")
 })
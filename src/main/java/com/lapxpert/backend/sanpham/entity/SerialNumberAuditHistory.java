@@ -20,11 +20,12 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Table(name = "serial_number_audit_history", indexes = {
-    @Index(name = "idx_audit_serial_number_id", columnList = "serial_number_id"),
+    @Index(name = "idx_audit_serial_number_id", columnList = "serial_number_id, thoi_gian_thay_doi"),
     @Index(name = "idx_serial_number_audit_timestamp", columnList = "thoi_gian_thay_doi"),
     @Index(name = "idx_serial_number_audit_action", columnList = "hanh_dong"),
     @Index(name = "idx_serial_number_audit_user", columnList = "nguoi_thuc_hien"),
-    @Index(name = "idx_serial_number_audit_batch", columnList = "batch_operation_id")
+    @Index(name = "idx_serial_number_audit_batch", columnList = "batch_operation_id"),
+    @Index(name = "idx_serial_number_audit_order", columnList = "order_id, thoi_gian_thay_doi")
 })
 public class SerialNumberAuditHistory {
     
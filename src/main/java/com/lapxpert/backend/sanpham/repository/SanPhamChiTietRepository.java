@@ -6,6 +6,9 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -88,4 +91,47 @@ public interface SanPhamChiTietRepository extends JpaRepository<SanPhamChiTiet,
     default long countActiveBySanPhamId(Long sanPhamId) {
         return countBySanPhamIdAndTrangThai(sanPhamId, true);
     }
-}
\ No newline at end of file
+
+    interface TonKhoBienThe {
+        Long getSanPhamChiTietId();
+        String getSku();
+        String getTenSanPham();
+        String getHinhAnh();
+        String getThuongHieu();
+        BigDecimal getGiaBan();
+        Long getTonKho();
+        Instant getNgayNhapCuoi();
+    }
+
+    String TON_KHO_BIEN_THE_SELECT = "SELECT " +
+           "spct.id AS sanPhamChiTietId, " +
+           "spct.sku AS sku, " +
+           "sp.ten_san_pham AS tenSanPham, " +
+           "CASE WHEN spct.hinh_anh IS NOT NULL AND jsonb_array_length(spct.hinh_anh) > 0 " +
+           "     THEN spct.hinh_anh->>0 ELSE '' END AS hinhAnh, " +
+           "COALESCE(th.mo_ta_thuong_hieu, 'Không có') AS thuongHieu, " +
+           "spct.gia_ban AS giaBan, " +
+           "COUNT(sn.id) FILTER (WHERE sn.trang_thai = 'AVAILABLE') AS tonKho, " +
+           "MAX(sn.ngay_tao) AS ngayNhapCuoi " +
+           "FROM san_pham_chi_tiet spct " +
+           "JOIN san_pham sp ON spct.san_pham_id = sp.id " +
+           "LEFT JOIN thuong_hieu th ON sp.thuong_hieu_id = th.id " +
+           "LEFT JOIN serial_number sn ON sn.san_pham_chi_tiet_id = spct.id " +
+           "WHERE spct.trang_thai = true ";
+
+    String TON_KHO_BIEN_THE_GROUP_BY = "GROUP BY spct.id, sp.id, th.id";
+
+    /**
+     * Available serial numbers, price and last intake time of every active variant
+     */
+    @Query(value = TON_KHO_BIEN_THE_SELECT + TON_KHO_BIEN_THE_GROUP_BY, nativeQuery = true)
+    List<TonKhoBienThe> findTonKhoBienThe();
+
+    /**
+     * Available serial numbers, price and last intake time of the given active variants
+     *
+     * @param ids Variant IDs
+     */
+    @Query(value = TON_KHO_BIEN_THE_SELECT + "AND spct.id IN (:ids) " + TON_KHO_BIEN_THE_GROUP_BY, nativeQuery = true)
+    List<TonKhoBienThe> findTonKhoBienThe(@Param("ids") Collection<Long> ids);
+}
@@ -11,6 +11,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -122,6 +123,20 @@ public interface SerialNumberRepository extends JpaRepository<SerialNumber, Long
         return countByVariantAndStatusAndChannel(variantId, TrangThaiSerialNumber.RESERVED, "CART");
     }
 
+    /**
+     * Count orderable serial numbers (AVAILABLE plus cart-reserved) for several variants in one query.
+     * Same rule as SerialNumberService.getAvailableQuantityByVariant, grouped by variant.
+     * Variants without any orderable serial number are absent from the result.
+     *
+     * @param variantIds The product variant IDs
+     * @return Rows of [variantId, count]
+     */
+    @Query("SELECT sn.sanPhamChiTiet.id, COUNT(sn) FROM SerialNumber sn " +
+           "WHERE sn.sanPhamChiTiet.id IN :variantIds " +
+           "AND (sn.trangThai = 'AVAILABLE' OR (sn.trangThai = 'RESERVED' AND sn.kenhDatTruoc = 'CART')) " +
+           "GROUP BY sn.sanPhamChiTiet.id")
+    List<Object[]> countOrderableByVariantIds(@Param("variantIds") Collection<Long> variantIds);
+
     /**
      * Find serial numbers available for order creation (both AVAILABLE and cart-reserved).
      * This includes:
@@ -218,6 +233,19 @@ public interface SerialNumberRepository extends JpaRepository<SerialNumber, Long
     @Query("SELECT COUNT(sn) FROM SerialNumber sn WHERE sn.donHangDatTruoc LIKE CONCAT(:orderIdPrefix, '%') AND sn.sanPhamChiTiet.id = :variantId")
     int countByDonHangDatTruocStartingWithAndSanPhamChiTiet_Id(@Param("orderIdPrefix") String orderIdPrefix, @Param("variantId") Long variantId);
 
+    /**
+     * IDs of serial numbers still reserved by any of the given orders
+     */
+    @Query("SELECT sn.id FROM SerialNumber sn WHERE sn.trangThai = 'RESERVED' AND sn.donHangDatTruoc IN :orderIds")
+    List<Long> findReservedIdsByDonHangDatTruocIn(@Param("orderIds") Collection<String> orderIds);
+
+    /**
+     * Release every reservation held by the given orders (bulk update)
+     */
+    @Modifying
+    @Query("UPDATE SerialNumber sn SET sn.trangThai = 'AVAILABLE', sn.thoiGianDatTruoc = null, sn.kenhDatTruoc = null, sn.donHangDatTruoc = null WHERE sn.trangThai = 'RESERVED' AND sn.donHangDatTruoc IN :orderIds")
+    int releaseReservationsByDonHangDatTruocIn(@Param("orderIds") Collection<String> orderIds);
+
     /**
      * Release expired reservations (bulk update)
      */
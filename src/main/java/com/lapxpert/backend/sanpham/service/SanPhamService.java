@@ -28,6 +28,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -461,31 +462,18 @@ public class SanPhamService extends BusinessEntityService<SanPham, Long, SanPham
         return clone;
     }
 
-    /**
-     * Build JSON string for audit trail from SanPham entity
-     * @param sanPham SanPham entity
-     * @return JSON string representation
-     */
     @Override
-    protected String buildAuditJson(SanPham sanPham) {
-        // Get all category names as JSON array
-        String danhMucNames = "[]";
-        if (sanPham.getDanhMucs() != null && !sanPham.getDanhMucs().isEmpty()) {
-            danhMucNames = "[" + sanPham.getDanhMucs().stream()
-                .map(danhMuc -> "\"" + danhMuc.getMoTaDanhMuc() + "\"")
-                .reduce((a, b) -> a + "," + b)
-                .orElse("") + "]";
-        }
-
-        return String.format(
-            "{\"maSanPham\":\"%s\",\"tenSanPham\":\"%s\",\"moTa\":\"%s\",\"trangThai\":%s,\"thuongHieu\":\"%s\",\"danhMucs\":%s}",
-            sanPham.getMaSanPham() != null ? sanPham.getMaSanPham() : "",
-            sanPham.getTenSanPham() != null ? sanPham.getTenSanPham() : "",
-            sanPham.getMoTa() != null ? sanPham.getMoTa() : "",
-            sanPham.getTrangThai(),
-            sanPham.getThuongHieu() != null ? sanPham.getThuongHieu().getMoTaThuongHieu() : "",
-            danhMucNames
-        );
+    protected Map<String, Object> captureAuditFields(SanPham sanPham) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("maSanPham", sanPham.getMaSanPham());
+        fields.put("tenSanPham", sanPham.getTenSanPham());
+        fields.put("moTa", sanPham.getMoTa());
+        fields.put("trangThai", sanPham.getTrangThai());
+        fields.put("thuongHieu", sanPham.getThuongHieu() != null ? sanPham.getThuongHieu().getMoTaThuongHieu() : null);
+        fields.put("danhMucs", sanPham.getDanhMucs() != null
+            ? sanPham.getDanhMucs().stream().map(danhMuc -> danhMuc.getMoTaDanhMuc()).filter(ten -> ten != null).sorted().toList()
+            : List.of());
+        return fields;
     }
 
 
@@ -616,7 +604,7 @@ public class SanPhamService extends BusinessEntityService<SanPham, Long, SanPham
             savedProduct.getNguoiCapNhat(),
             "Cập nhật sản phẩm với biến thể"
         );
-        auditHistoryRepository.save(auditEntry);
+        writeAudit(auditEntry);
 
         return sanPhamMapper.toDto(savedProduct);
     }
@@ -720,7 +708,7 @@ public class SanPhamService extends BusinessEntityService<SanPham, Long, SanPham
                             savedProduct.getNguoiCapNhat(),
                             lyDoThayDoi != null ? lyDoThayDoi : "Cập nhật trạng thái hàng loạt"
                         );
-                        auditHistoryRepository.save(auditEntry);
+                        writeAudit(auditEntry);
                     },
                     () -> {
                         throw new RuntimeException("Sản phẩm không tồn tại với ID: " + productId);
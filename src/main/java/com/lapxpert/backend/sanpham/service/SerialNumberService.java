@@ -1,5 +1,6 @@
 package com.lapxpert.backend.sanpham.service;
 
+import com.lapxpert.backend.common.datasource.ReadFromPrimary;
 import com.lapxpert.backend.hoadon.dto.HoaDonChiTietDto;
 import com.lapxpert.backend.sanpham.entity.SerialNumber;
 import com.lapxpert.backend.sanpham.entity.SerialNumberAuditHistory;
@@ -225,6 +226,7 @@ public class SerialNumberService {
      * @param variantId The product variant ID
      * @return Total count of available and cart-reserved serial numbers
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public int getAvailableQuantityByVariant(Long variantId) {
         long startTime = System.currentTimeMillis();
@@ -665,10 +667,40 @@ public class SerialNumberService {
         }
     }
 
+    /**
+     * Release every reservation held by a set of orders with one bulk update.
+     * Used by the order expiry job, which cancels orders in chunks.
+     * Like cleanupExpiredReservations, no per-variant inventory events are published.
+     *
+     * @return number of serial numbers released
+     */
+    @Transactional
+    public int releaseReservationsForOrders(Collection<String> orderIds, String user, String reason) {
+        if (orderIds == null || orderIds.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> reservedIds = serialNumberRepository.findReservedIdsByDonHangDatTruocIn(orderIds);
+        if (reservedIds.isEmpty()) {
+            return 0;
+        }
+
+        int releasedCount = serialNumberRepository.releaseReservationsByDonHangDatTruocIn(orderIds);
+
+        List<SerialNumberAuditHistory> auditEntries = reservedIds.stream()
+                .map(id -> SerialNumberAuditHistory.releaseEntry(id, user, reason))
+                .toList();
+        auditHistoryRepository.saveAll(auditEntries);
+
+        log.info("Released {} reserved serial numbers for {} orders", releasedCount, orderIds.size());
+        return releasedCount;
+    }
+
     /**
      * Get reserved serial number IDs for a specific order
      * Replaces InventoryService.getReservedItemsForOrder()
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public List<Long> getReservedSerialNumberIdsForOrder(String orderId) {
         List<SerialNumber> reservedSerialNumbers = serialNumberRepository.findByDonHangDatTruoc(orderId);
@@ -681,6 +713,7 @@ public class SerialNumberService {
      * Get all serial numbers associated with a specific order (both RESERVED and SOLD)
      * Used for double confirmation prevention in order payment flow
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public List<SerialNumber> getSerialNumbersByOrderId(String orderId) {
         return serialNumberRepository.findByDonHangDatTruoc(orderId);
@@ -782,92 +815,19 @@ public class SerialNumberService {
      * Get available serial numbers for a specific product variant
      * Replaces InventoryService.getAvailableItems()
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public List<SerialNumber> getAvailableSerialNumbers(Long variantId) {
         return serialNumberRepository.findBySanPhamChiTietIdAndTrangThai(
             variantId, TrangThaiSerialNumber.AVAILABLE);
     }
 
-    /**
-     * Update the order ID for reserved serial numbers
-     * CRITICAL FIX: Enhanced with atomic batch operations to prevent race conditions
-     * Replaces InventoryService.updateReservationOrderId()
-     */
-    @Transactional
-    public void updateReservationOrderId(List<Long> serialNumberIds, String oldOrderId, String newOrderId) {
-        if (serialNumberIds.isEmpty()) {
-            log.debug("No serial number IDs provided for order ID update");
-            return;
-        }
-
-        // CRITICAL FIX: Batch fetch all serial numbers to reduce database round trips
-        List<SerialNumber> serialNumbers = serialNumberRepository.findAllById(serialNumberIds);
-
-        if (serialNumbers.size() != serialNumberIds.size()) {
-            List<Long> foundIds = serialNumbers.stream().map(SerialNumber::getId).collect(Collectors.toList());
-            List<Long> missingIds = serialNumberIds.stream()
-                .filter(id -> !foundIds.contains(id))
-                .collect(Collectors.toList());
-            throw new IllegalArgumentException("Serial numbers not found: " + missingIds);
-        }
-
-        // CRITICAL FIX: Validate all serial numbers before making any changes (atomic validation)
-        List<SerialNumber> validSerialNumbers = new ArrayList<>();
-        List<SerialNumberAuditHistory> auditEntries = new ArrayList<>();
-
-        for (SerialNumber serialNumber : serialNumbers) {
-            if (!serialNumber.isReserved()) {
-                log.warn("Serial number {} is not reserved, skipping order ID update",
-                        serialNumber.getSerialNumberValue());
-                continue;
-            }
-
-            if (!oldOrderId.equals(serialNumber.getDonHangDatTruoc())) {
-                log.warn("Serial number {} is reserved for order {} but expected {}, skipping update",
-                        serialNumber.getSerialNumberValue(), serialNumber.getDonHangDatTruoc(), oldOrderId);
-                continue;
-            }
-
-            // Update order ID atomically
-            serialNumber.setDonHangDatTruoc(newOrderId);
-            serialNumber.setThoiGianDatTruoc(Instant.now()); // Update timestamp for tracking
-            validSerialNumbers.add(serialNumber);
-
-            // Prepare audit trail entry
-            String oldValues = String.format("{\"orderId\":\"%s\",\"timestamp\":\"%s\"}",
-                oldOrderId, serialNumber.getThoiGianDatTruoc());
-            String newValues = String.format("{\"orderId\":\"%s\",\"timestamp\":\"%s\"}",
-                newOrderId, Instant.now());
-            SerialNumberAuditHistory auditEntry = SerialNumberAuditHistory.updateEntry(
-                serialNumber.getId(),
-                oldValues,
-                newValues,
-                "system",
-                String.format("Cập nhật order ID từ %s thành %s", oldOrderId, newOrderId)
-            );
-            auditEntries.add(auditEntry);
-
-            log.debug("Prepared order ID update for serial number {} from {} to {}",
-                     serialNumber.getSerialNumberValue(), oldOrderId, newOrderId);
-        }
-
-        // CRITICAL FIX: Atomic batch save operations to prevent partial updates
-        if (!validSerialNumbers.isEmpty()) {
-            serialNumberRepository.saveAll(validSerialNumbers);
-            auditHistoryRepository.saveAll(auditEntries);
-
-            log.info("Successfully updated order ID for {} serial numbers from {} to {} with atomic operations",
-                    validSerialNumbers.size(), oldOrderId, newOrderId);
-        } else {
-            log.warn("No valid serial numbers found for order ID update from {} to {}", oldOrderId, newOrderId);
-        }
-    }
-
     /**
      * Check if sufficient inventory is available for order items
      * Handles both specific serial numbers and general quantity requests
      * Replaces InventoryService.isInventoryAvailable()
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public boolean isInventoryAvailable(List<HoaDonChiTietDto> orderItems) {
         long startTime = System.currentTimeMillis();
@@ -1206,6 +1166,7 @@ public class SerialNumberService {
      * CRITICAL FIX: Validate that reserved serial numbers match the expected cart selections
      * This addresses Issue 2: Serial Number Data Corruption by ensuring correct assignments
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public void validateReservedSerialNumbers(List<HoaDonChiTietDto> orderItems, List<Long> reservedSerialNumberIds, String orderId) {
         if (orderItems.isEmpty() || reservedSerialNumberIds.isEmpty()) {
@@ -1350,50 +1311,10 @@ public class SerialNumberService {
             log.info("Released {} expired reservations", releasedCount);
         }
 
-        // Also clean up temporary order IDs that are older than 30 minutes
-        cleanupTemporaryOrderIds();
-
         // Clean up expired cart reservations
         cleanupExpiredCartReservations();
     }
 
-    /**
-     * Clean up reservations with temporary order IDs that are older than 30 minutes.
-     * This prevents inventory deadlocks from failed order creation processes.
-     */
-    @Transactional
-    public void cleanupTemporaryOrderIds() {
-        Instant expiredBefore = Instant.now().minus(30, ChronoUnit.MINUTES);
-
-        // Find reservations with temporary order IDs that are older than 30 minutes
-        List<SerialNumber> tempReservations = serialNumberRepository.findByDonHangDatTruocStartingWith("TEMP-");
-
-        List<SerialNumber> expiredTempReservations = tempReservations.stream()
-            .filter(sn -> sn.getThoiGianDatTruoc() != null && sn.getThoiGianDatTruoc().isBefore(expiredBefore))
-            .collect(Collectors.toList());
-
-        if (!expiredTempReservations.isEmpty()) {
-            for (SerialNumber serialNumber : expiredTempReservations) {
-                String tempOrderId = serialNumber.getDonHangDatTruoc();
-                serialNumber.releaseReservation();
-                serialNumberRepository.save(serialNumber);
-
-                // Create audit entry
-                SerialNumberAuditHistory auditEntry = SerialNumberAuditHistory.releaseEntry(
-                    serialNumber.getId(),
-                    "SYSTEM",
-                    String.format("Cleanup temporary order ID: %s", tempOrderId)
-                );
-                auditHistoryRepository.save(auditEntry);
-
-                log.debug("Released expired temporary reservation for serial number {} with temp order ID {}",
-                         serialNumber.getSerialNumberValue(), tempOrderId);
-            }
-
-            log.info("Cleaned up {} expired temporary order reservations", expiredTempReservations.size());
-        }
-    }
-
     /**
      * Clean up expired cart reservations that are older than 30 minutes.
      * This prevents inventory deadlocks from abandoned cart sessions.
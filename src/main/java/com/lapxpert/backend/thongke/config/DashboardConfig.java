@@ -0,0 +1,29 @@
+package com.lapxpert.backend.thongke.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * Executor for the dashboard KPI queries. Each query group runs on a virtual thread; the
+ * concurrency limit caps how many connections one dashboard rebuild can take from the pool.
+ */
+@Configuration
+@Slf4j
+public class DashboardConfig {
+
+    @Value("${thong-ke.dashboard.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Bean(name = "dashboardQueryExecutor")
+    public SimpleAsyncTaskExecutor dashboardQueryExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("dashboard-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(maxConcurrency);
+
+        log.info("Dashboard query executor configured with virtual threads, concurrency limit {}", maxConcurrency);
+        return executor;
+    }
+}
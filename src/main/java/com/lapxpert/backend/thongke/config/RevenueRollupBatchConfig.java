@@ -0,0 +1,79 @@
+package com.lapxpert.backend.thongke.config;
+
+import com.lapxpert.backend.thongke.service.RevenueRollupService;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Batch job that rebuilds the hourly revenue rollup for a range of UTC days.
+ *
+ * Each chunk rewrites a few days with one grouped scan of hoa_don per day and commits. The reader
+ * keeps its position in the step execution context, so a failed run restarted with the same
+ * parameters continues from the first unfinished chunk. Days are rewritten whole, so running
+ * a range twice is harmless.
+ */
+@Configuration
+public class RevenueRollupBatchConfig {
+
+    public static final String JOB_NAME = "revenueRollupRebuildJob";
+    public static final String PARAM_TU_NGAY = "tuNgay";
+    public static final String PARAM_DEN_NGAY = "denNgay";
+
+    @Bean
+    public Job revenueRollupRebuildJob(JobRepository jobRepository, Step revenueRollupRebuildStep) {
+        return new JobBuilder(JOB_NAME, jobRepository)
+                .start(revenueRollupRebuildStep)
+                .build();
+    }
+
+    @Bean
+    public Step revenueRollupRebuildStep(JobRepository jobRepository,
+                                         PlatformTransactionManager transactionManager,
+                                         ItemStreamReader<LocalDate> revenueRollupDayReader,
+                                         RevenueRollupService revenueRollupService,
+                                         @Value("${thong-ke.revenue-rollup.rebuild.chunk-days:7}") int chunkDays) {
+        return new StepBuilder("revenueRollupRebuildStep", jobRepository)
+                .<LocalDate, LocalDate>chunk(chunkDays, transactionManager)
+                .reader(revenueRollupDayReader)
+                .writer(chunk -> revenueRollupService.tinhLaiNgay(chunk.getItems()))
+                .build();
+    }
+
+    @Bean
+    @StepScope
+    public ItemStreamReader<LocalDate> revenueRollupDayReader(
+            @Value("#{jobParameters['" + PARAM_TU_NGAY + "']}") LocalDate tuNgay,
+            @Value("#{jobParameters['" + PARAM_DEN_NGAY + "']}") LocalDate denNgay) {
+        AbstractItemCountingItemStreamItemReader<LocalDate> reader = new AbstractItemCountingItemStreamItemReader<>() {
+            @Override
+            protected LocalDate doRead() {
+                // The item count is already advanced when doRead runs, so the first read returns tuNgay
+                return tuNgay.plusDays(getCurrentItemCount() - 1L);
+            }
+
+            @Override
+            protected void doOpen() {
+            }
+
+            @Override
+            protected void doClose() {
+            }
+        };
+        reader.setName("revenueRollupDayReader");
+        reader.setMaxItemCount((int) ChronoUnit.DAYS.between(tuNgay, denNgay) + 1);
+        return reader;
+    }
+}
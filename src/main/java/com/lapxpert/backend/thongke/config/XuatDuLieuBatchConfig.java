@@ -0,0 +1,153 @@
+package com.lapxpert.backend.thongke.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lapxpert.backend.thongke.enums.LoaiXuatDuLieu;
+import com.lapxpert.backend.thongke.service.XuatDuLieuFileTasklet;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.item.database.JdbcCursorItemReader;
+import org.springframework.batch.item.file.FlatFileItemWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+/**
+ * Batch job that exports a statistics data set to a CSV or Excel file in MinIO.
+ *
+ * The first step streams the query through a JDBC cursor in chunks and appends each row as one
+ * JSON line to a staging file. Both the cursor position and the file length are kept in the
+ * step execution context, so a failed export restarted with the same parameters truncates the
+ * file to the last committed chunk and continues from there. Excel files cannot be appended to,
+ * which is why the rows are staged first. The second step turns the staging file into the
+ * requested format and uploads it; it is rerun whole on restart.
+ */
+@Configuration
+public class XuatDuLieuBatchConfig {
+
+    public static final String JOB_NAME = "statisticsExportJob";
+    public static final String PARAM_MA_XUAT = "maXuat";
+    public static final String PARAM_LOAI = "loai";
+    public static final String PARAM_DINH_DANG = "dinhDang";
+    public static final String PARAM_TU_NGAY = "tuNgay";
+    public static final String PARAM_DEN_NGAY = "denNgay";
+    public static final String PARAM_NGUOI_YEU_CAU = "nguoiYeuCau";
+
+    /**
+     * Job execution context keys written by the file step
+     */
+    public static final String KEY_OBJECT_NAME = "objectName";
+    public static final String KEY_SO_DONG = "soDong";
+
+    @Bean
+    public Job statisticsExportJob(JobRepository jobRepository,
+                                   Step statisticsExportQueryStep,
+                                   Step statisticsExportFileStep) {
+        return new JobBuilder(JOB_NAME, jobRepository)
+                .start(statisticsExportQueryStep)
+                .next(statisticsExportFileStep)
+                .build();
+    }
+
+    @Bean
+    public Step statisticsExportQueryStep(JobRepository jobRepository,
+                                          PlatformTransactionManager transactionManager,
+                                          JdbcCursorItemReader<Object[]> statisticsExportReader,
+                                          FlatFileItemWriter<Object[]> statisticsExportStagingWriter,
+                                          @Value("${thong-ke.export.chunk-size:1000}") int chunkSize) {
+        return new StepBuilder("statisticsExportQueryStep", jobRepository)
+                .<Object[], Object[]>chunk(chunkSize, transactionManager)
+                .reader(statisticsExportReader)
+                .writer(statisticsExportStagingWriter)
+                .build();
+    }
+
+    @Bean
+    public Step statisticsExportFileStep(JobRepository jobRepository,
+                                         PlatformTransactionManager transactionManager,
+                                         XuatDuLieuFileTasklet xuatDuLieuFileTasklet) {
+        return new StepBuilder("statisticsExportFileStep", jobRepository)
+                .tasklet(xuatDuLieuFileTasklet, transactionManager)
+                .build();
+    }
+
+    @Bean
+    @StepScope
+    public JdbcCursorItemReader<Object[]> statisticsExportReader(
+            DataSource dataSource,
+            @Value("#{jobParameters['" + PARAM_LOAI + "']}") String loai,
+            @Value("#{jobParameters['" + PARAM_TU_NGAY + "']}") LocalDate tuNgay,
+            @Value("#{jobParameters['" + PARAM_DEN_NGAY + "']}") LocalDate denNgay,
+            @Value("${thong-ke.export.fetch-size:1000}") int fetchSize) {
+        LoaiXuatDuLieu loaiXuat = LoaiXuatDuLieu.valueOf(loai);
+
+        JdbcCursorItemReader<Object[]> reader = new JdbcCursorItemReader<>();
+        reader.setName("statisticsExportReader");
+        reader.setDataSource(dataSource);
+        reader.setSql(loaiXuat.getSql());
+        // PostgreSQL only streams with a fetch size when autocommit is off; otherwise it loads every row
+        reader.setFetchSize(fetchSize);
+        reader.setConnectionAutoCommit(false);
+        reader.setRowMapper(XuatDuLieuBatchConfig::mapRow);
+        if (loaiXuat.isTheoKhoangThoiGian()) {
+            // Bound the same way Hibernate binds Instant, so the range matches ngay_tao as stored
+            Timestamp tu = Timestamp.from(tuNgay.atStartOfDay(ZoneOffset.UTC).toInstant());
+            Timestamp den = Timestamp.from(denNgay.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+            reader.setPreparedStatementSetter(ps -> {
+                ps.setTimestamp(1, tu);
+                ps.setTimestamp(2, den);
+            });
+        }
+        return reader;
+    }
+
+    @Bean
+    @StepScope
+    public FlatFileItemWriter<Object[]> statisticsExportStagingWriter(
+            ObjectMapper objectMapper,
+            @Value("#{jobParameters['" + PARAM_MA_XUAT + "']}") String maXuat,
+            @Value("${thong-ke.export.staging-dir:${java.io.tmpdir}/lapxpert-exports}") String thuMucTam) {
+        FlatFileItemWriter<Object[]> writer = new FlatFileItemWriter<>();
+        writer.setName("statisticsExportStagingWriter");
+        writer.setResource(new FileSystemResource(duongDanTam(thuMucTam, maXuat)));
+        writer.setEncoding("UTF-8");
+        writer.setLineAggregator(row -> {
+            try {
+                return objectMapper.writeValueAsString(row);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Không thể ghi dòng dữ liệu xuất", e);
+            }
+        });
+        return writer;
+    }
+
+    /**
+     * Staging file of an export, one JSON array per row
+     */
+    public static Path duongDanTam(String thuMucTam, String maXuat) {
+        return Path.of(thuMucTam, maXuat + ".ndjson");
+    }
+
+    private static Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+        int soCot = rs.getMetaData().getColumnCount();
+        Object[] row = new Object[soCot];
+        for (int i = 0; i < soCot; i++) {
+            row[i] = rs.getObject(i + 1);
+        }
+        return row;
+    }
+}
@@ -1,14 +1,21 @@
 package com.lapxpert.backend.thongke.controller;
 
 import com.lapxpert.backend.thongke.dto.*;
+import com.lapxpert.backend.thongke.enums.KhungThoiGianBanChay;
+import com.lapxpert.backend.thongke.service.KpiStreamService;
+import com.lapxpert.backend.thongke.service.RevenueRollupRebuildService;
 import com.lapxpert.backend.thongke.service.ThongKeService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import com.lapxpert.backend.hoadon.entity.HoaDon;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 
 import java.time.LocalDate;
 import java.util.Map;
@@ -27,6 +34,8 @@ import java.util.List;
 public class ThongKeController {
 
     private final ThongKeService thongKeService;
+    private final RevenueRollupRebuildService revenueRollupRebuildService;
+    private final KpiStreamService kpiStreamService;
 
     // ==================== DOANH THU (REVENUE) STATISTICS ====================
 
@@ -92,6 +101,69 @@ public class ThongKeController {
         }
     }
 
+    /**
+     * Rebuild the hourly revenue rollup for a range of days
+     * @param tuNgay Start date (UTC day, inclusive)
+     * @param denNgay End date (UTC day, inclusive)
+     * @return Status of the started rebuild, to be polled by ID
+     */
+    @PostMapping("/doanh-thu/tong-hop/tinh-lai")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> tinhLaiTongHopDoanhThu(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate tuNgay,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate denNgay) {
+
+        log.info("Starting revenue rollup rebuild from {} to {}", tuNgay, denNgay);
+
+        try {
+            Map<String, Object> result = revenueRollupRebuildService.batDauChayLai(tuNgay, denNgay);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error starting revenue rollup rebuild", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Continue a failed or stopped revenue rollup rebuild from where it stopped
+     * @param id Rebuild execution ID
+     * @return Status of the new execution
+     */
+    @PostMapping("/doanh-thu/tong-hop/tinh-lai/{id}/tiep-tuc")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> tiepTucTinhLaiTongHopDoanhThu(@PathVariable Long id) {
+        log.info("Restarting revenue rollup rebuild {}", id);
+
+        try {
+            Map<String, Object> result = revenueRollupRebuildService.tiepTucChayLai(id);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error restarting revenue rollup rebuild {}", id, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Get the status of a revenue rollup rebuild
+     * @param id Rebuild execution ID
+     * @return Status, days processed and timing of the rebuild
+     */
+    @GetMapping("/doanh-thu/tong-hop/tinh-lai/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> layTrangThaiTinhLaiTongHopDoanhThu(@PathVariable Long id) {
+        try {
+            Map<String, Object> result = revenueRollupRebuildService.layTrangThai(id);
+            return result != null ? ResponseEntity.ok(result) : ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            log.error("Error getting revenue rollup rebuild status {}", id, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     // ==================== DON HANG (ORDER) STATISTICS ====================
 
     /**
@@ -178,6 +250,29 @@ public class ThongKeController {
         }
     }
 
+    /**
+     * Get best sellers of the current day, week or month from the in-memory ranking
+     * @param khung Time window (default: NGAY)
+     * @param soLuong Number of top products to return (default: 10)
+     * @return Best sellers of the window
+     */
+    @GetMapping("/san-pham/pho-bien")
+    @PreAuthorize("hasAnyRole('ADMIN', 'STAFF')")
+    public ResponseEntity<SanPhamBanChayDto> laySanPhamPhoBien(
+            @RequestParam(defaultValue = "NGAY") KhungThoiGianBanChay khung,
+            @RequestParam(defaultValue = "10") Integer soLuong) {
+
+        log.debug("Getting top {} popular products for {}", soLuong, khung);
+
+        try {
+            SanPhamBanChayDto result = thongKeService.laySanPhamPhoBien(khung, soLuong);
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("Error getting popular products", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Get low stock products
      * @param nguongTonKho Stock threshold (default: 10)
@@ -278,6 +373,31 @@ public class ThongKeController {
         }
     }
 
+    /**
+     * Get the customer cohort matrix
+     * @param tuThang First cohort month (optional, defaults to 11 months before denThang)
+     * @param denThang Last cohort month (optional, defaults to the current month)
+     * @param soThang Months followed after each cohort month (default: 12)
+     * @return Cohort sizes and monthly retention
+     */
+    @GetMapping("/khach-hang/cohort")
+    @PreAuthorize("hasAnyRole('ADMIN', 'STAFF')")
+    public ResponseEntity<CohortKhachHangDto> layCohortKhachHang(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate tuThang,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate denThang,
+            @RequestParam(defaultValue = "12") Integer soThang) {
+
+        log.debug("Getting customer cohorts from {} to {} over {} months", tuThang, denThang, soThang);
+
+        try {
+            CohortKhachHangDto result = thongKeService.layCohortKhachHang(tuThang, denThang, soThang);
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("Error getting customer cohorts", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     // ==================== DASHBOARD SUMMARY ====================
 
     /**
@@ -297,4 +417,18 @@ public class ThongKeController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * Stream dashboard KPI deltas as Server-Sent Events
+     * Load /dashboard first, then apply each event; reconnecting with Last-Event-ID replays missed events
+     * @param lastEventId Last event received before the connection dropped (sent by EventSource)
+     * @return Stream of KPI deltas
+     */
+    @GetMapping(value = "/kpi/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasAnyRole('ADMIN', 'STAFF')")
+    public Flux<ServerSentEvent<KpiSuKienDto>> theoDoiKpi(
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        log.debug("Subscribing to KPI stream from event {}", lastEventId);
+        return kpiStreamService.theoDoi(lastEventId);
+    }
 }
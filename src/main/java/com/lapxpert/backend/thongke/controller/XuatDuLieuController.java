@@ -0,0 +1,105 @@
+package com.lapxpert.backend.thongke.controller;
+
+import com.lapxpert.backend.nguoidung.entity.NguoiDung;
+import com.lapxpert.backend.thongke.enums.DinhDangXuat;
+import com.lapxpert.backend.thongke.enums.LoaiXuatDuLieu;
+import com.lapxpert.backend.thongke.service.XuatDuLieuService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Statistics export endpoints for accounting: orders, order lines, revenue by day and brand,
+ * and inventory valuation as CSV or Excel files
+ */
+@RestController
+@RequestMapping("/api/v1/thong-ke/xuat-du-lieu")
+@RequiredArgsConstructor
+@Slf4j
+@CrossOrigin(origins = "*")
+public class XuatDuLieuController {
+
+    private final XuatDuLieuService xuatDuLieuService;
+
+    /**
+     * Start an export job
+     * @param loai Data set to export
+     * @param dinhDang File format (optional, defaults to XLSX)
+     * @param tuNgay Start date, required except for inventory valuation
+     * @param denNgay End date, required except for inventory valuation
+     * @return Status of the new export, with the ID to poll; 429 when the export queue is full
+     */
+    @PostMapping
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> batDauXuat(
+            @RequestParam LoaiXuatDuLieu loai,
+            @RequestParam(required = false) DinhDangXuat dinhDang,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate tuNgay,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate denNgay,
+            @AuthenticationPrincipal NguoiDung currentUser) {
+
+        log.info("Starting {} export from {} to {}", loai, tuNgay, denNgay);
+
+        try {
+            String nguoiYeuCau = currentUser != null ? currentUser.getEmail() : null;
+            Map<String, Object> result = xuatDuLieuService.batDauXuat(loai, dinhDang, tuNgay, denNgay, nguoiYeuCau);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("success", false, "message", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error starting {} export", loai, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Get the status of an export; completed exports include a download link
+     * @param id Export execution ID
+     * @return Status, rows exported and download link
+     */
+    @GetMapping("/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> layTrangThaiXuat(@PathVariable Long id) {
+        try {
+            Map<String, Object> result = xuatDuLieuService.layTrangThai(id);
+            return result != null ? ResponseEntity.ok(result) : ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            log.error("Error getting export status {}", id, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Continue a failed or stopped export from where it stopped
+     * @param id Export execution ID
+     * @return Status of the new execution; 429 when the export queue is full
+     */
+    @PostMapping("/{id}/tiep-tuc")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> tiepTucXuat(@PathVariable Long id) {
+        log.info("Restarting export {}", id);
+
+        try {
+            Map<String, Object> result = xuatDuLieuService.tiepTucXuat(id);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("success", false, "message", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error restarting export {}", id, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
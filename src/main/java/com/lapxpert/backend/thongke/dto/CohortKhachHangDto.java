@@ -0,0 +1,72 @@
+package com.lapxpert.backend.thongke.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * DTO for the customer cohort matrix
+ * Customers are grouped by the month of their first completed order and followed month by month
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CohortKhachHangDto {
+
+    /**
+     * First cohort month (first day of the month)
+     */
+    private LocalDate tuThang;
+
+    /**
+     * Last cohort month (first day of the month)
+     */
+    private LocalDate denThang;
+
+    /**
+     * Number of months followed after each cohort month
+     */
+    private Integer soThang;
+
+    /**
+     * One row per cohort, oldest first
+     */
+    private List<CohortChiTietDto> cohorts;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CohortChiTietDto {
+        /**
+         * Cohort month (first day of the month)
+         */
+        private LocalDate thangNhom;
+
+        /**
+         * Customers whose first completed order is in the cohort month
+         */
+        private Long soKhachHang;
+
+        /**
+         * Active customers per month since the cohort month; index 0 is the cohort month
+         */
+        private List<Long> khachHangHoatDong;
+
+        /**
+         * Active customers as a percentage of the cohort, per month since the cohort month
+         */
+        private List<Double> tyLeGiuChan;
+
+        /**
+         * Completed order value of the cohort per month since the cohort month
+         */
+        private List<BigDecimal> doanhThu;
+    }
+}
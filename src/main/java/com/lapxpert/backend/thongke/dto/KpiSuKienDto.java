@@ -0,0 +1,62 @@
+package com.lapxpert.backend.thongke.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.lapxpert.backend.thongke.enums.LoaiSuKienKpi;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * DTO for one KPI stream event
+ * Each event is a delta to apply to the dashboard figures; only the fields of its type are set
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KpiSuKienDto {
+
+    /**
+     * Sequence number on this node, increasing by one per event
+     */
+    private Long id;
+
+    private LoaiSuKienKpi loai;
+
+    private Instant thoiDiem;
+
+    // Order fields
+    private Long hoaDonId;
+
+    private String maHoaDon;
+
+    private String trangThaiCu;
+
+    private String trangThaiMoi;
+
+    /**
+     * Change in completed revenue, negative when an order leaves the completed state
+     */
+    private BigDecimal doanhThu;
+
+    /**
+     * Change in completed order count: 1, -1 or 0 for a total change
+     */
+    private Integer soDonHoanThanh;
+
+    // Inventory fields
+    private Long sanPhamChiTietId;
+
+    private String sku;
+
+    private String tenSanPham;
+
+    private Integer soLuongTonKho;
+
+    private Integer nguongTonKho;
+}
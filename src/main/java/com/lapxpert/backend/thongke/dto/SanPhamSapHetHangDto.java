@@ -94,12 +94,12 @@ public class SanPhamSapHetHangDto {
         private BigDecimal giaTriTonKho;
         
         /**
-         * Average sales per day (last 30 days)
+         * Average sales per day, exponentially weighted towards recent days
          */
         private Double banTrungBinhNgay;
         
         /**
-         * Estimated days until out of stock
+         * Estimated days until out of stock, null when the variant has no recent sales
          */
         private Integer soNgayConLai;
         
@@ -109,7 +109,7 @@ public class SanPhamSapHetHangDto {
         private String mucDoTonKho; // "HET_HANG", "NGUY_HIEM", "THAP", "BINH_THUONG"
         
         /**
-         * Recommended reorder quantity
+         * Recommended reorder quantity to cover lead time and target days of cover
          */
         private Long soLuongDeXuat;
         
@@ -0,0 +1,58 @@
+package com.lapxpert.backend.thongke.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Revenue of completed orders in one hour for one order type.
+ * Rows are written only by RevenueRollupService with native statements; the entity is read-only
+ * and used for the revenue statistics queries.
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "thong_ke_doanh_thu_gio", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_thong_ke_doanh_thu_gio_gio_loai", columnNames = {"gio", "loai_hoa_don"})
+})
+public class DoanhThuTheoGio {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    /**
+     * Start of the hour, same clock as hoa_don.ngay_tao
+     */
+    @Column(name = "gio", nullable = false)
+    private Instant gio;
+
+    /**
+     * LoaiHoaDon name: ONLINE or TAI_QUAY
+     */
+    @Column(name = "loai_hoa_don", nullable = false, length = 50)
+    private String loaiHoaDon;
+
+    @Column(name = "doanh_thu", precision = 15, scale = 2, nullable = false)
+    private BigDecimal doanhThu;
+
+    @Column(name = "so_don", nullable = false)
+    private Long soDon;
+
+    @Column(name = "gia_tri_nho_nhat", precision = 15, scale = 2, nullable = false)
+    private BigDecimal giaTriNhoNhat;
+
+    @Column(name = "gia_tri_lon_nhat", precision = 15, scale = 2, nullable = false)
+    private BigDecimal giaTriLonNhat;
+
+    @Column(name = "ngay_cap_nhat", nullable = false)
+    private Instant ngayCapNhat;
+}
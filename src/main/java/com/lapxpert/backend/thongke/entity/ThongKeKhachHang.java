@@ -0,0 +1,53 @@
+package com.lapxpert.backend.thongke.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Completed order history of one customer.
+ * Rows are written only by CustomerMetricsService with native statements; the entity is read-only
+ * and used for the customer statistics queries.
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "thong_ke_khach_hang")
+public class ThongKeKhachHang {
+
+    @Id
+    @Column(name = "khach_hang_id", nullable = false)
+    private Long khachHangId;
+
+    @Column(name = "ngay_don_dau", nullable = false)
+    private Instant ngayDonDau;
+
+    @Column(name = "ngay_don_cuoi", nullable = false)
+    private Instant ngayDonCuoi;
+
+    @Column(name = "so_don_hang", nullable = false)
+    private Long soDonHang;
+
+    @Column(name = "gia_tri_tron_doi", precision = 15, scale = 2, nullable = false)
+    private BigDecimal giaTriTronDoi;
+
+    @Column(name = "gia_tri_don_dau", precision = 15, scale = 2, nullable = false)
+    private BigDecimal giaTriDonDau;
+
+    /**
+     * First day of the UTC month of the first completed order
+     */
+    @Column(name = "thang_nhom", nullable = false)
+    private LocalDate thangNhom;
+
+    @Column(name = "ngay_cap_nhat", nullable = false)
+    private Instant ngayCapNhat;
+}
@@ -0,0 +1,25 @@
+package com.lapxpert.backend.thongke.enums;
+
+/**
+ * Output format of a data export
+ */
+public enum DinhDangXuat {
+    XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+    CSV("csv", "text/csv; charset=UTF-8");
+
+    private final String duoiFile;
+    private final String contentType;
+
+    DinhDangXuat(String duoiFile, String contentType) {
+        this.duoiFile = duoiFile;
+        this.contentType = contentType;
+    }
+
+    public String getDuoiFile() {
+        return duoiFile;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,38 @@
+package com.lapxpert.backend.thongke.enums;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Time windows tracked by the best-seller ranking, in UTC days like the revenue statistics
+ */
+public enum KhungThoiGianBanChay {
+    NGAY("DAILY"),
+    TUAN("WEEKLY"),
+    THANG("MONTHLY");
+
+    private final String timeframe;
+
+    KhungThoiGianBanChay(String timeframe) {
+        this.timeframe = timeframe;
+    }
+
+    /**
+     * Timeframe name used by the popular products WebSocket topics
+     */
+    public String getTimeframe() {
+        return timeframe;
+    }
+
+    /**
+     * First day of the window containing the given day; weeks start on Monday
+     */
+    public LocalDate batDau(LocalDate ngay) {
+        return switch (this) {
+            case NGAY -> ngay;
+            case TUAN -> ngay.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case THANG -> ngay.withDayOfMonth(1);
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.lapxpert.backend.thongke.enums;
+
+/**
+ * Incremental KPI changes pushed to dashboard subscribers
+ */
+public enum LoaiSuKienKpi {
+    /**
+     * A new order was created
+     */
+    DON_HANG_MOI,
+
+    /**
+     * Completed revenue moved: an order was completed, left the completed state or changed total
+     */
+    DOANH_THU,
+
+    /**
+     * One order moved from one status to another
+     */
+    TRANG_THAI_DON_HANG,
+
+    /**
+     * A variant's stock dropped to or below the low stock threshold
+     */
+    SAP_HET_HANG,
+
+    /**
+     * A variant's stock rose back above the low stock threshold
+     */
+    CON_HANG,
+
+    /**
+     * The requested events are no longer buffered: reload the dashboard and apply deltas from here
+     */
+    DONG_BO_LAI
+}
@@ -0,0 +1,104 @@
+package com.lapxpert.backend.thongke.enums;
+
+import java.util.List;
+
+/**
+ * Data sets that can be exported, with their column headers and source query.
+ *
+ * Queries are plain SQL read through a JDBC cursor. Ranged exports take the start (inclusive) and
+ * end (exclusive) of the creation time range as their two parameters. Every query has a total
+ * ORDER BY so a restarted export skips exactly the rows already written. Dates are formatted in
+ * SQL so the values are the same in CSV and Excel.
+ */
+public enum LoaiXuatDuLieu {
+
+    DON_HANG("don-hang", true,
+            List.of("Mã hóa đơn", "Ngày tạo", "Loại hóa đơn", "Trạng thái đơn hàng", "Trạng thái thanh toán",
+                    "Khách hàng", "Email", "Số điện thoại", "Tổng tiền hàng", "Giảm giá voucher",
+                    "Phí vận chuyển", "Tổng thanh toán"),
+            "SELECT h.ma_hoa_don, to_char(h.ngay_tao, 'YYYY-MM-DD HH24:MI:SS'), " +
+                    "CAST(h.loai_hoa_don AS VARCHAR), CAST(h.trang_thai_don_hang AS VARCHAR), " +
+                    "CAST(h.trang_thai_thanh_toan AS VARCHAR), " +
+                    "COALESCE(kh.ho_ten, h.nguoi_nhan_ten), COALESCE(kh.email, h.nguoi_nhan_email), " +
+                    "COALESCE(kh.so_dien_thoai, h.nguoi_nhan_sdt), " +
+                    "h.tong_tien_hang, h.gia_tri_giam_gia_voucher, h.phi_van_chuyen, h.tong_thanh_toan " +
+                    "FROM hoa_don h " +
+                    "LEFT JOIN nguoi_dung kh ON kh.id = h.khach_hang_id " +
+                    "WHERE h.ngay_tao >= ? AND h.ngay_tao < ? " +
+                    "ORDER BY h.id"),
+
+    CHI_TIET_DON_HANG("chi-tiet-don-hang", true,
+            List.of("Mã hóa đơn", "Ngày tạo", "Trạng thái đơn hàng", "SKU", "Sản phẩm",
+                    "Số lượng", "Giá gốc", "Giá bán", "Thành tiền"),
+            "SELECT h.ma_hoa_don, to_char(h.ngay_tao, 'YYYY-MM-DD HH24:MI:SS'), " +
+                    "CAST(h.trang_thai_don_hang AS VARCHAR), " +
+                    "COALESCE(hct.sku_snapshot, spc.sku), COALESCE(hct.ten_san_pham_snapshot, sp.ten_san_pham), " +
+                    "hct.so_luong, hct.gia_goc, hct.gia_ban, hct.thanh_tien " +
+                    "FROM hoa_don_chi_tiet hct " +
+                    "JOIN hoa_don h ON h.id = hct.hoa_don_id " +
+                    "JOIN san_pham_chi_tiet spc ON spc.id = hct.san_pham_chi_tiet_id " +
+                    "JOIN san_pham sp ON sp.id = spc.san_pham_id " +
+                    "WHERE h.ngay_tao >= ? AND h.ngay_tao < ? " +
+                    "ORDER BY h.id, hct.id"),
+
+    DOANH_THU_THEO_NGAY_THUONG_HIEU("doanh-thu-theo-ngay-thuong-hieu", true,
+            List.of("Ngày", "Thương hiệu", "Số đơn hàng", "Số lượng bán", "Doanh thu"),
+            "SELECT to_char(date_trunc('day', h.ngay_tao), 'YYYY-MM-DD') AS ngay, " +
+                    "COALESCE(th.mo_ta_thuong_hieu, 'Không có') AS thuong_hieu, " +
+                    "COUNT(DISTINCT h.id), SUM(hct.so_luong), SUM(hct.thanh_tien) " +
+                    "FROM hoa_don_chi_tiet hct " +
+                    "JOIN hoa_don h ON h.id = hct.hoa_don_id " +
+                    "JOIN san_pham_chi_tiet spc ON spc.id = hct.san_pham_chi_tiet_id " +
+                    "JOIN san_pham sp ON sp.id = spc.san_pham_id " +
+                    "LEFT JOIN thuong_hieu th ON th.id = sp.thuong_hieu_id " +
+                    "WHERE h.trang_thai_don_hang = 'HOAN_THANH' " +
+                    "AND h.ngay_tao >= ? AND h.ngay_tao < ? " +
+                    "GROUP BY 1, 2 " +
+                    "ORDER BY 1, 2"),
+
+    GIA_TRI_TON_KHO("gia-tri-ton-kho", false,
+            List.of("SKU", "Sản phẩm", "Thương hiệu", "Số lượng có sẵn", "Số lượng đã đặt trước",
+                    "Giá bán", "Giá trị tồn kho"),
+            "SELECT spc.sku, sp.ten_san_pham, COALESCE(th.mo_ta_thuong_hieu, 'Không có'), " +
+                    "COUNT(sn.id) FILTER (WHERE sn.trang_thai = 'AVAILABLE'), " +
+                    "COUNT(sn.id) FILTER (WHERE sn.trang_thai = 'RESERVED'), " +
+                    "spc.gia_ban, " +
+                    "spc.gia_ban * COUNT(sn.id) FILTER (WHERE sn.trang_thai IN ('AVAILABLE', 'RESERVED')) " +
+                    "FROM san_pham_chi_tiet spc " +
+                    "JOIN san_pham sp ON sp.id = spc.san_pham_id " +
+                    "LEFT JOIN thuong_hieu th ON th.id = sp.thuong_hieu_id " +
+                    "LEFT JOIN serial_number sn ON sn.san_pham_chi_tiet_id = spc.id " +
+                    "GROUP BY spc.id, spc.sku, sp.ten_san_pham, th.mo_ta_thuong_hieu, spc.gia_ban " +
+                    "ORDER BY spc.id");
+
+    private final String tenFile;
+    private final boolean theoKhoangThoiGian;
+    private final List<String> tieuDe;
+    private final String sql;
+
+    LoaiXuatDuLieu(String tenFile, boolean theoKhoangThoiGian, List<String> tieuDe, String sql) {
+        this.tenFile = tenFile;
+        this.theoKhoangThoiGian = theoKhoangThoiGian;
+        this.tieuDe = tieuDe;
+        this.sql = sql;
+    }
+
+    public String getTenFile() {
+        return tenFile;
+    }
+
+    /**
+     * Whether the query takes a creation time range; inventory valuation is a current snapshot
+     */
+    public boolean isTheoKhoangThoiGian() {
+        return theoKhoangThoiGian;
+    }
+
+    public List<String> getTieuDe() {
+        return tieuDe;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
@@ -0,0 +1,162 @@
+package com.lapxpert.backend.thongke.repository;
+
+import com.lapxpert.backend.thongke.entity.DoanhThuTheoGio;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Hourly revenue rollup. Reads sum whole buckets; writes recompute a bucket from hoa_don so a
+ * bucket is always exact for the orders committed when it was last written.
+ */
+@Repository
+public interface DoanhThuTheoGioRepository extends JpaRepository<DoanhThuTheoGio, Long> {
+
+    /**
+     * Totals over a set of buckets; MIN/MAX are null when there are no completed orders
+     */
+    interface TongHopDoanhThu {
+        BigDecimal getDoanhThu();
+        Long getSoDon();
+        BigDecimal getGiaTriNhoNhat();
+        BigDecimal getGiaTriLonNhat();
+    }
+
+    interface DoanhThuTheoNgay {
+        LocalDate getNgay();
+        BigDecimal getDoanhThu();
+        Long getSoDon();
+    }
+
+    interface DoanhThuTheoThang {
+        Integer getThang();
+        BigDecimal getDoanhThu();
+        Long getSoDon();
+    }
+
+    interface DoanhThuTheoLoai {
+        String getLoaiHoaDon();
+        BigDecimal getDoanhThu();
+        Long getSoDon();
+    }
+
+    // ==================== READS ====================
+
+    @Query("SELECT COALESCE(SUM(d.doanhThu), 0) AS doanhThu, COALESCE(SUM(d.soDon), 0) AS soDon, " +
+            "MIN(d.giaTriNhoNhat) AS giaTriNhoNhat, MAX(d.giaTriLonNhat) AS giaTriLonNhat " +
+            "FROM DoanhThuTheoGio d WHERE d.gio >= :tu AND d.gio < :den")
+    TongHopDoanhThu tongHop(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    @Query("SELECT COALESCE(SUM(d.doanhThu), 0) AS doanhThu, COALESCE(SUM(d.soDon), 0) AS soDon, " +
+            "MIN(d.giaTriNhoNhat) AS giaTriNhoNhat, MAX(d.giaTriLonNhat) AS giaTriLonNhat " +
+            "FROM DoanhThuTheoGio d")
+    TongHopDoanhThu tongHopToanBo();
+
+    @Query("SELECT CAST(d.gio AS LocalDate) AS ngay, SUM(d.doanhThu) AS doanhThu, SUM(d.soDon) AS soDon " +
+            "FROM DoanhThuTheoGio d WHERE d.gio >= :tu AND d.gio < :den " +
+            "GROUP BY CAST(d.gio AS LocalDate) ORDER BY CAST(d.gio AS LocalDate)")
+    List<DoanhThuTheoNgay> tongHopTheoNgay(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    @Query("SELECT EXTRACT(MONTH FROM d.gio) AS thang, SUM(d.doanhThu) AS doanhThu, SUM(d.soDon) AS soDon " +
+            "FROM DoanhThuTheoGio d WHERE d.gio >= :tu AND d.gio < :den " +
+            "GROUP BY EXTRACT(MONTH FROM d.gio) ORDER BY EXTRACT(MONTH FROM d.gio)")
+    List<DoanhThuTheoThang> tongHopTheoThang(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    @Query("SELECT d.loaiHoaDon AS loaiHoaDon, SUM(d.doanhThu) AS doanhThu, SUM(d.soDon) AS soDon " +
+            "FROM DoanhThuTheoGio d WHERE d.gio >= :tu AND d.gio < :den " +
+            "GROUP BY d.loaiHoaDon")
+    List<DoanhThuTheoLoai> tongHopTheoLoai(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    /**
+     * Revenue of the dashboard periods and all-time totals, in one pass over the rollup
+     */
+    interface DoanhThuDashboard {
+        BigDecimal getHomNay();
+        BigDecimal getHomQua();
+        BigDecimal getTuanNay();
+        BigDecimal getTuanTruoc();
+        BigDecimal getThangNay();
+        BigDecimal getThangTruoc();
+        BigDecimal getNamNay();
+        BigDecimal getNamTruoc();
+        BigDecimal getTongDoanhThu();
+        Long getTongSoDon();
+    }
+
+    @Query("SELECT " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :homNay AND d.gio < :ngayMai THEN d.doanhThu ELSE 0 END), 0) AS homNay, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :homQua AND d.gio < :homNay THEN d.doanhThu ELSE 0 END), 0) AS homQua, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :dauTuan AND d.gio < :ngayMai THEN d.doanhThu ELSE 0 END), 0) AS tuanNay, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :dauTuanTruoc AND d.gio < :dauTuan THEN d.doanhThu ELSE 0 END), 0) AS tuanTruoc, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :dauThang AND d.gio < :ngayMai THEN d.doanhThu ELSE 0 END), 0) AS thangNay, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :dauThangTruoc AND d.gio < :dauThang THEN d.doanhThu ELSE 0 END), 0) AS thangTruoc, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :dauNam AND d.gio < :ngayMai THEN d.doanhThu ELSE 0 END), 0) AS namNay, " +
+            "COALESCE(SUM(CASE WHEN d.gio >= :dauNamTruoc AND d.gio < :dauNam THEN d.doanhThu ELSE 0 END), 0) AS namTruoc, " +
+            "COALESCE(SUM(d.doanhThu), 0) AS tongDoanhThu, " +
+            "COALESCE(SUM(d.soDon), 0) AS tongSoDon " +
+            "FROM DoanhThuTheoGio d")
+    DoanhThuDashboard tongHopDashboard(@Param("homNay") Instant homNay,
+                                       @Param("homQua") Instant homQua,
+                                       @Param("ngayMai") Instant ngayMai,
+                                       @Param("dauTuan") Instant dauTuan,
+                                       @Param("dauTuanTruoc") Instant dauTuanTruoc,
+                                       @Param("dauThang") Instant dauThang,
+                                       @Param("dauThangTruoc") Instant dauThangTruoc,
+                                       @Param("dauNam") Instant dauNam,
+                                       @Param("dauNamTruoc") Instant dauNamTruoc);
+
+    // ==================== MAINTENANCE ====================
+
+    /**
+     * Transaction-scoped advisory lock on one bucket. A recompute taken after the lock sees every
+     * change committed by the previous holder, so concurrent completions in the same hour cannot
+     * overwrite each other's totals.
+     */
+    @Query(value = "SELECT COUNT(*) FROM (SELECT pg_advisory_xact_lock(:nhom, :khoa)) khoa", nativeQuery = true)
+    long khoaBucket(@Param("nhom") int nhom, @Param("khoa") int khoa);
+
+    @Modifying
+    @Query(value = "DELETE FROM thong_ke_doanh_thu_gio WHERE gio = :gio AND loai_hoa_don = :loai", nativeQuery = true)
+    int xoaBucket(@Param("gio") Instant gio, @Param("loai") String loai);
+
+    /**
+     * Rewrite one bucket from the completed orders in it; writes nothing when the hour has none
+     */
+    @Modifying
+    @Query(value = "INSERT INTO thong_ke_doanh_thu_gio " +
+            "(gio, loai_hoa_don, doanh_thu, so_don, gia_tri_nho_nhat, gia_tri_lon_nhat, ngay_cap_nhat) " +
+            "SELECT :gio, :loai, SUM(tong_thanh_toan), COUNT(*), MIN(tong_thanh_toan), MAX(tong_thanh_toan), CURRENT_TIMESTAMP " +
+            "FROM hoa_don " +
+            "WHERE trang_thai_don_hang = 'HOAN_THANH' " +
+            "AND CAST(loai_hoa_don AS VARCHAR) = :loai " +
+            "AND ngay_tao >= :gio AND ngay_tao < :gioKeTiep " +
+            "HAVING COUNT(*) > 0",
+            nativeQuery = true)
+    int tinhLaiBucket(@Param("gio") Instant gio, @Param("gioKeTiep") Instant gioKeTiep, @Param("loai") String loai);
+
+    @Modifying
+    @Query(value = "DELETE FROM thong_ke_doanh_thu_gio WHERE gio >= :tu AND gio < :den", nativeQuery = true)
+    int xoaKhoang(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    /**
+     * Rewrite every bucket of a time range in one grouped scan, used by the rebuild job
+     */
+    @Modifying
+    @Query(value = "INSERT INTO thong_ke_doanh_thu_gio " +
+            "(gio, loai_hoa_don, doanh_thu, so_don, gia_tri_nho_nhat, gia_tri_lon_nhat, ngay_cap_nhat) " +
+            "SELECT date_trunc('hour', ngay_tao), CAST(loai_hoa_don AS VARCHAR), " +
+            "SUM(tong_thanh_toan), COUNT(*), MIN(tong_thanh_toan), MAX(tong_thanh_toan), CURRENT_TIMESTAMP " +
+            "FROM hoa_don " +
+            "WHERE trang_thai_don_hang = 'HOAN_THANH' " +
+            "AND ngay_tao >= :tu AND ngay_tao < :den " +
+            "GROUP BY date_trunc('hour', ngay_tao), CAST(loai_hoa_don AS VARCHAR)",
+            nativeQuery = true)
+    int tinhLaiKhoang(@Param("tu") Instant tu, @Param("den") Instant den);
+}
@@ -0,0 +1,182 @@
+package com.lapxpert.backend.thongke.repository;
+
+import com.lapxpert.backend.thongke.entity.ThongKeKhachHang;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Customer metrics (thong_ke_khach_hang) and monthly customer activity (thong_ke_khach_hang_thang).
+ * Reads are indexed lookups on first order, last order or cohort month; writes recompute a range of
+ * customers from hoa_don so a customer's rows are always exact for the orders committed when they
+ * were last written.
+ */
+@Repository
+public interface ThongKeKhachHangRepository extends JpaRepository<ThongKeKhachHang, Long> {
+
+    /**
+     * Lifetime value over all customers; MAX/MIN/AVG are null when there are none
+     */
+    interface TongHopGiaTri {
+        Long getSoKhachHang();
+        BigDecimal getTongGiaTri();
+        BigDecimal getGiaTriTrungBinh();
+        BigDecimal getGiaTriCaoNhat();
+        BigDecimal getGiaTriThapNhat();
+    }
+
+    /**
+     * Customers of one cohort with completed orders in one month
+     */
+    interface KhachHangTheoCohort {
+        LocalDate getThangNhom();
+        LocalDate getThang();
+        Long getSoKhachHang();
+        BigDecimal getGiaTri();
+    }
+
+    // ==================== READS ====================
+
+    /**
+     * Customers with a completed order since the given time
+     */
+    @Query("SELECT COUNT(k) FROM ThongKeKhachHang k WHERE k.ngayDonCuoi >= :tu")
+    long demKhachHangHoatDong(@Param("tu") Instant tu);
+
+    /**
+     * Customers who ordered before the given time
+     */
+    @Query("SELECT COUNT(k) FROM ThongKeKhachHang k WHERE k.ngayDonDau < :tu")
+    long demKhachHangTruoc(@Param("tu") Instant tu);
+
+    /**
+     * Customers who ordered before the given time and ordered again since
+     */
+    @Query("SELECT COUNT(k) FROM ThongKeKhachHang k WHERE k.ngayDonDau < :tu AND k.ngayDonCuoi >= :tu")
+    long demKhachHangQuayLai(@Param("tu") Instant tu);
+
+    /**
+     * Customers whose first completed order is in [tu, den)
+     */
+    @Query("SELECT COUNT(k) FROM ThongKeKhachHang k WHERE k.ngayDonDau >= :tu AND k.ngayDonDau < :den")
+    long demKhachHangMoi(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    /**
+     * Average value of first completed orders in [tu, den), null when there are none
+     */
+    @Query("SELECT AVG(k.giaTriDonDau) FROM ThongKeKhachHang k WHERE k.ngayDonDau >= :tu AND k.ngayDonDau < :den")
+    BigDecimal giaTriDonDauTrungBinh(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    /**
+     * Customers with a completed order in [tu, den) who had ordered before tu. Reads only the
+     * completed orders of the range.
+     */
+    @Query(value = "SELECT COUNT(DISTINCT h.khach_hang_id) FROM hoa_don h " +
+            "JOIN thong_ke_khach_hang k ON k.khach_hang_id = h.khach_hang_id " +
+            "WHERE h.trang_thai_don_hang = 'HOAN_THANH' " +
+            "AND h.ngay_tao >= :tu AND h.ngay_tao < :den " +
+            "AND k.ngay_don_dau < :tu",
+            nativeQuery = true)
+    long demKhachHangQuayLaiTrongKhoang(@Param("tu") Instant tu, @Param("den") Instant den);
+
+    @Query("SELECT COUNT(k) AS soKhachHang, COALESCE(SUM(k.giaTriTronDoi), 0) AS tongGiaTri, " +
+            "AVG(k.giaTriTronDoi) AS giaTriTrungBinh, MAX(k.giaTriTronDoi) AS giaTriCaoNhat, " +
+            "MIN(k.giaTriTronDoi) AS giaTriThapNhat FROM ThongKeKhachHang k")
+    TongHopGiaTri tongHopGiaTri();
+
+    /**
+     * Active customers and their value per cohort and month, for cohorts in [tuThang, denThang].
+     * Every customer is active in their cohort month, so that cell is the cohort size.
+     */
+    @Query(value = "SELECT k.thang_nhom AS thangNhom, t.thang AS thang, " +
+            "COUNT(*) AS soKhachHang, SUM(t.gia_tri) AS giaTri " +
+            "FROM thong_ke_khach_hang k " +
+            "JOIN thong_ke_khach_hang_thang t ON t.khach_hang_id = k.khach_hang_id " +
+            "WHERE k.thang_nhom >= :tuThang AND k.thang_nhom <= :denThang " +
+            "GROUP BY k.thang_nhom, t.thang " +
+            "ORDER BY k.thang_nhom, t.thang",
+            nativeQuery = true)
+    List<KhachHangTheoCohort> maTranCohort(@Param("tuThang") LocalDate tuThang, @Param("denThang") LocalDate denThang);
+
+    // ==================== MAINTENANCE ====================
+
+    /**
+     * Transaction-scoped advisory locks on every customer in [tuId, denId] that has orders or
+     * metrics, taken in ID order. A recompute taken after the locks sees every change committed by
+     * the previous holder, so concurrent recomputes cannot overwrite each other with older totals.
+     */
+    @Query(value = "SELECT COUNT(*) FROM (" +
+            "SELECT pg_advisory_xact_lock(:nhom, CAST(ids.khach_hang_id AS INTEGER)) FROM (" +
+            "SELECT khach_hang_id FROM hoa_don WHERE khach_hang_id BETWEEN :tuId AND :denId " +
+            "UNION SELECT khach_hang_id FROM thong_ke_khach_hang WHERE khach_hang_id BETWEEN :tuId AND :denId " +
+            "ORDER BY khach_hang_id) ids) khoa",
+            nativeQuery = true)
+    long khoaKhachHang(@Param("nhom") int nhom, @Param("tuId") long tuId, @Param("denId") long denId);
+
+    @Modifying
+    @Query(value = "INSERT INTO thong_ke_khach_hang " +
+            "(khach_hang_id, ngay_don_dau, ngay_don_cuoi, so_don_hang, gia_tri_tron_doi, gia_tri_don_dau, " +
+            "thang_nhom, ngay_cap_nhat) " +
+            "SELECT khach_hang_id, MIN(ngay_tao), MAX(ngay_tao), COUNT(*), SUM(tong_thanh_toan), " +
+            "(array_agg(tong_thanh_toan ORDER BY ngay_tao, id))[1], " +
+            "CAST(date_trunc('month', MIN(ngay_tao)) AS DATE), CURRENT_TIMESTAMP " +
+            "FROM hoa_don " +
+            "WHERE trang_thai_don_hang = 'HOAN_THANH' AND khach_hang_id BETWEEN :tuId AND :denId " +
+            "GROUP BY khach_hang_id " +
+            "ON CONFLICT (khach_hang_id) DO UPDATE SET " +
+            "ngay_don_dau = EXCLUDED.ngay_don_dau, ngay_don_cuoi = EXCLUDED.ngay_don_cuoi, " +
+            "so_don_hang = EXCLUDED.so_don_hang, gia_tri_tron_doi = EXCLUDED.gia_tri_tron_doi, " +
+            "gia_tri_don_dau = EXCLUDED.gia_tri_don_dau, thang_nhom = EXCLUDED.thang_nhom, " +
+            "ngay_cap_nhat = EXCLUDED.ngay_cap_nhat",
+            nativeQuery = true)
+    int ghiKhachHang(@Param("tuId") long tuId, @Param("denId") long denId);
+
+    /**
+     * Drop customers in [tuId, denId] left without completed orders
+     */
+    @Modifying
+    @Query(value = "DELETE FROM thong_ke_khach_hang k " +
+            "WHERE k.khach_hang_id BETWEEN :tuId AND :denId " +
+            "AND NOT EXISTS (SELECT 1 FROM hoa_don h WHERE h.khach_hang_id = k.khach_hang_id " +
+            "AND h.trang_thai_don_hang = 'HOAN_THANH')",
+            nativeQuery = true)
+    int xoaKhachHangKhongConDon(@Param("tuId") long tuId, @Param("denId") long denId);
+
+    @Modifying
+    @Query(value = "INSERT INTO thong_ke_khach_hang_thang (khach_hang_id, thang, so_don_hang, gia_tri) " +
+            "SELECT khach_hang_id, CAST(date_trunc('month', ngay_tao) AS DATE), COUNT(*), SUM(tong_thanh_toan) " +
+            "FROM hoa_don " +
+            "WHERE trang_thai_don_hang = 'HOAN_THANH' AND khach_hang_id BETWEEN :tuId AND :denId " +
+            "GROUP BY khach_hang_id, CAST(date_trunc('month', ngay_tao) AS DATE) " +
+            "ON CONFLICT (khach_hang_id, thang) DO UPDATE SET " +
+            "so_don_hang = EXCLUDED.so_don_hang, gia_tri = EXCLUDED.gia_tri",
+            nativeQuery = true)
+    int ghiThang(@Param("tuId") long tuId, @Param("denId") long denId);
+
+    /**
+     * Drop months of customers in [tuId, denId] left without completed orders
+     */
+    @Modifying
+    @Query(value = "DELETE FROM thong_ke_khach_hang_thang t " +
+            "WHERE t.khach_hang_id BETWEEN :tuId AND :denId " +
+            "AND NOT EXISTS (SELECT 1 FROM hoa_don h WHERE h.khach_hang_id = t.khach_hang_id " +
+            "AND h.trang_thai_don_hang = 'HOAN_THANH' " +
+            "AND h.ngay_tao >= t.thang AND h.ngay_tao < t.thang + INTERVAL '1 month')",
+            nativeQuery = true)
+    int xoaThangKhongConDon(@Param("tuId") long tuId, @Param("denId") long denId);
+
+    /**
+     * Highest customer ID in orders or metrics, 0 when there are none
+     */
+    @Query(value = "SELECT GREATEST(COALESCE((SELECT MAX(khach_hang_id) FROM hoa_don), 0), " +
+            "COALESCE((SELECT MAX(khach_hang_id) FROM thong_ke_khach_hang), 0))",
+            nativeQuery = true)
+    long layKhachHangIdLonNhat();
+}
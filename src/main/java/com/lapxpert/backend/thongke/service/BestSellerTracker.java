@@ -0,0 +1,375 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.lapxpert.backend.common.service.WebSocketIntegrationService;
+import com.lapxpert.backend.hoadon.repository.HoaDonChiTietRepository;
+import com.lapxpert.backend.thongke.dto.SanPhamBanChayDto;
+import com.lapxpert.backend.thongke.enums.KhungThoiGianBanChay;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Best-seller ranking for today, this week and this month, shared by every node through Redis.
+ *
+ * Each window is a sorted set of product IDs by units sold in completed orders created in the
+ * window, the same rule as the exact SQL, with revenue in a hash beside it. Keys carry the
+ * window's first day, so a new window starts empty and old ones expire. Batches of orders
+ * entering HOAN_THANH come from the {@link CompletedOrderFeed} and are applied with one query and
+ * one pipelined ZINCRBY/HINCRBYFLOAT round trip; orders leaving it take their units back. All nodes
+ * add to the same keys, so the popular products endpoint and pushes give the same ranking
+ * whichever node answers, and a restart loses nothing.
+ *
+ * After a flush the top list of each window is compared with the last one pushed, swapped
+ * atomically in Redis, and pushed to the popular products WebSocket topics when it changed, so
+ * one node pushes each change. The nightly run replaces every window with exact counts from the
+ * database under a Redis lock, and a window without keys on startup is rebuilt the same way.
+ * When Redis cannot be read the ranking is served by the exact query. The exact best-seller
+ * report does not use this ranking.
+ */
+@Service
+@Slf4j
+public class BestSellerTracker implements CompletedOrderFeed.Subscriber {
+
+    private static final String KEY_PREFIX = "lapxpert:best-seller:";
+    private static final String KEY_SAN_PHAM = KEY_PREFIX + "san-pham";
+    private static final String KEY_KHOA_XAY_LAI = KEY_PREFIX + "xay-lai";
+    // A little past the longest window so the keys of the current month never expire early
+    private static final Duration THOI_HAN = Duration.ofDays(32);
+
+    /**
+     * Display fields of a product, stored once for every window
+     */
+    record ThongTinSanPham(String tenSanPham, String hinhAnh, String thuongHieu) {
+    }
+
+    private final HoaDonChiTietRepository hoaDonChiTietRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final WebSocketIntegrationService webSocketIntegrationService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${thong-ke.best-seller.enabled:true}")
+    private boolean enabled;
+
+    @Value("${thong-ke.best-seller.max-k:50}")
+    private int soLuongToiDa;
+
+    @Value("${thong-ke.best-seller.push-size:10}")
+    private int soLuongGui;
+
+    public BestSellerTracker(HoaDonChiTietRepository hoaDonChiTietRepository,
+                             StringRedisTemplate redisTemplate,
+                             ObjectMapper objectMapper,
+                             WebSocketIntegrationService webSocketIntegrationService,
+                             MeterRegistry meterRegistry) {
+        this.hoaDonChiTietRepository = hoaDonChiTietRepository;
+        this.redisTemplate = redisTemplate;
+        // Compact JSON for Redis storage; the shared mapper pretty-prints
+        this.objectMapper = objectMapper.copy().disable(SerializationFeature.INDENT_OUTPUT);
+        this.webSocketIntegrationService = webSocketIntegrationService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Best sellers of the current window, best first
+     */
+    public List<SanPhamBanChayDto.SanPhamBanChayChiTietDto> layTop(KhungThoiGianBanChay khung, int k) {
+        int soLuong = Math.min(k, soLuongToiDa);
+        LocalDate batDau = layNgayBatDau(khung);
+        if (enabled) {
+            try {
+                return docTop(khung, batDau, soLuong);
+            } catch (Exception e) {
+                log.warn("[BEST SELLER] Could not read {} from Redis, using the exact query: {}", khung, e.getMessage());
+            }
+        }
+        List<SanPhamBanChayDto.SanPhamBanChayChiTietDto> result = new ArrayList<>(soLuong);
+        for (HoaDonChiTietRepository.BanHangTheoSanPham row : hoaDonChiTietRepository.tongHopBanChayTheoSanPham(
+                batDau.atStartOfDay().toInstant(ZoneOffset.UTC), Instant.now(), Pageable.ofSize(soLuong))) {
+            result.add(toDto(row.getSanPhamId(), new ThongTinSanPham(row.getTenSanPham(), row.getHinhAnh(), row.getThuongHieu()),
+                    row.getSoLuong(), row.getDoanhThu(), result.size() + 1));
+        }
+        return result;
+    }
+
+    /**
+     * First day of the current window
+     */
+    public LocalDate layNgayBatDau(KhungThoiGianBanChay khung) {
+        return khung.batDau(LocalDate.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * Apply a batch of completed orders and push windows whose leaders changed
+     */
+    @Override
+    public void apDungLo(Map<Long, Integer> dauTheoHoaDon) {
+        if (!enabled) {
+            return;
+        }
+        capNhatCuaSo(dauTheoHoaDon);
+        guiNeuThayDoi();
+    }
+
+    /**
+     * Replace every window with exact counts from the database
+     */
+    @Scheduled(cron = "${thong-ke.best-seller.reconcile.cron:0 30 2 * * *}")
+    public void doiSoat() {
+        if (!enabled) {
+            return;
+        }
+        for (KhungThoiGianBanChay khung : KhungThoiGianBanChay.values()) {
+            try {
+                xayLaiMotNut(khung);
+            } catch (Exception e) {
+                log.error("[BEST SELLER] Reconcile of {} failed: {}", khung, e.getMessage(), e);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void khoiTao() {
+        if (!enabled) {
+            return;
+        }
+        for (KhungThoiGianBanChay khung : KhungThoiGianBanChay.values()) {
+            try {
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(khoaSoLuong(khung, layNgayBatDau(khung))))) {
+                    xayLaiMotNut(khung);
+                }
+            } catch (Exception e) {
+                log.warn("[BEST SELLER] Could not initialize {}: {}", khung, e.getMessage());
+            }
+        }
+    }
+
+    private void capNhatCuaSo(Map<Long, Integer> dauTheoHoaDon) {
+        List<HoaDonChiTietRepository.BanHangTheoSanPham> rows =
+                hoaDonChiTietRepository.tongHopBanHangTheoHoaDon(dauTheoHoaDon.keySet());
+        LocalDate homNay = LocalDate.now(ZoneOffset.UTC);
+        Map<String, String> thongTin = new HashMap<>();
+        for (HoaDonChiTietRepository.BanHangTheoSanPham row : rows) {
+            thongTin.put(row.getSanPhamId().toString(), thongTinJson(row));
+        }
+
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (HoaDonChiTietRepository.BanHangTheoSanPham row : rows) {
+                int dau = dauTheoHoaDon.get(row.getHoaDonId()) > 0 ? 1 : -1;
+                LocalDate ngayTao = row.getNgayTao().atOffset(ZoneOffset.UTC).toLocalDate();
+                String sanPhamId = row.getSanPhamId().toString();
+                for (KhungThoiGianBanChay khung : KhungThoiGianBanChay.values()) {
+                    LocalDate batDau = khung.batDau(homNay);
+                    if (!ngayTao.isBefore(batDau)) {
+                        redis.zIncrBy(khoaSoLuong(khung, batDau), (double) dau * row.getSoLuong(), sanPhamId);
+                        redis.hIncrBy(khoaDoanhThu(khung, batDau), sanPhamId, dau * row.getDoanhThu().doubleValue());
+                    }
+                }
+            }
+            if (!thongTin.isEmpty()) {
+                redis.hMSet(KEY_SAN_PHAM, thongTin);
+                redis.expire(KEY_SAN_PHAM, THOI_HAN.toSeconds());
+            }
+            for (KhungThoiGianBanChay khung : KhungThoiGianBanChay.values()) {
+                LocalDate batDau = khung.batDau(homNay);
+                redis.expire(khoaSoLuong(khung, batDau), THOI_HAN.toSeconds());
+                redis.expire(khoaDoanhThu(khung, batDau), THOI_HAN.toSeconds());
+            }
+            return null;
+        });
+        counter("incremental").increment(dauTheoHoaDon.size());
+    }
+
+    private void guiNeuThayDoi() {
+        for (KhungThoiGianBanChay khung : KhungThoiGianBanChay.values()) {
+            try {
+                LocalDate batDau = layNgayBatDau(khung);
+                List<SanPhamBanChayDto.SanPhamBanChayChiTietDto> top =
+                        docTop(khung, batDau, Math.min(soLuongGui, soLuongToiDa));
+                String ids = top.stream()
+                        .map(item -> item.getSanPhamId().toString())
+                        .collect(Collectors.joining(","));
+                // Whichever node swaps in a new list pushes it; the others see it unchanged
+                String daGui = redisTemplate.opsForValue().getAndSet(khoaDaGui(khung, batDau), ids);
+                redisTemplate.expire(khoaDaGui(khung, batDau), THOI_HAN);
+                if (!ids.equals(daGui)) {
+                    webSocketIntegrationService.sendPopularProductsUpdate(khung.getTimeframe(), top);
+                }
+            } catch (Exception e) {
+                log.warn("[BEST SELLER] Could not push {}: {}", khung, e.getMessage());
+            }
+        }
+    }
+
+    private List<SanPhamBanChayDto.SanPhamBanChayChiTietDto> docTop(KhungThoiGianBanChay khung, LocalDate batDau, int k) {
+        // Products whose units were all taken back stay in the set with a score of zero
+        Set<ZSetOperations.TypedTuple<String>> top = redisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(khoaSoLuong(khung, batDau), 1, Double.POSITIVE_INFINITY, 0, k);
+        if (top == null || top.isEmpty()) {
+            return List.of();
+        }
+        List<Object> ids = top.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList());
+        List<Object> doanhThus = redisTemplate.opsForHash().multiGet(khoaDoanhThu(khung, batDau), ids);
+        List<Object> thongTins = redisTemplate.opsForHash().multiGet(KEY_SAN_PHAM, ids);
+
+        List<SanPhamBanChayDto.SanPhamBanChayChiTietDto> result = new ArrayList<>(top.size());
+        int i = 0;
+        for (ZSetOperations.TypedTuple<String> muc : top) {
+            Object doanhThu = doanhThus.get(i);
+            Object thongTin = thongTins.get(i);
+            i++;
+            result.add(toDto(Long.valueOf(muc.getValue()), docThongTin(thongTin),
+                    Math.round(muc.getScore()),
+                    doanhThu != null ? new BigDecimal(doanhThu.toString()).setScale(2, RoundingMode.HALF_UP) : BigDecimal.ZERO,
+                    result.size() + 1));
+        }
+        return result;
+    }
+
+    private static SanPhamBanChayDto.SanPhamBanChayChiTietDto toDto(Long sanPhamId, ThongTinSanPham thongTin,
+                                                                   long soLuong, BigDecimal doanhThu, int thuHang) {
+        BigDecimal giaTrungBinh = soLuong > 0
+                ? doanhThu.divide(BigDecimal.valueOf(soLuong), 2, RoundingMode.HALF_UP)
+                : BigDecimal.ZERO;
+        return SanPhamBanChayDto.SanPhamBanChayChiTietDto.builder()
+                .sanPhamId(sanPhamId)
+                .tenSanPham(thongTin.tenSanPham())
+                .hinhAnh(thongTin.hinhAnh() != null ? thongTin.hinhAnh() : "")
+                .thuongHieu(thongTin.thuongHieu())
+                .soLuongBan(soLuong)
+                .doanhThu(doanhThu)
+                .giaTrungBinh(giaTrungBinh)
+                .tonKho(0L)
+                .thuHang(thuHang)
+                .tyLeBanHang(0.0)
+                .tyLeTangTruong(0.0)
+                .build();
+    }
+
+    /**
+     * Rebuild a window unless another node is already doing it
+     */
+    private void xayLaiMotNut(KhungThoiGianBanChay khung) {
+        String khoa = KEY_KHOA_XAY_LAI + ":" + khung.name();
+        String token = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(khoa, token, Duration.ofMinutes(10)))) {
+            log.info("[BEST SELLER] {} is being rebuilt by another node", khung);
+            return;
+        }
+        try {
+            xayLai(khung);
+        } finally {
+            if (token.equals(redisTemplate.opsForValue().get(khoa))) {
+                redisTemplate.delete(khoa);
+            }
+        }
+    }
+
+    private void xayLai(KhungThoiGianBanChay khung) {
+        LocalDate batDau = layNgayBatDau(khung);
+        Instant tu = batDau.atStartOfDay().toInstant(ZoneOffset.UTC);
+        List<HoaDonChiTietRepository.BanHangTheoSanPham> rows =
+                hoaDonChiTietRepository.tongHopBanChayTheoSanPham(tu, Instant.now(), Pageable.unpaged());
+
+        String khoaSoLuong = khoaSoLuong(khung, batDau);
+        String khoaDoanhThu = khoaDoanhThu(khung, batDau);
+        String tamSoLuong = khoaSoLuong + ":tam";
+        String tamDoanhThu = khoaDoanhThu + ":tam";
+        Map<String, String> thongTin = new HashMap<>();
+        for (HoaDonChiTietRepository.BanHangTheoSanPham row : rows) {
+            thongTin.put(row.getSanPhamId().toString(), thongTinJson(row));
+        }
+
+        // Written aside and renamed over the live keys, so readers never see a half-built window.
+        // Orders completed while the query ran may be counted twice until the next reconcile.
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            redis.del(tamSoLuong, tamDoanhThu);
+            for (HoaDonChiTietRepository.BanHangTheoSanPham row : rows) {
+                String sanPhamId = row.getSanPhamId().toString();
+                redis.zAdd(tamSoLuong, row.getSoLuong(), sanPhamId);
+                redis.hSet(tamDoanhThu, sanPhamId, row.getDoanhThu().toPlainString());
+            }
+            if (rows.isEmpty()) {
+                redis.del(khoaSoLuong, khoaDoanhThu);
+            } else {
+                redis.hMSet(KEY_SAN_PHAM, thongTin);
+                redis.expire(KEY_SAN_PHAM, THOI_HAN.toSeconds());
+                redis.rename(tamSoLuong, khoaSoLuong);
+                redis.rename(tamDoanhThu, khoaDoanhThu);
+                redis.expire(khoaSoLuong, THOI_HAN.toSeconds());
+                redis.expire(khoaDoanhThu, THOI_HAN.toSeconds());
+            }
+            return null;
+        });
+        counter("reconcile").increment();
+        log.info("[BEST SELLER] Rebuilt {} from {} with {} products", khung, batDau, rows.size());
+    }
+
+    private String thongTinJson(HoaDonChiTietRepository.BanHangTheoSanPham row) {
+        try {
+            return objectMapper.writeValueAsString(
+                    new ThongTinSanPham(row.getTenSanPham(), row.getHinhAnh(), row.getThuongHieu()));
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot serialize product " + row.getSanPhamId(), e);
+        }
+    }
+
+    private ThongTinSanPham docThongTin(Object json) {
+        if (json == null) {
+            return new ThongTinSanPham(null, null, null);
+        }
+        try {
+            return objectMapper.readValue(json.toString(), ThongTinSanPham.class);
+        } catch (Exception e) {
+            log.warn("[BEST SELLER] Unreadable product info {}: {}", json, e.getMessage());
+            return new ThongTinSanPham(null, null, null);
+        }
+    }
+
+    private static String khoaSoLuong(KhungThoiGianBanChay khung, LocalDate batDau) {
+        return KEY_PREFIX + khung.name() + ":" + batDau + ":so-luong";
+    }
+
+    private static String khoaDoanhThu(KhungThoiGianBanChay khung, LocalDate batDau) {
+        return KEY_PREFIX + khung.name() + ":" + batDau + ":doanh-thu";
+    }
+
+    private static String khoaDaGui(KhungThoiGianBanChay khung, LocalDate batDau) {
+        return KEY_PREFIX + khung.name() + ":" + batDau + ":da-gui";
+    }
+
+    private Counter counter(String source) {
+        return Counter.builder("thong-ke.best-seller.updates")
+                .description("Best-seller ranking updates")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,104 @@
+package com.lapxpert.backend.thongke.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Orders entering or leaving HOAN_THANH, delivered after commit in batches to the statistics read
+ * models that follow completed orders (the best-seller ranking and the inventory forecast).
+ *
+ * Changes are queued when their transaction commits and drained on a fixed delay; each batch maps
+ * order IDs to +1 (completed) or -1 (taken back), with an order completed and reopened within one
+ * flush netted out. A subscriber that fails a batch does not stop the others; its nightly
+ * reconcile corrects what it missed.
+ */
+@Component
+@Slf4j
+public class CompletedOrderFeed {
+
+    /**
+     * Read model fed with batches of completed orders
+     */
+    public interface Subscriber {
+
+        /**
+         * Apply a batch of orders that entered (+1) or left (-1) HOAN_THANH
+         * @param dauTheoHoaDon Order ID to its net change, never 0
+         */
+        void apDungLo(Map<Long, Integer> dauTheoHoaDon);
+    }
+
+    /**
+     * Order whose completion is added (+1) or taken back (-1)
+     */
+    private record ThayDoi(Long hoaDonId, int dau) {
+    }
+
+    private final List<Subscriber> subscribers;
+    private final ConcurrentLinkedQueue<ThayDoi> hangDoi = new ConcurrentLinkedQueue<>();
+
+    @Value("${thong-ke.completed-orders.flush-batch-size:500}")
+    private int kichThuocLo;
+
+    public CompletedOrderFeed(List<Subscriber> subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    /**
+     * Record an order that entered (dau = 1) or left (dau = -1) HOAN_THANH.
+     * Inside a transaction it is delivered only after the transaction commits.
+     */
+    public void ghiNhan(Long hoaDonId, int dau) {
+        if (hoaDonId == null) {
+            return;
+        }
+        ThayDoi thayDoi = new ThayDoi(hoaDonId, dau);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    hangDoi.add(thayDoi);
+                }
+            });
+            return;
+        }
+        hangDoi.add(thayDoi);
+    }
+
+    /**
+     * Deliver queued changes to every subscriber
+     */
+    @Scheduled(fixedDelayString = "${thong-ke.completed-orders.flush-interval-ms:2000}")
+    public void phanPhoi() {
+        while (!hangDoi.isEmpty()) {
+            Map<Long, Integer> dauTheoHoaDon = new HashMap<>();
+            ThayDoi thayDoi;
+            while (dauTheoHoaDon.size() < kichThuocLo && (thayDoi = hangDoi.poll()) != null) {
+                // An order completed and reopened within one flush nets out
+                dauTheoHoaDon.merge(thayDoi.hoaDonId(), thayDoi.dau(), Integer::sum);
+            }
+            dauTheoHoaDon.values().removeIf(dau -> dau == 0);
+            if (dauTheoHoaDon.isEmpty()) {
+                continue;
+            }
+            Map<Long, Integer> lo = Map.copyOf(dauTheoHoaDon);
+            for (Subscriber subscriber : subscribers) {
+                try {
+                    subscriber.apDungLo(lo);
+                } catch (Exception e) {
+                    log.error("[COMPLETED ORDERS] {} could not apply {} orders, its reconcile will correct them: {}",
+                            subscriber.getClass().getSimpleName(), lo.size(), e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
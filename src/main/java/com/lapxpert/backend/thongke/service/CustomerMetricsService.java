@@ -0,0 +1,175 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.hoadon.entity.HoaDon;
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import com.lapxpert.backend.thongke.repository.ThongKeKhachHangRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the customer metrics (thong_ke_khach_hang, thong_ke_khach_hang_thang) in step with
+ * completed orders.
+ *
+ * When an order of a customer enters or leaves HOAN_THANH, or a completed order changes its total,
+ * creation time or customer, the customers involved are marked. Marked customers are collected per
+ * transaction and recomputed from their own completed orders just before commit, the same way as
+ * {@link RevenueRollupService}. Customers are locked in ID order with transaction-scoped advisory
+ * locks, so a recompute never overwrites a newer one. A nightly run recomputes every customer in
+ * ID ranges to repair rows missed by the incremental path.
+ *
+ * Months are UTC months like the rest of the statistics.
+ */
+@Service
+@Slf4j
+public class CustomerMetricsService {
+
+    // First key of the advisory lock pair, so customer locks cannot clash with other advisory locks
+    private static final int NHOM_KHOA = "thong_ke_khach_hang".hashCode();
+
+    private final ThongKeKhachHangRepository thongKeKhachHangRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${thong-ke.customer-metrics.reconcile.enabled:true}")
+    private boolean doiSoatBat;
+
+    @Value("${thong-ke.customer-metrics.reconcile.chunk-size:1000}")
+    private int kichThuocKhoang;
+
+    public CustomerMetricsService(ThongKeKhachHangRepository thongKeKhachHangRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry) {
+        this.thongKeKhachHangRepository = thongKeKhachHangRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Mark a customer for recompute; a no-op for walk-in orders without a customer
+     */
+    public void danhDau(Long khachHangId) {
+        if (khachHangId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            customersOfCurrentTransaction().add(khachHangId);
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> tinhLai(List.of(khachHangId)));
+    }
+
+    /**
+     * Mark the customer of an order whose status moves from trangThaiCu to trangThaiMoi outside the
+     * entity lifecycle, e.g. a bulk JPQL update. Only moves into or out of HOAN_THANH matter.
+     */
+    public void danhDauChuyenTrangThai(HoaDon hoaDon, TrangThaiDonHang trangThaiCu, TrangThaiDonHang trangThaiMoi) {
+        if (trangThaiCu == trangThaiMoi || hoaDon.getKhachHang() == null) {
+            return;
+        }
+        if (trangThaiCu == TrangThaiDonHang.HOAN_THANH || trangThaiMoi == TrangThaiDonHang.HOAN_THANH) {
+            danhDau(hoaDon.getKhachHang().getId());
+        }
+    }
+
+    /**
+     * Recompute every customer, one ID range per transaction
+     */
+    @Scheduled(cron = "${thong-ke.customer-metrics.reconcile.cron:0 45 2 * * *}")
+    public void doiSoatHangDem() {
+        if (!doiSoatBat) {
+            return;
+        }
+        try {
+            long idLonNhat = thongKeKhachHangRepository.layKhachHangIdLonNhat();
+            long soKhachHang = 0;
+            for (long batDau = 1; batDau <= idLonNhat; batDau += kichThuocKhoang) {
+                long tuId = batDau;
+                long denId = Math.min(batDau + kichThuocKhoang - 1, idLonNhat);
+                Integer soDong = transactionTemplate.execute(status -> tinhLaiKhoang(tuId, denId));
+                soKhachHang += soDong != null ? soDong : 0;
+            }
+            counter("rebuild").increment(soKhachHang);
+            log.info("[CUSTOMER METRICS] Nightly reconcile rewrote {} customers", soKhachHang);
+        } catch (Exception e) {
+            log.error("[CUSTOMER METRICS] Nightly reconcile failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private Set<Long> customersOfCurrentTransaction() {
+        @SuppressWarnings("unchecked")
+        Set<Long> pending = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<Long> customers = new TreeSet<>();
+            TransactionSynchronizationManager.bindResource(this, customers);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    ghiTruocCommit(customers);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CustomerMetricsService.this);
+                }
+            });
+            pending = customers;
+        }
+        return pending;
+    }
+
+    private void ghiTruocCommit(Set<Long> customers) {
+        // Flushing runs the order listeners, which may mark more customers, so repeat until none are left
+        while (true) {
+            entityManager.flush();
+            if (customers.isEmpty()) {
+                return;
+            }
+            List<Long> batch = new ArrayList<>(customers);
+            customers.clear();
+            tinhLai(batch);
+        }
+    }
+
+    private void tinhLai(List<Long> khachHangIds) {
+        // Already in ID order, which is the lock order shared with the nightly ranges
+        for (Long khachHangId : new TreeSet<>(khachHangIds)) {
+            tinhLaiKhoang(khachHangId, khachHangId);
+        }
+        counter("incremental").increment(khachHangIds.size());
+        log.debug("[CUSTOMER METRICS] Recomputed {} customers", khachHangIds.size());
+    }
+
+    private int tinhLaiKhoang(long tuId, long denId) {
+        thongKeKhachHangRepository.khoaKhachHang(NHOM_KHOA, tuId, denId);
+        int soKhachHang = thongKeKhachHangRepository.ghiKhachHang(tuId, denId);
+        thongKeKhachHangRepository.xoaKhachHangKhongConDon(tuId, denId);
+        thongKeKhachHangRepository.ghiThang(tuId, denId);
+        thongKeKhachHangRepository.xoaThangKhongConDon(tuId, denId);
+        return soKhachHang;
+    }
+
+    private Counter counter(String source) {
+        return Counter.builder("thong-ke.customer-metrics.customers")
+                .description("Customer metrics rows recomputed")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,379 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.common.event.InventoryUpdateEvent;
+import com.lapxpert.backend.common.event.OrderChangeEvent;
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import com.lapxpert.backend.hoadon.repository.HoaDonChiTietRepository;
+import com.lapxpert.backend.hoadon.repository.HoaDonRepository;
+import com.lapxpert.backend.nguoidung.entity.TrangThaiNguoiDung;
+import com.lapxpert.backend.nguoidung.entity.VaiTro;
+import com.lapxpert.backend.nguoidung.repository.NguoiDungRepository;
+import com.lapxpert.backend.sanpham.enums.TrangThaiSerialNumber;
+import com.lapxpert.backend.sanpham.repository.SanPhamRepository;
+import com.lapxpert.backend.sanpham.repository.SerialNumberRepository;
+import com.lapxpert.backend.thongke.dto.DashboardSummaryDto;
+import com.lapxpert.backend.thongke.repository.DoanhThuTheoGioRepository;
+import com.lapxpert.backend.thongke.repository.ThongKeKhachHangRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Builds the dashboard summary from a handful of grouped queries run in parallel and keeps the
+ * result for a short time.
+ *
+ * Revenue for all eight periods and the average order value come from one pass over the revenue
+ * rollup, order counts from one GROUP BY on status; product and customer figures are separate
+ * groups. Groups run on virtual threads, each query in its own read-only transaction.
+ *
+ * The summary is cached for thong-ke.dashboard.cache-ttl-seconds and dropped after any order or
+ * inventory change commits. A build that started before an invalidation is returned to its
+ * caller but not cached. Concurrent requests on a miss wait for a single build.
+ */
+@Service
+@Slf4j
+public class DashboardAggregator {
+
+    private static final int TOP_LIMIT = 5;
+    private static final int LOW_STOCK_THRESHOLD = 5;
+    private static final int RECENT_DAYS = 30;
+    private static final int RETENTION_MONTHS = 3;
+
+    private static final String GROUP_DOANH_THU = "doanh_thu";
+    private static final String GROUP_DON_HANG = "don_hang";
+    private static final String GROUP_SAN_PHAM = "san_pham";
+    private static final String GROUP_BAN_CHAY = "ban_chay";
+    private static final String GROUP_KHACH_HANG = "khach_hang";
+
+    private record CachedSummary(DashboardSummaryDto summary, long expiresAt) {
+    }
+
+    /**
+     * Revenue periods and the all-time average completed order value, read in the same pass
+     */
+    private record DoanhThuKetQua(DashboardSummaryDto.DoanhThuSummary summary, BigDecimal giaTriDonTrungBinh) {
+    }
+
+    private final DoanhThuTheoGioRepository doanhThuTheoGioRepository;
+    private final HoaDonRepository hoaDonRepository;
+    private final HoaDonChiTietRepository hoaDonChiTietRepository;
+    private final SanPhamRepository sanPhamRepository;
+    private final SerialNumberRepository serialNumberRepository;
+    private final NguoiDungRepository nguoiDungRepository;
+    private final ThongKeKhachHangRepository thongKeKhachHangRepository;
+    private final SimpleAsyncTaskExecutor dashboardQueryExecutor;
+    private final MeterRegistry meterRegistry;
+    private final Object buildLock = new Object();
+
+    private volatile CachedSummary cached;
+    // Bumped by every invalidation; a build only caches its result if nothing changed meanwhile
+    private volatile long generation;
+
+    @Value("${thong-ke.dashboard.cache-ttl-seconds:30}")
+    private long ttlSeconds;
+
+    public DashboardAggregator(DoanhThuTheoGioRepository doanhThuTheoGioRepository,
+                               HoaDonRepository hoaDonRepository,
+                               HoaDonChiTietRepository hoaDonChiTietRepository,
+                               SanPhamRepository sanPhamRepository,
+                               SerialNumberRepository serialNumberRepository,
+                               NguoiDungRepository nguoiDungRepository,
+                               ThongKeKhachHangRepository thongKeKhachHangRepository,
+                               @Qualifier("dashboardQueryExecutor") SimpleAsyncTaskExecutor dashboardQueryExecutor,
+                               MeterRegistry meterRegistry) {
+        this.doanhThuTheoGioRepository = doanhThuTheoGioRepository;
+        this.hoaDonRepository = hoaDonRepository;
+        this.hoaDonChiTietRepository = hoaDonChiTietRepository;
+        this.sanPhamRepository = sanPhamRepository;
+        this.serialNumberRepository = serialNumberRepository;
+        this.nguoiDungRepository = nguoiDungRepository;
+        this.thongKeKhachHangRepository = thongKeKhachHangRepository;
+        this.dashboardQueryExecutor = dashboardQueryExecutor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public DashboardSummaryDto layDashboard() {
+        CachedSummary current = cached;
+        if (current != null && current.expiresAt() > System.currentTimeMillis()) {
+            counter("hit").increment();
+            return current.summary();
+        }
+
+        synchronized (buildLock) {
+            // Another request may have rebuilt the summary while this one waited
+            current = cached;
+            if (current != null && current.expiresAt() > System.currentTimeMillis()) {
+                counter("hit").increment();
+                return current.summary();
+            }
+
+            counter("miss").increment();
+            long buildGeneration = generation;
+            DashboardSummaryDto summary = build();
+            if (buildGeneration == generation) {
+                cached = new CachedSummary(summary, System.currentTimeMillis() + ttlSeconds * 1000);
+            }
+            return summary;
+        }
+    }
+
+    public void invalidate() {
+        generation++;
+        cached = null;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onOrderChanged(OrderChangeEvent event) {
+        invalidate();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInventoryChanged(InventoryUpdateEvent event) {
+        invalidate();
+    }
+
+    private DashboardSummaryDto build() {
+        long start = System.nanoTime();
+        LocalDate today = LocalDate.now();
+
+        CompletableFuture<DoanhThuKetQua> doanhThu =
+                group(GROUP_DOANH_THU, () -> layDoanhThu(today));
+        CompletableFuture<Map<TrangThaiDonHang, Long>> donHangTheoTrangThai =
+                group(GROUP_DON_HANG, this::demDonHangTheoTrangThai);
+        CompletableFuture<DashboardSummaryDto.SanPhamSummary> sanPham =
+                group(GROUP_SAN_PHAM, this::layTonKho);
+        CompletableFuture<DashboardSummaryDto.SanPhamSummary> banChay =
+                group(GROUP_BAN_CHAY, () -> layBanChay(today));
+        CompletableFuture<DashboardSummaryDto.KhachHangSummary> khachHang =
+                group(GROUP_KHACH_HANG, () -> layKhachHang(today));
+
+        try {
+            DoanhThuKetQua doanhThuKetQua = doanhThu.join();
+            Map<TrangThaiDonHang, Long> theoTrangThai = donHangTheoTrangThai.join();
+            DashboardSummaryDto.SanPhamSummary tonKho = sanPham.join();
+            DashboardSummaryDto.SanPhamSummary topBanChay = banChay.join();
+
+            long tongSo = theoTrangThai.values().stream().mapToLong(Long::longValue).sum();
+            long choXacNhan = theoTrangThai.getOrDefault(TrangThaiDonHang.CHO_XAC_NHAN, 0L);
+            long hoanThanh = theoTrangThai.getOrDefault(TrangThaiDonHang.HOAN_THANH, 0L);
+
+            DashboardSummaryDto.DonHangSummary donHang = DashboardSummaryDto.DonHangSummary.builder()
+                    .tongSo(tongSo)
+                    .choXacNhan(choXacNhan)
+                    .dangXuLy(theoTrangThai.getOrDefault(TrangThaiDonHang.DANG_XU_LY, 0L))
+                    .hoanThanh(hoanThanh)
+                    .daHuy(theoTrangThai.getOrDefault(TrangThaiDonHang.DA_HUY, 0L))
+                    .tyLeHoanThanh(tongSo > 0 ? ((double) hoanThanh / tongSo) * 100 : 0.0)
+                    .giaTriTrungBinh(doanhThuKetQua.giaTriDonTrungBinh())
+                    .build();
+
+            DashboardSummaryDto.SanPhamSummary sanPhamSummary = DashboardSummaryDto.SanPhamSummary.builder()
+                    .tongSo(tonKho.getTongSo())
+                    .sapHetHang(tonKho.getSapHetHang())
+                    .hetHang(tonKho.getHetHang())
+                    .banChayNhat(topBanChay.getBanChayNhat())
+                    .danhMucTot(topBanChay.getDanhMucTot())
+                    .build();
+
+            DashboardSummaryDto.ThongBaoSummary thongBao = DashboardSummaryDto.ThongBaoSummary.builder()
+                    .donHangMoi(choXacNhan)
+                    .sanPhamSapHetHang(0L)
+                    .khachHangMoi(0L)
+                    .danhGiaMoi(0L)
+                    .tongThongBao(choXacNhan)
+                    .build();
+
+            DashboardSummaryDto summary = DashboardSummaryDto.builder()
+                    .capNhatLanCuoi(LocalDateTime.now())
+                    .doanhThu(doanhThuKetQua.summary())
+                    .donHang(donHang)
+                    .sanPham(sanPhamSummary)
+                    .khachHang(khachHang.join())
+                    .thongBao(thongBao)
+                    .build();
+
+            log.debug("Dashboard summary built in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return summary;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Không thể tổng hợp dashboard", e.getCause());
+        } finally {
+            doanhThu.cancel(true);
+            donHangTheoTrangThai.cancel(true);
+            sanPham.cancel(true);
+            banChay.cancel(true);
+            khachHang.cancel(true);
+        }
+    }
+
+    private DoanhThuKetQua layDoanhThu(LocalDate today) {
+        LocalDate startOfWeek = today.minusDays(today.getDayOfWeek().getValue() - 1);
+        LocalDate startOfMonth = today.withDayOfMonth(1);
+        LocalDate startOfYear = today.withDayOfYear(1);
+
+        DoanhThuTheoGioRepository.DoanhThuDashboard row = doanhThuTheoGioRepository.tongHopDashboard(
+                batDauNgay(today),
+                batDauNgay(today.minusDays(1)),
+                batDauNgay(today.plusDays(1)),
+                batDauNgay(startOfWeek),
+                batDauNgay(startOfWeek.minusDays(7)),
+                batDauNgay(startOfMonth),
+                batDauNgay(startOfMonth.minusMonths(1)),
+                batDauNgay(startOfYear),
+                batDauNgay(startOfYear.minusYears(1)));
+
+        DashboardSummaryDto.DoanhThuSummary summary = DashboardSummaryDto.DoanhThuSummary.builder()
+                .homNay(row.getHomNay())
+                .tuanNay(row.getTuanNay())
+                .thangNay(row.getThangNay())
+                .namNay(row.getNamNay())
+                .tangTruongNgay(tyLeTangTruong(row.getHomNay(), row.getHomQua()))
+                .tangTruongTuan(tyLeTangTruong(row.getTuanNay(), row.getTuanTruoc()))
+                .tangTruongThang(tyLeTangTruong(row.getThangNay(), row.getThangTruoc()))
+                .tangTruongNam(tyLeTangTruong(row.getNamNay(), row.getNamTruoc()))
+                .build();
+
+        BigDecimal giaTriTrungBinh = row.getTongSoDon() > 0
+                ? row.getTongDoanhThu().divide(BigDecimal.valueOf(row.getTongSoDon()), 2, RoundingMode.HALF_UP)
+                : BigDecimal.ZERO;
+        return new DoanhThuKetQua(summary, giaTriTrungBinh);
+    }
+
+    private Map<TrangThaiDonHang, Long> demDonHangTheoTrangThai() {
+        Map<TrangThaiDonHang, Long> counts = new EnumMap<>(TrangThaiDonHang.class);
+        for (HoaDonRepository.SoLuongTheoTrangThai row : hoaDonRepository.countGroupByTrangThaiDonHang()) {
+            counts.put(row.getTrangThai(), row.getSoLuong());
+        }
+        return counts;
+    }
+
+    private DashboardSummaryDto.SanPhamSummary layTonKho() {
+        return DashboardSummaryDto.SanPhamSummary.builder()
+                .tongSo(sanPhamRepository.countByTrangThai(true))
+                .sapHetHang(serialNumberRepository.countProductsWithLowAvailableStock(LOW_STOCK_THRESHOLD))
+                .hetHang(serialNumberRepository.countByTrangThai(TrangThaiSerialNumber.SOLD))
+                .build();
+    }
+
+    private DashboardSummaryDto.SanPhamSummary layBanChay(LocalDate today) {
+        Instant tuNgay = batDauNgay(today.minusDays(RECENT_DAYS));
+        Instant denNgay = today.atTime(23, 59, 59).toInstant(ZoneOffset.UTC);
+
+        List<DashboardSummaryDto.SanPhamBanChayChiTietDto> banChayNhat = hoaDonChiTietRepository
+                .findTopSellingProducts(tuNgay, denNgay, PageRequest.of(0, TOP_LIMIT)).stream()
+                .map(data -> {
+                    String hinhAnh = (String) data[2];
+                    return DashboardSummaryDto.SanPhamBanChayChiTietDto.builder()
+                            .id(((Number) data[0]).longValue())
+                            .tenSanPham((String) data[1])
+                            .hinhAnh(hinhAnh != null && !hinhAnh.isEmpty() ? hinhAnh : "/images/default-product.jpg")
+                            .thuongHieu((String) data[3])
+                            .soLuongBan(((Number) data[4]).longValue())
+                            .doanhThu((BigDecimal) data[5])
+                            .build();
+                })
+                .toList();
+
+        List<DashboardSummaryDto.DanhMucTotDto> danhMucTot = hoaDonChiTietRepository
+                .findTopSellingCategories(tuNgay, denNgay, PageRequest.of(0, TOP_LIMIT)).stream()
+                .map(data -> DashboardSummaryDto.DanhMucTotDto.builder()
+                        .id(((Number) data[0]).longValue())
+                        .tenDanhMuc((String) data[1])
+                        .soLuong(((Number) data[2]).longValue())
+                        .doanhThu((BigDecimal) data[3])
+                        .build())
+                .toList();
+
+        return DashboardSummaryDto.SanPhamSummary.builder()
+                .banChayNhat(banChayNhat)
+                .danhMucTot(danhMucTot)
+                .build();
+    }
+
+    private DashboardSummaryDto.KhachHangSummary layKhachHang(LocalDate today) {
+        Instant denNgay = today.atTime(23, 59, 59).toInstant(ZoneOffset.UTC);
+        Instant tuNgayGanDay = batDauNgay(today.minusDays(RECENT_DAYS));
+        Instant tuNgayGiuChan = batDauNgay(today.minusMonths(RETENTION_MONTHS));
+
+        // Retention: customers who had ordered before the window and ordered again within it
+        long khachHangCu = thongKeKhachHangRepository.demKhachHangTruoc(tuNgayGiuChan);
+        long khachHangQuayLai = thongKeKhachHangRepository.demKhachHangQuayLai(tuNgayGiuChan);
+        BigDecimal giaTriTrungBinh = thongKeKhachHangRepository.tongHopGiaTri().getGiaTriTrungBinh();
+
+        return DashboardSummaryDto.KhachHangSummary.builder()
+                .tongSo(nguoiDungRepository.countByVaiTroAndTrangThai(VaiTro.CUSTOMER, TrangThaiNguoiDung.HOAT_DONG))
+                .moi(nguoiDungRepository.countNewCustomersBetween(VaiTro.CUSTOMER, tuNgayGanDay, denNgay))
+                .hoatDong(thongKeKhachHangRepository.demKhachHangHoatDong(tuNgayGanDay))
+                .tyLeGiuChan(khachHangCu > 0 ? ((double) khachHangQuayLai / khachHangCu) * 100 : 0.0)
+                .giaTriTrungBinh(giaTriTrungBinh != null ? giaTriTrungBinh.setScale(2, RoundingMode.HALF_UP) : BigDecimal.ZERO)
+                .build();
+    }
+
+    private <T> CompletableFuture<T> group(String name, Supplier<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            String outcome = "success";
+            try {
+                return work.get();
+            } catch (RuntimeException e) {
+                outcome = "error";
+                throw e;
+            } finally {
+                Timer.builder("dashboard.query.group")
+                        .description("Duration of a dashboard KPI query group")
+                        .tag("group", name)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }, dashboardQueryExecutor);
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("dashboard.cache.requests")
+                .description("Dashboard summary lookups")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Double tyLeTangTruong(BigDecimal current, BigDecimal previous) {
+        if (previous == null || previous.compareTo(BigDecimal.ZERO) == 0) {
+            return current.compareTo(BigDecimal.ZERO) > 0 ? 100.0 : 0.0;
+        }
+        return current.subtract(previous)
+                .divide(previous, 4, RoundingMode.HALF_UP)
+                .multiply(BigDecimal.valueOf(100))
+                .doubleValue();
+    }
+
+    /**
+     * Revenue rollup buckets are UTC hours, so days start at UTC midnight
+     */
+    private static Instant batDauNgay(LocalDate ngay) {
+        return ngay.atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+}
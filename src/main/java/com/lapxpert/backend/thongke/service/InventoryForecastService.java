@@ -0,0 +1,350 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.common.event.InventoryUpdateEvent;
+import com.lapxpert.backend.hoadon.repository.HoaDonChiTietRepository;
+import com.lapxpert.backend.sanpham.repository.SanPhamChiTietRepository;
+import com.lapxpert.backend.thongke.dto.SanPhamSapHetHangDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sales velocity and stock cover per product variant, kept in memory for the low-stock report.
+ *
+ * Velocity is an exponentially weighted moving average of units sold per day: each completed
+ * order line adds so_luong * exp((ngay_tao - moc) / tau) to its variant's weight and the rate is
+ * weight * exp((moc - now) / tau) / tau, with tau = half-life / ln 2. Weights are relative to a
+ * fixed reference time, so a sale and its take-back are a single addition and reads need no
+ * decay pass. Batches of orders entering or leaving HOAN_THANH come from the
+ * {@link CompletedOrderFeed} and are applied with one query each.
+ *
+ * Available stock follows the inventory events and is refreshed from serial numbers
+ * periodically; velocity is rebuilt from the database nightly, which also moves the reference
+ * time forward. The report reads only this state: days of cover is stock / velocity and the
+ * suggested reorder tops stock up to the larger of the threshold and lead time plus target cover
+ * at the current velocity. State is loaded on startup, or once by the first report when that
+ * failed, and the report is empty when the forecast is disabled.
+ */
+@Service
+@Slf4j
+public class InventoryForecastService implements CompletedOrderFeed.Subscriber {
+
+    private static final String HET_HANG = "HET_HANG";
+    private static final String NGUY_HIEM = "NGUY_HIEM";
+    private static final String THAP = "THAP";
+    private static final String KHONG_CO_DU_LIEU = "Không có dữ liệu";
+
+    private static final class BienThe {
+        private final Long id;
+        private String sku;
+        private String tenSanPham;
+        private String hinhAnh;
+        private String thuongHieu;
+        private BigDecimal giaBan;
+        private long tonKho;
+        private Instant ngayNhapCuoi;
+        private double trongSo;
+
+        private BienThe(Long id) {
+            this.id = id;
+        }
+    }
+
+    private final HoaDonChiTietRepository hoaDonChiTietRepository;
+    private final SanPhamChiTietRepository sanPhamChiTietRepository;
+    private final MeterRegistry meterRegistry;
+    private final Set<Long> bienTheCanTai = new HashSet<>();
+    private final Object khoaTaiLai = new Object();
+
+    private Map<Long, BienThe> bienThes = new HashMap<>();
+    private Instant moc = Instant.now();
+    private volatile boolean daTai;
+
+    @Value("${thong-ke.inventory-forecast.enabled:true}")
+    private boolean enabled;
+
+    @Value("${thong-ke.inventory-forecast.half-life-days:14}")
+    private double chuKyBanRa;
+
+    @Value("${thong-ke.inventory-forecast.lookback-days:120}")
+    private int soNgayLichSu;
+
+    @Value("${thong-ke.inventory-forecast.lead-time-days:7}")
+    private int thoiGianNhapHang;
+
+    @Value("${thong-ke.inventory-forecast.target-cover-days:30}")
+    private int soNgayDuTru;
+
+    public InventoryForecastService(HoaDonChiTietRepository hoaDonChiTietRepository,
+                                    SanPhamChiTietRepository sanPhamChiTietRepository,
+                                    MeterRegistry meterRegistry) {
+        this.hoaDonChiTietRepository = hoaDonChiTietRepository;
+        this.sanPhamChiTietRepository = sanPhamChiTietRepository;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("thong-ke.inventory-forecast.variants", this, service -> service.soBienThe())
+                .description("Product variants tracked by the inventory forecast")
+                .register(meterRegistry);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInventoryChanged(InventoryUpdateEvent event) {
+        if (!enabled || event.getVariantId() == null || event.getSoLuongTonKhoMoi() == null) {
+            return;
+        }
+        synchronized (this) {
+            BienThe bienThe = bienThes.get(event.getVariantId());
+            if (bienThe != null) {
+                bienThe.tonKho = Math.max(event.getSoLuongTonKhoMoi(), 0);
+                if (event.isInventoryIncrease()) {
+                    bienThe.ngayNhapCuoi = event.getTimestamp() != null ? event.getTimestamp() : Instant.now();
+                }
+            } else {
+                // New variant: details are loaded with the next flush
+                bienTheCanTai.add(event.getVariantId());
+            }
+        }
+    }
+
+    /**
+     * Low-stock rows for the given threshold: variants at or below it, and variants whose stock
+     * runs out within the restock lead time at the current velocity. Soonest out of stock first.
+     */
+    public List<SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto> laySanPhamSapHetHang(int nguongTonKho) {
+        if (!enabled) {
+            return List.of();
+        }
+        if (!daTai) {
+            synchronized (khoaTaiLai) {
+                if (!daTai) {
+                    taiLai();
+                }
+            }
+        }
+        Instant now = Instant.now();
+        List<SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto> ketQua = new ArrayList<>();
+        synchronized (this) {
+            double heSo = Math.exp(-giay(moc, now) / tauGiay()) / tauNgay();
+            for (BienThe bienThe : bienThes.values()) {
+                double tocDo = Math.max(bienThe.trongSo * heSo, 0);
+                Integer soNgayConLai = tocDo > 0 ? (int) Math.min(bienThe.tonKho / tocDo, Integer.MAX_VALUE) : null;
+                boolean duoiNguong = bienThe.tonKho <= nguongTonKho;
+                boolean hetTruocKhiNhap = soNgayConLai != null && soNgayConLai < thoiGianNhapHang;
+                if (duoiNguong || hetTruocKhiNhap) {
+                    ketQua.add(toDto(bienThe, tocDo, soNgayConLai, nguongTonKho, hetTruocKhiNhap));
+                }
+            }
+        }
+        ketQua.sort(Comparator
+                .comparing(SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto::getSoNgayConLai,
+                        Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto::getTonKho));
+        return ketQua;
+    }
+
+    /**
+     * Load variants first seen in inventory events
+     */
+    @Scheduled(fixedDelayString = "${thong-ke.inventory-forecast.flush-interval-ms:5000}")
+    public void taiBienTheMoi() {
+        if (!enabled || !daTai) {
+            return;
+        }
+        Set<Long> canTai;
+        synchronized (this) {
+            if (bienTheCanTai.isEmpty()) {
+                return;
+            }
+            canTai = new HashSet<>(bienTheCanTai);
+            bienTheCanTai.clear();
+        }
+        List<SanPhamChiTietRepository.TonKhoBienThe> rows = sanPhamChiTietRepository.findTonKhoBienThe(canTai);
+        synchronized (this) {
+            rows.forEach(row -> capNhatTonKho(bienThes, row));
+        }
+    }
+
+    /**
+     * Refresh available stock of every variant from serial numbers
+     */
+    @Scheduled(fixedDelayString = "${thong-ke.inventory-forecast.stock-refresh-ms:900000}",
+            initialDelayString = "${thong-ke.inventory-forecast.stock-refresh-ms:900000}")
+    public void lamMoiTonKho() {
+        if (!enabled || !daTai) {
+            return;
+        }
+        List<SanPhamChiTietRepository.TonKhoBienThe> rows = sanPhamChiTietRepository.findTonKhoBienThe();
+        Set<Long> conHoatDong = new HashSet<>();
+        synchronized (this) {
+            for (SanPhamChiTietRepository.TonKhoBienThe row : rows) {
+                capNhatTonKho(bienThes, row);
+                conHoatDong.add(row.getSanPhamChiTietId());
+            }
+            bienThes.keySet().retainAll(conHoatDong);
+        }
+        counter("stock-refresh").increment();
+    }
+
+    /**
+     * Rebuild velocity and stock from the database, moving the reference time to now
+     */
+    @Scheduled(cron = "${thong-ke.inventory-forecast.reconcile.cron:0 45 2 * * *}")
+    public void doiSoat() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            synchronized (khoaTaiLai) {
+                taiLai();
+            }
+        } catch (Exception e) {
+            log.error("[INVENTORY FORECAST] Reconcile failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void khoiDong() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            synchronized (khoaTaiLai) {
+                taiLai();
+            }
+        } catch (Exception e) {
+            log.warn("[INVENTORY FORECAST] Initial load failed, retrying on first report: {}", e.getMessage());
+        }
+    }
+
+    private void taiLai() {
+        Instant mocMoi = Instant.now();
+        Map<Long, BienThe> moi = new HashMap<>();
+        for (SanPhamChiTietRepository.TonKhoBienThe row : sanPhamChiTietRepository.findTonKhoBienThe()) {
+            capNhatTonKho(moi, row);
+        }
+        for (HoaDonChiTietRepository.TrongSoBanHang row : hoaDonChiTietRepository.tongHopTrongSoBanHang(
+                mocMoi.minus(Duration.ofDays(soNgayLichSu)), mocMoi.getEpochSecond(), tauGiay())) {
+            BienThe bienThe = moi.get(row.getSanPhamChiTietId());
+            if (bienThe != null && row.getTrongSo() != null) {
+                bienThe.trongSo = row.getTrongSo();
+            }
+        }
+        // Orders completed while the queries ran may be counted twice until the next reconcile
+        synchronized (this) {
+            bienThes = moi;
+            moc = mocMoi;
+            daTai = true;
+        }
+        counter("reconcile").increment();
+        log.info("[INVENTORY FORECAST] Rebuilt velocity and stock for {} variants", moi.size());
+    }
+
+    /**
+     * Apply a batch of completed orders; orders before the first load are part of that load
+     */
+    @Override
+    public void apDungLo(Map<Long, Integer> dauTheoHoaDon) {
+        if (!enabled || !daTai) {
+            return;
+        }
+        List<HoaDonChiTietRepository.BanHangTheoBienThe> rows =
+                hoaDonChiTietRepository.tongHopBanHangTheoBienThe(dauTheoHoaDon.keySet());
+        synchronized (this) {
+            for (HoaDonChiTietRepository.BanHangTheoBienThe row : rows) {
+                BienThe bienThe = bienThes.get(row.getSanPhamChiTietId());
+                if (bienThe == null) {
+                    continue;
+                }
+                int dau = dauTheoHoaDon.get(row.getHoaDonId()) > 0 ? 1 : -1;
+                double trongSo = row.getSoLuong() * Math.exp(giay(moc, row.getNgayTao()) / tauGiay());
+                bienThe.trongSo = Math.max(bienThe.trongSo + dau * trongSo, 0);
+            }
+        }
+        counter("incremental").increment(dauTheoHoaDon.size());
+    }
+
+    private static void capNhatTonKho(Map<Long, BienThe> bienThes, SanPhamChiTietRepository.TonKhoBienThe row) {
+        BienThe bienThe = bienThes.computeIfAbsent(row.getSanPhamChiTietId(), BienThe::new);
+        bienThe.sku = row.getSku();
+        bienThe.tenSanPham = row.getTenSanPham();
+        bienThe.hinhAnh = row.getHinhAnh();
+        bienThe.thuongHieu = row.getThuongHieu();
+        bienThe.giaBan = row.getGiaBan() != null ? row.getGiaBan() : BigDecimal.ZERO;
+        bienThe.tonKho = row.getTonKho() != null ? row.getTonKho() : 0;
+        bienThe.ngayNhapCuoi = row.getNgayNhapCuoi();
+    }
+
+    private SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto toDto(BienThe bienThe, double tocDo, Integer soNgayConLai,
+                                                                  int nguongTonKho, boolean hetTruocKhiNhap) {
+        String mucDoTonKho;
+        if (bienThe.tonKho == 0) {
+            mucDoTonKho = HET_HANG;
+        } else if (bienThe.tonKho <= nguongTonKho / 2 || hetTruocKhiNhap) {
+            mucDoTonKho = NGUY_HIEM;
+        } else {
+            mucDoTonKho = THAP;
+        }
+
+        long mucMucTieu = Math.max((long) Math.ceil(tocDo * (thoiGianNhapHang + soNgayDuTru)), nguongTonKho);
+        long soLuongDeXuat = Math.max(mucMucTieu - bienThe.tonKho, 0);
+
+        return SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto.builder()
+                .sanPhamId(bienThe.id)
+                .tenSanPham(bienThe.sku != null ? bienThe.tenSanPham + " (" + bienThe.sku + ")" : bienThe.tenSanPham)
+                .hinhAnh(bienThe.hinhAnh)
+                .thuongHieu(bienThe.thuongHieu)
+                .tonKho(bienThe.tonKho)
+                .gia(bienThe.giaBan)
+                .giaTriTonKho(bienThe.giaBan.multiply(BigDecimal.valueOf(bienThe.tonKho)))
+                .banTrungBinhNgay(Math.round(tocDo * 100) / 100.0)
+                .soNgayConLai(soNgayConLai)
+                .mucDoTonKho(mucDoTonKho)
+                .soLuongDeXuat(soLuongDeXuat)
+                .ngayNhapCuoi(bienThe.ngayNhapCuoi != null
+                        ? bienThe.ngayNhapCuoi.atOffset(ZoneOffset.UTC).toLocalDate().toString()
+                        : KHONG_CO_DU_LIEU)
+                .build();
+    }
+
+    private synchronized int soBienThe() {
+        return bienThes.size();
+    }
+
+    private double tauNgay() {
+        return chuKyBanRa / Math.log(2);
+    }
+
+    private double tauGiay() {
+        return tauNgay() * 86400;
+    }
+
+    private static double giay(Instant tu, Instant den) {
+        return (den.toEpochMilli() - tu.toEpochMilli()) / 1000.0;
+    }
+
+    private Counter counter(String source) {
+        return Counter.builder("thong-ke.inventory-forecast.updates")
+                .description("Inventory forecast updates")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+}
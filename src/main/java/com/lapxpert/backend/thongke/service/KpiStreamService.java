@@ -0,0 +1,298 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lapxpert.backend.common.event.InventoryUpdateEvent;
+import com.lapxpert.backend.common.event.OrderChangeEvent;
+import com.lapxpert.backend.thongke.dto.KpiSuKienDto;
+import com.lapxpert.backend.thongke.enums.LoaiSuKienKpi;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-Sent Events stream of dashboard KPI deltas.
+ *
+ * Committed OrderChangeEvent and InventoryUpdateEvent are turned into small deltas (new order,
+ * completed revenue, status counts, low stock crossings) and pushed to every subscriber, so a
+ * dashboard loads /dashboard once and keeps its figures current without polling.
+ *
+ * A transaction commits on one node but dashboards may be connected to any node, so deltas are
+ * published to the lapxpert:thong-ke:kpi-stream Redis channel and every node, including the
+ * publishing one, emits what it receives. Without the Redis listener container
+ * (websocket.redis.pubsub.enabled=false), or when publishing fails, a delta only reaches the
+ * dashboards connected to the node that committed it.
+ *
+ * The last events are kept in a bounded replay buffer. Event IDs are "{epoch}-{sequence}", where
+ * the epoch is this node's start time; a client reconnecting with Last-Event-ID receives the
+ * events it missed. Sequences are assigned on receipt, so they are per node; when the events are
+ * no longer buffered, or the ID comes from another node or an earlier run, the stream starts with
+ * DONG_BO_LAI and the client reloads the dashboard instead.
+ */
+@Service
+@Slf4j
+public class KpiStreamService {
+
+    public static final String KPI_CHANNEL = "lapxpert:thong-ke:kpi-stream";
+
+    private final Sinks.Many<KpiSuKienDto> sink;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainer;
+    private final AtomicInteger soNguoiTheoDoi = new AtomicInteger();
+    private final long epoch = System.currentTimeMillis();
+    private final int kichThuocBoDem;
+    private long sequence;
+    private volatile boolean phatTanQuaRedis;
+
+    @Value("${thong-ke.kpi-stream.low-stock-threshold:5}")
+    private int nguongTonKho;
+
+    @Value("${thong-ke.kpi-stream.heartbeat-seconds:20}")
+    private long heartbeatSeconds;
+
+    @Value("${thong-ke.kpi-stream.retry-ms:3000}")
+    private long retryMs;
+
+    public KpiStreamService(MeterRegistry meterRegistry,
+                            ObjectMapper objectMapper,
+                            StringRedisTemplate redisTemplate,
+                            ObjectProvider<RedisMessageListenerContainer> listenerContainer,
+                            @Value("${thong-ke.kpi-stream.buffer-size:1000}") int kichThuocBoDem) {
+        this.meterRegistry = meterRegistry;
+        this.objectMapper = objectMapper;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.kichThuocBoDem = kichThuocBoDem;
+        this.sink = Sinks.many().replay().limit(kichThuocBoDem);
+
+        Gauge.builder("thong-ke.kpi-stream.subscribers", soNguoiTheoDoi, AtomicInteger::get)
+                .description("Dashboards subscribed to the KPI stream")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void dangKyKenhRedis() {
+        RedisMessageListenerContainer container = listenerContainer.getIfAvailable();
+        if (container == null) {
+            log.warn("Redis listener container unavailable - KPI stream only carries deltas committed on this node");
+            return;
+        }
+        container.addMessageListener(this::nhanTuRedis, new ChannelTopic(KPI_CHANNEL));
+        phatTanQuaRedis = true;
+    }
+
+    /**
+     * Stream of KPI deltas after the given Last-Event-ID, or from now when it is null
+     */
+    public Flux<ServerSentEvent<KpiSuKienDto>> theoDoi(String lastEventId) {
+        if (lastEventId != null && lastEventId.isBlank()) {
+            lastEventId = null;
+        }
+        long hienTai;
+        synchronized (this) {
+            hienTai = sequence;
+        }
+        long cuNhatConLuu = Math.max(1, hienTai - kichThuocBoDem + 1);
+
+        Long daNhan = docSequence(lastEventId);
+        boolean dongBoLai = lastEventId != null
+                && (daNhan == null || daNhan > hienTai || daNhan + 1 < cuNhatConLuu);
+        long tu = daNhan != null && !dongBoLai ? daNhan : hienTai;
+
+        // The replay buffer holds events emitted before subscribing; anything not newer than tu was already seen
+        Flux<ServerSentEvent<KpiSuKienDto>> suKien = sink.asFlux()
+                .filter(e -> e.getId() > tu)
+                .map(this::toServerSentEvent);
+        if (dongBoLai) {
+            log.debug("KPI stream cannot replay from {}, asking the client to reload", lastEventId);
+            KpiSuKienDto reset = KpiSuKienDto.builder()
+                    .id(tu)
+                    .loai(LoaiSuKienKpi.DONG_BO_LAI)
+                    .thoiDiem(Instant.now())
+                    .build();
+            suKien = Flux.concat(Flux.just(toServerSentEvent(reset)), suKien);
+        }
+
+        // Comments keep proxies from closing an idle connection; EventSource ignores them
+        Flux<ServerSentEvent<KpiSuKienDto>> heartbeat = Flux.interval(Duration.ofSeconds(heartbeatSeconds))
+                .map(i -> ServerSentEvent.<KpiSuKienDto>builder().comment("heartbeat").build())
+                .takeUntilOther(sink.asFlux().ignoreElements());
+
+        return Flux.merge(suKien, heartbeat)
+                .doOnSubscribe(s -> soNguoiTheoDoi.incrementAndGet())
+                .doFinally(signal -> soNguoiTheoDoi.decrementAndGet());
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onOrderChanged(OrderChangeEvent event) {
+        if (event.isNewOrder()) {
+            phatTan(suKienDonHang(event, LoaiSuKienKpi.DON_HANG_MOI).build());
+        }
+
+        if (event.hasStatusChanged() && event.getTrangThaiMoi() != null) {
+            phatTan(suKienDonHang(event, LoaiSuKienKpi.TRANG_THAI_DON_HANG).build());
+        }
+
+        boolean hoanThanhCu = "HOAN_THANH".equals(event.getTrangThaiCu());
+        boolean hoanThanhMoi = "HOAN_THANH".equals(event.getTrangThaiMoi());
+        BigDecimal tongTienCu = event.getTongTienCu() != null ? event.getTongTienCu() : event.getTongTienMoi();
+        BigDecimal tongTienMoi = event.getTongTienMoi() != null ? event.getTongTienMoi() : event.getTongTienCu();
+
+        if (!hoanThanhCu && hoanThanhMoi && tongTienMoi != null) {
+            phatTan(suKienDoanhThu(event, tongTienMoi, 1));
+        } else if (hoanThanhCu && !hoanThanhMoi && event.getTrangThaiMoi() != null && tongTienCu != null) {
+            phatTan(suKienDoanhThu(event, tongTienCu.negate(), -1));
+        } else if (hoanThanhCu && hoanThanhMoi && event.hasTotalAmountChanged()
+                && tongTienCu != null && tongTienMoi != null) {
+            phatTan(suKienDoanhThu(event, tongTienMoi.subtract(tongTienCu), 0));
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInventoryChanged(InventoryUpdateEvent event) {
+        Integer cu = event.getSoLuongTonKhoCu();
+        Integer moi = event.getSoLuongTonKhoMoi();
+        if (cu == null || moi == null) {
+            return;
+        }
+
+        LoaiSuKienKpi loai;
+        if (cu > nguongTonKho && moi <= nguongTonKho) {
+            loai = LoaiSuKienKpi.SAP_HET_HANG;
+        } else if (cu <= nguongTonKho && moi > nguongTonKho) {
+            loai = LoaiSuKienKpi.CON_HANG;
+        } else {
+            return;
+        }
+
+        phatTan(KpiSuKienDto.builder()
+                .loai(loai)
+                .thoiDiem(thoiDiem(event.getTimestamp()))
+                .sanPhamChiTietId(event.getVariantId())
+                .sku(event.getSku())
+                .tenSanPham(event.getTenSanPham())
+                .soLuongTonKho(moi)
+                .nguongTonKho(nguongTonKho)
+                .build());
+    }
+
+    @PreDestroy
+    public void dong() {
+        // Completing the sink ends open streams, so clients reconnect to another node
+        synchronized (this) {
+            sink.tryEmitComplete();
+        }
+    }
+
+    /**
+     * Sends a committed delta to every node, or emits it here when Redis is not available
+     */
+    private void phatTan(KpiSuKienDto suKien) {
+        if (phatTanQuaRedis) {
+            try {
+                redisTemplate.convertAndSend(KPI_CHANNEL, objectMapper.writeValueAsString(suKien));
+                return;
+            } catch (Exception e) {
+                log.warn("Could not publish KPI delta {} to Redis, emitting locally only: {}",
+                        suKien.getLoai(), e.getMessage());
+            }
+        }
+        phat(suKien);
+    }
+
+    private void nhanTuRedis(Message message, byte[] pattern) {
+        String json = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            phat(objectMapper.readValue(json, KpiSuKienDto.class));
+        } catch (JsonProcessingException e) {
+            log.error("Unreadable KPI delta on {}: {}", KPI_CHANNEL, json, e);
+        }
+    }
+
+    private void phat(KpiSuKienDto suKien) {
+        // The replay sink does not accept concurrent emissions
+        synchronized (this) {
+            suKien.setId(++sequence);
+            Sinks.EmitResult result = sink.tryEmitNext(suKien);
+            if (result.isFailure()) {
+                log.warn("KPI stream event {} dropped: {}", suKien.getLoai(), result);
+                return;
+            }
+        }
+        Counter.builder("thong-ke.kpi-stream.events")
+                .description("KPI deltas published to dashboard subscribers")
+                .tag("type", suKien.getLoai().name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private KpiSuKienDto.KpiSuKienDtoBuilder suKienDonHang(OrderChangeEvent event, LoaiSuKienKpi loai) {
+        return KpiSuKienDto.builder()
+                .loai(loai)
+                .thoiDiem(thoiDiem(event.getTimestamp()))
+                .hoaDonId(event.getHoaDonId())
+                .maHoaDon(event.getMaHoaDon())
+                .trangThaiCu(event.getTrangThaiCu())
+                .trangThaiMoi(event.getTrangThaiMoi());
+    }
+
+    private KpiSuKienDto suKienDoanhThu(OrderChangeEvent event, BigDecimal doanhThu, int soDonHoanThanh) {
+        return suKienDonHang(event, LoaiSuKienKpi.DOANH_THU)
+                .doanhThu(doanhThu)
+                .soDonHoanThanh(soDonHoanThanh)
+                .build();
+    }
+
+    private ServerSentEvent<KpiSuKienDto> toServerSentEvent(KpiSuKienDto suKien) {
+        return ServerSentEvent.builder(suKien)
+                .id(epoch + "-" + suKien.getId())
+                .event(suKien.getLoai().name())
+                .retry(Duration.ofMillis(retryMs))
+                .build();
+    }
+
+    /**
+     * Sequence from a Last-Event-ID of this node and run, null when it belongs elsewhere
+     */
+    private Long docSequence(String lastEventId) {
+        if (lastEventId == null) {
+            return null;
+        }
+        int tach = lastEventId.indexOf('-');
+        if (tach < 0 || !lastEventId.substring(0, tach).equals(Long.toString(epoch))) {
+            return null;
+        }
+        try {
+            return Long.parseLong(lastEventId.substring(tach + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Instant thoiDiem(Instant timestamp) {
+        return timestamp != null ? timestamp : Instant.now();
+    }
+}
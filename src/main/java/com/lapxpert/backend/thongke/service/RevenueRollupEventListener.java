@@ -0,0 +1,155 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.hoadon.entity.HoaDon;
+import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import com.lapxpert.backend.nguoidung.entity.NguoiDung;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Marks revenue rollup buckets and customer metrics when a HoaDon row is written, and reports
+ * orders entering or leaving HOAN_THANH to the {@link CompletedOrderFeed}.
+ *
+ * Hibernate hands the listener both the loaded and the new state of an updated order, so an
+ * order leaving HOAN_THANH marks the bucket it was counted in and an order entering it marks the
+ * bucket it now belongs to; the customers of both states are marked the same way. Updates that
+ * touch neither the status nor the fields a bucket or customer row is built from are ignored.
+ * Bulk JPQL updates bypass this listener and mark their orders through
+ * {@link RevenueRollupService#danhDauChuyenTrangThai}, {@link CustomerMetricsService#danhDauChuyenTrangThai},
+ * and {@link CompletedOrderFeed#ghiNhan}.
+ */
+@Component
+@RequiredArgsConstructor
+public class RevenueRollupEventListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+    private static final String TRANG_THAI = "trangThaiDonHang";
+    private static final String LOAI = "loaiHoaDon";
+    private static final String NGAY_TAO = "ngayTao";
+    private static final String TONG_THANH_TOAN = "tongThanhToan";
+    private static final String KHACH_HANG = "khachHang";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final RevenueRollupService revenueRollupService;
+    private final CompletedOrderFeed completedOrderFeed;
+    private final CustomerMetricsService customerMetricsService;
+
+    @PostConstruct
+    void register() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof HoaDon hoaDon && danhDauNeuHoanThanh(event.getPersister(), event.getState())) {
+            completedOrderFeed.ghiNhan(hoaDon.getId(), 1);
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof HoaDon hoaDon && danhDauNeuHoanThanh(event.getPersister(), event.getDeletedState())) {
+            completedOrderFeed.ghiNhan(hoaDon.getId(), -1);
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (!(event.getEntity() instanceof HoaDon hoaDon)) {
+            return;
+        }
+        EntityPersister persister = event.getPersister();
+        Object[] moi = event.getState();
+        Object[] cu = event.getOldState();
+
+        if (cu == null) {
+            // Updated without a loaded snapshot: only the new state is known
+            if (hoaDon.getTrangThaiDonHang() == TrangThaiDonHang.HOAN_THANH) {
+                revenueRollupService.danhDau(hoaDon.getNgayTao(), hoaDon.getLoaiHoaDon());
+                if (hoaDon.getKhachHang() != null) {
+                    customerMetricsService.danhDau(hoaDon.getKhachHang().getId());
+                }
+            }
+            return;
+        }
+
+        boolean cuHoanThanh = gia(persister, cu, TRANG_THAI) == TrangThaiDonHang.HOAN_THANH;
+        boolean moiHoanThanh = gia(persister, moi, TRANG_THAI) == TrangThaiDonHang.HOAN_THANH;
+        if (!cuHoanThanh && !moiHoanThanh) {
+            return;
+        }
+        if (cuHoanThanh != moiHoanThanh) {
+            completedOrderFeed.ghiNhan(hoaDon.getId(), moiHoanThanh ? 1 : -1);
+        }
+        if (cuHoanThanh && moiHoanThanh && !thayDoiBucket(persister, cu, moi)) {
+            return;
+        }
+        if (cuHoanThanh) {
+            danhDau(persister, cu);
+        }
+        if (moiHoanThanh) {
+            danhDau(persister, moi);
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    private boolean danhDauNeuHoanThanh(EntityPersister persister, Object[] state) {
+        if (state != null && gia(persister, state, TRANG_THAI) == TrangThaiDonHang.HOAN_THANH) {
+            danhDau(persister, state);
+            return true;
+        }
+        return false;
+    }
+
+    private void danhDau(EntityPersister persister, Object[] state) {
+        revenueRollupService.danhDau((Instant) gia(persister, state, NGAY_TAO), (LoaiHoaDon) gia(persister, state, LOAI));
+        if (gia(persister, state, KHACH_HANG) instanceof NguoiDung khachHang) {
+            customerMetricsService.danhDau(khachHang.getId());
+        }
+    }
+
+    private boolean thayDoiBucket(EntityPersister persister, Object[] cu, Object[] moi) {
+        BigDecimal tongCu = (BigDecimal) gia(persister, cu, TONG_THANH_TOAN);
+        BigDecimal tongMoi = (BigDecimal) gia(persister, moi, TONG_THANH_TOAN);
+        boolean doiTong = tongCu == null || tongMoi == null ? tongCu != tongMoi : tongCu.compareTo(tongMoi) != 0;
+        return doiTong
+                || !Objects.equals(gia(persister, cu, NGAY_TAO), gia(persister, moi, NGAY_TAO))
+                || !Objects.equals(gia(persister, cu, LOAI), gia(persister, moi, LOAI))
+                || !Objects.equals(khachHangId(persister, cu), khachHangId(persister, moi));
+    }
+
+    private static Long khachHangId(EntityPersister persister, Object[] state) {
+        return gia(persister, state, KHACH_HANG) instanceof NguoiDung khachHang ? khachHang.getId() : null;
+    }
+
+    private static Object gia(EntityPersister persister, Object[] state, String property) {
+        int index = Arrays.asList(persister.getPropertyNames()).indexOf(property);
+        return index >= 0 ? state[index] : null;
+    }
+}
@@ -0,0 +1,191 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.thongke.config.RevenueRollupBatchConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Starts and reports on revenue rollup rebuilds.
+ *
+ * Rebuilds run on their own thread, so the request that starts one returns at once with the
+ * execution ID to poll. A nightly run rewrites the last few days to repair buckets missed by
+ * the incremental path, e.g. orders changed by hand in the database. Every node schedules it, so
+ * the run is claimed under a transaction-level advisory lock and identified by its date: the
+ * first node starts it and the others find it already there.
+ */
+@Service
+@Slf4j
+public class RevenueRollupRebuildService {
+
+    private static final String PARAM_DOI_SOAT = "doiSoatNgay";
+    private static final String KHOA_DOI_SOAT = "revenue-rollup-reconcile";
+
+    private final Job revenueRollupRebuildJob;
+    private final JobExplorer jobExplorer;
+    private final TaskExecutorJobLauncher jobLauncher;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+
+    @Value("${thong-ke.revenue-rollup.rebuild.max-days:3660}")
+    private long soNgayToiDa;
+
+    @Value("${thong-ke.revenue-rollup.reconcile.enabled:true}")
+    private boolean doiSoatBat;
+
+    @Value("${thong-ke.revenue-rollup.reconcile.days:2}")
+    private int soNgayDoiSoat;
+
+    public RevenueRollupRebuildService(Job revenueRollupRebuildJob,
+                                       JobRepository jobRepository,
+                                       JobExplorer jobExplorer,
+                                       DataSource dataSource,
+                                       PlatformTransactionManager transactionManager) throws Exception {
+        this.revenueRollupRebuildJob = revenueRollupRebuildJob;
+        this.jobExplorer = jobExplorer;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transaction = new TransactionTemplate(transactionManager);
+        // Own launcher so rebuilds never hold the request thread; the auto-configured one is synchronous
+        this.jobLauncher = new TaskExecutorJobLauncher();
+        this.jobLauncher.setJobRepository(jobRepository);
+        this.jobLauncher.setTaskExecutor(new SimpleAsyncTaskExecutor("revenue-rollup-"));
+        this.jobLauncher.afterPropertiesSet();
+    }
+
+    /**
+     * Start a rebuild of the given UTC days, both inclusive
+     * @return status of the new execution
+     */
+    public Map<String, Object> batDauChayLai(LocalDate tuNgay, LocalDate denNgay) {
+        return chay(thamSo(tuNgay, denNgay)
+                // Identifying timestamp: every request is a new job instance
+                .addLong("thoiDiem", System.currentTimeMillis())
+                .toJobParameters());
+    }
+
+    /**
+     * Validated day range parameters of a rebuild
+     */
+    private JobParametersBuilder thamSo(LocalDate tuNgay, LocalDate denNgay) {
+        if (tuNgay == null || denNgay == null) {
+            throw new IllegalArgumentException("Từ ngày và đến ngày không được để trống");
+        }
+        if (tuNgay.isAfter(denNgay)) {
+            throw new IllegalArgumentException("Từ ngày phải trước hoặc bằng đến ngày");
+        }
+        if (ChronoUnit.DAYS.between(tuNgay, denNgay) + 1 > soNgayToiDa) {
+            throw new IllegalArgumentException("Chỉ có thể tính lại tối đa " + soNgayToiDa + " ngày mỗi lần");
+        }
+
+        return new JobParametersBuilder()
+                .addLocalDate(RevenueRollupBatchConfig.PARAM_TU_NGAY, tuNgay)
+                .addLocalDate(RevenueRollupBatchConfig.PARAM_DEN_NGAY, denNgay);
+    }
+
+    /**
+     * Restart a failed or stopped rebuild; it continues from the first day not yet written
+     * @return status of the new execution
+     */
+    public Map<String, Object> tiepTucChayLai(Long executionId) {
+        JobExecution execution = jobExplorer.getJobExecution(executionId);
+        if (execution == null || !RevenueRollupBatchConfig.JOB_NAME.equals(execution.getJobInstance().getJobName())) {
+            throw new IllegalArgumentException("Không tìm thấy lần tính lại doanh thu với ID: " + executionId);
+        }
+        if (execution.getStatus() != BatchStatus.FAILED && execution.getStatus() != BatchStatus.STOPPED) {
+            throw new IllegalArgumentException("Chỉ có thể tiếp tục lần tính lại đã thất bại hoặc đã dừng");
+        }
+        return chay(execution.getJobParameters());
+    }
+
+    /**
+     * Status of a rebuild execution, or null when the ID is not a rebuild
+     */
+    public Map<String, Object> layTrangThai(Long executionId) {
+        JobExecution execution = jobExplorer.getJobExecution(executionId);
+        if (execution == null || !RevenueRollupBatchConfig.JOB_NAME.equals(execution.getJobInstance().getJobName())) {
+            return null;
+        }
+        return trangThai(execution);
+    }
+
+    @Scheduled(cron = "${thong-ke.revenue-rollup.reconcile.cron:0 15 2 * * *}")
+    public void doiSoatHangDem() {
+        if (!doiSoatBat) {
+            return;
+        }
+        LocalDate homNay = LocalDate.now(ZoneOffset.UTC);
+        try {
+            // One instance per night: a node that claims the run after another started it skips it,
+            // and two launches racing past the check collide on the job instance key
+            JobParameters parameters = thamSo(homNay.minusDays(soNgayDoiSoat), homNay)
+                    .addLocalDate(PARAM_DOI_SOAT, homNay)
+                    .toJobParameters();
+            Boolean daNhan = transaction.execute(status -> Boolean.TRUE.equals(
+                    jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext(?))", Boolean.class, KHOA_DOI_SOAT))
+                    && jobExplorer.getJobInstance(RevenueRollupBatchConfig.JOB_NAME, parameters) == null);
+            if (!Boolean.TRUE.equals(daNhan)) {
+                log.info("[REVENUE ROLLUP] Nightly reconcile of {} already started by another node", homNay);
+                return;
+            }
+            chay(parameters);
+        } catch (Exception e) {
+            log.error("[REVENUE ROLLUP] Nightly reconcile could not start: {}", e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Object> chay(JobParameters parameters) {
+        try {
+            JobExecution execution = jobLauncher.run(revenueRollupRebuildJob, parameters);
+            log.info("[REVENUE ROLLUP] Rebuild {} started for {} to {}", execution.getId(),
+                    parameters.getLocalDate(RevenueRollupBatchConfig.PARAM_TU_NGAY),
+                    parameters.getLocalDate(RevenueRollupBatchConfig.PARAM_DEN_NGAY));
+            return trangThai(execution);
+        } catch (Exception e) {
+            throw new IllegalStateException("Không thể bắt đầu tính lại doanh thu: " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Object> trangThai(JobExecution execution) {
+        long soNgayDaXuLy = execution.getStepExecutions().stream().mapToLong(StepExecution::getWriteCount).sum();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", execution.getId());
+        result.put("trangThai", execution.getStatus().name());
+        result.put("maKetThuc", execution.getExitStatus().getExitCode());
+        result.put("tuNgay", execution.getJobParameters().getLocalDate(RevenueRollupBatchConfig.PARAM_TU_NGAY));
+        result.put("denNgay", execution.getJobParameters().getLocalDate(RevenueRollupBatchConfig.PARAM_DEN_NGAY));
+        result.put("soNgayDaXuLy", soNgayDaXuLy);
+        result.put("batDau", toInstant(execution.getStartTime()));
+        result.put("ketThuc", toInstant(execution.getEndTime()));
+        return result;
+    }
+
+    private static Instant toInstant(LocalDateTime thoiGian) {
+        // Spring Batch records execution times in the server's zone
+        return thoiGian != null ? thoiGian.atZone(ZoneId.systemDefault()).toInstant() : null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.hoadon.entity.HoaDon;
+import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
+import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
+import com.lapxpert.backend.thongke.repository.DoanhThuTheoGioRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the hourly revenue rollup (thong_ke_doanh_thu_gio) in step with completed orders.
+ *
+ * A bucket is one hour of order creation time and one order type. When an order enters or leaves
+ * HOAN_THANH, or a completed order changes its total, the buckets it was and is in are marked.
+ * Marked buckets are collected per transaction and rewritten from hoa_don just before commit,
+ * after the pending order changes are flushed, so a rolled back change never touches the rollup
+ * and each bucket is recomputed once however many of its orders changed. Buckets are locked in
+ * a fixed order with transaction-scoped advisory locks, which serializes concurrent recomputes of
+ * the same hour without blocking readers.
+ *
+ * Days are bucketed in UTC like the rest of the revenue statistics.
+ */
+@Service
+@Slf4j
+public class RevenueRollupService {
+
+    /**
+     * One rollup row: start of the hour and LoaiHoaDon
+     */
+    public record Bucket(Instant gio, LoaiHoaDon loaiHoaDon) {
+    }
+
+    private static final Comparator<Bucket> THU_TU_KHOA =
+            Comparator.comparing(Bucket::gio).thenComparing(Bucket::loaiHoaDon);
+
+    // First key of the advisory lock pair, so rollup locks cannot clash with other advisory locks
+    private static final int NHOM_KHOA = "thong_ke_doanh_thu_gio".hashCode();
+
+    private final DoanhThuTheoGioRepository doanhThuTheoGioRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public RevenueRollupService(DoanhThuTheoGioRepository doanhThuTheoGioRepository,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry) {
+        this.doanhThuTheoGioRepository = doanhThuTheoGioRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Mark the bucket an order falls into; a no-op for orders without creation time or type
+     */
+    public void danhDau(Instant ngayTao, LoaiHoaDon loaiHoaDon) {
+        if (ngayTao == null || loaiHoaDon == null) {
+            return;
+        }
+        Bucket bucket = new Bucket(ngayTao.truncatedTo(ChronoUnit.HOURS), loaiHoaDon);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            bucketsOfCurrentTransaction().add(bucket);
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> tinhLai(List.of(bucket)));
+    }
+
+    /**
+     * Mark the bucket of an order whose status moves from trangThaiCu to trangThaiMoi outside the
+     * entity lifecycle, e.g. a bulk JPQL update. Only moves into or out of HOAN_THANH matter.
+     */
+    public void danhDauChuyenTrangThai(HoaDon hoaDon, TrangThaiDonHang trangThaiCu, TrangThaiDonHang trangThaiMoi) {
+        if (trangThaiCu == trangThaiMoi) {
+            return;
+        }
+        if (trangThaiCu == TrangThaiDonHang.HOAN_THANH || trangThaiMoi == TrangThaiDonHang.HOAN_THANH) {
+            danhDau(hoaDon.getNgayTao(), hoaDon.getLoaiHoaDon());
+        }
+    }
+
+    /**
+     * Rewrite every bucket of the given UTC days from hoa_don, used by the rebuild job.
+     * Runs in the caller's transaction.
+     * @return number of buckets written
+     */
+    public int tinhLaiNgay(List<LocalDate> ngays) {
+        int soBucket = 0;
+        for (LocalDate ngay : new TreeSet<>(ngays)) {
+            Instant tu = ngay.atStartOfDay().toInstant(ZoneOffset.UTC);
+            Instant den = ngay.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+
+            // Same lock order as incremental recomputes: by hour, then by order type
+            for (Instant gio = tu; gio.isBefore(den); gio = gio.plus(1, ChronoUnit.HOURS)) {
+                for (LoaiHoaDon loai : LoaiHoaDon.values()) {
+                    khoa(new Bucket(gio, loai));
+                }
+            }
+            doanhThuTheoGioRepository.xoaKhoang(tu, den);
+            soBucket += doanhThuTheoGioRepository.tinhLaiKhoang(tu, den);
+        }
+        counter("rebuild").increment(soBucket);
+        return soBucket;
+    }
+
+    private Set<Bucket> bucketsOfCurrentTransaction() {
+        @SuppressWarnings("unchecked")
+        Set<Bucket> pending = (Set<Bucket>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<Bucket> buckets = new TreeSet<>(THU_TU_KHOA);
+            TransactionSynchronizationManager.bindResource(this, buckets);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    ghiTruocCommit(buckets);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RevenueRollupService.this);
+                }
+            });
+            pending = buckets;
+        }
+        return pending;
+    }
+
+    private void ghiTruocCommit(Set<Bucket> buckets) {
+        // Flushing runs the order listeners, which may mark more buckets, so repeat until none are left
+        while (true) {
+            entityManager.flush();
+            if (buckets.isEmpty()) {
+                return;
+            }
+            List<Bucket> batch = new ArrayList<>(buckets);
+            buckets.clear();
+            tinhLai(batch);
+        }
+    }
+
+    private void tinhLai(List<Bucket> buckets) {
+        List<Bucket> sorted = new ArrayList<>(buckets);
+        sorted.sort(THU_TU_KHOA);
+        for (Bucket bucket : sorted) {
+            khoa(bucket);
+            String loai = bucket.loaiHoaDon().name();
+            doanhThuTheoGioRepository.xoaBucket(bucket.gio(), loai);
+            doanhThuTheoGioRepository.tinhLaiBucket(bucket.gio(), bucket.gio().plus(1, ChronoUnit.HOURS), loai);
+        }
+        counter("incremental").increment(sorted.size());
+        log.debug("[REVENUE ROLLUP] Recomputed {} hourly buckets", sorted.size());
+    }
+
+    private void khoa(Bucket bucket) {
+        int gioTuEpoch = (int) (bucket.gio().getEpochSecond() / 3600);
+        int khoa = gioTuEpoch * LoaiHoaDon.values().length + bucket.loaiHoaDon().ordinal();
+        doanhThuTheoGioRepository.khoaBucket(NHOM_KHOA, khoa);
+    }
+
+    private Counter counter(String source) {
+        return Counter.builder("revenue.rollup.buckets")
+                .description("Hourly revenue buckets recomputed")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+}
@@ -2,6 +2,7 @@ package com.lapxpert.backend.thongke.service;
 
 import com.lapxpert.backend.hoadon.dto.HoaDonDto;
 import com.lapxpert.backend.thongke.dto.*;
+import com.lapxpert.backend.thongke.enums.KhungThoiGianBanChay;
 
 import java.time.LocalDate;
 import java.util.Map;
@@ -72,6 +73,14 @@ public interface ThongKeService {
      */
     SanPhamBanChayDto laySanPhamBanChayNhat(Integer soLuong, LocalDate tuNgay, LocalDate denNgay);
 
+    /**
+     * Get best sellers of the current day, week or month from the shared ranking
+     * @param khung Time window
+     * @param soLuong Number of top products to return
+     * @return Best sellers of the window, kept incrementally and replaced with exact counts nightly
+     */
+    SanPhamBanChayDto laySanPhamPhoBien(KhungThoiGianBanChay khung, Integer soLuong);
+
     /**
      * Get low stock products
      * @param nguongTonKho Stock threshold
@@ -107,6 +116,15 @@ public interface ThongKeService {
      */
     Map<String, Object> layGiaTriKhachHangTrungBinh();
 
+    /**
+     * Get the customer cohort matrix
+     * @param tuThang First cohort month (any day of the month)
+     * @param denThang Last cohort month (any day of the month)
+     * @param soThang Number of months to follow each cohort
+     * @return Cohort sizes and monthly retention
+     */
+    CohortKhachHangDto layCohortKhachHang(LocalDate tuThang, LocalDate denThang, Integer soThang);
+
     // ==================== DASHBOARD SUMMARY ====================
 
     /**
@@ -0,0 +1,193 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lapxpert.backend.common.service.MinioService;
+import com.lapxpert.backend.thongke.config.XuatDuLieuBatchConfig;
+import com.lapxpert.backend.thongke.enums.DinhDangXuat;
+import com.lapxpert.backend.thongke.enums.LoaiXuatDuLieu;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Second step of the statistics export: converts the staged rows to CSV or Excel, uploads the
+ * file to MinIO and records the object name and row count in the job execution context.
+ *
+ * Excel output is written with a streaming workbook that keeps only a window of rows in memory,
+ * and rolls over to a new sheet when a sheet is full. CSV output starts with a UTF-8 BOM so
+ * Excel shows Vietnamese text correctly. The staging file is kept until the upload succeeds,
+ * so a failed upload can be retried by restarting the export.
+ */
+@Component
+@Slf4j
+public class XuatDuLieuFileTasklet implements Tasklet {
+
+    // One row of each sheet is the header
+    private static final int SO_DONG_TOI_DA_MOI_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+    private static final int SO_DONG_TRONG_BO_NHO = 200;
+
+    private final MinioService minioService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${thong-ke.export.bucket:exports}")
+    private String bucket;
+
+    @Value("${thong-ke.export.staging-dir:${java.io.tmpdir}/lapxpert-exports}")
+    private String thuMucTam;
+
+    public XuatDuLieuFileTasklet(MinioService minioService, ObjectMapper objectMapper) {
+        this.minioService = minioService;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        JobParameters parameters = contribution.getStepExecution().getJobParameters();
+        String maXuat = parameters.getString(XuatDuLieuBatchConfig.PARAM_MA_XUAT);
+        LoaiXuatDuLieu loai = LoaiXuatDuLieu.valueOf(parameters.getString(XuatDuLieuBatchConfig.PARAM_LOAI));
+        DinhDangXuat dinhDang = DinhDangXuat.valueOf(parameters.getString(XuatDuLieuBatchConfig.PARAM_DINH_DANG));
+
+        Path fileTam = XuatDuLieuBatchConfig.duongDanTam(thuMucTam, maXuat);
+        Path fileXuat = fileTam.resolveSibling(maXuat + "." + dinhDang.getDuoiFile());
+        if (!Files.exists(fileTam)) {
+            // An export with no rows never opens its staging writer
+            Files.createDirectories(fileTam.getParent());
+            Files.createFile(fileTam);
+        }
+
+        try {
+            long soDong = dinhDang == DinhDangXuat.XLSX
+                    ? ghiExcel(fileTam, fileXuat, loai.getTieuDe())
+                    : ghiCsv(fileTam, fileXuat, loai.getTieuDe());
+
+            String objectName = loai.getTenFile() + "/" + maXuat + "." + dinhDang.getDuoiFile();
+            minioService.uploadFile(bucket, objectName, fileXuat, dinhDang.getContentType());
+
+            ExecutionContext jobContext = contribution.getStepExecution().getJobExecution().getExecutionContext();
+            jobContext.putString(XuatDuLieuBatchConfig.KEY_OBJECT_NAME, objectName);
+            jobContext.putLong(XuatDuLieuBatchConfig.KEY_SO_DONG, soDong);
+            contribution.incrementWriteCount(soDong);
+
+            Files.deleteIfExists(fileTam);
+            log.info("[EXPORT] Export {} of {} finished with {} rows as {}", maXuat, loai, soDong, objectName);
+        } finally {
+            Files.deleteIfExists(fileXuat);
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    private long ghiExcel(Path fileTam, Path fileXuat, List<String> tieuDe) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(SO_DONG_TRONG_BO_NHO);
+        // Temp files of the streaming workbook are compressed, exports are mostly repeated text
+        workbook.setCompressTempFiles(true);
+        try (BufferedReader reader = Files.newBufferedReader(fileTam, StandardCharsets.UTF_8);
+             OutputStream out = Files.newOutputStream(fileXuat)) {
+            CellStyle kieuTieuDe = workbook.createCellStyle();
+            Font font = workbook.createFont();
+            font.setBold(true);
+            kieuTieuDe.setFont(font);
+
+            SXSSFSheet sheet = null;
+            int dongTrongSheet = 0;
+            long soDong = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (sheet == null || dongTrongSheet == SO_DONG_TOI_DA_MOI_SHEET) {
+                    sheet = taoSheet(workbook, tieuDe, kieuTieuDe);
+                    dongTrongSheet = 0;
+                }
+                Row row = sheet.createRow(++dongTrongSheet);
+                JsonNode values = objectMapper.readTree(line);
+                for (int i = 0; i < values.size(); i++) {
+                    JsonNode value = values.get(i);
+                    if (value.isNull()) {
+                        continue;
+                    }
+                    if (value.isNumber()) {
+                        row.createCell(i).setCellValue(value.doubleValue());
+                    } else {
+                        row.createCell(i).setCellValue(value.asText());
+                    }
+                }
+                soDong++;
+            }
+            if (sheet == null) {
+                taoSheet(workbook, tieuDe, kieuTieuDe);
+            }
+            workbook.write(out);
+            return soDong;
+        } finally {
+            workbook.close();
+        }
+    }
+
+    private SXSSFSheet taoSheet(SXSSFWorkbook workbook, List<String> tieuDe, CellStyle kieuTieuDe) {
+        SXSSFSheet sheet = workbook.createSheet("Dữ liệu " + (workbook.getNumberOfSheets() + 1));
+        Row header = sheet.createRow(0);
+        for (int i = 0; i < tieuDe.size(); i++) {
+            header.createCell(i).setCellValue(tieuDe.get(i));
+            header.getCell(i).setCellStyle(kieuTieuDe);
+        }
+        sheet.createFreezePane(0, 1);
+        return sheet;
+    }
+
+    private long ghiCsv(Path fileTam, Path fileXuat, List<String> tieuDe) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(fileTam, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(fileXuat, StandardCharsets.UTF_8)) {
+            writer.write('\uFEFF');
+            writer.write(String.join(",", tieuDe.stream().map(XuatDuLieuFileTasklet::csv).toList()));
+            writer.newLine();
+
+            long soDong = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonNode values = objectMapper.readTree(line);
+                StringBuilder dong = new StringBuilder();
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        dong.append(',');
+                    }
+                    JsonNode value = values.get(i);
+                    if (!value.isNull()) {
+                        String text = value.isNumber() ? value.decimalValue().toPlainString() : csv(value.asText());
+                        dong.append(text);
+                    }
+                }
+                writer.write(dong.toString());
+                writer.newLine();
+                soDong++;
+            }
+            return soDong;
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,221 @@
+package com.lapxpert.backend.thongke.service;
+
+import com.lapxpert.backend.common.service.MinioService;
+import com.lapxpert.backend.thongke.config.XuatDuLieuBatchConfig;
+import com.lapxpert.backend.thongke.enums.DinhDangXuat;
+import com.lapxpert.backend.thongke.enums.LoaiXuatDuLieu;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Starts and reports on statistics exports.
+ *
+ * Exports run on their own thread, so the request that starts one returns at once with the
+ * execution ID to poll. Once an export has completed its status carries a pre-signed download
+ * link to the file in MinIO. When every export thread is busy and the wait queue is full, a new
+ * export is rejected with TaskRejectedException instead of blocking the request.
+ */
+@Service
+@Slf4j
+public class XuatDuLieuService {
+
+    private final Job statisticsExportJob;
+    private final JobExplorer jobExplorer;
+    private final MinioService minioService;
+    private final TaskExecutorJobLauncher jobLauncher;
+    private final ThreadPoolTaskExecutor exportExecutor;
+
+    @Value("${thong-ke.export.bucket:exports}")
+    private String bucket;
+
+    @Value("${thong-ke.export.max-days:3660}")
+    private long soNgayToiDa;
+
+    public XuatDuLieuService(Job statisticsExportJob,
+                             JobRepository jobRepository,
+                             JobExplorer jobExplorer,
+                             MinioService minioService,
+                             @Value("${thong-ke.export.max-concurrency:2}") int soLuongChayDongThoi,
+                             @Value("${thong-ke.export.queue-capacity:4}") int soLuongChoToiDa) throws Exception {
+        this.statisticsExportJob = statisticsExportJob;
+        this.jobExplorer = jobExplorer;
+        this.minioService = minioService;
+        // Own launcher so exports never hold the request thread; concurrent exports are capped
+        // because each one keeps a database cursor open for its whole first step. Past the
+        // bounded queue a launch is rejected rather than blocking the caller.
+        this.exportExecutor = new ThreadPoolTaskExecutor();
+        this.exportExecutor.setCorePoolSize(soLuongChayDongThoi);
+        this.exportExecutor.setMaxPoolSize(soLuongChayDongThoi);
+        this.exportExecutor.setQueueCapacity(soLuongChoToiDa);
+        this.exportExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        this.exportExecutor.setThreadNamePrefix("statistics-export-");
+        this.exportExecutor.initialize();
+        this.jobLauncher = new TaskExecutorJobLauncher();
+        this.jobLauncher.setJobRepository(jobRepository);
+        this.jobLauncher.setTaskExecutor(exportExecutor);
+        this.jobLauncher.afterPropertiesSet();
+    }
+
+    /**
+     * Start an export; the date range is required except for inventory valuation
+     * @param tuNgay first UTC day, inclusive
+     * @param denNgay last UTC day, inclusive
+     * @return status of the new execution
+     */
+    public Map<String, Object> batDauXuat(LoaiXuatDuLieu loai, DinhDangXuat dinhDang,
+                                          LocalDate tuNgay, LocalDate denNgay, String nguoiYeuCau) {
+        if (loai == null) {
+            throw new IllegalArgumentException("Loại dữ liệu xuất không được để trống");
+        }
+        DinhDangXuat dinhDangXuat = dinhDang != null ? dinhDang : DinhDangXuat.XLSX;
+
+        JobParametersBuilder builder = new JobParametersBuilder()
+                // Identifying export ID: every request is a new job instance and names its files
+                .addString(XuatDuLieuBatchConfig.PARAM_MA_XUAT, UUID.randomUUID().toString())
+                .addString(XuatDuLieuBatchConfig.PARAM_LOAI, loai.name())
+                .addString(XuatDuLieuBatchConfig.PARAM_DINH_DANG, dinhDangXuat.name())
+                .addString(XuatDuLieuBatchConfig.PARAM_NGUOI_YEU_CAU, nguoiYeuCau != null ? nguoiYeuCau : "", false);
+
+        if (loai.isTheoKhoangThoiGian()) {
+            if (tuNgay == null || denNgay == null) {
+                throw new IllegalArgumentException("Từ ngày và đến ngày không được để trống");
+            }
+            if (tuNgay.isAfter(denNgay)) {
+                throw new IllegalArgumentException("Từ ngày phải trước hoặc bằng đến ngày");
+            }
+            if (ChronoUnit.DAYS.between(tuNgay, denNgay) + 1 > soNgayToiDa) {
+                throw new IllegalArgumentException("Chỉ có thể xuất tối đa " + soNgayToiDa + " ngày mỗi lần");
+            }
+            builder.addLocalDate(XuatDuLieuBatchConfig.PARAM_TU_NGAY, tuNgay)
+                    .addLocalDate(XuatDuLieuBatchConfig.PARAM_DEN_NGAY, denNgay);
+        }
+        return chay(builder.toJobParameters());
+    }
+
+    /**
+     * Restart a failed or stopped export; it continues from the last committed chunk
+     * @return status of the new execution
+     */
+    public Map<String, Object> tiepTucXuat(Long executionId) {
+        JobExecution execution = timLanXuat(executionId);
+        if (execution == null) {
+            throw new IllegalArgumentException("Không tìm thấy lần xuất dữ liệu với ID: " + executionId);
+        }
+        if (execution.getStatus() != BatchStatus.FAILED && execution.getStatus() != BatchStatus.STOPPED) {
+            throw new IllegalArgumentException("Chỉ có thể tiếp tục lần xuất dữ liệu đã thất bại hoặc đã dừng");
+        }
+        return chay(execution.getJobParameters());
+    }
+
+    /**
+     * Status of an export execution, or null when the ID is not an export
+     */
+    public Map<String, Object> layTrangThai(Long executionId) {
+        JobExecution execution = timLanXuat(executionId);
+        return execution != null ? trangThai(execution) : null;
+    }
+
+    private JobExecution timLanXuat(Long executionId) {
+        JobExecution execution = jobExplorer.getJobExecution(executionId);
+        if (execution == null || !XuatDuLieuBatchConfig.JOB_NAME.equals(execution.getJobInstance().getJobName())) {
+            return null;
+        }
+        return execution;
+    }
+
+    @PreDestroy
+    public void dong() {
+        exportExecutor.shutdown();
+    }
+
+    private Map<String, Object> chay(JobParameters parameters) {
+        // Checked first so a full pool does not leave a failed execution behind
+        if (exportExecutor.getActiveCount() + exportExecutor.getQueueSize()
+                >= exportExecutor.getMaxPoolSize() + exportExecutor.getQueueCapacity()) {
+            throw quaTai();
+        }
+        try {
+            JobExecution execution = jobLauncher.run(statisticsExportJob, parameters);
+            // The launcher records a rejection as a failed execution instead of throwing
+            if (execution.getStatus() == BatchStatus.FAILED
+                    && execution.getExitStatus().getExitDescription().contains(TaskRejectedException.class.getName())) {
+                throw quaTai();
+            }
+            log.info("[EXPORT] Export {} of {} started by {}", execution.getId(),
+                    parameters.getString(XuatDuLieuBatchConfig.PARAM_LOAI),
+                    parameters.getString(XuatDuLieuBatchConfig.PARAM_NGUOI_YEU_CAU));
+            return trangThai(execution);
+        } catch (TaskRejectedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Không thể bắt đầu xuất dữ liệu: " + e.getMessage(), e);
+        }
+    }
+
+    private TaskRejectedException quaTai() {
+        return new TaskRejectedException("Đang có quá nhiều lần xuất dữ liệu, vui lòng thử lại sau");
+    }
+
+    private Map<String, Object> trangThai(JobExecution execution) {
+        JobParameters parameters = execution.getJobParameters();
+        long soDongDaDoc = execution.getStepExecutions().stream()
+                .filter(step -> "statisticsExportQueryStep".equals(step.getStepName()))
+                .mapToLong(StepExecution::getWriteCount)
+                .sum();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", execution.getId());
+        result.put("trangThai", execution.getStatus().name());
+        result.put("maKetThuc", execution.getExitStatus().getExitCode());
+        result.put("loai", parameters.getString(XuatDuLieuBatchConfig.PARAM_LOAI));
+        result.put("dinhDang", parameters.getString(XuatDuLieuBatchConfig.PARAM_DINH_DANG));
+        result.put("tuNgay", parameters.getLocalDate(XuatDuLieuBatchConfig.PARAM_TU_NGAY));
+        result.put("denNgay", parameters.getLocalDate(XuatDuLieuBatchConfig.PARAM_DEN_NGAY));
+        result.put("nguoiYeuCau", parameters.getString(XuatDuLieuBatchConfig.PARAM_NGUOI_YEU_CAU));
+        result.put("soDongDaDoc", soDongDaDoc);
+        result.put("batDau", toInstant(execution.getStartTime()));
+        result.put("ketThuc", toInstant(execution.getEndTime()));
+
+        ExecutionContext context = execution.getExecutionContext();
+        if (execution.getStatus() == BatchStatus.COMPLETED && context.containsKey(XuatDuLieuBatchConfig.KEY_OBJECT_NAME)) {
+            String objectName = context.getString(XuatDuLieuBatchConfig.KEY_OBJECT_NAME);
+            result.put("soDong", context.getLong(XuatDuLieuBatchConfig.KEY_SO_DONG));
+            result.put("tenFile", objectName.substring(objectName.lastIndexOf('/') + 1));
+            try {
+                result.put("duongDanTaiXuong", minioService.getPresignedObjectUrl(bucket, objectName));
+            } catch (Exception e) {
+                log.warn("[EXPORT] Could not sign download link for export {}: {}", execution.getId(), e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static Instant toInstant(LocalDateTime thoiGian) {
+        // Spring Batch records execution times in the server's zone
+        return thoiGian != null ? thoiGian.atZone(ZoneId.systemDefault()).toInstant() : null;
+    }
+}
@@ -2,23 +2,23 @@ package com.lapxpert.backend.thongke.service.impl;
 
 import com.lapxpert.backend.hoadon.dto.HoaDonDto;
 import com.lapxpert.backend.hoadon.mapper.HoaDonMapper;
-import com.lapxpert.backend.nguoidung.entity.NguoiDung;
 import com.lapxpert.backend.thongke.dto.*;
+import com.lapxpert.backend.thongke.enums.KhungThoiGianBanChay;
+import com.lapxpert.backend.thongke.repository.DoanhThuTheoGioRepository;
+import com.lapxpert.backend.thongke.repository.ThongKeKhachHangRepository;
+import com.lapxpert.backend.thongke.service.BestSellerTracker;
+import com.lapxpert.backend.thongke.service.DashboardAggregator;
+import com.lapxpert.backend.thongke.service.InventoryForecastService;
 import com.lapxpert.backend.thongke.service.ThongKeService;
-import com.lapxpert.backend.hoadon.entity.HoaDon;
 import com.lapxpert.backend.hoadon.enums.TrangThaiDonHang;
 import com.lapxpert.backend.hoadon.enums.LoaiHoaDon;
 import com.lapxpert.backend.hoadon.repository.HoaDonRepository;
 import com.lapxpert.backend.hoadon.repository.HoaDonChiTietRepository;
 import com.lapxpert.backend.sanpham.repository.SanPhamRepository;
 
-import com.lapxpert.backend.sanpham.enums.TrangThaiSerialNumber;
-import com.lapxpert.backend.sanpham.repository.SerialNumberRepository;
 import com.lapxpert.backend.nguoidung.repository.NguoiDungRepository;
 import com.lapxpert.backend.nguoidung.entity.VaiTro;
-import com.lapxpert.backend.nguoidung.entity.TrangThaiNguoiDung;
 import com.lapxpert.backend.common.service.WebSocketIntegrationService;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -29,7 +29,6 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Instant;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -49,9 +48,13 @@ public class ThongKeServiceImpl implements ThongKeService {
     private final HoaDonRepository hoaDonRepository;
     private final HoaDonChiTietRepository hoaDonChiTietRepository;
     private final SanPhamRepository sanPhamRepository;
-    private final SerialNumberRepository serialNumberRepository;
     private final NguoiDungRepository nguoiDungRepository;
     private final WebSocketIntegrationService webSocketIntegrationService;
+    private final DoanhThuTheoGioRepository doanhThuTheoGioRepository;
+    private final DashboardAggregator dashboardAggregator;
+    private final ThongKeKhachHangRepository thongKeKhachHangRepository;
+    private final BestSellerTracker bestSellerTracker;
+    private final InventoryForecastService inventoryForecastService;
 
     // ==================== DOANH THU (REVENUE) STATISTICS ====================
 
@@ -67,18 +70,12 @@ public class ThongKeServiceImpl implements ThongKeService {
             tuNgay = denNgay.minusDays(30);
         }
         
-        // Get completed orders in the date range
-        List<HoaDon> orders = hoaDonRepository.findByNgayTaoBetweenAndTrangThaiDonHang(
-            tuNgay.atStartOfDay().toInstant(java.time.ZoneOffset.UTC),
-            denNgay.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC),
-            TrangThaiDonHang.HOAN_THANH
-        );
-        
-        // Group by date and calculate daily revenue
-        Map<LocalDate, BigDecimal> dailyRevenue = orders.stream()
-            .collect(Collectors.groupingBy(
-                order -> order.getNgayTao().atZone(java.time.ZoneOffset.UTC).toLocalDate(),
-                Collectors.reducing(BigDecimal.ZERO, HoaDon::getTongThanhToan, BigDecimal::add)
+        // Daily revenue summed from the hourly rollup
+        Map<LocalDate, BigDecimal> dailyRevenue = doanhThuTheoGioRepository
+            .tongHopTheoNgay(batDauNgay(tuNgay), batDauNgay(denNgay.plusDays(1))).stream()
+            .collect(Collectors.toMap(
+                DoanhThuTheoGioRepository.DoanhThuTheoNgay::getNgay,
+                DoanhThuTheoGioRepository.DoanhThuTheoNgay::getDoanhThu
             ));
         
         // Generate labels and data for all days in range
@@ -123,15 +120,7 @@ public class ThongKeServiceImpl implements ThongKeService {
         LocalDate previousPeriodStart = tuNgay.minusDays(ChronoUnit.DAYS.between(tuNgay, denNgay) + 1);
         LocalDate previousPeriodEnd = tuNgay.minusDays(1);
         
-        List<HoaDon> previousOrders = hoaDonRepository.findByNgayTaoBetweenAndTrangThaiDonHang(
-            previousPeriodStart.atStartOfDay().toInstant(java.time.ZoneOffset.UTC),
-            previousPeriodEnd.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC),
-            TrangThaiDonHang.HOAN_THANH
-        );
-        
-        BigDecimal previousRevenue = previousOrders.stream()
-            .map(HoaDon::getTongThanhToan)
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal previousRevenue = calculateRevenueForPeriod(previousPeriodStart, previousPeriodEnd);
         
         Double tyLeTangTruong = calculateGrowthPercentage(tongDoanhThu, previousRevenue);
         
@@ -169,22 +158,8 @@ public class ThongKeServiceImpl implements ThongKeService {
             nam = LocalDate.now().getYear();
         }
         
-        // Get completed orders for the year
-        LocalDate startOfYear = LocalDate.of(nam, 1, 1);
-        LocalDate endOfYear = LocalDate.of(nam, 12, 31);
-        
-        List<HoaDon> orders = hoaDonRepository.findByNgayTaoBetweenAndTrangThaiDonHang(
-            startOfYear.atStartOfDay().toInstant(java.time.ZoneOffset.UTC),
-            endOfYear.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC),
-            TrangThaiDonHang.HOAN_THANH
-        );
-        
-        // Group by month and calculate monthly revenue
-        Map<Integer, BigDecimal> monthlyRevenue = orders.stream()
-            .collect(Collectors.groupingBy(
-                order -> order.getNgayTao().atZone(java.time.ZoneOffset.UTC).toLocalDate().getMonthValue(),
-                Collectors.reducing(BigDecimal.ZERO, HoaDon::getTongThanhToan, BigDecimal::add)
-            ));
+        // Monthly revenue summed from the hourly rollup
+        Map<Integer, BigDecimal> monthlyRevenue = layDoanhThuTheoThangCuaNam(nam);
         
         // Generate labels and data for all months
         List<String> labels = Arrays.asList(
@@ -219,14 +194,9 @@ public class ThongKeServiceImpl implements ThongKeService {
         }
         
         // Calculate year-over-year growth
-        List<HoaDon> previousYearOrders = hoaDonRepository.findByNgayTaoBetweenAndTrangThaiDonHang(
-            LocalDate.of(nam - 1, 1, 1).atStartOfDay().toInstant(java.time.ZoneOffset.UTC),
-            LocalDate.of(nam - 1, 12, 31).atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC),
-            TrangThaiDonHang.HOAN_THANH
-        );
-        
-        BigDecimal doanhThuNamTruoc = previousYearOrders.stream()
-            .map(HoaDon::getTongThanhToan)
+        Map<Integer, BigDecimal> previousYearMonthlyRevenue = layDoanhThuTheoThangCuaNam(nam - 1);
+
+        BigDecimal doanhThuNamTruoc = previousYearMonthlyRevenue.values().stream()
             .reduce(BigDecimal.ZERO, BigDecimal::add);
         
         Double tyLeTangTruongNam = calculateGrowthPercentage(tongDoanhThuNam, doanhThuNamTruoc);
@@ -234,13 +204,6 @@ public class ThongKeServiceImpl implements ThongKeService {
         // Generate quarter breakdown with growth calculation
         List<DoanhThuTheoThangDto.QuarterRevenueDto> doanhThuTheoQuy = new ArrayList<>();
 
-        // Calculate previous year quarterly revenue for growth comparison
-        Map<Integer, BigDecimal> previousYearMonthlyRevenue = previousYearOrders.stream()
-            .collect(Collectors.groupingBy(
-                order -> order.getNgayTao().atZone(java.time.ZoneOffset.UTC).toLocalDate().getMonthValue(),
-                Collectors.reducing(BigDecimal.ZERO, HoaDon::getTongThanhToan, BigDecimal::add)
-            ));
-
         for (int quarter = 1; quarter <= 4; quarter++) {
             int startMonth = (quarter - 1) * 3;
 
@@ -330,20 +293,42 @@ public class ThongKeServiceImpl implements ThongKeService {
             doanhThuThangNay.divide(BigDecimal.valueOf(daysInMonth), 2, RoundingMode.HALF_UP) : BigDecimal.ZERO;
         
         // Find best revenue day this month
-        // TODO: Implement finding best day and amount
         LocalDate ngayDoanhThuTotNhat = today;
         BigDecimal doanhThuTotNhat = doanhThuHomNay;
+        for (DoanhThuTheoGioRepository.DoanhThuTheoNgay ngay : doanhThuTheoGioRepository
+                .tongHopTheoNgay(batDauNgay(startOfMonth), batDauNgay(today.plusDays(1)))) {
+            if (ngay.getDoanhThu().compareTo(doanhThuTotNhat) > 0) {
+                doanhThuTotNhat = ngay.getDoanhThu();
+                ngayDoanhThuTotNhat = ngay.getNgay();
+            }
+        }
         
-        // Calculate revenue breakdown by order type and payment method
-        // TODO: Implement these calculations based on actual data
+        // Calculate revenue breakdown by order type for this month
+        Map<String, BigDecimal> doanhThuThangTheoLoai = doanhThuTheoGioRepository
+            .tongHopTheoLoai(batDauNgay(startOfMonth), batDauNgay(today.plusDays(1))).stream()
+            .collect(Collectors.toMap(
+                DoanhThuTheoGioRepository.DoanhThuTheoLoai::getLoaiHoaDon,
+                DoanhThuTheoGioRepository.DoanhThuTheoLoai::getDoanhThu
+            ));
+        BigDecimal doanhThuTaiQuay = doanhThuThangTheoLoai.getOrDefault(LoaiHoaDon.TAI_QUAY.name(), BigDecimal.ZERO);
+        BigDecimal doanhThuOnline = doanhThuThangTheoLoai.getOrDefault(LoaiHoaDon.ONLINE.name(), BigDecimal.ZERO);
+        BigDecimal doanhThuTheoLoaiTong = doanhThuTaiQuay.add(doanhThuOnline);
+        Double tyLeTaiQuay = doanhThuTheoLoaiTong.signum() > 0 ?
+            (doanhThuTaiQuay.doubleValue() / doanhThuTheoLoaiTong.doubleValue()) * 100 : 0.0;
+        Double tyLeOnline = doanhThuTheoLoaiTong.signum() > 0 ?
+            (doanhThuOnline.doubleValue() / doanhThuTheoLoaiTong.doubleValue()) * 100 : 0.0;
+
         DoanhThuTongQuanDto.DoanhThuTheoLoaiDto doanhThuTheoLoai = 
             DoanhThuTongQuanDto.DoanhThuTheoLoaiDto.builder()
-                .taiQuay(BigDecimal.ZERO)
-                .online(BigDecimal.ZERO)
-                .tyLeTaiQuay(0.0)
-                .tyLeOnline(0.0)
+                .taiQuay(doanhThuTaiQuay)
+                .online(doanhThuOnline)
+                .tyLeTaiQuay(tyLeTaiQuay)
+                .tyLeOnline(tyLeOnline)
                 .build();
         
+        // Calculate revenue breakdown by payment method
+        // TODO: Implement these calculations based on actual data
+        
         DoanhThuTongQuanDto.DoanhThuTheoThanhToanDto doanhThuTheoThanhToan =
             DoanhThuTongQuanDto.DoanhThuTheoThanhToanDto.builder()
                 .tienMat(doanhThuThangNay.multiply(BigDecimal.valueOf(0.6))) // Estimate 60% cash
@@ -386,15 +371,28 @@ public class ThongKeServiceImpl implements ThongKeService {
     // ==================== HELPER METHODS ====================
 
     private BigDecimal calculateRevenueForPeriod(LocalDate startDate, LocalDate endDate) {
-        List<HoaDon> orders = hoaDonRepository.findByNgayTaoBetweenAndTrangThaiDonHang(
-            startDate.atStartOfDay().toInstant(java.time.ZoneOffset.UTC),
-            endDate.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC),
-            TrangThaiDonHang.HOAN_THANH
-        );
-        
-        return orders.stream()
-            .map(HoaDon::getTongThanhToan)
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return doanhThuTheoGioRepository
+            .tongHop(batDauNgay(startDate), batDauNgay(endDate.plusDays(1)))
+            .getDoanhThu();
+    }
+
+    /**
+     * Revenue per month (1-12) of a year; months without completed orders are absent
+     */
+    private Map<Integer, BigDecimal> layDoanhThuTheoThangCuaNam(int nam) {
+        return doanhThuTheoGioRepository
+            .tongHopTheoThang(batDauNgay(LocalDate.of(nam, 1, 1)), batDauNgay(LocalDate.of(nam + 1, 1, 1))).stream()
+            .collect(Collectors.toMap(
+                DoanhThuTheoGioRepository.DoanhThuTheoThang::getThang,
+                DoanhThuTheoGioRepository.DoanhThuTheoThang::getDoanhThu
+            ));
+    }
+
+    /**
+     * Revenue rollup buckets are UTC hours, so days start at UTC midnight
+     */
+    private static Instant batDauNgay(LocalDate ngay) {
+        return ngay.atStartOfDay().toInstant(java.time.ZoneOffset.UTC);
     }
 
     private Double calculateGrowthPercentage(BigDecimal current, BigDecimal previous) {
@@ -441,18 +439,14 @@ public class ThongKeServiceImpl implements ThongKeService {
         Long donHangTraHang = hoaDonRepository.countByTrangThaiDonHang(TrangThaiDonHang.DA_TRA_HANG);
 
         // Calculate average order value
-        List<HoaDon> completedOrders = hoaDonRepository.findByTrangThaiDonHang(TrangThaiDonHang.HOAN_THANH);
-        BigDecimal giaTriDonHangTrungBinh = completedOrders.isEmpty() ? BigDecimal.ZERO :
-            completedOrders.stream()
-                .map(HoaDon::getTongThanhToan)
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-                .divide(BigDecimal.valueOf(completedOrders.size()), 2, RoundingMode.HALF_UP);
+        DoanhThuTheoGioRepository.TongHopDoanhThu tongHopHoanThanh = doanhThuTheoGioRepository.tongHopToanBo();
+        BigDecimal giaTriDonHangTrungBinh = tongHopHoanThanh.getSoDon() == 0 ? BigDecimal.ZERO :
+            tongHopHoanThanh.getDoanhThu()
+                .divide(BigDecimal.valueOf(tongHopHoanThanh.getSoDon()), 2, RoundingMode.HALF_UP);
 
         // Find highest order value
-        BigDecimal giaTriDonHangCaoNhat = completedOrders.stream()
-            .map(HoaDon::getTongThanhToan)
-            .max(BigDecimal::compareTo)
-            .orElse(BigDecimal.ZERO);
+        BigDecimal giaTriDonHangCaoNhat = tongHopHoanThanh.getGiaTriLonNhat() != null ?
+            tongHopHoanThanh.getGiaTriLonNhat() : BigDecimal.ZERO;
 
         // Calculate rates
         Double tyLeHoanThanh = tongSoDonHang > 0 ?
@@ -597,9 +591,10 @@ public class ThongKeServiceImpl implements ThongKeService {
     public Map<String, Object> layGiaTriDonHangTrungBinh() {
         log.debug("Getting average order value statistics");
 
-        List<HoaDon> completedOrders = hoaDonRepository.findByTrangThaiDonHang(TrangThaiDonHang.HOAN_THANH);
+        DoanhThuTheoGioRepository.TongHopDoanhThu tongHop = doanhThuTheoGioRepository.tongHopToanBo();
+        long tongSoDonHang = tongHop.getSoDon();
 
-        if (completedOrders.isEmpty()) {
+        if (tongSoDonHang == 0) {
             return Map.of(
                 "giaTriTrungBinh", BigDecimal.ZERO,
                 "tongSoDonHang", 0L,
@@ -608,26 +603,17 @@ public class ThongKeServiceImpl implements ThongKeService {
             );
         }
 
-        BigDecimal tongGiaTri = completedOrders.stream()
-            .map(HoaDon::getTongThanhToan)
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal tongGiaTri = tongHop.getDoanhThu();
 
         BigDecimal giaTriTrungBinh = tongGiaTri.divide(
-            BigDecimal.valueOf(completedOrders.size()), 2, RoundingMode.HALF_UP);
-
-        BigDecimal giaTriCaoNhat = completedOrders.stream()
-            .map(HoaDon::getTongThanhToan)
-            .max(BigDecimal::compareTo)
-            .orElse(BigDecimal.ZERO);
+            BigDecimal.valueOf(tongSoDonHang), 2, RoundingMode.HALF_UP);
 
-        BigDecimal giaTriThapNhat = completedOrders.stream()
-            .map(HoaDon::getTongThanhToan)
-            .min(BigDecimal::compareTo)
-            .orElse(BigDecimal.ZERO);
+        BigDecimal giaTriCaoNhat = tongHop.getGiaTriLonNhat();
+        BigDecimal giaTriThapNhat = tongHop.getGiaTriNhoNhat();
 
         return Map.of(
             "giaTriTrungBinh", giaTriTrungBinh,
-            "tongSoDonHang", (long) completedOrders.size(),
+            "tongSoDonHang", tongSoDonHang,
             "giaTriCaoNhat", giaTriCaoNhat,
             "giaTriThapNhat", giaTriThapNhat,
             "tongGiaTri", tongGiaTri
@@ -717,6 +703,38 @@ public class ThongKeServiceImpl implements ThongKeService {
             danhSachSanPham.add(item);
         }
 
+        SanPhamBanChayDto sanPhamBanChay = tongHopSanPhamBanChay(danhSachSanPham, soLuong, tuNgay, denNgay);
+
+        // Send WebSocket notification for statistics update
+        try {
+            webSocketIntegrationService.sendStatisticsUpdate(sanPhamBanChay);
+            log.debug("Sent top selling products statistics WebSocket notification");
+        } catch (Exception e) {
+            log.error("Failed to send top selling products statistics WebSocket notification: {}", e.getMessage(), e);
+        }
+
+        return sanPhamBanChay;
+    }
+
+    @Override
+    public SanPhamBanChayDto laySanPhamPhoBien(KhungThoiGianBanChay khung, Integer soLuong) {
+        if (khung == null) {
+            khung = KhungThoiGianBanChay.NGAY;
+        }
+        if (soLuong == null || soLuong <= 0) {
+            soLuong = 10;
+        }
+        log.debug("Getting top {} popular products for {}", soLuong, khung);
+
+        return tongHopSanPhamBanChay(bestSellerTracker.layTop(khung, soLuong), soLuong,
+            bestSellerTracker.layNgayBatDau(khung), LocalDate.now(java.time.ZoneOffset.UTC));
+    }
+
+    /**
+     * Totals and sales shares of a ranked product list
+     */
+    private SanPhamBanChayDto tongHopSanPhamBanChay(List<SanPhamBanChayDto.SanPhamBanChayChiTietDto> danhSachSanPham,
+                                                    Integer soLuong, LocalDate tuNgay, LocalDate denNgay) {
         // Calculate totals
         BigDecimal tongDoanhThu = danhSachSanPham.stream()
             .map(SanPhamBanChayDto.SanPhamBanChayChiTietDto::getDoanhThu)
@@ -737,7 +755,7 @@ public class ThongKeServiceImpl implements ThongKeService {
             }
         }
 
-        SanPhamBanChayDto sanPhamBanChay = SanPhamBanChayDto.builder()
+        return SanPhamBanChayDto.builder()
             .tuNgay(tuNgay)
             .denNgay(denNgay)
             .soLuong(soLuong)
@@ -745,16 +763,6 @@ public class ThongKeServiceImpl implements ThongKeService {
             .tongDoanhThu(tongDoanhThu)
             .tongSoLuongBan(tongSoLuongBan)
             .build();
-
-        // Send WebSocket notification for statistics update
-        try {
-            webSocketIntegrationService.sendStatisticsUpdate(sanPhamBanChay);
-            log.debug("Sent top selling products statistics WebSocket notification");
-        } catch (Exception e) {
-            log.error("Failed to send top selling products statistics WebSocket notification: {}", e.getMessage(), e);
-        }
-
-        return sanPhamBanChay;
     }
 
     @Override
@@ -764,64 +772,18 @@ public class ThongKeServiceImpl implements ThongKeService {
         // Set default threshold if not provided
         final int threshold = (nguongTonKho == null || nguongTonKho < 0) ? 10 : nguongTonKho;
 
-        // Get low stock products using SerialNumber counts
-        List<Object[]> lowStockData = serialNumberRepository.getInventoryStatsByVariant();
-
-        List<SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto> danhSachSanPham = new ArrayList<>();
-
-        for (Object[] row : lowStockData) {
-            Long sanPhamChiTietId = (Long) row[0];
-            String trangThaiStr = (String) row[1];
-            Long count = ((Number) row[2]).longValue();
-
-            // Only include AVAILABLE stock and filter by threshold
-            if ("AVAILABLE".equals(trangThaiStr) && count <= threshold) {
-                // Get product details - simplified for now
-                String tenSanPham = "Sản phẩm " + sanPhamChiTietId;
-                String hinhAnh = "";
-                String thuongHieu = "Không có";
-                BigDecimal giaBan = BigDecimal.valueOf(1000000); // Default price
-
-                // Calculate stock value
-                BigDecimal giaTriTonKho = giaBan.multiply(BigDecimal.valueOf(count));
-
-                // Determine stock status
-                String mucDoTonKho;
-                if (count == 0) {
-                    mucDoTonKho = "HET_HANG";
-                } else if (count <= threshold / 2) {
-                    mucDoTonKho = "NGUY_HIEM";
-                } else {
-                    mucDoTonKho = "THAP";
-                }
-
-                SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto item = SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto.builder()
-                    .sanPhamId(sanPhamChiTietId)
-                    .tenSanPham(tenSanPham)
-                    .hinhAnh(hinhAnh)
-                    .thuongHieu(thuongHieu)
-                    .tonKho(count)
-                    .gia(giaBan)
-                    .giaTriTonKho(giaTriTonKho)
-                    .banTrungBinhNgay(0.0) // TODO: Calculate average sales
-                    .soNgayConLai(0) // TODO: Calculate days remaining
-                    .mucDoTonKho(mucDoTonKho)
-                    .soLuongDeXuat((long) threshold * 2) // Suggest double threshold
-                    .ngayNhapCuoi("Không có dữ liệu")
-                    .build();
-
-                danhSachSanPham.add(item);
-            }
-        }
+        // Stock, sales velocity and days of cover come from the in-memory forecast
+        List<SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto> danhSachSanPham =
+            inventoryForecastService.laySanPhamSapHetHang(threshold);
 
         // Calculate summary statistics
         Long tongSoSanPham = (long) danhSachSanPham.size();
         Long sanPhamHetHang = danhSachSanPham.stream()
-            .mapToLong(item -> item.getTonKho() == 0 ? 1 : 0)
-            .sum();
+            .filter(item -> "HET_HANG".equals(item.getMucDoTonKho()))
+            .count();
         Long sanPhamTonKhoNguyHiem = danhSachSanPham.stream()
-            .mapToLong(item -> item.getTonKho() > 0 && item.getTonKho() <= threshold / 2 ? 1 : 0)
-            .sum();
+            .filter(item -> "NGUY_HIEM".equals(item.getMucDoTonKho()))
+            .count();
 
         BigDecimal tongGiaTriTonKho = danhSachSanPham.stream()
             .map(SanPhamSapHetHangDto.SanPhamSapHetHangChiTietDto::getGiaTriTonKho)
@@ -999,13 +961,10 @@ public class ThongKeServiceImpl implements ThongKeService {
         Double tyLeTangTruong = calculateGrowthPercentage(
             BigDecimal.valueOf(tongKhachHangMoi), BigDecimal.valueOf(khachHangMoiKyTruoc));
 
-        // Get first-time vs returning customers
-        List<NguoiDung> firstTimeCustomers =
-            nguoiDungRepository.findFirstTimeCustomers(VaiTro.CUSTOMER, tuNgayInstant, denNgayInstant);
-        List<NguoiDung> returningCustomers =
-            nguoiDungRepository.findReturningCustomers(VaiTro.CUSTOMER, tuNgayInstant, denNgayInstant);
-
-        Long khachHangQuayLai = (long) returningCustomers.size();
+        // First-time vs returning buyers from the customer metrics
+        Instant ketThucKy = batDauNgay(denNgay.plusDays(1));
+        long khachHangMuaLanDau = thongKeKhachHangRepository.demKhachHangMoi(tuNgayInstant, ketThucKy);
+        Long khachHangQuayLai = thongKeKhachHangRepository.demKhachHangQuayLaiTrongKhoang(tuNgayInstant, ketThucKy);
 
         // Calculate retention rate
         Double tyLeGiuChan = tongKhachHangMoi > 0 ?
@@ -1021,12 +980,13 @@ public class ThongKeServiceImpl implements ThongKeService {
         Double tyLeTaiQuay = tongKhachHangMoi > 0 ?
             (khachHangTaiQuay.doubleValue() / tongKhachHangMoi.doubleValue()) * 100 : 0.0;
 
-        // Calculate average first order value (simplified)
+        // Average value of the first completed order of customers who bought for the first time
         BigDecimal giaTriDonHangDauTrungBinh = BigDecimal.ZERO;
-        if (!firstTimeCustomers.isEmpty()) {
-            // This would require more complex query to get actual first order values
-            // For now, using a placeholder calculation
-            giaTriDonHangDauTrungBinh = new BigDecimal("500000"); // 500k VND average
+        if (khachHangMuaLanDau > 0) {
+            BigDecimal trungBinh = thongKeKhachHangRepository.giaTriDonDauTrungBinh(tuNgayInstant, ketThucKy);
+            if (trungBinh != null) {
+                giaTriDonHangDauTrungBinh = trungBinh.setScale(2, RoundingMode.HALF_UP);
+            }
         }
 
         return KhachHangMoiDto.builder()
@@ -1062,26 +1022,23 @@ public class ThongKeServiceImpl implements ThongKeService {
         LocalDate denNgay = LocalDate.now();
         LocalDate tuNgay = denNgay.minusMonths(3);
         Instant tuNgayInstant = tuNgay.atStartOfDay().toInstant(java.time.ZoneOffset.UTC);
-        Instant denNgayInstant = denNgay.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC);
+        Instant ketThucKy = batDauNgay(denNgay.plusDays(1));
 
-        // Get total active customers (customers who made orders)
-        Long tongKhachHang = hoaDonRepository.countActiveCustomers(
-            tuNgayInstant, denNgayInstant, TrangThaiDonHang.HOAN_THANH);
+        // Customers with a completed order in the period
+        Long tongKhachHang = thongKeKhachHangRepository.demKhachHangHoatDong(tuNgayInstant);
 
-        // Get repeat customers (customers who made more than one order)
-        Long khachHangQuayLai = hoaDonRepository.countRepeatCustomers(
-            tuNgayInstant, denNgayInstant, TrangThaiDonHang.HOAN_THANH);
+        // Customers who had ordered before the period and ordered again within it
+        Long khachHangQuayLai = thongKeKhachHangRepository.demKhachHangQuayLai(tuNgayInstant);
 
-        // Get new customers in this period
-        Long khachHangMoi = nguoiDungRepository.countNewCustomersBetween(
-            VaiTro.CUSTOMER, tuNgayInstant, denNgayInstant);
+        // Customers whose first completed order is in the period
+        Long khachHangMoi = thongKeKhachHangRepository.demKhachHangMoi(tuNgayInstant, ketThucKy);
 
-        // Calculate existing customers
-        Long khachHangCu = tongKhachHang - khachHangMoi;
+        // Customers who had ordered before the period
+        Long khachHangCu = thongKeKhachHangRepository.demKhachHangTruoc(tuNgayInstant);
 
-        // Calculate retention rate
-        Double tyLeGiuChan = tongKhachHang > 0 ?
-            (khachHangQuayLai.doubleValue() / tongKhachHang.doubleValue()) * 100 : 0.0;
+        // Calculate retention rate: share of earlier customers who came back
+        Double tyLeGiuChan = khachHangCu > 0 ?
+            (khachHangQuayLai.doubleValue() / khachHangCu.doubleValue()) * 100 : 0.0;
 
         return Map.of(
             "tyLeGiuChan", tyLeGiuChan,
@@ -1097,10 +1054,10 @@ public class ThongKeServiceImpl implements ThongKeService {
         log.debug("Getting average customer value");
 
         try {
-            // Get customer value statistics from completed orders
-            Object[] customerStats = hoaDonRepository.getCustomerValueStatistics(TrangThaiDonHang.HOAN_THANH);
+            // Lifetime value per customer from the customer metrics
+            ThongKeKhachHangRepository.TongHopGiaTri tongHop = thongKeKhachHangRepository.tongHopGiaTri();
 
-            if (customerStats == null || customerStats.length == 0 || customerStats[0] == null) {
+            if (tongHop == null || tongHop.getSoKhachHang() == null || tongHop.getSoKhachHang() == 0) {
                 log.debug("No customer value statistics found, returning zero values");
                 return Map.of(
                     "giaTriTrungBinh", BigDecimal.ZERO,
@@ -1111,39 +1068,12 @@ public class ThongKeServiceImpl implements ThongKeService {
                 );
             }
 
-            log.debug("Customer stats array length: {}, first element: {}", customerStats.length, customerStats[0]);
-
-            // Extract statistics from query result with safe casting
-            // [customer_count, total_value, avg_value, max_value, min_value]
-            Long tongKhachHang = 0L;
-            BigDecimal tongGiaTri = BigDecimal.ZERO;
-            BigDecimal giaTriTrungBinh = BigDecimal.ZERO;
-            BigDecimal giaTriCaoNhat = BigDecimal.ZERO;
-            BigDecimal giaTriThapNhat = BigDecimal.ZERO;
-
-            // Safe extraction with type checking
-            if (customerStats[0] instanceof Number) {
-                tongKhachHang = ((Number) customerStats[0]).longValue();
-            }
-            if (customerStats.length > 1 && customerStats[1] instanceof BigDecimal) {
-                tongGiaTri = (BigDecimal) customerStats[1];
-            }
-            if (customerStats.length > 2 && customerStats[2] instanceof BigDecimal) {
-                giaTriTrungBinh = (BigDecimal) customerStats[2];
-            }
-            if (customerStats.length > 3 && customerStats[3] instanceof BigDecimal) {
-                giaTriCaoNhat = (BigDecimal) customerStats[3];
-            }
-            if (customerStats.length > 4 && customerStats[4] instanceof BigDecimal) {
-                giaTriThapNhat = (BigDecimal) customerStats[4];
-            }
-
             return Map.of(
-                "giaTriTrungBinh", giaTriTrungBinh,
-                "giaTriCaoNhat", giaTriCaoNhat,
-                "giaTriThapNhat", giaTriThapNhat,
-                "tongKhachHang", tongKhachHang,
-                "tongGiaTri", tongGiaTri
+                "giaTriTrungBinh", tongHop.getGiaTriTrungBinh().setScale(2, RoundingMode.HALF_UP),
+                "giaTriCaoNhat", tongHop.getGiaTriCaoNhat(),
+                "giaTriThapNhat", tongHop.getGiaTriThapNhat(),
+                "tongKhachHang", tongHop.getSoKhachHang(),
+                "tongGiaTri", tongHop.getTongGiaTri()
             );
 
         } catch (Exception e) {
@@ -1159,189 +1089,65 @@ public class ThongKeServiceImpl implements ThongKeService {
         }
     }
 
-    // ==================== DASHBOARD SUMMARY ====================
-
     @Override
-    public DashboardSummaryDto layDashboardSummary() {
-        log.debug("Getting dashboard summary");
-
-        LocalDateTime now = LocalDateTime.now();
-
-        // Get revenue summary
-        DoanhThuTongQuanDto doanhThuTongQuan = layDoanhThuTongQuan();
-        DashboardSummaryDto.DoanhThuSummary doanhThuSummary = DashboardSummaryDto.DoanhThuSummary.builder()
-            .homNay(doanhThuTongQuan.getDoanhThuHomNay())
-            .tuanNay(doanhThuTongQuan.getDoanhThuTuanNay())
-            .thangNay(doanhThuTongQuan.getDoanhThuThangNay())
-            .namNay(doanhThuTongQuan.getDoanhThuNamNay())
-            .tangTruongNgay(doanhThuTongQuan.getTyLeTangTruongNgay())
-            .tangTruongTuan(doanhThuTongQuan.getTyLeTangTruongTuan())
-            .tangTruongThang(doanhThuTongQuan.getTyLeTangTruongThang())
-            .tangTruongNam(doanhThuTongQuan.getTyLeTangTruongNam())
-            .build();
-
-        // Get order summary
-        DonHangTongQuanDto donHangTongQuan = layDonHangTongQuan();
-        DashboardSummaryDto.DonHangSummary donHangSummary = DashboardSummaryDto.DonHangSummary.builder()
-            .tongSo(donHangTongQuan.getTongSoDonHang())
-            .choXacNhan(donHangTongQuan.getDonHangChoXacNhan())
-            .dangXuLy(donHangTongQuan.getDonHangDangXuLy())
-            .hoanThanh(donHangTongQuan.getDonHangHoanThanh())
-            .daHuy(donHangTongQuan.getDonHangDaHuy())
-            .tyLeHoanThanh(donHangTongQuan.getTyLeHoanThanh())
-            .giaTriTrungBinh(donHangTongQuan.getGiaTriDonHangTrungBinh())
-            .build();
-
-        // Get product summary
-        DashboardSummaryDto.SanPhamSummary sanPhamSummary = laySanPhamSummary();
-
-        // Get customer summary using real data
-        DashboardSummaryDto.KhachHangSummary khachHangSummary = layKhachHangSummary();
-
-        // Get notification summary (placeholder)
-        DashboardSummaryDto.ThongBaoSummary thongBaoSummary = DashboardSummaryDto.ThongBaoSummary.builder()
-            .donHangMoi(donHangTongQuan.getDonHangChoXacNhan())
-            .sanPhamSapHetHang(0L)
-            .khachHangMoi(0L)
-            .danhGiaMoi(0L)
-            .tongThongBao(donHangTongQuan.getDonHangChoXacNhan())
-            .build();
-
-        DashboardSummaryDto dashboardSummary = DashboardSummaryDto.builder()
-            .capNhatLanCuoi(now)
-            .doanhThu(doanhThuSummary)
-            .donHang(donHangSummary)
-            .sanPham(sanPhamSummary)
-            .khachHang(khachHangSummary)
-            .thongBao(thongBaoSummary)
-            .build();
-
-        // Send WebSocket notification for dashboard refresh
-        try {
-            webSocketIntegrationService.sendDashboardRefresh(dashboardSummary);
-            log.debug("Sent dashboard refresh WebSocket notification");
-        } catch (Exception e) {
-            log.error("Failed to send dashboard refresh WebSocket notification: {}", e.getMessage(), e);
+    public CohortKhachHangDto layCohortKhachHang(LocalDate tuThang, LocalDate denThang, Integer soThang) {
+        // Set defaults: the last 12 cohorts followed for 12 months
+        LocalDate thangHienTai = LocalDate.now(java.time.ZoneOffset.UTC).withDayOfMonth(1);
+        denThang = denThang != null ? denThang.withDayOfMonth(1) : thangHienTai;
+        tuThang = tuThang != null ? tuThang.withDayOfMonth(1) : denThang.minusMonths(11);
+        if (soThang == null || soThang <= 0) {
+            soThang = 12;
+        }
+        log.debug("Getting customer cohorts from {} to {} over {} months", tuThang, denThang, soThang);
+
+        Map<LocalDate, CohortKhachHangDto.CohortChiTietDto> theoCohort = new LinkedHashMap<>();
+        for (LocalDate thang = tuThang; !thang.isAfter(denThang); thang = thang.plusMonths(1)) {
+            theoCohort.put(thang, CohortKhachHangDto.CohortChiTietDto.builder()
+                .thangNhom(thang)
+                .soKhachHang(0L)
+                .khachHangHoatDong(new ArrayList<>(Collections.nCopies(soThang + 1, 0L)))
+                .tyLeGiuChan(new ArrayList<>(Collections.nCopies(soThang + 1, 0.0)))
+                .doanhThu(new ArrayList<>(Collections.nCopies(soThang + 1, BigDecimal.ZERO)))
+                .build());
         }
 
-        return dashboardSummary;
-    }
-
-    /**
-     * Get product summary for dashboard using real data from database
-     */
-    private DashboardSummaryDto.SanPhamSummary laySanPhamSummary() {
-        log.debug("Getting product summary for dashboard");
-
-        // Get total product count
-        // Get total active product count for dashboard
-        Long tongSoSanPham = sanPhamRepository.countByTrangThai(true);
-
-        // Get products with low stock using SerialNumber status
-        // Count serial numbers that are reserved or sold (approximation for low stock)
-        // Calculate low stock based on the new definition: total available serial numbers < 5
-        Long sapHetHang = serialNumberRepository.countProductsWithLowAvailableStock(5);
-
-        // Get out of stock products (sold serial numbers)
-        Long hetHang = serialNumberRepository.countByTrangThai(TrangThaiSerialNumber.SOLD);
+        for (ThongKeKhachHangRepository.KhachHangTheoCohort row : thongKeKhachHangRepository.maTranCohort(tuThang, denThang)) {
+            CohortKhachHangDto.CohortChiTietDto cohort = theoCohort.get(row.getThangNhom());
+            int thangThu = (int) ChronoUnit.MONTHS.between(row.getThangNhom(), row.getThang());
+            if (cohort == null || thangThu < 0 || thangThu > soThang) {
+                continue;
+            }
+            cohort.getKhachHangHoatDong().set(thangThu, row.getSoKhachHang());
+            cohort.getDoanhThu().set(thangThu, row.getGiaTri());
+            if (thangThu == 0) {
+                cohort.setSoKhachHang(row.getSoKhachHang());
+            }
+        }
 
-        // Get top selling products from last 30 days using real data
-        LocalDate tuNgay = LocalDate.now().minusDays(30);
-        LocalDate denNgay = LocalDate.now();
-        Instant tuNgayInstant = tuNgay.atStartOfDay().toInstant(java.time.ZoneOffset.UTC);
-        Instant denNgayInstant = denNgay.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC);
+        for (CohortKhachHangDto.CohortChiTietDto cohort : theoCohort.values()) {
+            if (cohort.getSoKhachHang() > 0) {
+                for (int i = 0; i <= soThang; i++) {
+                    cohort.getTyLeGiuChan().set(i,
+                        cohort.getKhachHangHoatDong().get(i) * 100.0 / cohort.getSoKhachHang());
+                }
+            }
+        }
 
-        Pageable topProductsPageable = PageRequest.of(0, 5); // Top 5 products
-        List<Object[]> topSellingData = hoaDonChiTietRepository.findTopSellingProducts(
-            tuNgayInstant, denNgayInstant, topProductsPageable);
-
-        List<DashboardSummaryDto.SanPhamBanChayChiTietDto> banChayNhat = topSellingData.stream()
-            .map(data -> {
-                Long sanPhamId = ((Number) data[0]).longValue();
-                String tenSanPham = (String) data[1];
-                String hinhAnh = (String) data[2];
-                String thuongHieu = (String) data[3]; // This is mo_ta_thuong_hieu from database
-                Long soLuongBan = ((Number) data[4]).longValue();
-                BigDecimal doanhThu = (BigDecimal) data[5];
-
-                return DashboardSummaryDto.SanPhamBanChayChiTietDto.builder()
-                    .id(sanPhamId)
-                    .tenSanPham(tenSanPham)
-                    .hinhAnh(hinhAnh != null && !hinhAnh.isEmpty() ? hinhAnh : "/images/default-product.jpg")
-                    .thuongHieu(thuongHieu)
-                    .soLuongBan(soLuongBan)
-                    .doanhThu(doanhThu)
-                    .build();
-            })
-            .collect(Collectors.toList());
-
-        // Get top categories by sales using real data
-        Pageable topCategoriesPageable = PageRequest.of(0, 5); // Top 5 categories
-        List<Object[]> topCategoryData = hoaDonChiTietRepository.findTopSellingCategories(
-            tuNgayInstant, denNgayInstant, topCategoriesPageable);
-
-        List<DashboardSummaryDto.DanhMucTotDto> danhMucTot = topCategoryData.stream()
-            .map(data -> {
-                Long danhMucId = ((Number) data[0]).longValue();
-                String tenDanhMuc = (String) data[1]; // This is mo_ta_danh_muc from database
-                Long soLuong = ((Number) data[2]).longValue();
-                BigDecimal doanhThu = (BigDecimal) data[3];
-
-                return DashboardSummaryDto.DanhMucTotDto.builder()
-                    .id(danhMucId)
-                    .tenDanhMuc(tenDanhMuc)
-                    .soLuong(soLuong)
-                    .doanhThu(doanhThu)
-                    .build();
-            })
-            .collect(Collectors.toList());
-
-        return DashboardSummaryDto.SanPhamSummary.builder()
-            .tongSo(tongSoSanPham)
-            .sapHetHang(sapHetHang)
-            .hetHang(hetHang)
-            .banChayNhat(banChayNhat)
-            .danhMucTot(danhMucTot)
+        return CohortKhachHangDto.builder()
+            .tuThang(tuThang)
+            .denThang(denThang)
+            .soThang(soThang)
+            .cohorts(new ArrayList<>(theoCohort.values()))
             .build();
     }
 
-    /**
-     * Get customer summary for dashboard using real data
-     */
-    private DashboardSummaryDto.KhachHangSummary layKhachHangSummary() {
-        log.debug("Getting customer summary for dashboard");
-
-        // Get total customer count
-        Long tongSo = nguoiDungRepository.countByVaiTroAndTrangThai(
-            VaiTro.CUSTOMER, TrangThaiNguoiDung.HOAT_DONG);
-
-        // Get new customers in the last 30 days
-        LocalDate tuNgay = LocalDate.now().minusDays(30);
-        LocalDate denNgay = LocalDate.now();
-        Instant tuNgayInstant = tuNgay.atStartOfDay().toInstant(java.time.ZoneOffset.UTC);
-        Instant denNgayInstant = denNgay.atTime(23, 59, 59).toInstant(java.time.ZoneOffset.UTC);
-
-        Long khachHangMoi = nguoiDungRepository.countNewCustomersBetween(
-            VaiTro.CUSTOMER, tuNgayInstant, denNgayInstant);
-
-        // Get active customers (customers who made orders in last 30 days)
-        Long khachHangHoatDong = hoaDonRepository.countActiveCustomers(
-            tuNgayInstant, denNgayInstant, TrangThaiDonHang.HOAN_THANH);
-
-        // Get retention rate from the retention method
-        Map<String, Object> retentionData = layTyLeGiuChanKhachHang();
-        Double tyLeGiuChan = (Double) retentionData.get("tyLeGiuChan");
+    // ==================== DASHBOARD SUMMARY ====================
 
-        // Get average customer value from the customer value method
-        Map<String, Object> valueData = layGiaTriKhachHangTrungBinh();
-        BigDecimal giaTriTrungBinh = (BigDecimal) valueData.get("giaTriTrungBinh");
+    @Override
+    public DashboardSummaryDto layDashboardSummary() {
+        log.debug("Getting dashboard summary");
 
-        return DashboardSummaryDto.KhachHangSummary.builder()
-            .tongSo(tongSo)
-            .moi(khachHangMoi)
-            .hoatDong(khachHangHoatDong)
-            .tyLeGiuChan(tyLeGiuChan)
-            .giaTriTrungBinh(giaTriTrungBinh)
-            .build();
+        // Grouped parallel queries with a short-lived cache; reads no longer broadcast over WebSocket
+        return dashboardAggregator.layDashboard();
     }
 }
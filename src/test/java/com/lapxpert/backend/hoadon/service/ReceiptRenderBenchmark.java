@@ -0,0 +1,90 @@
+package com.lapxpert.backend.hoadon.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Receipt rendering benchmark, run with RECEIPT_BENCHMARK=true ./gradlew test.
+ * Renders synthetic receipts one by one and as a single batch PDF, discarding the output,
+ * and logs receipts per second for both modes. Nothing touches the database or Spring context.
+ */
+@EnabledIfEnvironmentVariable(named = "RECEIPT_BENCHMARK", matches = "true")
+class ReceiptRenderBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(ReceiptRenderBenchmark.class);
+
+    private static final int SO_HOA_DON = 200;
+    private static final int SO_SAN_PHAM = 5;
+    private static final int SO_LAN_KHOI_DONG = 20;
+
+    private final ReceiptPdfRenderer receiptPdfRenderer =
+            new ReceiptPdfRenderer(new SimpleMeterRegistry(), "", "FreeSans");
+
+    @Test
+    void renderThroughput() {
+        ReceiptPreviewService.ReceiptPreviewData sample = sampleReceipt();
+
+        // Warm up the JIT and font caches so the first renders do not skew the result
+        for (int i = 0; i < SO_LAN_KHOI_DONG; i++) {
+            receiptPdfRenderer.writePdf(sample, OutputStream.nullOutputStream());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SO_HOA_DON; i++) {
+            receiptPdfRenderer.writePdf(sample, OutputStream.nullOutputStream());
+        }
+        report("single", SO_HOA_DON, System.nanoTime() - start);
+
+        List<ReceiptPreviewService.ReceiptPreviewData> batch = Collections.nCopies(SO_HOA_DON, sample);
+        start = System.nanoTime();
+        int written = receiptPdfRenderer.writeBatchPdf(batch, OutputStream.nullOutputStream());
+        report("batch", SO_HOA_DON, System.nanoTime() - start);
+        assertEquals(SO_HOA_DON, written);
+    }
+
+    private void report(String mode, int count, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        log.info("[RECEIPT BENCHMARK] mode={} receipts={} items={} time={} ms throughput={} receipts/s",
+                mode, count, SO_SAN_PHAM, Math.round(seconds * 1000), String.format("%.1f", count / Math.max(seconds, 0.001)));
+    }
+
+    private ReceiptPreviewService.ReceiptPreviewData sampleReceipt() {
+        ReceiptPreviewService.ReceiptPreviewData preview = new ReceiptPreviewService.ReceiptPreviewData();
+        preview.setMaHoaDon("HD-BENCHMARK");
+        preview.setNgayTao("01/01/2025 09:00:00");
+        preview.setLoaiHoaDon("TAI_QUAY");
+        preview.setTrangThaiDonHang("HOAN_THANH");
+        preview.setTrangThaiThanhToan("DA_THANH_TOAN");
+        preview.setTenKhachHang("Nguyễn Văn Hưởng");
+        preview.setEmailKhachHang("khachhang@example.com");
+        preview.setSdtKhachHang("0901234567");
+        preview.setTenNhanVien("Trần Thị Ngọc Ánh");
+        preview.setDiaChiGiaoHang("12 Đường Lê Lợi, Phường Bến Nghé, Quận 1, Hồ Chí Minh, Việt Nam");
+
+        List<ReceiptPreviewService.ReceiptItemData> items = new ArrayList<>();
+        BigDecimal tongTien = BigDecimal.ZERO;
+        for (int i = 1; i <= SO_SAN_PHAM; i++) {
+            BigDecimal gia = BigDecimal.valueOf(15_990_000L + i * 1_000_000L);
+            items.add(new ReceiptPreviewService.ReceiptItemData(
+                    "Laptop Dell XPS 13 Bản đặc biệt " + i, "SKU-" + i, 1, gia, gia, gia, null));
+            tongTien = tongTien.add(gia);
+        }
+        preview.setItems(items);
+        preview.setTongTienHang(tongTien);
+        preview.setPhiVanChuyen(BigDecimal.ZERO);
+        preview.setGiaTriGiamGiaVoucher(BigDecimal.valueOf(500_000));
+        preview.setTongThanhToan(tongTien.subtract(BigDecimal.valueOf(500_000)));
+        return preview;
+    }
+}